@@ -0,0 +1,31 @@
+package despacho;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+    Marca una clase de procesamiento para la que {@link ProcesadorDespacho} genera, al compilar, un despachador
+    de sus métodos de procesamiento.
+
+    @version Java SE 17
+    @see ProcesadorDespacho
+
+    @author Félix Rodolfo Díaz Lorente
+    @author Álvaro Magalló Paz
+    @author Alejandro del Río Caballero
+*/
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface GeneraDespacho
+{
+    /**
+        Nombres de los métodos de procesamiento que se despachan, cada uno con un método por clase de nodo.
+
+        @return Los nombres de los métodos de procesamiento de la clase anotada.
+    */
+    String[] value();
+}
@@ -0,0 +1,292 @@
+package despacho;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+    Procesador de anotaciones que genera, al compilar, el despachador de cada clase de procesamiento anotada con
+    {@link GeneraDespacho}.
+
+    <br>Para cada método de procesamiento indicado en la anotación, el despachador contiene un método estático
+    homónimo que recibe un nodo cualquiera y lo compara con <code>instanceof</code> con cada récord de
+    <code>asint.Sintaxis</code>, invocando directamente al método estático que lo procesa. Ese método se resuelve
+    como en <code>procesamientos.Procesamiento</code>: el método cuyo parámetro es el propio récord o, si no
+    existe, la primera interfaz que implementa, y así sucesivamente hasta <code>INodo</code>. Los récords privados,
+    que no pueden nombrarse fuera de <code>asint.Sintaxis</code>, se despachan al final por la interfaz de su método.
+
+    <br>El despachador se llama como la clase anotada, con el sufijo <code>Despacho</code>, y se genera en su
+    mismo paquete. Devuelve el resultado del método invocado, o <code>null</code> si no devuelve ningún valor o
+    no existe método para el nodo.
+
+    @version Java SE 17
+    @see GeneraDespacho
+
+    @author Félix Rodolfo Díaz Lorente
+    @author Álvaro Magalló Paz
+    @author Alejandro del Río Caballero
+*/
+@SupportedAnnotationTypes("despacho.GeneraDespacho")
+public class ProcesadorDespacho extends AbstractProcessor
+{
+    private static final String SINTAXIS = "asint.Sintaxis";
+    private static final String INODO = SINTAXIS + ".INodo";
+
+    private static final String SUFIJO = "Despacho";
+    private static final String SANGRIA = "    ";
+
+    private Elements elementos;
+    private Types tipos;
+    private Messager mensajes;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() { return SourceVersion.latestSupported(); }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> anotaciones, RoundEnvironment entorno)
+    {
+        elementos = processingEnv.getElementUtils();
+        tipos = processingEnv.getTypeUtils();
+        mensajes = processingEnv.getMessager();
+
+        for (Element elem: entorno.getElementsAnnotatedWith(GeneraDespacho.class))
+        {
+            if (elem.getKind() != ElementKind.CLASS)
+                mensajes.printMessage(Diagnostic.Kind.ERROR, "@GeneraDespacho solo se aplica a clases", elem);
+            else
+                genera((TypeElement) elem, elem.getAnnotation(GeneraDespacho.class).value());
+        }
+
+        return true;
+    }
+
+    // Funciones auxiliares
+
+    private TypeElement elemento(TypeMirror tipo)
+    {
+        return (tipo.getKind() == TypeKind.DECLARED)? (TypeElement) ((DeclaredType) tipo).asElement(): null;
+    }
+
+    /**
+        Devuelve la cadena de tipos que se consultan para resolver el método de un récord: el propio récord, su
+        primera interfaz, la primera interfaz de esta, etc., sin incluir <code>INodo</code>.
+    */
+    private List<TypeElement> cadena(TypeElement registro, TypeElement inodo)
+    {
+        List<TypeElement> cadena = new ArrayList<>();
+        TypeElement tipo = registro;
+        while (tipo != null && !tipo.equals(inodo))
+        {
+            cadena.add(tipo);
+            tipo = tipo.getInterfaces().isEmpty()? null: elemento(tipo.getInterfaces().get(0));
+        }
+
+        return cadena;
+    }
+
+    /**
+        Devuelve los métodos de procesamiento de una clase con un nombre dado, direccionables por el tipo de su
+        único parámetro, que debe ser un subtipo estricto de <code>INodo</code>. Los demás métodos homónimos
+        (sobre listas, genéricos o sobre <code>INodo</code>) son puntos de entrada, no métodos de procesamiento.
+    */
+    private Map<TypeElement, ExecutableElement> metodos(TypeElement clase, String nombre, TypeElement inodo)
+    {
+        Map<TypeElement, ExecutableElement> metodos = new HashMap<>();
+        for (Element elem: clase.getEnclosedElements())
+        {
+            if (elem.getKind() != ElementKind.METHOD || !elem.getModifiers().contains(Modifier.STATIC)
+                || !elem.getSimpleName().contentEquals(nombre))
+            {
+                continue;
+            }
+
+            ExecutableElement metodo = (ExecutableElement) elem;
+            if (metodo.getParameters().size() != 1)
+                continue;
+
+            TypeElement param = elemento(metodo.getParameters().get(0).asType());
+            if (param != null && !param.equals(inodo) && tipos.isSubtype(tipos.erasure(param.asType()), inodo.asType()))
+                metodos.put(param, metodo);
+        }
+
+        return metodos;
+    }
+
+    /**
+        Devuelve la llamada a un método de procesamiento desde el despachador, incluida la devolución de su
+        resultado.
+    */
+    private String llamada(TypeElement clase, ExecutableElement metodo)
+    {
+        final String param = elemento(metodo.getParameters().get(0).asType()).getQualifiedName().toString();
+        final String llamada = String.format("%s.%s((%s) nodo);", clase.getSimpleName(), metodo.getSimpleName(), param);
+
+        return (metodo.getReturnType().getKind() == TypeKind.VOID)? "{ " + llamada + " return null; }":
+            "return " + llamada;
+    }
+
+    // Generación del despachador
+
+    private void genera(TypeElement clase, String nombres[])
+    {
+        final TypeElement sintaxis = elementos.getTypeElement(SINTAXIS), inodo = elementos.getTypeElement(INODO);
+        if (sintaxis == null || inodo == null)
+        {
+            mensajes.printMessage(Diagnostic.Kind.ERROR, "No se encuentra " + INODO, clase);
+            return;
+        }
+
+        // Récords del árbol de sintaxis abstracta, en orden de declaración
+        List<TypeElement> registros = new ArrayList<>();
+        for (Element elem: sintaxis.getEnclosedElements())
+        {
+            if (elem.getKind() == ElementKind.RECORD && tipos.isSubtype(elem.asType(), inodo.asType()))
+                registros.add((TypeElement) elem);
+        }
+
+        final PackageElement paquete = elementos.getPackageOf(clase);
+        final String nombreClase = clase.getSimpleName() + SUFIJO;
+
+        StringBuilder fuente = new StringBuilder();
+        if (!paquete.isUnnamed())
+            fuente.append("package ").append(paquete.getQualifiedName()).append(";\n\n");
+
+        fuente.append("/**\n")
+            .append(SANGRIA).append("Despachador de los métodos de procesamiento de {@link ").append(clase.getSimpleName())
+            .append("}, generado por {@link ").append(ProcesadorDespacho.class.getName()).append("}.\n")
+            .append("*/\n")
+            .append("@javax.annotation.processing.Generated(\"").append(ProcesadorDespacho.class.getName()).append("\")\n")
+            .append("final class ").append(nombreClase).append("\n{\n")
+            .append(SANGRIA).append("private ").append(nombreClase).append("() {}\n");
+
+        for (String nombre: new LinkedHashSet<>(Arrays.asList(nombres)))
+        {
+            final Map<TypeElement, ExecutableElement> metodos = metodos(clase, nombre, inodo);
+            if (metodos.isEmpty())
+            {
+                mensajes.printMessage(Diagnostic.Kind.ERROR, "No existen métodos de procesamiento " + nombre, clase);
+                continue;
+            }
+
+            fuente.append('\n').append(SANGRIA).append("static Object ").append(nombre)
+                .append("(asint.Sintaxis.INodo nodo)\n").append(SANGRIA).append("{\n");
+
+            // Método que procesa cada récord privado, o null si no existe, y récords públicos sin método
+            Map<TypeElement, ExecutableElement> privados = new LinkedHashMap<>();
+            List<TypeElement> sinMetodo = new ArrayList<>();
+
+            for (TypeElement registro: registros)
+            {
+                ExecutableElement metodo = null;
+                for (TypeElement tipo: cadena(registro, inodo))
+                {
+                    metodo = metodos.get(tipo);
+                    if (metodo != null)
+                        break;
+                }
+
+                if (metodo != null && metodo.getModifiers().contains(Modifier.PRIVATE))
+                {
+                    mensajes.printMessage(Diagnostic.Kind.ERROR, "El despachador no puede invocar un método privado", metodo);
+                    continue;
+                }
+
+                if (registro.getModifiers().contains(Modifier.PRIVATE))
+                    privados.put(registro, metodo);
+                else if (metodo == null)
+                    sinMetodo.add(registro);
+                else
+                {
+                    fuente.append(SANGRIA).append(SANGRIA).append("if (nodo instanceof ")
+                        .append(registro.getQualifiedName()).append(") ").append(llamada(clase, metodo)).append('\n');
+                }
+            }
+
+            // Los récords privados se despachan por el parámetro de su método, del más específico al más general
+            List<ExecutableElement> generales = new ArrayList<>();
+            for (ExecutableElement metodo: privados.values())
+            {
+                if (metodo == null || generales.contains(metodo))
+                    continue;
+
+                int pos = 0;
+                while (pos < generales.size() && !tipos.isSubtype(generales.get(pos).getParameters().get(0).asType(),
+                    metodo.getParameters().get(0).asType()))
+                {
+                    ++pos;
+                }
+                generales.add(pos, metodo);
+            }
+
+            for (Map.Entry<TypeElement, ExecutableElement> privado: privados.entrySet())
+            {
+                final ExecutableElement primero = generales.stream().filter(metodo -> tipos.isSubtype(
+                    privado.getKey().asType(), metodo.getParameters().get(0).asType())).findFirst().orElse(null);
+
+                if (primero != privado.getValue())
+                {
+                    mensajes.printMessage(Diagnostic.Kind.ERROR, "No puede despacharse el récord privado "
+                        + privado.getKey().getSimpleName() + " en " + nombre, clase);
+                }
+            }
+
+            // Los récords públicos sin método no deben alcanzar los casos de los récords privados
+            for (TypeElement registro: sinMetodo)
+            {
+                if (generales.stream().anyMatch(metodo -> tipos.isSubtype(registro.asType(),
+                    metodo.getParameters().get(0).asType())))
+                {
+                    fuente.append(SANGRIA).append(SANGRIA).append("if (nodo instanceof ")
+                        .append(registro.getQualifiedName()).append(") return null;\n");
+                }
+            }
+
+            for (ExecutableElement metodo: generales)
+            {
+                fuente.append(SANGRIA).append(SANGRIA).append("if (nodo instanceof ")
+                    .append(elemento(metodo.getParameters().get(0).asType()).getQualifiedName()).append(") ")
+                    .append(llamada(clase, metodo)).append('\n');
+            }
+
+            fuente.append(SANGRIA).append(SANGRIA).append("return null; // No existe método para el nodo\n")
+                .append(SANGRIA).append("}\n");
+        }
+
+        fuente.append("}\n");
+
+        try (PrintWriter salida = new PrintWriter(processingEnv.getFiler().createSourceFile(
+            (paquete.isUnnamed()? "": paquete.getQualifiedName() + ".") + nombreClase, clase).openWriter()))
+        {
+            salida.print(fuente);
+        }
+        catch (IOException e)
+        {
+            mensajes.printMessage(Diagnostic.Kind.ERROR, "No se puede generar " + nombreClase + ": " + e.getMessage(), clase);
+        }
+    }
+}
@@ -3,7 +3,9 @@ package maquina;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.function.BiFunction;
 import java.util.function.Function;
@@ -65,6 +67,44 @@ public class MaquinaP extends MaquinaVirtual
     */
     private static final String OP_INVALIDO = "El tipo de uno de los operandos no es válido.";
 
+    /**
+        Instrucción que contiene el índice de otra instrucción del programa, ya sea el destino de un salto o una
+        dirección de retorno.
+    */
+    public interface InsReubicable extends InsMaquina
+    {
+        /**
+            Proporciona el índice de la instrucción referida por esta instrucción.
+
+            @return El índice de una instrucción del programa.
+        */
+        int d();
+
+        /**
+            Crea una copia de esta instrucción que refiere a otra instrucción del programa.
+
+            @param d el índice de la nueva instrucción referida
+
+            @return Una instrucción idéntica a esta, salvo por la instrucción a la que refiere.
+        */
+        InsReubicable reubica(int d);
+    }
+
+    /**
+        Instrucción de salto a una instrucción fija del programa.
+    */
+    public interface InsSalto extends InsReubicable
+    {
+        /**
+            Indica si el salto depende de la cima de la pila de operaciones.
+
+            @return <code>true</code> si solo si la ejecución puede continuar en la instrucción siguiente.
+        */
+        default boolean esCondicional() { return true; }
+
+        InsSalto reubica(int d);
+    }
+
     public static record Apila(Object valor, MaquinaVirtual maquina) implements InsMaquina
     {
         public void ejecuta()
@@ -177,8 +217,13 @@ public class MaquinaP extends MaquinaVirtual
         }
     }
 
-    public static record Ira(int d, MaquinaVirtual maquina) implements InsMaquina
+    public static record Ira(int d, MaquinaVirtual maquina) implements InsSalto
     {
+        public Ira reubica(int d) { return new Ira(d, maquina); }
+
+        @Override
+        public boolean esCondicional() { return false; }
+
         public void ejecuta()
         {
             try { Objects.checkIndex(d, numIns()); }
@@ -188,8 +233,10 @@ public class MaquinaP extends MaquinaVirtual
         }
     }
 
-    public static record Irf(int d, MaquinaVirtual maquina) implements InsMaquina
+    public static record Irf(int d, MaquinaVirtual maquina) implements InsSalto
     {
+        public Irf reubica(int d) { return new Irf(d, maquina); }
+
         public void ejecuta()
         {
             try { Objects.checkIndex(d, numIns()); }
@@ -200,8 +247,10 @@ public class MaquinaP extends MaquinaVirtual
         }
     }
 
-    public static record Irv(int d, MaquinaVirtual maquina) implements InsMaquina
+    public static record Irv(int d, MaquinaVirtual maquina) implements InsSalto
     {
+        public Irv reubica(int d) { return new Irv(d, maquina); }
+
         public void ejecuta()
         {
             try { Objects.checkIndex(d, numIns()); }
@@ -212,6 +261,87 @@ public class MaquinaP extends MaquinaVirtual
         }
     }
 
+    /* ------------------------- Saltos condicionales fusionados con una comparación ------------------------- */
+
+    /**
+        Desapila dos operandos numéricos (o direcciones) y los compara, promocionando a real el entero si sus
+        tipos no coinciden.
+
+        @param ins la instrucción que se está ejecutando
+
+        @return Un entero negativo, cero o positivo si el primer operando apilado es, respectivamente, menor,
+            igual o mayor que el segundo.
+    */
+    private static int comparaCima(InsMaquina ins)
+    {
+        Object valor1 = ins.pila().desapila();
+        Object valor0 = ins.pila().desapila();
+
+        if (valor0 instanceof Integer x && valor1 instanceof Integer y)
+            return Integer.compare(x, y);
+        else if (valor0 instanceof Number x && valor1 instanceof Number y)
+            return Double.compare(x.doubleValue(), y.doubleValue());
+        else
+            throw new EPilaOp(OP_INVALIDO);
+    }
+
+    /**
+        Salta a una instrucción dada si no se cumple una condición, o pasa a la siguiente en caso contrario.
+
+        @param ins la instrucción que se está ejecutando
+        @param d el índice de la instrucción destino del salto
+        @param cond la condición evaluada
+    */
+    private static void irf(InsMaquina ins, int d, boolean cond)
+    {
+        try { Objects.checkIndex(d, ins.numIns()); }
+        catch (IndexOutOfBoundsException e) { throw new EInstruccion(d); }
+
+        ins.nuevoPC(cond? ins.pc() + 1: d);
+    }
+
+    public static record IrfEq(int d, MaquinaVirtual maquina) implements InsSalto
+    {
+        public IrfEq reubica(int d) { return new IrfEq(d, maquina); }
+
+        public void ejecuta() { irf(this, d, comparaCima(this) == 0); }
+    }
+
+    public static record IrfNe(int d, MaquinaVirtual maquina) implements InsSalto
+    {
+        public IrfNe reubica(int d) { return new IrfNe(d, maquina); }
+
+        public void ejecuta() { irf(this, d, comparaCima(this) != 0); }
+    }
+
+    public static record IrfLt(int d, MaquinaVirtual maquina) implements InsSalto
+    {
+        public IrfLt reubica(int d) { return new IrfLt(d, maquina); }
+
+        public void ejecuta() { irf(this, d, comparaCima(this) < 0); }
+    }
+
+    public static record IrfLe(int d, MaquinaVirtual maquina) implements InsSalto
+    {
+        public IrfLe reubica(int d) { return new IrfLe(d, maquina); }
+
+        public void ejecuta() { irf(this, d, comparaCima(this) <= 0); }
+    }
+
+    public static record IrfGt(int d, MaquinaVirtual maquina) implements InsSalto
+    {
+        public IrfGt reubica(int d) { return new IrfGt(d, maquina); }
+
+        public void ejecuta() { irf(this, d, comparaCima(this) > 0); }
+    }
+
+    public static record IrfGe(int d, MaquinaVirtual maquina) implements InsSalto
+    {
+        public IrfGe reubica(int d) { return new IrfGe(d, maquina); }
+
+        public void ejecuta() { irf(this, d, comparaCima(this) >= 0); }
+    }
+
     public static record Irind(MaquinaVirtual maquina) implements InsMaquina
     {
         public void ejecuta()
@@ -252,8 +382,10 @@ public class MaquinaP extends MaquinaVirtual
         }
     }
 
-    public static record Activa(int n, int t, int d, MaquinaVirtual maquina) implements InsMaquina
+    public static record Activa(int n, int t, int d, MaquinaVirtual maquina) implements InsReubicable
     {
+        public Activa reubica(int d) { return new Activa(n, t, d, maquina); }
+
         public void ejecuta()
         {
             final RAM estatica = maquina().estatica;
@@ -313,6 +445,103 @@ public class MaquinaP extends MaquinaVirtual
         }
     }
 
+    /**
+        Lee el contenido de una celda de la memoria virtual.
+
+        @param ins la instrucción que se está ejecutando
+        @param dir la dirección de la celda
+
+        @return El valor almacenado en la celda.
+    */
+    private static Object lee(InsMaquina ins, int dir)
+    {
+        try { Objects.checkIndex(dir, ins.espacioVirtual()); }
+        catch (IndexOutOfBoundsException e) { throw new EMapaMemoria(dir); }
+
+        return ins.esEstatica(dir)? ins.estatica().leerBloque(dir - ins.paginaEstatica()):
+            /* esHeap(dir)? */ ins.heap().leerBloque(dir - ins.paginaHeap());
+    }
+
+    /**
+        Escribe un valor en una celda de la memoria virtual.
+
+        @param ins la instrucción que se está ejecutando
+        @param dir la dirección de la celda
+        @param valor el valor escrito
+    */
+    private static void escribe(InsMaquina ins, int dir, Object valor)
+    {
+        try { Objects.checkIndex(dir, ins.espacioVirtual()); }
+        catch (IndexOutOfBoundsException e) { throw new EMapaMemoria(dir); }
+
+        if (ins.esEstatica(dir))
+            ins.estatica().escribirBloque(dir - ins.paginaEstatica(), valor);
+        else // esHeap(dir)
+            ins.heap().escribirBloque(dir - ins.paginaHeap(), valor);
+    }
+
+    /**
+        Primera instrucción de un procedimiento memorizado de nivel <code>n</code> y tamaño <code>t</code>, que
+        busca en su caché el resultado de una llamada con los mismos valores en las celdas <code>args</code> del
+        registro de activación. Si lo encuentra, lo escribe en la dirección almacenada en la celda
+        <code>res</code> y retorna, como <code>desactiva n t; irind</code>; si no, la llamada queda pendiente de
+        {@link Memoriza}.
+    */
+    public static record Consulta(int n, int t, List<Integer> args, int res, int capacidad, MaquinaVirtual maquina)
+        implements InsMaquina
+    {
+        public void ejecuta()
+        {
+            final int marco = display(n - 1);
+
+            Object[] clave = new Object[args.size()];
+            for (int i = 0; i < clave.length; ++i)
+                clave[i] = lee(this, marco + args.get(i));
+
+            Map<List<Object>, Object> resultados = maquina().resultados(pc(), capacidad);
+            Object valor = resultados.get(Arrays.asList(clave));
+
+            if (valor == null)
+            {
+                ++maquina().fallos;
+                maquina().pendientes.push(new Pendiente(marco, resultados, Arrays.asList(clave)));
+                incrPC();
+            }
+            else
+            {
+                ++maquina().aciertos;
+                escribe(this, (int) lee(this, marco + res), valor);
+                maquina().resuelve(marco, valor);
+
+                decrSP(t + REG_CONTROL);
+
+                final int sp = maquina().sp;
+                final RAM estatica = maquina().estatica;
+
+                final int retorno = (int) estatica.leerBloque(sp);
+                display(n - 1, (int) estatica.leerBloque(sp + 1));
+                estatica.borrar(sp);
+
+                nuevoPC(retorno);
+            }
+        }
+    }
+
+    /**
+        Guarda, antes de retornar de un procedimiento memorizado de nivel <code>n</code>, el resultado escrito en
+        la dirección almacenada en la celda <code>res</code> del registro de activación.
+    */
+    public static record Memoriza(int n, int res, MaquinaVirtual maquina) implements InsMaquina
+    {
+        public void ejecuta()
+        {
+            final int marco = display(n - 1);
+
+            maquina().resuelve(marco, lee(this, (int) lee(this, marco + res)));
+            incrPC();
+        }
+    }
+
     public static record Dup(MaquinaVirtual maquina) implements InsMaquina
     {
         public void ejecuta()
@@ -351,23 +580,42 @@ public class MaquinaP extends MaquinaVirtual
 
     // Comparadores
 
+    /**
+        Indica si dos valores son un entero y un real, que se comparan promocionando a real el entero, igual que
+        en los saltos condicionales fusionados con una comparación.
+    */
+    private static boolean esMixta(Object x, Object y)
+    {
+        return x instanceof Number && y instanceof Number && x.getClass() != y.getClass();
+    }
+
+    private static boolean iguales(Object x, Object y)
+    {
+        return esMixta(x, y)? Double.compare(((Number) x).doubleValue(), ((Number) y).doubleValue()) == 0: x.equals(y);
+    }
+
+    private static int compara(Comparable<Object> x, Object y)
+    {
+        return esMixta(x, y)? Double.compare(((Number) x).doubleValue(), ((Number) y).doubleValue()): x.compareTo(y);
+    }
+
     public static final InfijoBinario<Object, Object, Boolean> EQ =
-        new InfijoBinario<>((x, y) -> x.equals(y), "==");
+        new InfijoBinario<>((x, y) -> iguales(x, y), "==");
     
     public static final InfijoBinario<Object, Object, Boolean> NE =
-        new InfijoBinario<>((x, y) -> !x.equals(y), "!=");
+        new InfijoBinario<>((x, y) -> !iguales(x, y), "!=");
 
     public static final InfijoBinario<? extends Comparable<Object>, ? extends Comparable<Object>, Boolean> LE =
-        new InfijoBinario<>((x, y) -> x.compareTo(y) <= 0, "<=");
+        new InfijoBinario<>((x, y) -> compara(x, y) <= 0, "<=");
 
     public static final InfijoBinario<? extends Comparable<Object>, ? extends Comparable<Object>, Boolean> GE =
-        new InfijoBinario<>((x, y) -> x.compareTo(y) >= 0, ">=");
+        new InfijoBinario<>((x, y) -> compara(x, y) >= 0, ">=");
     
     public static final InfijoBinario<? extends Comparable<Object>, ? extends Comparable<Object>, Boolean> LT =
-        new InfijoBinario<>((x, y) -> x.compareTo(y) < 0, "<");
+        new InfijoBinario<>((x, y) -> compara(x, y) < 0, "<");
     
     public static final InfijoBinario<? extends Comparable<Object>, ? extends Comparable<Object>, Boolean> GT =
-        new InfijoBinario<>((x, y) -> x.compareTo(y) > 0, ">");
+        new InfijoBinario<>((x, y) -> compara(x, y) > 0, ">");
 
     // Operadores booleanos
 
@@ -400,6 +648,8 @@ public class MaquinaP extends MaquinaVirtual
 
     public static final InfijoBinario<Integer, Integer, Integer> MOD = new InfijoBinario<>((x, y) -> x % y, "%");
 
+    public static final InfijoBinario<Integer, Integer, Integer> DESP_IZQ = new InfijoBinario<>((x, y) -> x << y, "<<");
+
     public static final InfijoUnario<Integer, Integer> NEG_ENT = new InfijoUnario<>(x -> -x, "-");
     public static final InfijoUnario<Double, Double> NEG_REAL  = new InfijoUnario<>(x -> -x, "-");
 
@@ -2,6 +2,11 @@ package maquina;
 
 import java.util.Deque;
 import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import java.io.InputStream;
 import java.io.PrintStream;
@@ -11,6 +16,7 @@ import java.io.IOException;
 
 import static tiny.Ejecutable.*;
 
+import java.lang.reflect.Constructor;
 import java.lang.reflect.RecordComponent;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
@@ -102,7 +108,7 @@ public class MaquinaVirtual
     */
     protected class PilaOp
     {
-        private Deque<Object> pila = new ArrayDeque<>();
+        protected Deque<Object> pila = new ArrayDeque<>();
 
         public void apila(Object valor) { pila.addLast(valor); }
 
@@ -118,10 +124,81 @@ public class MaquinaVirtual
                 return pila.removeLast();
         }
 
+        /**
+            Vuelca en la estructura subyacente todos los valores que esta pila mantenga fuera de ella. En esta
+            implementación, no tiene ningún efecto.
+        */
+        protected void vuelca() {}
+
         @Override
         public String toString() { return pila.toString(); }
     }
 
+    /**
+        Pila de operaciones con <b>caché de la cima</b> (en inglés, <i>top-of-stack caching</i>): los dos valores
+        superiores de la pila se mantienen en sendos registros, y solo se vuelcan en la estructura subyacente
+        cuando se apila un valor con ambos registros ocupados.
+
+        @apiNote Las instrucciones que desapilan uno o dos operandos y apilan un resultado, que son la mayoría
+            del repertorio, se ejecutan así sin acceder a la estructura subyacente.
+    */
+    protected class PilaOpCache extends PilaOp
+    {
+        private Object cima0, cima1; // Registros de la cima y de la subcima
+        private int enCache = 0; // Número de registros ocupados (de 0 a 2)
+
+        @Override
+        public void apila(Object valor)
+        {
+            if (enCache == 2)
+                pila.addLast(cima1); // Volcamos la subcima para liberar un registro
+            else
+                ++enCache;
+
+            cima1 = cima0;
+            cima0 = valor;
+        }
+
+        @Override
+        public Object cima() { return (enCache > 0)? cima0: pila.peekLast(); }
+
+        @Override
+        public boolean esVacia() { return enCache == 0 && pila.isEmpty(); }
+
+        @Override
+        public Object desapila()
+        {
+            if (enCache == 0)
+                return super.desapila();
+
+            Object valor = cima0;
+            cima0 = cima1;
+            cima1 = null;
+            --enCache;
+
+            return valor;
+        }
+
+        @Override
+        protected void vuelca()
+        {
+            if (enCache == 2)
+                pila.addLast(cima1);
+            if (enCache > 0)
+                pila.addLast(cima0);
+
+            cima0 = cima1 = null;
+            enCache = 0;
+        }
+
+        @Override
+        public String toString()
+        {
+            vuelca();
+            return super.toString();
+        }
+    }
+
     /* ---------------------------- Estructuras de memoria de la máquina virtual ---------------------------- */
     
     // Pila de operaciones
@@ -136,7 +213,7 @@ public class MaquinaVirtual
         Nivel de anidamiento máximo en las llamadas recursivas de funciones. Extraído del límite por defecto que
         establecen los intérpretes del lenguaje de programación Python.
     */
-    protected static final int MAX_RECURSION_POR_DEFECTO = 1000;
+    public static final int MAX_RECURSION_POR_DEFECTO = 1000;
 
     // Memoria dinámica (heap)
 
@@ -148,6 +225,7 @@ public class MaquinaVirtual
 
     protected InsMaquina[] listaIns;
     protected int pc = 0; // Contador de programa
+    protected long ejecutadas = 0; // Número de instrucciones ejecutadas
 
     // Registros/Pila de activación
 
@@ -158,6 +236,21 @@ public class MaquinaVirtual
 
     protected int[] displays;
 
+    // Memorización de resultados
+
+    /**
+        Llamada a un procedimiento memorizado que aún no ha guardado su resultado.
+
+        @param marco dirección base del registro de activación de la llamada
+        @param resultados caché de resultados del procedimiento
+        @param clave valores de los argumentos por valor de la llamada
+    */
+    protected static record Pendiente(int marco, Map<List<Object>, Object> resultados, List<Object> clave) {}
+
+    protected final Map<Integer, Map<List<Object>, Object>> resultados = new HashMap<>(); // Por instrucción de consulta
+    protected final Deque<Pendiente> pendientes = new ArrayDeque<>();
+    protected long aciertos = 0, fallos = 0; // Consultas a las cachés de resultados
+
     // E/S estándar
 
     private static final boolean autoFlush = false;
@@ -178,6 +271,8 @@ public class MaquinaVirtual
 
     protected final int TAM_MEMORIA_VIRTUAL; // Tamaño de la memoria virtual
 
+    private static final String LIMITE_EJECUTADAS = "Se ha alcanzado el límite de %d instrucciones ejecutadas";
+
     /**
         Clase excepción para los errores de ejecución de una instrucción máquina.
     */
@@ -335,6 +430,150 @@ public class MaquinaVirtual
     */
     public final void lineaCodigo(InsMaquina ins) { listaIns[pc++] = ins; }
 
+    /**
+        Tramo de instrucciones consecutivas del programa almacenado en una máquina virtual, con su propio
+        cursor, que no depende del contador de programa. Varios hilos pueden introducir concurrentemente las
+        instrucciones de tramos disjuntos, como el código de cada procedimiento.
+    */
+    public final class Tramo
+    {
+        private int pos;
+        private final int fin;
+
+        private Tramo(int inicio, int fin)
+        {
+            this.pos = inicio;
+            this.fin = fin;
+        }
+
+        /**
+            Introduce una nueva instrucción máquina en la siguiente posición de este tramo, como
+            {@link MaquinaVirtual#lineaCodigo}.
+
+            @param ins la nueva instrucción del tramo
+        */
+        public void lineaCodigo(InsMaquina ins)
+        {
+            assert pos < fin;
+            listaIns[pos++] = ins;
+        }
+
+        /**
+            Indica si se han introducido todas las instrucciones de este tramo.
+
+            @return <code>true</code> si solo si el cursor ha alcanzado el final del tramo.
+        */
+        public boolean completo() { return pos == fin; }
+    }
+
+    /**
+        Crea un tramo del programa almacenado en esta máquina virtual, cuyo cursor comienza en su primera
+        instrucción.
+
+        @param inicio índice de la primera instrucción del tramo
+        @param fin índice siguiente a la última instrucción del tramo
+
+        @return Un tramo nuevo, que abarca las instrucciones de <code>inicio</code> a <code>fin - 1</code>.
+    */
+    public final Tramo tramo(int inicio, int fin)
+    {
+        if (inicio < 0 || inicio > fin || fin > listaIns.length)
+            throw new IndexOutOfBoundsException("Tramo [" + inicio + ", " + fin + ") fuera del programa");
+
+        return new Tramo(inicio, fin);
+    }
+
+    /**
+        Sustituye el programa almacenado en esta máquina virtual por otro, como el resultante de optimizar el
+        programa generado.
+
+        @param programa las instrucciones del nuevo programa, en orden, que han de ejecutarse sobre esta máquina
+    */
+    public final void cargaPrograma(InsMaquina[] programa)
+    {
+        assert Arrays.stream(programa).allMatch(ins -> ins.maquina() == this);
+
+        listaIns = programa.clone();
+        pc = listaIns.length;
+    }
+
+    /**
+        Constructor canónico de cada instrucción máquina, con el que se copia para otra máquina virtual.
+    */
+    private static final ClassValue<Constructor<?>> constructores = new ClassValue<>()
+    {
+        @Override
+        protected Constructor<?> computeValue(Class<?> rec)
+        {
+            try
+            {
+                return rec.getDeclaredConstructor(Arrays.stream(rec.getRecordComponents())
+                    .map(RecordComponent::getType).toArray(Class<?>[]::new));
+            } catch (NoSuchMethodException e) { throw new IllegalArgumentException(rec.getName(), e); }
+        }
+    };
+
+    /**
+        Crea una copia de una instrucción máquina que se ejecuta sobre esta máquina virtual.
+
+        @param ins la instrucción, de cualquier máquina virtual
+
+        @return Una instrucción idéntica a <code>ins</code>, salvo porque se refiere a esta máquina virtual.
+    */
+    public final InsMaquina copia(InsMaquina ins)
+    {
+        if (ins.maquina() == this)
+            return ins;
+
+        // Como al imprimirla, el último parámetro de cualquier instrucción es una referencia a su máquina virtual
+        final RecordComponent args[] = ins.getClass().getRecordComponents();
+        Object valores[] = new Object[args.length];
+        try
+        {
+            for (int i = 0; i < args.length - 1; ++i)
+                valores[i] = args[i].getAccessor().invoke(ins);
+            valores[args.length - 1] = this;
+
+            return (InsMaquina) constructores.get(ins.getClass()).newInstance(valores);
+        }
+        catch (InstantiationException | IllegalAccessException | InvocationTargetException e)
+        {
+            throw new IllegalArgumentException(texto(ins), e);
+        }
+    }
+
+    /**
+        Sustituye el programa almacenado en esta máquina virtual por una copia de otro, generado para otra
+        máquina virtual, de modo que un mismo programa puede ejecutarse sobre máquinas distintas.
+
+        @param programa las instrucciones del nuevo programa, en orden
+    */
+    public final void copiaPrograma(InsMaquina[] programa)
+    {
+        cargaPrograma(Arrays.stream(programa).map(this::copia).toArray(InsMaquina[]::new));
+    }
+
+    /**
+        Activa o desactiva el modo de <b>caché de la cima</b> de la pila de operaciones, conservando los valores
+        que esta contenga.
+
+        @param activar <code>true</code> para mantener los dos valores superiores de la pila en registros, y
+            <code>false</code> para emplear únicamente la estructura subyacente de la pila
+
+        @see PilaOpCache
+    */
+    public final void cacheaCima(boolean activar)
+    {
+        if (activar == pila instanceof PilaOpCache)
+            return;
+
+        pila.vuelca();
+
+        PilaOp nueva = activar? new PilaOpCache(): new PilaOp();
+        nueva.pila = pila.pila;
+        pila = nueva;
+    }
+
     /* ---------------------------------- Ejecución de la máquina virtual ---------------------------------- */
 
     /**
@@ -352,7 +591,10 @@ public class MaquinaVirtual
 
         pc = comienzo & ~(comienzo >> 31); // pc = (comienzo < 0)? 0: comienzo;
         while (pc < l)
+        {
             listaIns[pc].ejecuta();
+            ++ejecutadas;
+        }
     }
 
     /**
@@ -362,41 +604,146 @@ public class MaquinaVirtual
     */
     public final void ejecuta() { ejecutaDesde(0); }
 
-    /* ------------------------------- Impresión de la lista de instrucciones ------------------------------- */
+    /**
+        Ejecuta el programa almacenado en esta máquina virtual desde el principio, sin superar un número máximo
+        de instrucciones ejecutadas.
+
+        @param limite número máximo de instrucciones que pueden ejecutarse, contando las ya ejecutadas
+
+        @throws EInstruccion si la ejecución no termina antes de alcanzar el límite.
+    */
+    public final void ejecuta(long limite) throws EInstruccion
+    {
+        final int l = listaIns.length;
+
+        pc = 0;
+        while (pc < l)
+        {
+            if (ejecutadas >= limite)
+                throw new EInstruccion(LIMITE_EJECUTADAS.formatted(limite));
+
+            listaIns[pc].ejecuta();
+            ++ejecutadas;
+        }
+    }
 
     /**
-        Imprime, en orden, las instrucciones del programa almacenado en la máquina virtual, empleando un flujo
-        de salida dado.
+        Devuelve una copia del programa almacenado en esta máquina virtual.
 
-        @param salida flujo de salida
+        @return Un array con las instrucciones del programa, en orden.
     */
-    public final void imprimeLista(PrintStream salida)
+    public final InsMaquina[] programa() { return listaIns.clone(); }
+
+    /**
+        Devuelve el número de instrucciones del programa almacenado en esta máquina virtual.
+
+        @return La longitud del programa, en instrucciones.
+    */
+    public final int numInstrucciones() { return listaIns.length; }
+
+    /**
+        Devuelve el número de instrucciones ejecutadas por esta máquina virtual desde su creación.
+
+        @return El número de instrucciones ejecutadas, contando cada ejecución de una misma instrucción.
+    */
+    public final long numEjecutadas() { return ejecutadas; }
+
+    /**
+        Devuelve el número de llamadas a procedimientos memorizados cuyo resultado se ha encontrado en su caché.
+
+        @return El número de aciertos de las cachés de resultados.
+    */
+    public final long numAciertos() { return aciertos; }
+
+    /**
+        Devuelve el número de llamadas a procedimientos memorizados que han ejecutado el cuerpo del procedimiento.
+
+        @return El número de fallos de las cachés de resultados.
+    */
+    public final long numFallos() { return fallos; }
+
+    /* ------------------------------------- Memorización de resultados ------------------------------------- */
+
+    /**
+        Devuelve la caché de resultados asociada a una instrucción de consulta, creándola si no existe. Al superar
+        su capacidad, la caché descarta el resultado usado hace más tiempo (en inglés, <i>least recently used</i>).
+
+        @param id índice de la instrucción que consulta la caché
+        @param capacidad número máximo de resultados de la caché
+
+        @return La caché, indexada por los valores de los argumentos por valor de cada llamada.
+    */
+    protected final Map<List<Object>, Object> resultados(int id, int capacidad)
     {
-        for (InsMaquina ins: listaIns)
+        return resultados.computeIfAbsent(id, k -> new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> antiguo) { return size() > capacidad; }
+        });
+    }
+
+    /**
+        Guarda el resultado de las llamadas pendientes de un registro de activación. Puede haber varias, pues una
+        llamada recursiva final reutiliza el registro de activación de su invocante.
+
+        @param marco dirección base del registro de activación
+        @param valor resultado de las llamadas
+    */
+    protected final void resuelve(int marco, Object valor)
+    {
+        while (!pendientes.isEmpty() && pendientes.peek().marco() == marco)
         {
-            Class<? extends InsMaquina> rec = ins.getClass();
+            Pendiente pendiente = pendientes.pop();
+            pendiente.resultados().put(pendiente.clave(), valor);
+        }
+    }
+
+    /* ------------------------------- Impresión de la lista de instrucciones ------------------------------- */
 
-            salida.print(rec.getSimpleName().toLowerCase());
-            RecordComponent args[] = rec.getRecordComponents();
+    /**
+        Devuelve la representación textual de una instrucción máquina, formada por su nombre seguido de sus
+        argumentos.
 
-            final int n = args.length - 1;
-            for (int i = 0; i < n; ++i)
-            {
-                salida.print(" ");
-                try { salida.print(args[i].getAccessor().invoke(ins)); }
-                catch (IllegalArgumentException | InvocationTargetException | IllegalAccessException e)
-                {
-                    imprimirExcepcion(e, true);
-                }
-            }
+        @param ins la instrucción máquina
+
+        @return Una cadena con el nombre de la instrucción en minúsculas y sus argumentos, separados por
+            espacios.
+    */
+    public static String texto(InsMaquina ins)
+    {
+        Class<? extends InsMaquina> rec = ins.getClass();
+
+        StringBuilder texto = new StringBuilder(rec.getSimpleName().toLowerCase());
+        RecordComponent args[] = rec.getRecordComponents();
 
-            // El último parámetro de cualquier instrucción debe ser una referencia a esta máquina virtual
-            try { assert args[n].getAccessor().invoke(ins) == this; }
+        // El último parámetro de cualquier instrucción es una referencia a su máquina virtual, y no se imprime
+        final int n = args.length - 1;
+        for (int i = 0; i < n; ++i)
+        {
+            texto.append(' ');
+            try { texto.append(args[i].getAccessor().invoke(ins)); }
             catch (IllegalArgumentException | InvocationTargetException | IllegalAccessException e)
             {
-                imprimirExcepcion(e, true); // Imprimimos la excepción surgida de este aserto
+                imprimirExcepcion(e, true);
             }
+        }
+
+        return texto.toString();
+    }
+
+    /**
+        Imprime, en orden, las instrucciones del programa almacenado en la máquina virtual, empleando un flujo
+        de salida dado.
+
+        @param salida flujo de salida
+    */
+    public final void imprimeLista(PrintStream salida)
+    {
+        for (InsMaquina ins: listaIns)
+        {
+            // Cualquier instrucción debe referirse a esta máquina virtual
+            assert ins.maquina() == this;
 
+            salida.print(texto(ins));
             salida.print(System.lineSeparator()); // Imprime un salto de línea
         }
     }
@@ -0,0 +1,78 @@
+package maquina;
+
+import static maquina.MaquinaP.*;
+import static tiny.Ejecutable.MANEJADOR_EXCEPCION;
+
+final class PilaTest // Para comparar la pila de operaciones con y sin caché de la cima
+{
+    private PilaTest() {}
+
+    public static final int numRegistros = 2, tamActivacion = 0, numDisplays = 0, numIns = 35;
+
+    private static final int ITERACIONES = 1_000_000, REPETICIONES = 5;
+
+    // Programa: i = 0; while i < ITERACIONES do r = ((i * i + 3) % 7) * 2 - (i + 1) / 3; i = i + 1; end
+    private static MaquinaVirtual programa()
+    {
+        MaquinaVirtual maquina = new MaquinaP(numRegistros, 0, tamActivacion, numDisplays, numIns);
+
+        maquina.lineaCodigo(new Apila(0, maquina));
+        maquina.lineaCodigo(new Apila(0, maquina));
+        maquina.lineaCodigo(new DesapilaInd(maquina));
+        maquina.lineaCodigo(new Apila(0, maquina));                  // 3: comienzo del bucle
+        maquina.lineaCodigo(new ApilaInd(maquina));
+        maquina.lineaCodigo(new Apila(ITERACIONES, maquina));
+        maquina.lineaCodigo(new OpBinaria<>(LT, maquina));
+        maquina.lineaCodigo(new Irf(numIns - 1, maquina));
+        maquina.lineaCodigo(new Apila(1, maquina));
+        maquina.lineaCodigo(new Apila(0, maquina));
+        maquina.lineaCodigo(new ApilaInd(maquina));
+        maquina.lineaCodigo(new Dup(maquina));
+        maquina.lineaCodigo(new OpBinaria<>(MUL_ENT, maquina));
+        maquina.lineaCodigo(new Apila(3, maquina));
+        maquina.lineaCodigo(new OpBinaria<>(SUMA_ENT, maquina));
+        maquina.lineaCodigo(new Apila(7, maquina));
+        maquina.lineaCodigo(new OpBinaria<>(MOD, maquina));
+        maquina.lineaCodigo(new Apila(2, maquina));
+        maquina.lineaCodigo(new OpBinaria<>(MUL_ENT, maquina));
+        maquina.lineaCodigo(new Apila(0, maquina));
+        maquina.lineaCodigo(new ApilaInd(maquina));
+        maquina.lineaCodigo(new Apila(1, maquina));
+        maquina.lineaCodigo(new OpBinaria<>(SUMA_ENT, maquina));
+        maquina.lineaCodigo(new Apila(3, maquina));
+        maquina.lineaCodigo(new OpBinaria<>(DIV_ENT, maquina));
+        maquina.lineaCodigo(new OpBinaria<>(RESTA_ENT, maquina));
+        maquina.lineaCodigo(new DesapilaInd(maquina));
+        maquina.lineaCodigo(new Apila(0, maquina));
+        maquina.lineaCodigo(new Apila(0, maquina));
+        maquina.lineaCodigo(new ApilaInd(maquina));
+        maquina.lineaCodigo(new Apila(1, maquina));
+        maquina.lineaCodigo(new OpBinaria<>(SUMA_ENT, maquina));
+        maquina.lineaCodigo(new DesapilaInd(maquina));
+        maquina.lineaCodigo(new Ira(3, maquina));
+        maquina.lineaCodigo(new Stop(maquina));
+
+        return maquina;
+    }
+
+    private static double mide(boolean cache)
+    {
+        MaquinaVirtual maquina = programa();
+        maquina.cacheaCima(cache);
+
+        long start = System.nanoTime();
+        maquina.ejecuta();
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    public static void main(String[] args)
+    {
+        Thread.setDefaultUncaughtExceptionHandler(MANEJADOR_EXCEPCION);
+
+        for (int i = 0; i < REPETICIONES; ++i)
+        {
+            System.out.println("Sin caché (ms): " + mide(false));
+            System.out.println("Con caché (ms): " + mide(true));
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package optimizacion;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import asint.Sintaxis.Puntero;
+import optimizacion.SSA.*;
+
+import static asint.Sintaxis.NULL;
+import static maquina.MaquinaP.SUMA_ENT;
+
+/**
+    Optimizador de los <b>accesos a memoria</b> de la representación en forma SSA: elimina las cargas
+    redundantes y los almacenamientos muertos de las variables que no se han promovido a valores SSA.
+
+    <br>Cada dirección se descompone en una región de memoria, una base y un desplazamiento. Las regiones son la
+    memoria estática (nivel 0), el registro de activación de cada nivel de anidamiento, el montículo, al que
+    solo apuntan los punteros, y una región desconocida para las direcciones de los parámetros por referencia,
+    que pueden apuntar a cualquier otra. Dos accesos a regiones conocidas distintas nunca se solapan.
+
+    <ul>
+        <li>Dentro de cada bloque básico, una carga de una dirección cuyo valor ya se conoce, por haberse
+            guardado o cargado antes sin que ninguna escritura intermedia pueda haberla modificado, se sustituye
+            por ese valor.</li>
+        <li>Sobre todo el grafo de flujo de cada función, un análisis de vida hacia atrás de las celdas de las
+            variables elimina los almacenamientos en celdas que no se vuelven a leer antes de escribirse de
+            nuevo o de que termine la función. Al retornar de un procedimiento muere su registro de activación,
+            y al terminar el programa principal muere toda la memoria.</li>
+    </ul>
+
+    <br>Las invocaciones de procedimientos se tratan como lecturas y escrituras de toda la memoria, pues pueden
+    acceder a las variables globales, a las de los procedimientos que las anidan y a sus argumentos por
+    referencia.
+
+    @version Java SE 17
+    @see SSA
+
+    @author Félix Rodolfo Díaz Lorente
+    @author Álvaro Magalló Paz
+    @author Alejandro del Río Caballero
+*/
+public class AccesosMemoria
+{
+    private static final int MONTICULO = -1, DESCONOCIDA = -2; // Regiones que no son variables
+
+    /**
+        Posición de memoria a la que se refiere una dirección.
+
+        @param region nivel de anidamiento de la variable, o una de las regiones {@value #MONTICULO} y
+            {@value #DESCONOCIDA}
+        @param base valor del que se obtiene la dirección, en las regiones que no son variables
+        @param desp desplazamiento de la dirección respecto de la región o de su base
+        @param exacta si el desplazamiento se conoce, y no depende de un índice calculado
+    */
+    private static record Posicion(int region, Valor base, int desp, boolean exacta)
+    {
+        boolean esVariable() { return region >= 0; }
+
+        Posicion desplaza(int d) { return new Posicion(region, base, desp + d, exacta); }
+
+        Posicion inexacta() { return new Posicion(region, base, desp, false); }
+
+        /**
+            Indica si dos accesos, de <code>tam</code> y <code>tamOtra</code> celdas, pueden solaparse.
+        */
+        boolean solapa(int tam, Posicion otra, int tamOtra)
+        {
+            if (region == DESCONOCIDA || otra.region == DESCONOCIDA)
+                return !(region == otra.region && base == otra.base && exacta && otra.exacta && disjuntas(tam, otra, tamOtra));
+            if (region != otra.region)
+                return false;
+            if (base != otra.base || !exacta || !otra.exacta)
+                return true;
+            return !disjuntas(tam, otra, tamOtra);
+        }
+
+        private boolean disjuntas(int tam, Posicion otra, int tamOtra)
+        {
+            return desp + tam <= otra.desp || otra.desp + tamOtra <= desp;
+        }
+    }
+
+    /**
+        Celda de una variable, identificada por su nivel de anidamiento y su dirección.
+    */
+    private static record Celda(int nivel, int dir) {}
+
+    private int cargas = 0, almacenamientos = 0;
+
+    /**
+        @return El número de cargas sustituidas por un valor conocido desde que se creó el optimizador.
+    */
+    public int cargas() { return cargas; }
+
+    /**
+        @return El número de almacenamientos muertos eliminados desde que se creó el optimizador.
+    */
+    public int almacenamientos() { return almacenamientos; }
+
+    /* ---------------------------------------- Análisis de direcciones ---------------------------------------- */
+
+    private static boolean esPuntero(Valor valor) { return valor.tipo() instanceof Puntero || valor.tipo() == NULL; }
+
+    private static Posicion posicion(Valor dir)
+    {
+        if (dir instanceof Constante cte && cte.valor() instanceof Integer d && !esPuntero(cte))
+            return new Posicion(0, null, d, true);
+        else if (dir instanceof Display display)
+            return new Posicion(display.nivel(), null, 0, true);
+        else if (dir instanceof Comprueba comprueba)
+            return posicion(comprueba.operando(0));
+        else if (dir instanceof Binaria bin && bin.op() == SUMA_ENT)
+        {
+            final Valor op1 = bin.operando(0), op2 = bin.operando(1);
+
+            if (op2 instanceof Constante cte && cte.valor() instanceof Integer d)
+                return posicion(op1).desplaza(d);
+            if (op1 instanceof Constante cte && cte.valor() instanceof Integer d && !esPuntero(cte))
+                return posicion(op2).desplaza(d);
+            return posicion(op1).inexacta(); // Acceso indexado: el primer operando es la dirección del array
+        }
+        else
+            return new Posicion(esPuntero(dir)? MONTICULO: DESCONOCIDA, dir, 0, true);
+    }
+
+    private static void sustituye(Instruccion ins, Map<Valor, Valor> sustituciones)
+    {
+        for (Valor op: List.copyOf(ins.operandos()))
+        {
+            if (sustituciones.containsKey(op))
+                ins.sustituye(op, sustituciones.get(op));
+        }
+    }
+
+    private static int tam(Instruccion ins) { return (ins instanceof Copia copia)? copia.tam(): 1; }
+
+    private static Valor dirLeida(Instruccion ins) { return ins.operando((ins instanceof Copia)? 1: 0); }
+
+    /* ------------------------------------------ Cargas redundantes ------------------------------------------ */
+
+    private static boolean esGuardado(Valor valor, Map<Valor, Integer> usos)
+    {
+        return !(valor instanceof Instruccion) || valor instanceof Phi || usos.getOrDefault(valor, 0) > 1;
+    }
+
+    /**
+        Estima el número de instrucciones de la máquina P que se dejan de ejecutar al no calcular una
+        instrucción, junto con los operandos que solo ella usa, en una función cuyos valores guardados en
+        celdas se cargan con <code>celda</code> instrucciones. Devuelve un valor negativo si alguno de esos
+        operandos tiene un efecto observable, pues ha de calcularse de todos modos.
+    */
+    private static int ahorro(Instruccion ins, Map<Valor, Integer> usos, int celda)
+    {
+        int ahorro = 1;
+        for (Valor op: ins.operandos())
+        {
+            if (op instanceof Constante || op instanceof Display)
+                ++ahorro;
+            else if (esGuardado(op, usos))
+                ahorro += celda;
+            else if (((Instruccion) op).esObservable())
+                return -1;
+            else
+            {
+                final int sub = ahorro((Instruccion) op, usos, celda);
+                if (sub < 0)
+                    return -1;
+                ahorro += sub;
+            }
+        }
+        return ahorro;
+    }
+
+    /**
+        Indica si compensa sustituir una carga por un valor conocido, que pasa a guardarse en una celda si no se
+        guardaba ya.
+    */
+    private static boolean compensa(Carga carga, Valor valor, Map<Valor, Integer> usos, int celda)
+    {
+        if (valor instanceof Constante)
+            return ahorro(carga, usos, celda) >= 0;
+        return ahorro(carga, usos, celda) > (esGuardado(valor, usos)? celda: 2 * celda);
+    }
+
+    /**
+        Sustituye, en un bloque, las cargas de valores conocidos cuando compensa, y añade las sustituciones
+        realizadas a las dadas.
+    */
+    private void reenvia(Bloque bloque, Map<Valor, Valor> sustituciones, Map<Valor, Integer> usos, int celda)
+    {
+        Map<Posicion, Valor> conocidos = new LinkedHashMap<>(); // Valor de cada celda conocida
+        List<Instruccion> eliminadas = new ArrayList<>();
+
+        for (Instruccion ins: bloque.instrucciones())
+        {
+            sustituye(ins, sustituciones);
+
+            if (ins instanceof Carga carga)
+            {
+                final Posicion pos = posicion(carga.operando(0));
+                final Valor valor = pos.exacta()? conocidos.get(pos): null;
+
+                if (valor != null && compensa(carga, valor, usos, celda))
+                {
+                    sustituciones.put(carga, valor);
+                    usos.merge(valor, usos.getOrDefault(carga, 0), Integer::sum);
+                    eliminadas.add(carga);
+                    ++cargas;
+                }
+                else if (pos.exacta())
+                    conocidos.put(pos, carga);
+            }
+            else if (ins instanceof Guarda guarda)
+            {
+                final Posicion pos = posicion(guarda.operando(0));
+
+                conocidos.keySet().removeIf(p -> p.solapa(1, pos, 1));
+                if (pos.exacta())
+                    conocidos.put(pos, guarda.operando(1));
+            }
+            else if (ins instanceof Copia copia)
+            {
+                final Posicion pos = posicion(copia.operando(0));
+                conocidos.keySet().removeIf(p -> p.solapa(1, pos, copia.tam()));
+            }
+            else if (ins instanceof Llamada)
+                conocidos.clear();
+            else if (ins.escribeMemoria()) // Reserva y liberación de memoria dinámica
+                conocidos.keySet().removeIf(p -> !p.esVariable());
+        }
+
+        eliminadas.forEach(bloque::elimina);
+    }
+
+    /* ---------------------------------------- Almacenamientos muertos ---------------------------------------- */
+
+    private static Celda celda(Posicion pos, int i) { return new Celda(pos.region(), pos.desp() + i); }
+
+    /**
+        Añade a un conjunto de celdas vivas las que puede leer un acceso de <code>tam</code> celdas.
+    */
+    private static void lee(BitSet vivas, Posicion pos, int tam, List<Celda> celdas)
+    {
+        for (int i = 0; i < celdas.size(); ++i)
+        {
+            final Celda c = celdas.get(i);
+            if (pos.solapa(tam, new Posicion(c.nivel(), null, c.dir(), true), 1))
+                vivas.set(i);
+        }
+    }
+
+    /**
+        Quita de un conjunto de celdas vivas las que escribe con seguridad un acceso de <code>tam</code> celdas.
+        Devuelve si alguna de ellas estaba viva.
+    */
+    private static boolean escribe(BitSet vivas, Posicion pos, int tam, Map<Celda, Integer> indices)
+    {
+        boolean viva = false;
+        for (int i = 0; i < tam; ++i)
+        {
+            final Integer indice = indices.get(celda(pos, i));
+            if (indice != null)
+            {
+                viva |= vivas.get(indice);
+                vivas.clear(indice);
+            }
+        }
+        return viva;
+    }
+
+    /**
+        Aplica hacia atrás los efectos de un bloque sobre las celdas vivas a su salida. Si se indica, elimina
+        los almacenamientos muertos.
+    */
+    private void transfiere(Bloque bloque, BitSet vivas, List<Celda> celdas, Map<Celda, Integer> indices,
+        boolean elimina)
+    {
+        final List<Instruccion> lista = bloque.instrucciones();
+        List<Instruccion> muertas = new ArrayList<>();
+
+        for (int pc = lista.size() - 1; pc >= 0; --pc)
+        {
+            final Instruccion ins = lista.get(pc);
+
+            if (ins instanceof Llamada)
+                vivas.set(0, celdas.size());
+            else if (ins instanceof Guarda || ins instanceof Copia)
+            {
+                final Posicion pos = posicion(ins.operando(0));
+                if (pos.esVariable() && pos.exacta() && !escribe(vivas, pos, tam(ins), indices))
+                    muertas.add(ins);
+            }
+
+            if (ins instanceof Carga || ins instanceof Copia)
+                lee(vivas, posicion(dirLeida(ins)), tam(ins), celdas);
+        }
+
+        if (elimina)
+        {
+            muertas.forEach(bloque::elimina);
+            almacenamientos += muertas.size();
+        }
+    }
+
+    private void eliminaMuertos(Funcion f)
+    {
+        // Celdas que se escriben en la función con una dirección conocida
+        List<Celda> celdas = new ArrayList<>();
+        Map<Celda, Integer> indices = new HashMap<>();
+        for (Bloque bloque: f.bloques())
+        {
+            for (Instruccion ins: bloque.instrucciones())
+            {
+                if (ins instanceof Guarda || ins instanceof Copia)
+                {
+                    final Posicion pos = posicion(ins.operando(0));
+                    if (!pos.esVariable() || !pos.exacta())
+                        continue;
+
+                    for (int i = 0; i < tam(ins); ++i)
+                    {
+                        if (indices.putIfAbsent(celda(pos, i), celdas.size()) == null)
+                            celdas.add(celda(pos, i));
+                    }
+                }
+            }
+        }
+
+        if (celdas.isEmpty())
+            return;
+
+        // Al retornar de un procedimiento solo sigue viva la memoria ajena a su registro de activación
+        BitSet alRetornar = new BitSet();
+        if (f.proc() != null)
+        {
+            for (int i = 0; i < celdas.size(); ++i)
+            {
+                if (celdas.get(i).nivel() != f.proc().nivel())
+                    alRetornar.set(i);
+            }
+        }
+
+        Map<Bloque, BitSet> entrada = new IdentityHashMap<>();
+        f.bloques().forEach(b -> entrada.put(b, new BitSet()));
+
+        boolean cambio = true;
+        while (cambio)
+        {
+            cambio = false;
+
+            for (int i = f.bloques().size() - 1; i >= 0; --i)
+            {
+                final Bloque bloque = f.bloques().get(i);
+                final BitSet vivas = salida(bloque, alRetornar, entrada);
+
+                transfiere(bloque, vivas, celdas, indices, false);
+                if (!vivas.equals(entrada.get(bloque)))
+                {
+                    entrada.put(bloque, vivas);
+                    cambio = true;
+                }
+            }
+        }
+
+        for (Bloque bloque: f.bloques())
+            transfiere(bloque, salida(bloque, alRetornar, entrada), celdas, indices, true);
+    }
+
+    private static BitSet salida(Bloque bloque, BitSet alRetornar, Map<Bloque, BitSet> entrada)
+    {
+        final Terminador term = bloque.terminador();
+
+        if (term instanceof Parada)
+            return new BitSet();
+        if (term instanceof Retorno)
+            return (BitSet) alRetornar.clone();
+
+        BitSet vivas = new BitSet();
+        for (Bloque suc: term.sucesores())
+            vivas.or(entrada.get(suc));
+        return vivas;
+    }
+
+    /* ---------------------------------------------------------------------------------------------------- */
+
+    /**
+        Optimiza los accesos a memoria de una función en forma SSA.
+
+        @param f la función que se optimiza
+    */
+    public void optimiza(Funcion f)
+    {
+        Map<Valor, Integer> usos = new IdentityHashMap<>();
+        for (Bloque bloque: f.bloques())
+        {
+            bloque.instrucciones().forEach(ins -> ins.operandos().forEach(op -> usos.merge(op, 1, Integer::sum)));
+            if (bloque.terminador() instanceof Bifurcacion bif)
+                usos.merge(bif.condicion(), 1, Integer::sum);
+        }
+
+        // Las celdas del programa principal están en la memoria estática, y las de un procedimiento en su
+        // registro de activación, a través de su display
+        final int celda = (f.proc() == null)? 2: 4;
+
+        Map<Valor, Valor> sustituciones = new IdentityHashMap<>();
+        f.bloques().forEach(bloque -> reenvia(bloque, sustituciones, usos, celda));
+
+        if (!sustituciones.isEmpty())
+        {
+            // Las phi y los bloques posteriores en el grafo pueden usar las cargas sustituidas
+            for (Bloque bloque: f.bloques())
+            {
+                bloque.instrucciones().forEach(ins -> sustituye(ins, sustituciones));
+                if (bloque.terminador() instanceof Bifurcacion bif && sustituciones.containsKey(bif.condicion()))
+                    bif.sustituye(bif.condicion(), sustituciones.get(bif.condicion()));
+            }
+        }
+
+        eliminaMuertos(f);
+    }
+}
@@ -0,0 +1,528 @@
+package optimizacion;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import maquina.MaquinaVirtual;
+import maquina.MaquinaVirtual.InsMaquina;
+
+import static maquina.MaquinaP.*;
+
+/**
+    Grafo de flujo de control de un programa de la máquina P, cuyos nodos son los <b>bloques básicos</b> del
+    programa: secuencias maximales de instrucciones que solo pueden comenzar a ejecutarse por la primera y que,
+    una vez comenzadas, se ejecutan hasta la última.
+
+    <br>El grafo es <b>intraprocedimental</b>: cada punto de entrada (el programa principal y cada procedimiento)
+    es la raíz de una región del grafo, y el salto con el que se invoca a un procedimiento se representa como
+    una arista hacia la dirección de retorno de la llamada. El retorno (<code>irind</code>) y la parada
+    (<code>stop</code>) no tienen sucesores.
+
+    <br>Sobre cada región se calculan los <b>dominadores inmediatos</b> de sus bloques, siguiendo el algoritmo
+    iterativo descrito en <i>A Simple, Fast Dominance Algorithm</i> (2001), de Keith D. Cooper, Timothy J.
+    Harvey y Ken Kennedy, y los <b>bucles naturales</b>, con su anidamiento.
+
+    @version Java SE 17
+
+    @author Félix Rodolfo Díaz Lorente
+    @author Álvaro Magalló Paz
+    @author Alejandro del Río Caballero
+*/
+public class GrafoFlujo
+{
+    /**
+        Bloque básico del grafo de flujo de control.
+    */
+    public static class Bloque
+    {
+        private final int id, inicio, fin;
+
+        private final List<Bloque> sucesores = new ArrayList<>(), predecesores = new ArrayList<>();
+
+        private int entrada = NINGUNA; // Índice del punto de entrada de la región del bloque
+        private int orden; // Número de orden del bloque en el postorden de su región
+        private Bloque idom = null; // Dominador inmediato
+        private Bucle bucle = null; // Bucle más interno que contiene al bloque
+
+        private Bloque(int id, int inicio, int fin) { this.id = id; this.inicio = inicio; this.fin = fin; }
+
+        public int id() { return id; }
+
+        /**
+            @return El índice de la primera instrucción del bloque.
+        */
+        public int inicio() { return inicio; }
+
+        /**
+            @return El índice de la instrucción siguiente a la última del bloque.
+        */
+        public int fin() { return fin; }
+
+        public List<Bloque> sucesores() { return Collections.unmodifiableList(sucesores); }
+
+        public List<Bloque> predecesores() { return Collections.unmodifiableList(predecesores); }
+
+        /**
+            @return El índice, en el array de puntos de entrada del grafo, de la región a la que pertenece este
+                bloque, o {@value #NINGUNA} si el bloque es inalcanzable.
+        */
+        public int entrada() { return entrada; }
+
+        public boolean esAlcanzable() { return entrada != NINGUNA; }
+
+        /**
+            @return El dominador inmediato de este bloque, o <code>null</code> si es la raíz de su región o es
+                inalcanzable.
+        */
+        public Bloque idom() { return (idom == this)? null: idom; }
+
+        /**
+            Indica si este bloque domina a otro, es decir, si todo camino desde la raíz de la región hasta el
+            otro bloque pasa por este.
+
+            @param b el otro bloque
+
+            @return <code>true</code> si solo si este bloque domina a <code>b</code>.
+        */
+        public boolean domina(Bloque b)
+        {
+            if (!esAlcanzable() || b.entrada != entrada)
+                return false;
+
+            while (b != this && b.idom != b)
+                b = b.idom;
+
+            return b == this;
+        }
+
+        /**
+            @return El bucle más interno que contiene a este bloque, o <code>null</code> si no está en ningún
+                bucle.
+        */
+        public Bucle bucle() { return bucle; }
+
+        /**
+            @return El número de bucles que contienen a este bloque.
+        */
+        public int profundidad() { return (bucle == null)? 0: bucle.profundidad; }
+
+        @Override
+        public String toString() { return "B" + id; }
+    }
+
+    /**
+        Bucle natural del grafo de flujo de control.
+    */
+    public static class Bucle
+    {
+        private final Bloque cabecera;
+        private final Set<Bloque> cuerpo = new LinkedHashSet<>();
+
+        private Bucle padre = null;
+        private int profundidad = 1;
+
+        private Bucle(Bloque cabecera) { this.cabecera = cabecera; }
+
+        /**
+            @return El único bloque del bucle por el que se entra desde fuera de él, que domina a todo el cuerpo.
+        */
+        public Bloque cabecera() { return cabecera; }
+
+        /**
+            @return Los bloques del bucle, incluida su cabecera.
+        */
+        public Set<Bloque> cuerpo() { return Collections.unmodifiableSet(cuerpo); }
+
+        /**
+            @return El bucle más interno que contiene a este, o <code>null</code> si es un bucle externo.
+        */
+        public Bucle padre() { return padre; }
+
+        public int profundidad() { return profundidad; }
+
+        public boolean contiene(Bloque b) { return cuerpo.contains(b); }
+
+        @Override
+        public String toString() { return "bucle " + cabecera; }
+    }
+
+    /**
+        Valor que indica que un bloque no pertenece a ninguna región.
+    */
+    public static final int NINGUNA = -1;
+
+    private final InsMaquina[] programa;
+    private final int[] entradas;
+
+    private final List<Bloque> bloques = new ArrayList<>();
+    private final Bloque[] bloqueIns; // Bloque al que pertenece cada instrucción
+
+    private final List<Bucle> bucles = new ArrayList<>();
+
+    /**
+        Construye el grafo de flujo de control de un programa.
+
+        @param programa las instrucciones del programa, en orden
+        @param entradas los índices de los puntos de entrada del programa: el del programa principal, seguido
+            de los de sus procedimientos
+    */
+    public GrafoFlujo(InsMaquina[] programa, int... entradas)
+    {
+        this.programa = programa;
+        this.entradas = entradas.clone();
+
+        bloqueIns = new Bloque[programa.length];
+
+        construyeBloques();
+        construyeAristas();
+        calculaDominadores();
+        calculaBucles();
+    }
+
+    /* ---------------------------------------- Consulta del grafo ---------------------------------------- */
+
+    public InsMaquina[] programa() { return programa; }
+
+    public int[] entradas() { return entradas.clone(); }
+
+    /**
+        @return Los bloques básicos del programa, en orden creciente de direcciones.
+    */
+    public List<Bloque> bloques() { return Collections.unmodifiableList(bloques); }
+
+    /**
+        @return Los bucles naturales del programa, de los más externos a los más internos.
+    */
+    public List<Bucle> bucles() { return Collections.unmodifiableList(bucles); }
+
+    /**
+        Devuelve el bloque básico que contiene a una instrucción dada.
+
+        @param ins el índice de la instrucción
+
+        @return El bloque básico al que pertenece la instrucción.
+    */
+    public Bloque bloque(int ins) { return bloqueIns[ins]; }
+
+    /* ----------------------------------------- Construcción ----------------------------------------- */
+
+    private boolean esEntrada(int ins)
+    {
+        for (int e: entradas)
+        {
+            if (e == ins)
+                return true;
+        }
+        return false;
+    }
+
+    private void construyeBloques()
+    {
+        final int n = programa.length;
+        boolean[] lider = new boolean[n + 1];
+
+        lider[0] = true;
+        for (int e: entradas)
+            lider[e] = true;
+
+        for (int i = 0; i < n; ++i)
+        {
+            InsMaquina ins = programa[i];
+
+            if (ins instanceof InsReubicable reub && reub.d() < n)
+                lider[reub.d()] = true; // Destino de un salto o dirección de retorno
+            if (ins instanceof InsSalto || ins instanceof Irind || ins instanceof Stop)
+                lider[i + 1] = true;
+        }
+
+        int inicio = 0;
+        for (int i = 1; i <= n; ++i)
+        {
+            if (lider[i])
+            {
+                Bloque b = new Bloque(bloques.size(), inicio, i);
+                bloques.add(b);
+
+                for (int j = inicio; j < i; ++j)
+                    bloqueIns[j] = b;
+
+                inicio = i;
+            }
+        }
+    }
+
+    private static void arista(Bloque origen, Bloque destino)
+    {
+        if (!origen.sucesores.contains(destino))
+        {
+            origen.sucesores.add(destino);
+            destino.predecesores.add(origen);
+        }
+    }
+
+    private void construyeAristas()
+    {
+        final int n = programa.length;
+
+        // Direcciones de retorno de las llamadas, indexadas por el salto que invoca al procedimiento
+        Map<Integer, Integer> llamadas = new HashMap<>();
+        Deque<Integer> retornos = new ArrayDeque<>();
+
+        for (int i = 0; i < n; ++i)
+        {
+            InsMaquina ins = programa[i];
+
+            if (ins instanceof Activa activa)
+                retornos.push(activa.d());
+            else if (ins instanceof Ira ira && esEntrada(ira.d()) && !retornos.isEmpty())
+                llamadas.put(i, retornos.pop());
+        }
+
+        for (Bloque b: bloques)
+        {
+            final int ultima = b.fin - 1;
+            InsMaquina ins = programa[ultima];
+
+            if (ins instanceof InsSalto salto)
+            {
+                Integer retorno = llamadas.get(ultima);
+                int destino = (retorno == null)? salto.d(): retorno;
+
+                if (destino < n)
+                    arista(b, bloqueIns[destino]);
+                if (salto.esCondicional() && b.fin < n)
+                    arista(b, bloqueIns[b.fin]);
+            }
+            else if (!(ins instanceof Irind || ins instanceof Stop) && b.fin < n)
+                arista(b, bloqueIns[b.fin]);
+        }
+    }
+
+    private static void postorden(Bloque b, int entrada, List<Bloque> orden)
+    {
+        // Recorrido en profundidad iterativo, para no desbordar la pila con programas grandes
+        Deque<Bloque> pila = new ArrayDeque<>();
+        Deque<Integer> siguiente = new ArrayDeque<>();
+
+        b.entrada = entrada;
+        pila.push(b);
+        siguiente.push(0);
+
+        while (!pila.isEmpty())
+        {
+            Bloque actual = pila.peek();
+            int i = siguiente.pop();
+
+            if (i < actual.sucesores.size())
+            {
+                siguiente.push(i + 1);
+
+                Bloque suc = actual.sucesores.get(i);
+                if (suc.entrada == NINGUNA)
+                {
+                    suc.entrada = entrada;
+                    pila.push(suc);
+                    siguiente.push(0);
+                }
+            }
+            else
+            {
+                pila.pop();
+                actual.orden = orden.size();
+                orden.add(actual);
+            }
+        }
+    }
+
+    private static Bloque interseca(Bloque b1, Bloque b2)
+    {
+        while (b1 != b2)
+        {
+            while (b1.orden < b2.orden)
+                b1 = b1.idom;
+            while (b2.orden < b1.orden)
+                b2 = b2.idom;
+        }
+        return b1;
+    }
+
+    private void calculaDominadores()
+    {
+        for (int e = 0; e < entradas.length; ++e)
+        {
+            if (entradas[e] >= programa.length)
+                continue;
+
+            Bloque raiz = bloqueIns[entradas[e]];
+            if (raiz.entrada != NINGUNA)
+                continue;
+
+            List<Bloque> orden = new ArrayList<>();
+            postorden(raiz, e, orden);
+
+            raiz.idom = raiz;
+
+            boolean cambio = true;
+            while (cambio)
+            {
+                cambio = false;
+
+                // Recorremos la región en postorden inverso, salvo la raíz
+                for (int i = orden.size() - 2; i >= 0; --i)
+                {
+                    Bloque b = orden.get(i);
+                    Bloque nuevo = null;
+
+                    for (Bloque p: b.predecesores)
+                    {
+                        if (p.entrada == e && p.idom != null)
+                            nuevo = (nuevo == null)? p: interseca(p, nuevo);
+                    }
+
+                    if (b.idom != nuevo)
+                    {
+                        b.idom = nuevo;
+                        cambio = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private void calculaBucles()
+    {
+        Map<Bloque, Bucle> porCabecera = new LinkedHashMap<>();
+
+        for (Bloque b: bloques)
+        {
+            for (Bloque h: b.sucesores)
+            {
+                if (h.domina(b)) // Arista de retroceso
+                {
+                    Bucle bucle = porCabecera.computeIfAbsent(h, Bucle::new);
+                    bucle.cuerpo.add(h);
+
+                    Deque<Bloque> pendientes = new ArrayDeque<>();
+                    if (bucle.cuerpo.add(b))
+                        pendientes.push(b);
+
+                    while (!pendientes.isEmpty())
+                    {
+                        for (Bloque p: pendientes.pop().predecesores)
+                        {
+                            if (p.esAlcanzable() && bucle.cuerpo.add(p))
+                                pendientes.push(p);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Los bucles se anidan por inclusión de sus cuerpos: procesamos de mayor a menor
+        List<Bucle> lista = new ArrayList<>(porCabecera.values());
+        lista.sort(Comparator.comparingInt((Bucle l) -> l.cuerpo.size()).reversed());
+
+        for (int i = 0; i < lista.size(); ++i)
+        {
+            Bucle bucle = lista.get(i);
+
+            for (int j = i - 1; j >= 0 && bucle.padre == null; --j)
+            {
+                Bucle otro = lista.get(j);
+                if (otro.cuerpo.contains(bucle.cabecera))
+                    bucle.padre = otro; // El más pequeño de los que lo contienen
+            }
+
+            bucle.profundidad = (bucle.padre == null)? 1: bucle.padre.profundidad + 1;
+            for (Bloque b: bucle.cuerpo)
+                b.bucle = bucle; // Los bucles más internos se procesan después
+        }
+
+        bucles.addAll(lista);
+    }
+
+    /* -------------------------------------- Impresión del grafo -------------------------------------- */
+
+    /**
+        Imprime el grafo en formato de texto: cada bloque con su región, su dominador inmediato, su profundidad
+        de anidamiento en bucles, sus sucesores y sus instrucciones, seguidos de la lista de bucles.
+
+        @param salida flujo de salida
+    */
+    public void imprime(PrintStream salida)
+    {
+        for (Bloque b: bloques)
+        {
+            salida.printf("%s [%d, %d) entrada %s, idom %s, profundidad %d -> %s%n", b, b.inicio, b.fin,
+                b.esAlcanzable()? entradas[b.entrada]: "-", (b.idom() == null)? "-": b.idom(),
+                b.profundidad(), b.sucesores);
+
+            for (int i = b.inicio; i < b.fin; ++i)
+                salida.printf("    %d: %s%n", i, MaquinaVirtual.texto(programa[i]));
+        }
+
+        salida.println();
+        for (Bucle bucle: bucles)
+        {
+            salida.printf("%s, profundidad %d%s: %s%n", bucle, bucle.profundidad,
+                (bucle.padre == null)? "": ", dentro de " + bucle.padre, bucle.cuerpo);
+        }
+    }
+
+    private static String escapa(String texto) { return texto.replace("\\", "\\\\").replace("\"", "\\\""); }
+
+    /**
+        Imprime el grafo en el lenguaje DOT de Graphviz. Cada región se dibuja en un subgrafo propio, el grosor
+        de cada bloque crece con su profundidad de anidamiento en bucles, y las aristas de retroceso se dibujan
+        discontinuas.
+
+        @param salida flujo de salida
+    */
+    public void imprimeDot(PrintStream salida)
+    {
+        salida.println("digraph grafo {");
+        salida.println("    node [shape=box, fontname=\"monospace\"];");
+
+        for (int e = NINGUNA; e < entradas.length; ++e)
+        {
+            final int region = e;
+            if (bloques.stream().noneMatch(b -> b.entrada == region))
+                continue;
+
+            final String nombre = (e == NINGUNA)? "inalcanzable": "entrada " + entradas[e];
+            salida.printf("    subgraph cluster_%d {%n        label=\"%s\";%n", e + 1, nombre);
+
+            for (Bloque b: bloques)
+            {
+                if (b.entrada != e)
+                    continue;
+
+                StringBuilder etiqueta = new StringBuilder(b.toString()).append("\\l");
+                for (int i = b.inicio; i < b.fin; ++i)
+                    etiqueta.append(i).append(": ").append(escapa(MaquinaVirtual.texto(programa[i]))).append("\\l");
+
+                salida.printf("        %s [label=\"%s\", penwidth=%d];%n", b, etiqueta, 1 + 2 * b.profundidad());
+            }
+
+            salida.println("    }");
+        }
+
+        for (Bloque b: bloques)
+        {
+            for (Bloque s: b.sucesores)
+                salida.printf("    %s -> %s%s;%n", b, s, s.domina(b)? " [style=dashed]": "");
+        }
+
+        salida.println("}");
+    }
+}
@@ -0,0 +1,318 @@
+package optimizacion;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import maquina.MaquinaVirtual.InsMaquina;
+
+import static maquina.MaquinaP.*;
+
+/**
+    Optimizador de <b>mirilla</b> (<i>peephole</i>) sobre el programa de la máquina P: recorre el programa
+    aplicando, en cada instrucción, la primera de sus reglas que reconozca la secuencia de instrucciones que
+    comienza en ella, y la sustituye por una secuencia equivalente más corta.
+
+    <br>Las reescrituras nunca atraviesan el comienzo de un bloque básico, de modo que ningún salto puede caer
+    en medio de una secuencia reescrita. Tras cada pasada, los destinos de todas las instrucciones reubicables
+    se trasladan a las nuevas posiciones del programa. Las pasadas se repiten mientras alguna regla se aplique,
+    pues cada reescritura puede dejar al descubierto otras nuevas.
+
+    @version Java SE 17
+    @see GrafoFlujo
+
+    @author Félix Rodolfo Díaz Lorente
+    @author Álvaro Magalló Paz
+    @author Alejandro del Río Caballero
+*/
+public class Mirilla
+{
+    /**
+        Sustitución de una secuencia de instrucciones por otra.
+
+        @param consumidas número de instrucciones sustituidas, a partir de la instrucción de la ventana
+        @param nuevas instrucciones que las sustituyen, cuyos destinos se expresan con los índices del programa
+            original
+    */
+    public static record Reescritura(int consumidas, InsMaquina... nuevas) {}
+
+    /**
+        Regla del optimizador de mirilla.
+    */
+    @FunctionalInterface
+    public interface Regla
+    {
+        /**
+            Intenta reescribir la secuencia de instrucciones que comienza en una instrucción dada.
+
+            @param grafo el grafo de flujo de control del programa
+            @param i el índice de la primera instrucción de la ventana
+
+            @return La reescritura que propone la regla, o <code>null</code> si la regla no es aplicable.
+        */
+        Reescritura aplica(GrafoFlujo grafo, int i);
+
+        /**
+            @return El nombre con el que se contabilizan las aplicaciones de esta regla.
+        */
+        default String nombre() { return getClass().getSimpleName(); }
+    }
+
+    /* --------------------------------------- Reglas por defecto --------------------------------------- */
+
+    private static boolean esApila(InsMaquina ins, int valor)
+    {
+        return ins instanceof Apila apila && apila.valor() instanceof Integer v && v == valor;
+    }
+
+    private static boolean esOp(InsMaquina ins, InfijoBinario<?, ?, ?> op)
+    {
+        return ins instanceof OpBinaria<?, ?, ?> opBinaria && opBinaria.op() == op;
+    }
+
+    private static boolean enRango(InsMaquina[] programa, int i, int n) { return i + n <= programa.length; }
+
+    /**
+        <code>apila a; apila b; opbinaria +</code> se reduce a <code>apila a+b</code>, como ocurre al acceder a
+        un campo de un registro de la memoria estática.
+    */
+    public static record SumaConstantes() implements Regla
+    {
+        public Reescritura aplica(GrafoFlujo grafo, int i)
+        {
+            final InsMaquina[] p = grafo.programa();
+
+            if (enRango(p, i, 3) && p[i] instanceof Apila a && a.valor() instanceof Integer x
+                && p[i + 1] instanceof Apila b && b.valor() instanceof Integer y && esOp(p[i + 2], SUMA_ENT))
+            {
+                return new Reescritura(3, new Apila(x + y, a.maquina()));
+            }
+            return null;
+        }
+    }
+
+    /**
+        <code>apila 0; opbinaria +</code> y <code>apila 0; opbinaria -</code> se eliminan, como ocurre con los
+        campos de desplazamiento nulo y el primer parámetro de un procedimiento.
+    */
+    public static record NeutroSuma() implements Regla
+    {
+        public Reescritura aplica(GrafoFlujo grafo, int i)
+        {
+            final InsMaquina[] p = grafo.programa();
+
+            if (enRango(p, i, 2) && esApila(p[i], 0) && (esOp(p[i + 1], SUMA_ENT) || esOp(p[i + 1], RESTA_ENT)))
+                return new Reescritura(2);
+            return null;
+        }
+    }
+
+    /**
+        <code>apila 1; opbinaria *</code> y <code>apila 1; opbinaria /</code> se eliminan, como ocurre al indexar
+        un array cuyos elementos ocupan una sola celda.
+    */
+    public static record NeutroProducto() implements Regla
+    {
+        public Reescritura aplica(GrafoFlujo grafo, int i)
+        {
+            final InsMaquina[] p = grafo.programa();
+
+            if (enRango(p, i, 2) && esApila(p[i], 1) && (esOp(p[i + 1], MUL_ENT) || esOp(p[i + 1], DIV_ENT)))
+                return new Reescritura(2);
+            return null;
+        }
+    }
+
+    /**
+        Un salto cuyo destino es un salto incondicional se redirige al destino final de la cadena de saltos. Los
+        saltos con los que se invoca a un procedimiento no se siguen.
+    */
+    public static record SaltoASalto() implements Regla
+    {
+        private static boolean esLlamada(GrafoFlujo grafo, int d)
+        {
+            for (int e: grafo.entradas())
+            {
+                if (e == d)
+                    return true;
+            }
+            return false;
+        }
+
+        public Reescritura aplica(GrafoFlujo grafo, int i)
+        {
+            final InsMaquina[] p = grafo.programa();
+
+            if (p[i] instanceof InsSalto salto && !esLlamada(grafo, salto.d()))
+            {
+                int d = salto.d();
+
+                // El número de saltos seguidos está acotado, por si la cadena forma un ciclo
+                for (int pasos = 0; pasos < p.length && d < p.length && p[d] instanceof Ira ira
+                    && ira.d() != d && !esLlamada(grafo, ira.d()); ++pasos)
+                {
+                    d = ira.d();
+                }
+
+                if (d != salto.d())
+                    return new Reescritura(1, salto.reubica(d));
+            }
+            return null;
+        }
+    }
+
+    /**
+        Un salto incondicional a la instrucción siguiente se elimina.
+    */
+    public static record SaltoASiguiente() implements Regla
+    {
+        public Reescritura aplica(GrafoFlujo grafo, int i)
+        {
+            if (grafo.programa()[i] instanceof Ira ira && ira.d() == i + 1)
+                return new Reescritura(1);
+            return null;
+        }
+    }
+
+    /**
+        Reglas que aplica el optimizador por defecto, en orden de prioridad.
+    */
+    public static final List<Regla> REGLAS = List.of(new SumaConstantes(), new NeutroSuma(), new NeutroProducto(),
+        new SaltoASalto(), new SaltoASiguiente());
+
+    /**
+        Número máximo de pasadas sobre el programa.
+    */
+    public static final int MAX_PASADAS = 16;
+
+    /* ---------------------------------------------------------------------------------------------------- */
+
+    private final List<Regla> reglas;
+    private final Map<String, Integer> aciertos = new LinkedHashMap<>();
+
+    private int[] reubicacion = null; // Nuevo índice de cada instrucción del último programa optimizado
+
+    /**
+        Construye un optimizador de mirilla con las reglas por defecto.
+    */
+    public Mirilla() { this(REGLAS); }
+
+    /**
+        Construye un optimizador de mirilla con un conjunto de reglas dado.
+
+        @param reglas las reglas del optimizador, en orden de prioridad
+    */
+    public Mirilla(List<? extends Regla> reglas) { this.reglas = List.copyOf(reglas); }
+
+    /**
+        Devuelve el número de veces que se ha aplicado cada regla del optimizador.
+
+        @return Un mapa, en el orden de prioridad de las reglas, con el número de aplicaciones de cada una de
+            ellas, o un mapa vacío si aún no se ha optimizado ningún programa.
+    */
+    public Map<String, Integer> aciertos() { return Collections.unmodifiableMap(aciertos); }
+
+    /**
+        Traslada el índice de una instrucción del último programa optimizado a su posición en el programa
+        resultante.
+
+        @param ins el índice de la instrucción en el programa original
+
+        @return El índice de la instrucción en el programa optimizado, o el de la instrucción que la sigue si la
+            instrucción ha sido eliminada.
+    */
+    public int reubica(int ins) { return reubicacion[ins]; }
+
+    /**
+        Optimiza un programa de la máquina P.
+
+        @param programa las instrucciones del programa, en orden
+        @param entradas los índices de los puntos de entrada del programa: el del programa principal, seguido
+            de los de sus procedimientos
+
+        @return Las instrucciones del programa optimizado, en orden.
+    */
+    public InsMaquina[] optimiza(InsMaquina[] programa, int... entradas)
+    {
+        reglas.forEach(regla -> aciertos.putIfAbsent(regla.nombre(), 0));
+
+        reubicacion = new int[programa.length + 1];
+        for (int i = 0; i < reubicacion.length; ++i)
+            reubicacion[i] = i;
+
+        entradas = entradas.clone();
+
+        for (int pasada = 0; pasada < MAX_PASADAS; ++pasada)
+        {
+            final int n = programa.length;
+            int[] nueva = new int[n + 1];
+
+            InsMaquina[] optimizado = pasada(new GrafoFlujo(programa, entradas), nueva);
+            if (optimizado == null)
+                break;
+
+            for (int i = 0; i < reubicacion.length; ++i)
+                reubicacion[i] = nueva[reubicacion[i]];
+            for (int e = 0; e < entradas.length; ++e)
+                entradas[e] = nueva[entradas[e]];
+
+            programa = optimizado;
+        }
+
+        return programa;
+    }
+
+    private InsMaquina[] pasada(GrafoFlujo grafo, int[] nueva)
+    {
+        final InsMaquina[] programa = grafo.programa();
+        final int n = programa.length;
+
+        List<InsMaquina> salida = new ArrayList<>(n);
+        boolean cambio = false;
+
+        int i = 0;
+        while (i < n)
+        {
+            final int fin = grafo.bloque(i).fin();
+            Reescritura reescritura = null;
+
+            for (Regla regla: reglas)
+            {
+                reescritura = regla.aplica(grafo, i);
+
+                if (reescritura != null && reescritura.consumidas() > 0 && i + reescritura.consumidas() <= fin)
+                {
+                    aciertos.merge(regla.nombre(), 1, Integer::sum);
+                    break;
+                }
+                reescritura = null;
+            }
+
+            if (reescritura == null)
+                reescritura = new Reescritura(1, programa[i]);
+            else
+                cambio = true;
+
+            for (int k = 0; k < reescritura.consumidas(); ++k)
+                nueva[i + k] = salida.size();
+            Collections.addAll(salida, reescritura.nuevas());
+
+            i += reescritura.consumidas();
+        }
+        nueva[n] = salida.size();
+
+        if (!cambio)
+            return null;
+
+        // Los destinos se trasladan a la posición que ocupa ahora la instrucción a la que referían
+        for (int j = 0; j < salida.size(); ++j)
+        {
+            if (salida.get(j) instanceof InsReubicable ins)
+                salida.set(j, ins.reubica(nueva[ins.d()]));
+        }
+
+        return salida.toArray(new InsMaquina[0]);
+    }
+}
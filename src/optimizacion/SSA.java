@@ -0,0 +1,602 @@
+package optimizacion;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import asint.Sintaxis.Proc;
+import asint.Sintaxis.Tipo;
+import maquina.MaquinaP.InfijoBinario;
+import maquina.MaquinaP.InfijoUnario;
+
+import static maquina.MaquinaP.DIV_ENT;
+import static maquina.MaquinaP.MOD;
+
+/**
+    Representación intermedia de un programa en <b>forma SSA</b> (<i>static single assignment</i>), entre el
+    árbol de sintaxis abstracta decorado y el código de la máquina P.
+
+    <br>Cada procedimiento, y el programa principal, es una {@link Funcion} formada por bloques básicos, cada uno
+    con una lista de instrucciones y un terminador que transfiere el control a sus sucesores. Cada instrucción
+    con resultado define un único {@link Valor}, con un tipo del lenguaje, que se refiere directamente a sus
+    operandos; las variables escalares que solo se acceden por su nombre desde su propio procedimiento se
+    sustituyen por los valores que toman, unidos en las confluencias por instrucciones {@link Phi}. El resto de
+    los designadores se accede a través de direcciones de la memoria de la máquina P, mediante instrucciones
+    explícitas de carga y almacenamiento.
+
+    <br>Los operadores aritméticos, lógicos y relacionales son los de la máquina P, y las direcciones son
+    valores enteros.
+
+    @version Java SE 17
+
+    @author Félix Rodolfo Díaz Lorente
+    @author Álvaro Magalló Paz
+    @author Alejandro del Río Caballero
+*/
+public class SSA
+{
+    private SSA() {} // No se permite instanciar esta clase
+
+    /* ---------------------------------------------- Valores ---------------------------------------------- */
+
+    /**
+        Valor de la representación: una constante, un valor indefinido o el resultado de una instrucción.
+    */
+    public static abstract class Valor
+    {
+        private final Tipo tipo;
+
+        protected Valor(Tipo tipo) { this.tipo = tipo; }
+
+        /**
+            @return El tipo del valor, o <code>null</code> si es una instrucción sin resultado.
+        */
+        public Tipo tipo() { return tipo; }
+    }
+
+    /**
+        Valor constante, representado como en la pila de la máquina P.
+    */
+    public static final class Constante extends Valor
+    {
+        private final Object valor;
+
+        public Constante(Object valor, Tipo tipo) { super(tipo); this.valor = valor; }
+
+        public Object valor() { return valor; }
+
+        @Override
+        public String toString() { return (valor instanceof String cad)? "'" + cad + "'": String.valueOf(valor); }
+    }
+
+    /**
+        Valor de una variable que se lee antes de haberse escrito en algún camino.
+    */
+    public static final class Indefinido extends Valor
+    {
+        public Indefinido(Tipo tipo) { super(tipo); }
+
+        @Override
+        public String toString() { return "indefinido"; }
+    }
+
+    /* -------------------------------------------- Instrucciones -------------------------------------------- */
+
+    /**
+        Instrucción de un bloque básico, que define un valor si tiene resultado.
+    */
+    public static abstract class Instruccion extends Valor
+    {
+        private final List<Valor> operandos;
+        private Bloque bloque = null;
+
+        protected Instruccion(Tipo tipo, Valor... operandos)
+        {
+            super(tipo);
+            this.operandos = new ArrayList<>(List.of(operandos));
+        }
+
+        public List<Valor> operandos() { return Collections.unmodifiableList(operandos); }
+
+        public Valor operando(int i) { return operandos.get(i); }
+
+        /**
+            @return El bloque que contiene a esta instrucción, o <code>null</code> si no se ha añadido a ninguno.
+        */
+        public Bloque bloque() { return bloque; }
+
+        /**
+            @return <code>true</code> si solo si la instrucción define un valor.
+        */
+        public boolean tieneResultado() { return tipo() != null; }
+
+        /**
+            @return <code>true</code> si solo si el resultado depende del contenido de la memoria.
+        */
+        public boolean leeMemoria() { return false; }
+
+        /**
+            @return <code>true</code> si solo si la instrucción modifica la memoria.
+        */
+        public boolean escribeMemoria() { return false; }
+
+        /**
+            @return <code>true</code> si solo si la instrucción tiene un efecto observable fuera del programa
+                (la E/S estándar) o puede abortar su ejecución, por lo que no puede reordenarse con otras
+                que también lo tengan.
+        */
+        public boolean esObservable() { return false; }
+
+        protected void añadeOperando(Valor valor) { operandos.add(valor); }
+
+        void sustituye(Valor viejo, Valor nuevo) { operandos.replaceAll(op -> (op == viejo)? nuevo: op); }
+
+        protected abstract String nombre();
+    }
+
+    public static final class Binaria extends Instruccion
+    {
+        private final InfijoBinario<?, ?, ?> op;
+
+        public Binaria(InfijoBinario<?, ?, ?> op, Valor op1, Valor op2, Tipo tipo) { super(tipo, op1, op2); this.op = op; }
+
+        public InfijoBinario<?, ?, ?> op() { return op; }
+
+        @Override
+        public boolean esObservable() { return op == DIV_ENT || op == MOD; } // La división entera por cero aborta
+
+        protected String nombre() { return op.rep(); }
+    }
+
+    public static final class Unaria extends Instruccion
+    {
+        private final InfijoUnario<?, ?> op;
+
+        public Unaria(InfijoUnario<?, ?> op, Valor op1, Tipo tipo) { super(tipo, op1); this.op = op; }
+
+        public InfijoUnario<?, ?> op() { return op; }
+
+        protected String nombre() { return op.simbolo(); }
+    }
+
+    /**
+        Conversión de un entero en real.
+    */
+    public static final class Promocion extends Instruccion
+    {
+        public Promocion(Valor valor, Tipo tipo) { super(tipo, valor); }
+
+        protected String nombre() { return "promreal"; }
+    }
+
+    /**
+        Dirección base del registro de activación de un nivel de anidamiento.
+    */
+    public static final class Display extends Instruccion
+    {
+        private final int nivel;
+
+        public Display(int nivel, Tipo tipo) { super(tipo); this.nivel = nivel; }
+
+        public int nivel() { return nivel; }
+
+        protected String nombre() { return "display " + nivel; }
+    }
+
+    public static final class Carga extends Instruccion
+    {
+        public Carga(Valor dir, Tipo tipo) { super(tipo, dir); }
+
+        @Override
+        public boolean leeMemoria() { return true; }
+
+        protected String nombre() { return "carga"; }
+    }
+
+    public static final class Guarda extends Instruccion
+    {
+        public Guarda(Valor dir, Valor valor) { super(null, dir, valor); }
+
+        @Override
+        public boolean escribeMemoria() { return true; }
+
+        protected String nombre() { return "guarda"; }
+    }
+
+    /**
+        Copia de un bloque de celdas consecutivas, del segundo operando al primero.
+    */
+    public static final class Copia extends Instruccion
+    {
+        private final int tam;
+
+        public Copia(Valor destino, Valor origen, int tam) { super(null, destino, origen); this.tam = tam; }
+
+        public int tam() { return tam; }
+
+        @Override
+        public boolean leeMemoria() { return true; }
+
+        @Override
+        public boolean escribeMemoria() { return true; }
+
+        protected String nombre() { return "copia " + tam; }
+    }
+
+    /**
+        Reserva de un bloque de memoria dinámica, cuya dirección es el resultado.
+    */
+    public static final class Reserva extends Instruccion
+    {
+        private final int tam;
+
+        public Reserva(int tam, Tipo tipo) { super(tipo); this.tam = tam; }
+
+        public int tam() { return tam; }
+
+        @Override
+        public boolean escribeMemoria() { return true; }
+
+        @Override
+        public boolean esObservable() { return true; }
+
+        protected String nombre() { return "reserva " + tam; }
+    }
+
+    public static final class Libera extends Instruccion
+    {
+        private final int tam;
+
+        public Libera(Valor dir, int tam) { super(null, dir); this.tam = tam; }
+
+        public int tam() { return tam; }
+
+        @Override
+        public boolean escribeMemoria() { return true; }
+
+        @Override
+        public boolean esObservable() { return true; }
+
+        protected String nombre() { return "libera " + tam; }
+    }
+
+    /**
+        Comprobación de que un puntero no es <code>null</code>, que aborta la ejecución en otro caso. El
+        resultado es el propio puntero.
+    */
+    public static final class Comprueba extends Instruccion
+    {
+        public Comprueba(Valor puntero) { super(puntero.tipo(), puntero); }
+
+        @Override
+        public boolean esObservable() { return true; }
+
+        protected String nombre() { return "comprueba"; }
+    }
+
+    public static final class Lee extends Instruccion
+    {
+        public Lee(Tipo tipo) { super(tipo); }
+
+        @Override
+        public boolean esObservable() { return true; }
+
+        protected String nombre() { return "lee"; }
+    }
+
+    public static final class Escribe extends Instruccion
+    {
+        public Escribe(Valor valor) { super(null, valor); }
+
+        @Override
+        public boolean esObservable() { return true; }
+
+        protected String nombre() { return "escribe"; }
+    }
+
+    public static final class Linea extends Instruccion
+    {
+        public Linea() { super(null); }
+
+        @Override
+        public boolean esObservable() { return true; }
+
+        protected String nombre() { return "linea"; }
+    }
+
+    /**
+        Invocación de un procedimiento. Cada operando es el argumento de un parámetro: su valor, si es un
+        parámetro por valor de tipo escalar, o la dirección del designador en otro caso.
+    */
+    public static final class Llamada extends Instruccion
+    {
+        private final Proc proc;
+
+        public Llamada(Proc proc, List<Valor> args) { super(null, args.toArray(Valor[]::new)); this.proc = proc; }
+
+        public Proc proc() { return proc; }
+
+        @Override
+        public boolean leeMemoria() { return true; }
+
+        @Override
+        public boolean escribeMemoria() { return true; }
+
+        @Override
+        public boolean esObservable() { return true; }
+
+        protected String nombre() { return "llama " + proc.id(); }
+    }
+
+    /**
+        Confluencia de los valores de una variable: su i-ésimo operando es el valor con el que se llega desde el
+        i-ésimo predecesor de su bloque.
+    */
+    public static final class Phi extends Instruccion
+    {
+        public Phi(Tipo tipo) { super(tipo); }
+
+        @Override
+        public void añadeOperando(Valor valor) { super.añadeOperando(valor); }
+
+        protected String nombre() { return "phi"; }
+    }
+
+    /* -------------------------------------------- Terminadores -------------------------------------------- */
+
+    /**
+        Última instrucción de un bloque básico, que determina sus sucesores.
+    */
+    public static abstract class Terminador
+    {
+        public List<Bloque> sucesores() { return List.of(); }
+
+        void sustituye(Valor viejo, Valor nuevo) {}
+    }
+
+    public static final class Salto extends Terminador
+    {
+        private final Bloque destino;
+
+        public Salto(Bloque destino) { this.destino = destino; }
+
+        public Bloque destino() { return destino; }
+
+        @Override
+        public List<Bloque> sucesores() { return List.of(destino); }
+
+        @Override
+        public String toString() { return "salta " + destino; }
+    }
+
+    public static final class Bifurcacion extends Terminador
+    {
+        private Valor condicion;
+        private final Bloque cierto, falso;
+
+        public Bifurcacion(Valor condicion, Bloque cierto, Bloque falso)
+        {
+            this.condicion = condicion; this.cierto = cierto; this.falso = falso;
+        }
+
+        public Valor condicion() { return condicion; }
+
+        public Bloque cierto() { return cierto; }
+
+        public Bloque falso() { return falso; }
+
+        @Override
+        public List<Bloque> sucesores() { return List.of(cierto, falso); }
+
+        @Override
+        void sustituye(Valor viejo, Valor nuevo)
+        {
+            if (condicion == viejo)
+                condicion = nuevo;
+        }
+    }
+
+    /**
+        Retorno de un procedimiento a su invocante.
+    */
+    public static final class Retorno extends Terminador
+    {
+        @Override
+        public String toString() { return "retorna"; }
+    }
+
+    /**
+        Fin del programa principal.
+    */
+    public static final class Parada extends Terminador
+    {
+        @Override
+        public String toString() { return "para"; }
+    }
+
+    /* ------------------------------------------ Bloques y funciones ------------------------------------------ */
+
+    /**
+        Bloque básico: secuencia de instrucciones, con las <code>phi</code> al principio, seguida de un
+        terminador.
+    */
+    public static final class Bloque
+    {
+        private final int id;
+        private final List<Instruccion> instrucciones = new ArrayList<>();
+        private final List<Bloque> predecesores = new ArrayList<>();
+        private Terminador terminador = null;
+
+        private Bloque(int id) { this.id = id; }
+
+        public int id() { return id; }
+
+        public List<Instruccion> instrucciones() { return Collections.unmodifiableList(instrucciones); }
+
+        public List<Bloque> predecesores() { return Collections.unmodifiableList(predecesores); }
+
+        public Terminador terminador() { return terminador; }
+
+        public List<Phi> phis()
+        {
+            List<Phi> phis = new ArrayList<>();
+            for (Instruccion ins: instrucciones)
+            {
+                if (!(ins instanceof Phi phi))
+                    break;
+                phis.add(phi);
+            }
+            return phis;
+        }
+
+        /**
+            Añade una instrucción al final del bloque, o tras las demás <code>phi</code> si lo es. Una
+            <code>phi</code> puede añadirse a un bloque ya terminado, pues al leer una variable se crean en los
+            predecesores del bloque que la lee, que pueden haberse cerrado antes.
+
+            @return La propia instrucción.
+        */
+        public <T extends Instruccion> T añade(T ins)
+        {
+            assert (terminador == null || ins instanceof Phi) && ins.bloque() == null;
+
+            ((Instruccion) ins).bloque = this;
+            instrucciones.add((ins instanceof Phi)? phis().size(): instrucciones.size(), ins);
+            return ins;
+        }
+
+        /**
+            Añade una instrucción en una posición dada del bloque.
+
+            @return La propia instrucción.
+        */
+        public <T extends Instruccion> T inserta(int pos, T ins)
+        {
+            ((Instruccion) ins).bloque = this;
+            instrucciones.add(pos, ins);
+            return ins;
+        }
+
+        public void elimina(Instruccion ins)
+        {
+            instrucciones.remove(ins);
+            ins.bloque = null;
+        }
+
+        /**
+            Fija el terminador del bloque, que pasa a ser predecesor de sus sucesores.
+        */
+        public void termina(Terminador terminador)
+        {
+            assert this.terminador == null;
+
+            this.terminador = terminador;
+            terminador.sucesores().forEach(suc -> suc.predecesores.add(this));
+        }
+
+        @Override
+        public String toString() { return "B" + id; }
+    }
+
+    /**
+        Procedimiento, o programa principal, en forma SSA. El primer bloque es el de entrada, y el orden de los
+        bloques es el orden en el que se colocan en el código.
+    */
+    public static final class Funcion
+    {
+        private final Proc proc;
+        private final List<Bloque> bloques = new ArrayList<>();
+        private int numBloques = 0;
+
+        public Funcion(Proc proc) { this.proc = proc; }
+
+        /**
+            @return El procedimiento, o <code>null</code> si es el programa principal.
+        */
+        public Proc proc() { return proc; }
+
+        public List<Bloque> bloques() { return Collections.unmodifiableList(bloques); }
+
+        public Bloque entrada() { return bloques.get(0); }
+
+        /**
+            Crea un bloque de la función, que no se coloca en ella hasta que se llama a {@link #coloca}.
+        */
+        public Bloque nuevoBloque() { return new Bloque(numBloques++); }
+
+        public void coloca(Bloque bloque) { bloques.add(bloque); }
+
+        /**
+            Sustituye todos los usos de un valor por otro.
+        */
+        public void sustituye(Valor viejo, Valor nuevo)
+        {
+            for (Bloque bloque: bloques)
+            {
+                bloque.instrucciones.forEach(ins -> ins.sustituye(viejo, nuevo));
+                if (bloque.terminador != null)
+                    bloque.terminador.sustituye(viejo, nuevo);
+            }
+        }
+
+        public void imprime(PrintStream salida)
+        {
+            Map<Valor, String> nombres = new IdentityHashMap<>();
+            for (Bloque bloque: bloques)
+            {
+                for (Instruccion ins: bloque.instrucciones)
+                {
+                    if (ins.tieneResultado())
+                        nombres.put(ins, "%" + nombres.size());
+                }
+            }
+
+            salida.println((proc == null)? "principal:": "proc " + proc.id() + ":");
+            for (Bloque bloque: bloques)
+            {
+                salida.printf("  %s: <- %s%n", bloque, bloque.predecesores);
+                for (Instruccion ins: bloque.instrucciones)
+                {
+                    StringBuilder linea = new StringBuilder("    ");
+                    if (ins.tieneResultado())
+                        linea.append(nombres.get(ins)).append(": ").append(ins.tipo().litTipo()).append(" = ");
+                    linea.append(ins.nombre());
+
+                    String sep = " ";
+                    for (Valor op: ins.operandos)
+                    {
+                        linea.append(sep).append(nombres.getOrDefault(op, String.valueOf(op)));
+                        sep = ", ";
+                    }
+                    salida.println(linea);
+                }
+
+                if (bloque.terminador instanceof Bifurcacion bif)
+                {
+                    salida.printf("    si %s salta %s si no %s%n",
+                        nombres.getOrDefault(bif.condicion, String.valueOf(bif.condicion)), bif.cierto, bif.falso);
+                }
+                else
+                    salida.printf("    %s%n", bloque.terminador);
+            }
+        }
+    }
+
+    /**
+        Programa en forma SSA: el programa principal y sus procedimientos.
+
+        @param principal función del programa principal
+        @param procs funciones de los procedimientos
+    */
+    public static record Programa(Funcion principal, List<Funcion> procs)
+    {
+        public void imprime(PrintStream salida)
+        {
+            principal.imprime(salida);
+            procs.forEach(proc -> proc.imprime(salida));
+        }
+    }
+}
@@ -2,7 +2,15 @@ package procesamientos;
 
 import asint.Sintaxis.*;
 
+import despacho.GeneraDespacho;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+
+import static procesamientos.Procesamiento.OPTIMIZACION.*;
 
 /**
     Clase utilidad que contiene todos los métodos requeridos para ejecutar la fase de <b>asignación de memoria</b>
@@ -15,6 +23,7 @@ import java.util.List;
     @author Álvaro Magalló Paz
     @author Alejandro del Río Caballero
 */
+@GeneraDespacho({"asignaMemoria", "asignaMemoria1", "asignaMemoria2"})
 public class Asignacion extends Procesamiento
 {
     private Asignacion() {} // No se permite instanciar esta clase
@@ -27,91 +36,455 @@ public class Asignacion extends Procesamiento
     public static void asignaMemoria1(List<? extends INodo> lista) { procesa(Asignacion.class, "asignaMemoria1", lista); }
     public static void asignaMemoria2(List<? extends INodo> lista) { procesa(Asignacion.class, "asignaMemoria2", lista); }
 
-    private static int dir = 0; // Contador de direcciones
-    
-    private static int registros = 0; // Número de registros (variables globales)
+    /**
+        Avance del puntero de un acceso indexado por una variable de inducción, cuando esta se incrementa.
+
+        @param puntero acceso cuya celda guarda el puntero
+        @param incremento número de celdas que avanza el puntero
+    */
+    static record Avance(Indx puntero, int incremento) {}
+
+    /**
+        Estado de la asignación de memoria en una compilación.
+    */
+    static final class Estado
+    {
+        int dir = 0; // Contador de direcciones
+
+        int registros = 0; // Número de registros (variables globales)
+
+        int nivel = 0, maxNivel = 0; // Nivel de anidamiento
+        int local = 0, maxLocal = 0; // Tamaño de las variables locales
+
+        final Map<Nodo, List<Exp>> invariantes = new HashMap<>(); // Direcciones invariantes de cada bucle
+        final Map<Nodo, List<Indx>> punteros = new HashMap<>(); // Punteros de inducción de cada bucle
+        final Map<Nodo, List<Avance>> avances = new HashMap<>(); // Avances tras cada incremento
+        final List<Exp> ocurrencias = new ArrayList<>(); // Designadores con dirección invariante
+        int temporales = 0; // Celdas de la memoria estática para direcciones invariantes
+    }
+
+    private static Estado estado() { return Contexto.actual().asignacion; }
+
+    static int maxNivel()     { return estado().maxNivel; }
+    static int numRegistros() { return estado().registros; }
+    static int espacioLocal() { return estado().maxLocal; }
+
+    /**
+        Reserva celdas de la memoria estática tras las variables globales.
+
+        @return La dirección de la primera celda reservada.
+    */
+    static int reservaRegistros(int n)
+    {
+        estado().registros += n;
+        return estado().registros - n;
+    }
+
+    /**
+        Reserva celdas al final del registro de activación de un procedimiento.
+
+        @return El desplazamiento de la primera celda reservada en el registro de activación.
+    */
+    static int reservaTemporales(Proc proc, int n)
+    {
+        final int base = proc.espacio();
+
+        proc.asignaEspacio(base + n);
+        estado().maxLocal += n;
+        return base;
+    }
+
+    /**
+        Devuelve los designadores cuya dirección se calcula antes de un bucle, uno por cada dirección distinta.
+    */
+    static List<Exp> invariantes(While wh) { return estado().invariantes.getOrDefault(wh.nodo(), List.of()); }
+
+    /**
+        Devuelve los accesos indexados por una variable de inducción cuya dirección se inicializa antes de un
+        bucle, uno por cada puntero distinto.
+    */
+    static List<Indx> punteros(While wh) { return estado().punteros.getOrDefault(wh.nodo(), List.of()); }
+
+    /**
+        Devuelve los avances de los punteros de inducción tras el incremento de su variable.
+    */
+    static List<Avance> avances(Asig asig) { return estado().avances.getOrDefault(asig.nodo(), List.of()); }
+
+    /**
+        Devuelve el número de instrucciones con las que se calcula, sin cargarla de su celda, la dirección de un
+        acceso indexado por una variable.
+    */
+    static int costeIndice(Indx indx)
+    {
+        final Exp eid = indx.eid(), ei = indx.ei();
+
+        return (esInvariante(eid)? 2: costeDireccion(eid)) + (esInvariante(ei)? 2: costeDireccion(ei)) + 1
+            + costeEscala(tamBase(eid)) + 1;
+    }
+
+    /**
+        Devuelve el número de instrucciones con las que se calcula la dirección de un designador formado por
+        accesos a campos de una variable o parámetro.
+    */
+    static int costeDireccion(Exp exp)
+    {
+        if (exp instanceof Acc acc)
+            return costeDireccion(acc.reg()) + 2;
 
-    private static int nivel = 0, maxNivel = 0; // Nivel de anidamiento
-    private static int local = 0, maxLocal = 0; // Tamaño de las variables locales
+        final INodo vinculo = exp.vinculo();
+        return (vinculo.nivel() == 0)? 1: ((vinculo instanceof Pvar)? 4: 3);
+    }
+
+    // Funciones auxiliares
+
+    /**
+        Indica si un designador es una cadena de accesos a campos de una variable o parámetro ya ubicados en
+        memoria, cuya dirección no varía durante la activación del procedimiento que lo contiene.
+    */
+    private static boolean esCadena(Exp exp)
+    {
+        if (exp instanceof Acc acc)
+            return esCadena(acc.reg());
+
+        final INodo raiz = (exp instanceof Ident ident)? ident.vinculo(): null;
+        return raiz instanceof Param || (raiz instanceof Var && raiz.dir() != Nodo.VALOR_NULO);
+    }
+
+    private static List<Object> claveCadena(Exp exp)
+    {
+        if (exp instanceof Acc acc)
+        {
+            List<Object> clave = claveCadena(acc.reg());
+            clave.add(acc.id());
+            return clave;
+        }
 
-    static int maxNivel()     { return maxNivel; }
-    static int numRegistros() { return registros; }
-    static int espacioLocal() { return maxLocal; }
+        List<Object> clave = new ArrayList<>();
+        clave.add(exp.vinculo().nodo());
+        return clave;
+    }
+
+    private static boolean tieneLlamadas(While wh)
+    {
+        boolean[] llamadas = { false };
+        recorre(List.of(wh.exp(), wh.lins()), nodo -> llamadas[0] |= nodo instanceof Invoc || nodo instanceof Proc);
+        return llamadas[0];
+    }
+
+    /**
+        Devuelve el incremento constante de una asignación de la forma <code>i = i + c</code>,
+        <code>i = c + i</code> o <code>i = i - c</code>, donde <code>i</code> es una variable entera, o
+        <code>null</code> si la asignación no tiene esa forma.
+    */
+    private static Integer incremento(Asig asig)
+    {
+        // Solo las variables del nivel actual no pueden modificarse a través de un parámetro por referencia
+        if (!(asig.ei() instanceof Ident i && esCadena(i) && !(i.vinculo() instanceof Pvar)
+            && i.vinculo().nivel() == estado().nivel && refFact(i.tipo()) instanceof Int))
+        {
+            return null;
+        }
+
+        final INodo var = i.vinculo();
+        Exp op1 = null, op2 = null;
+        int signo = 1;
+
+        if (asig.ed() instanceof Suma suma)
+        {
+            op1 = suma.op1(); op2 = suma.op2();
+            if (op1 instanceof Entero)
+            {
+                op1 = suma.op2(); op2 = suma.op1();
+            }
+        }
+        else if (asig.ed() instanceof Resta resta)
+        {
+            op1 = resta.op1(); op2 = resta.op2();
+            signo = -1;
+        }
+
+        if (op1 instanceof Ident id && id.vinculo() == var && op2 instanceof Entero c)
+            return signo * Integer.parseInt(c.lit());
+        return null;
+    }
+
+    /**
+        Sustituye los accesos a arrays indexados por una <b>variable de inducción</b> de un bucle, una variable
+        entera local que solo se modifica con un incremento constante en el nivel superior de su cuerpo, por
+        punteros que se guardan en celdas de la memoria estática. Cada puntero se inicializa antes del bucle y
+        avanza tras el incremento, de modo que el acceso ya no calcula ni escala el índice. Solo se introduce
+        un puntero si el coste estimado de los accesos que ahorra supera el de su avance.
+    */
+    private static void buscaPunteros(While wh)
+    {
+        final Estado estado = estado();
+
+        // Incrementos de las posibles variables de inducción
+        Map<Nodo, Asig> incrementos = new HashMap<>();
+        for (Ins ins: wh.lins())
+        {
+            if (ins instanceof Asig asig && incremento(asig) != null)
+            {
+                final Nodo var = asig.ei().vinculo().nodo();
+                incrementos.put(var, incrementos.containsKey(var)? null: asig);
+            }
+        }
+
+        // Las variables con cualquier otra escritura en el bucle no son de inducción
+        List<Indx> accesos = new ArrayList<>();
+        recorre(List.of(wh.exp(), wh.lins()), nodo -> {
+            Exp escrita = null;
+
+            if (nodo instanceof Asig asig && !incrementos.containsValue(asig))
+                escrita = asig.ei();
+            else if (nodo instanceof Read read)
+                escrita = read.exp();
+            else if (nodo instanceof Indx indx && indx.ei() instanceof Ident && esCadena(indx.eid()) && !esInvariante(indx))
+                accesos.add(indx);
+
+            if (escrita != null && raiz(escrita) != null)
+                incrementos.remove(raiz(escrita).nodo());
+        });
+
+        Map<List<Object>, List<Indx>> grupos = new LinkedHashMap<>();
+        for (Indx indx: accesos)
+        {
+            if (incrementos.get(indx.ei().vinculo().nodo()) != null)
+            {
+                List<Object> clave = claveCadena(indx.eid());
+                clave.add(indx.ei().vinculo().nodo());
+                grupos.computeIfAbsent(clave, k -> new ArrayList<>()).add(indx);
+            }
+        }
+
+        List<Indx> distintos = new ArrayList<>();
+        for (List<Indx> grupo: grupos.values())
+        {
+            final Indx rep = grupo.get(0);
+
+            // El avance cuesta 6 instrucciones por iteración, y cada acceso pasa a costar 2
+            if (grupo.stream().mapToInt(indx -> costeIndice(indx) - 2).sum() <= 6)
+                continue;
+
+            grupo.forEach(indx -> {
+                indx.asignaDir(estado.temporales);
+                estado.ocurrencias.add(indx);
+            });
+            ++estado.temporales;
+            distintos.add(rep);
+
+            final Asig asig = incrementos.get(rep.ei().vinculo().nodo());
+            estado.avances.computeIfAbsent(asig.nodo(), k -> new ArrayList<>())
+                .add(new Avance(rep, incremento(asig) * tamBase(rep.eid())));
+        }
+
+        if (!distintos.isEmpty())
+            estado.punteros.put(wh.nodo(), distintos);
+    }
+
+    /**
+        Calcula las direcciones invariantes de un bucle. Cada dirección se guarda en una celda de la memoria
+        estática, que se reubica al final de las variables globales.
+    */
+    private static void buscaInvariantes(While wh)
+    {
+        final Estado estado = estado();
+
+        List<Exp> cadenas = new ArrayList<>();
+        List<INodo> interiores = new ArrayList<>();
+
+        recorre(List.of(wh.exp(), wh.lins()), nodo -> {
+            if (nodo instanceof Acc acc)
+                interiores.add(acc.reg());
+            else if (nodo instanceof Indx indx && esInvariante(indx)) // Acceso que se sustituye por un puntero
+                recorre(List.of(indx.eid(), indx.ei()), interiores::add);
+
+            if (nodo instanceof Exp exp && esCadena(exp))
+                cadenas.add(exp);
+        });
+
+        // Los designadores de bucles exteriores ya tienen celda, y las direcciones de la memoria estática ya
+        // se reducen a una constante con el optimizador de mirilla
+        Map<List<Object>, Exp> distintas = new LinkedHashMap<>();
+        for (Exp exp: cadenas)
+        {
+            if (interiores.contains(exp) || esInvariante(exp) || costeDireccion(exp) <= 2
+                || (optimiza(MIRILLA) && raiz(exp).nivel() == 0))
+            {
+                continue;
+            }
+
+            final List<Object> clave = claveCadena(exp);
+            final Exp rep = distintas.get(clave);
+
+            if (rep == null)
+            {
+                exp.asignaDir(estado.temporales++);
+                distintas.put(clave, exp);
+            }
+            else
+                exp.asignaDir(rep.dir());
+            estado.ocurrencias.add(exp);
+        }
+
+        if (!distintas.isEmpty())
+            estado.invariantes.put(wh.nodo(), List.copyOf(distintas.values()));
+    }
 
     // Programa
 
     public static void asignaMemoria(Prog prog)
     {
+        final Estado estado = estado();
+
         asignaMemoria(prog.ldec());
         asignaMemoria(prog.lins());
+
+        // Las celdas de las direcciones invariantes siguen a las variables globales
+        estado.ocurrencias.forEach(exp -> exp.asignaDir(estado.registros + exp.dir()));
+        estado.registros += estado.temporales;
     }    
 
     // Declaraciones básicas
 
     public static void asignaMemoria(Var var)
     {
-        var.asignaDir(dir);
-        var.asignaNivel(nivel);
+        final Estado estado = estado();
+
+        var.asignaDir(estado.dir);
+        var.asignaNivel(estado.nivel);
 
         Tipo tipo = var.tipo();
         asignaMemoria(tipo);
 
         int tam = tipo.espacio();
-        if (nivel == 0)
-            registros += tam;
+        if (estado.nivel == 0)
+            estado.registros += tam;
         else
-            local += tam;
+            estado.local += tam;
         
-        dir += tam;
+        estado.dir += tam;
     }
 
     public static void asignaMemoria(Type type) { asignaMemoria(type.tipo()); }
 
     public static void asignaMemoria(Proc proc)
     {
-        proc.asignaDir(dir);
-        final int prevDir = dir;
+        final Estado estado = estado();
+
+        proc.asignaDir(estado.dir);
+        final int prevDir = estado.dir;
 
-        proc.asignaNivel(++nivel);
-        if (nivel > maxNivel)
-            maxNivel = nivel;
+        proc.asignaNivel(++estado.nivel);
+        if (estado.nivel > estado.maxNivel)
+            estado.maxNivel = estado.nivel;
         
-        dir = 0;
+        estado.dir = 0;
         asignaMemoria(proc.lparam());
+        final int tamParams = estado.dir;
+
         asignaMemoria(proc.ldec());
         asignaMemoria(proc.lins());
 
-        if (local > maxLocal)
-            maxLocal = local;
+        if (optimiza(RECURSION_FINAL))
+        {
+            List<Invoc> finales = new ArrayList<>();
+            llamadasFinales(proc, proc.lins(), finales);
+
+            // Espacio temporal donde se evalúan los nuevos argumentos antes de sobrescribir los parámetros
+            if (!finales.isEmpty())
+            {
+                finales.forEach(invoc -> invoc.asignaDir(estado.dir));
+                estado.local += tamParams; estado.dir += tamParams;
+            }
+        }
+
+        if (estado.local > estado.maxLocal)
+            estado.maxLocal = estado.local;
         
-        proc.asignaEspacio(dir);
+        proc.asignaEspacio(estado.dir);
         
-        --nivel;
-        local -= dir;
-        dir = prevDir;
+        --estado.nivel;
+        estado.local -= estado.dir;
+        estado.dir = prevDir;
+    }
+
+    /**
+        Recolecta las invocaciones de un procedimiento a sí mismo que están en posición final, es decir, tras
+        las cuales solo queda retornar, y que pueden reutilizar su registro de activación.
+    */
+    private static void llamadasFinales(Proc proc, List<? extends Ins> lins, List<Invoc> finales)
+    {
+        if (lins.isEmpty())
+            return;
+
+        Ins ultima = lins.get(lins.size() - 1);
+        if (ultima instanceof Invoc invoc && invoc.eid().vinculo().nodo() == proc.nodo() && reutilizable(proc, invoc))
+            finales.add(invoc);
+        else if (ultima instanceof Seq seq)
+            llamadasFinales(proc, seq.lins(), finales);
+        else if (ultima instanceof IfThen ifThen)
+            llamadasFinales(proc, ifThen.lins(), finales);
+        else if (ultima instanceof IfThenElse ifThenElse)
+        {
+            llamadasFinales(proc, ifThenElse.lins(), finales);
+            llamadasFinales(proc, ifThenElse.lins2(), finales);
+        }
+    }
+
+    /**
+        Indica si una llamada recursiva final puede reutilizar el registro de activación del procedimiento, que
+        se sobrescribe con los nuevos argumentos: ningún argumento por referencia puede designar una variable o
+        un parámetro por valor del propio procedimiento. Sí pueden designar sus parámetros por referencia, que
+        ya apuntan fuera de su registro de activación, las variables de otros niveles y la memoria dinámica.
+
+        <br>Los parámetros por valor convertidos por la elisión de copias son ya parámetros por referencia, de
+        modo que sus argumentos se comprueban igual.
+    */
+    private static boolean reutilizable(Proc proc, Invoc invoc)
+    {
+        final List<? extends Param> lparam = proc.lparam();
+        final List<? extends Exp> lexp = invoc.lexp();
+
+        for (int i = 0; i < lparam.size(); ++i)
+        {
+            final INodo raiz = raiz(lexp.get(i));
+
+            if (lparam.get(i) instanceof Pvar && raiz != null && !(raiz instanceof Pvar)
+                && raiz.nivel() == proc.nivel())
+            {
+                return false;
+            }
+        }
+
+        return true;
     }
 
     // Parámetros formales
 
     public static void asignaMemoria(Pvar pvar)
     { 
-        pvar.asignaDir(dir);
-        pvar.asignaNivel(nivel);
+        final Estado estado = estado();
+
+        pvar.asignaDir(estado.dir);
+        pvar.asignaNivel(estado.nivel);
         
         asignaMemoria(pvar.tipo());
-        local += 1; dir += 1;
+        estado.local += 1; estado.dir += 1;
     }
     
     public static void asignaMemoria(Pval pval)
     {
-        pval.asignaDir(dir);
-        pval.asignaNivel(nivel);
+        final Estado estado = estado();
+
+        pval.asignaDir(estado.dir);
+        pval.asignaNivel(estado.nivel);
         
         Tipo tipo = pval.tipo();
         asignaMemoria(tipo);
 
         int espacio = tipo.espacio();
-        local = espacio; dir += espacio;
+        estado.local = espacio; estado.dir += espacio;
     }
 
     // Tipos
@@ -206,5 +579,20 @@ public class Asignacion extends Procesamiento
         asignaMemoria(ifThenElse.lins2());
     }
     
-    public static void asignaMemoria(While wh) { asignaMemoria(wh.lins()); }
+    /**
+        Las optimizaciones de bucles guardan valores en celdas de la memoria estática, por lo que solo se
+        aplican a bucles que no invocan ni declaran procedimientos: así ninguna otra activación puede
+        sobrescribir sus celdas mientras se ejecutan.
+    */
+    public static void asignaMemoria(While wh)
+    {
+        if (!tieneLlamadas(wh))
+        {
+            if (optimiza(REDUCCION))
+                buscaPunteros(wh);
+            if (optimiza(INVARIANTES))
+                buscaInvariantes(wh);
+        }
+        asignaMemoria(wh.lins());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,176 @@
+package procesamientos;
+
+import asint.Sintaxis.Proc;
+import asint.Sintaxis.Prog;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import procesamientos.Procesamiento.OPTIMIZACION;
+
+import static tiny.Ejecutable.imprimirExcepcion;
+
+/**
+    Contexto de una compilación: las optimizaciones activas, los errores encontrados y el estado de todas las
+    fases del procesamiento de un programa, desde la vinculación hasta la generación de código.
+
+    <br>Los métodos de procesamiento son estáticos, pues se despachan según la clase del nodo procesado, y no
+    reciben el contexto como argumento: cada fase lo obtiene con {@link #actual()}, que devuelve el contexto
+    vinculado al hilo que la ejecuta. Cada hilo dispone por defecto de su propio contexto, y {@link #ejecuta}
+    vincula un contexto dado mientras se procesa un programa. Así, una misma máquina virtual de Java puede
+    compilar cualquier número de programas, uno tras otro o concurrentemente, siempre que cada compilación
+    emplee un contexto nuevo.
+
+    @version Java SE 17
+    @see Procesamiento
+
+    @author Félix Rodolfo Díaz Lorente
+    @author Álvaro Magalló Paz
+    @author Alejandro del Río Caballero
+*/
+public final class Contexto
+{
+    private static final ThreadLocal<Contexto> actual = ThreadLocal.withInitial(Contexto::new);
+
+    /**
+        Compilación, o parte de ella, que se ejecuta en un contexto.
+    */
+    @FunctionalInterface
+    public interface Compilacion<T, E extends Exception>
+    {
+        T compila() throws E;
+    }
+
+    // Opciones y errores
+
+    final Set<OPTIMIZACION> optimizaciones = EnumSet.noneOf(OPTIMIZACION.class);
+    final Map<OPTIMIZACION, Integer> parametros = new EnumMap<>(OPTIMIZACION.class);
+
+    final List<Throwable> errores = new ArrayList<>();
+    PrintStream err = System.err; // Flujo donde se imprime cada error, si no es null
+
+    // Procedimientos recolectados
+
+    List<Proc> procs = null;
+    Prog procsProg = null; // Programa del que se han recolectado los procedimientos
+
+    // Estado de cada fase
+
+    final Vinculacion.Estado vinculacion = new Vinculacion.Estado();
+    final Especializacion.Estado especializacion = new Especializacion.Estado();
+    final Expansion.Estado expansion = new Expansion.Estado();
+    final Desenrollado.Estado desenrollado = new Desenrollado.Estado();
+    final Eliminacion.Estado eliminacion = new Eliminacion.Estado();
+    final Elision.Estado elision = new Elision.Estado();
+    final Nulidad.Estado nulidad = new Nulidad.Estado();
+    final Pureza.Estado pureza = new Pureza.Estado();
+    final Asignacion.Estado asignacion = new Asignacion.Estado();
+    final TraduccionSSA.Estado traduccion = new TraduccionSSA.Estado();
+    final Etiquetado.Estado etiquetado = new Etiquetado.Estado();
+    final GeneracionCodigo.Estado generacion = new GeneracionCodigo.Estado();
+    final GeneracionSSA.Estado generacionSSA = new GeneracionSSA.Estado();
+
+    /**
+        Crea un contexto sin optimizaciones activas, para una compilación nueva.
+    */
+    public Contexto() {}
+
+    /**
+        Devuelve el contexto vinculado al hilo en curso.
+
+        @return El contexto de la compilación que ejecuta este hilo.
+    */
+    public static Contexto actual() { return actual.get(); }
+
+    /**
+        Ejecuta una compilación en este contexto, vinculándolo al hilo en curso mientras dure. Al terminar, se
+        restablece el contexto vinculado anteriormente.
+
+        @param compilacion compilación que se ejecuta
+
+        @return El resultado de la compilación.
+
+        @throws E si la compilación lanza una excepción.
+    */
+    public <T, E extends Exception> T ejecuta(Compilacion<T, E> compilacion) throws E
+    {
+        final Contexto anterior = actual.get();
+        actual.set(this);
+        try { return compilacion.compila(); }
+        finally { actual.set(anterior); }
+    }
+
+    /**
+        Activa una optimización opcional en las fases que se ejecuten en este contexto.
+
+        @param opt la optimización que se activa
+
+        @return Este contexto.
+    */
+    public Contexto activa(OPTIMIZACION opt)
+    {
+        optimizaciones.add(opt);
+        return this;
+    }
+
+    /**
+        Activa una optimización opcional con un parámetro numérico, como un umbral de tamaño.
+
+        @param opt la optimización que se activa
+        @param valor el valor del parámetro de la optimización
+
+        @return Este contexto.
+    */
+    public Contexto activa(OPTIMIZACION opt, int valor)
+    {
+        parametros.put(opt, valor);
+        return activa(opt);
+    }
+
+    /**
+        Establece el flujo donde se imprime cada error encontrado en este contexto, en cuanto se produce. Por
+        defecto, es la salida de errores estándar.
+
+        @param err flujo de salida de los errores, o <code>null</code> para no imprimirlos
+
+        @return Este contexto.
+    */
+    public Contexto informaEn(PrintStream err)
+    {
+        this.err = err;
+        return this;
+    }
+
+    /**
+        Registra un error encontrado en una de las fases ejecutadas en este contexto, y lo imprime si procede.
+        Varios hilos pueden informar a la vez, como en la generación de código en paralelo.
+
+        @param error el error encontrado
+    */
+    synchronized void informa(Throwable error)
+    {
+        errores.add(error);
+        if (err != null)
+            imprimirExcepcion(error, err, false);
+    }
+
+    /**
+        Devuelve el número de errores encontrados en las fases ejecutadas en este contexto.
+
+        @return El número de errores de la compilación.
+    */
+    public synchronized int errores() { return errores.size(); }
+
+    /**
+        Devuelve los errores encontrados en las fases ejecutadas en este contexto, en el orden en que se han
+        producido.
+
+        @return Una lista inmodificable con los errores de la compilación.
+    */
+    public synchronized List<Throwable> diagnosticos() { return List.copyOf(errores); }
+}
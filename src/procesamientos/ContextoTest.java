@@ -0,0 +1,185 @@
+package procesamientos;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import asint.Sintaxis.Prog;
+import procesamientos.Procesamiento.FASE;
+import procesamientos.Procesamiento.OPTIMIZACION;
+
+import static procesamientos.Procesamiento.OPTIMIZACION.*;
+import static tiny.Ejecutable.MANEJADOR_EXCEPCION;
+
+/**
+    Banco de pruebas de los contextos de compilación: compila cada programa de prueba con varias combinaciones
+    de optimizaciones, primero una vez tras otra en el mismo hilo y después concurrentemente en varios hilos, y
+    comprueba que cada compilación produce exactamente el mismo código que la primera. Además de los programas
+    de prueba, compila uno con {@value #NUM_PROCS} procedimientos, cuyo código se genera en paralelo salvo
+    con la traducción a SSA.
+
+    <br>Argumentos: el número de hilos (por defecto, el número de procesadores disponibles) y el número de veces
+    que se repite cada compilación concurrente (por defecto, {@value #REPETICIONES_POR_DEFECTO}).
+*/
+final class ContextoTest
+{
+    private ContextoTest() {}
+
+    private static final String DIR_PRUEBAS = "test/pass"; // Relativo al directorio del repositorio
+    private static final String EXT_PROGRAMA = ".tiny";
+    private static final int REPETICIONES_POR_DEFECTO = 8;
+    private static final int NUM_PROCS = 100;
+
+    private static final Map<String, Set<OPTIMIZACION>> CONFIGURACIONES = new LinkedHashMap<>();
+    static
+    {
+        CONFIGURACIONES.put("sin optimizaciones", EnumSet.noneOf(OPTIMIZACION.class));
+        CONFIGURACIONES.put("sin SSA", EnumSet.complementOf(EnumSet.of(SSA)));
+        CONFIGURACIONES.put("todas", EnumSet.allOf(OPTIMIZACION.class));
+    }
+
+    /**
+        Escribe en un archivo temporal un programa con {@value #NUM_PROCS} procedimientos, a los que llama el
+        programa principal.
+    */
+    private static File programaGrande() throws IOException
+    {
+        StringBuilder fuente = new StringBuilder("var x: int;\nvar a: array [10] of int;\n");
+        for (int i = 0; i < NUM_PROCS; ++i)
+        {
+            fuente.append("proc p").append(i).append("(n: int, var r: int)\nbegin\n")
+                .append("  while n > 0 do r = r + n * ").append(i % 7 + 1)
+                .append("; a[n / 10] = r; n = n - 1; end;\n")
+                .append("  if (r > 100) and (r < 1000) then x = x + 1; write r; nl; end;\n")
+                .append("end;\n");
+        }
+
+        fuente.append("begin\n  x = 0;\n");
+        for (int i = 0; i < NUM_PROCS; ++i)
+            fuente.append("  p").append(i).append("(").append(i % 13).append(", x);\n");
+        fuente.append("  write x; nl;\nend.\n");
+
+        File programa = File.createTempFile("grande", EXT_PROGRAMA);
+        programa.deleteOnExit();
+        Files.writeString(programa.toPath(), fuente, StandardCharsets.UTF_8);
+        return programa;
+    }
+
+    /**
+        Compila un programa en un contexto nuevo y devuelve el listado de su código.
+    */
+    private static String compila(File programa, Set<OPTIMIZACION> opts) throws Exception
+    {
+        Contexto contexto = new Contexto();
+        opts.forEach(contexto::activa);
+
+        return contexto.ejecuta(() -> {
+            Prog prog;
+            try (FileReader in = new FileReader(programa, StandardCharsets.UTF_8))
+            {
+                prog = new AnalizadorSintactico(in).Prog();
+            }
+
+            for (FASE fase: FASE.values())
+                prog = Procesamiento.procesa(fase, prog);
+
+            if (contexto.errores() > 0)
+                throw new AssertionError(contexto.errores() + " errores al compilar " + programa);
+
+            ByteArrayOutputStream listado = new ByteArrayOutputStream();
+            GeneracionCodigo.maquina().imprimeLista(new PrintStream(listado, true, StandardCharsets.UTF_8));
+
+            return listado.toString(StandardCharsets.UTF_8);
+        });
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Thread.setDefaultUncaughtExceptionHandler(MANEJADOR_EXCEPCION);
+
+        final int hilos = (args.length > 0)? Integer.parseInt(args[0]): Runtime.getRuntime().availableProcessors();
+        final int repeticiones = (args.length > 1)? Integer.parseInt(args[1]): REPETICIONES_POR_DEFECTO;
+
+        File[] programas = new File(DIR_PRUEBAS).listFiles((dir, nombre) -> nombre.endsWith(EXT_PROGRAMA));
+        if (programas == null || programas.length == 0)
+            throw new IllegalStateException("No se encuentran programas de prueba en " + DIR_PRUEBAS);
+        Arrays.sort(programas);
+
+        programas = Arrays.copyOf(programas, programas.length + 1);
+        programas[programas.length - 1] = programaGrande();
+
+        // Código de referencia: la primera compilación de cada programa con cada configuración
+        Map<String, String> referencia = new LinkedHashMap<>();
+        for (File programa: programas)
+        {
+            for (Map.Entry<String, Set<OPTIMIZACION>> conf: CONFIGURACIONES.entrySet())
+                referencia.put(programa.getName() + " (" + conf.getKey() + ")", compila(programa, conf.getValue()));
+        }
+
+        int compilaciones = 0, fallos = 0;
+
+        // Las compilaciones sucesivas en el mismo hilo no deben verse afectadas por las anteriores
+        for (File programa: programas)
+        {
+            for (Map.Entry<String, Set<OPTIMIZACION>> conf: CONFIGURACIONES.entrySet())
+            {
+                final String clave = programa.getName() + " (" + conf.getKey() + ")";
+
+                ++compilaciones;
+                if (!referencia.get(clave).equals(compila(programa, conf.getValue())))
+                {
+                    ++fallos;
+                    System.out.printf("FALLO: %s (secuencial)%n", clave);
+                }
+            }
+        }
+
+        // Ni las compilaciones concurrentes en otros hilos
+        ExecutorService ejecutor = Executors.newFixedThreadPool(hilos);
+        try
+        {
+            List<String> claves = new ArrayList<>();
+            List<Future<String>> listados = new ArrayList<>();
+            for (int i = 0; i < repeticiones; ++i)
+            {
+                for (File programa: programas)
+                {
+                    for (Map.Entry<String, Set<OPTIMIZACION>> conf: CONFIGURACIONES.entrySet())
+                    {
+                        claves.add(programa.getName() + " (" + conf.getKey() + ")");
+                        listados.add(ejecutor.submit(() -> compila(programa, conf.getValue())));
+                    }
+                }
+            }
+
+            for (int i = 0; i < claves.size(); ++i)
+            {
+                ++compilaciones;
+                if (!referencia.get(claves.get(i)).equals(listados.get(i).get()))
+                {
+                    ++fallos;
+                    System.out.printf("FALLO: %s (concurrente)%n", claves.get(i));
+                }
+            }
+        }
+        finally { ejecutor.shutdown(); }
+
+        System.out.printf("%d compilaciones en %d hilos, %d fallos%n", compilaciones, hilos, fallos);
+        if (fallos > 0)
+            System.exit(1);
+    }
+}
@@ -0,0 +1,311 @@
+package procesamientos;
+
+import static asint.Sintaxis.*;
+import static procesamientos.Procesamiento.OPTIMIZACION.DESENROLLADO;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+    Clase utilidad que contiene todos los métodos requeridos para ejecutar la fase de <b>desenrollado de
+    bucles</b> en el procesamiento de nuestro lenguaje Tiny.
+
+    <br>Esta fase reconoce los bucles <b>contados</b>: aquellos cuya condición compara con <code>&lt;</code>,
+    <code>&lt;=</code>, <code>&gt;</code> o <code>&gt;=</code> una variable entera de inducción con un límite
+    invariante (un literal o una variable que el cuerpo no modifica), y cuyo cuerpo termina sumando o restando
+    una constante a la variable, sin modificarla en ningún otro punto. Cada bucle contado que no contiene otros
+    bucles ni invocaciones, y cuyo cuerpo no supera un umbral de tamaño, se sustituye por:
+    <ul>
+        <li>un bucle con <i>k</i> copias consecutivas del cuerpo, que se ejecuta mientras la condición se
+            cumpla para las <i>k</i> iteraciones siguientes, de modo que solo se evalúa una vez por cada
+            <i>k</i> de ellas;</li>
+        <li>el bucle original, que ejecuta las iteraciones restantes, menos de <i>k</i>.</li>
+    </ul>
+    El factor <i>k</i> es configurable. Para que ningún cálculo desborde, la condición del bucle desenrollado
+    compara la variable de inducción con el límite menos <i>k</i> - 1 pasos: si el límite es un literal, se
+    calcula al compilar, y el bucle no se desenrolla cuando no cabe en un entero; si es una variable, el bucle
+    desenrollado solo se ejecuta cuando la resta no desborda.
+
+    @version Java SE 17
+    @see Procesamiento
+
+    @author Félix Rodolfo Díaz Lorente
+    @author Álvaro Magalló Paz
+    @author Alejandro del Río Caballero
+*/
+public class Desenrollado extends Procesamiento
+{
+    private Desenrollado() {} // No se permite instanciar esta clase
+
+    public static <T extends INodo> T desenrolla(T nodo) { return reescribe(Desenrollado.class, "desenrolla", nodo); }
+
+    public static <T extends INodo> List<? extends T> desenrolla(List<? extends T> lista) { return reescribe(Desenrollado.class, "desenrolla", lista); }
+
+    /**
+        Número por defecto de copias del cuerpo de un bucle desenrollado.
+    */
+    public static final int FACTOR_POR_DEFECTO = 4;
+
+    /**
+        Tamaño máximo, en nodos, del cuerpo de un bucle que se desenrolla.
+    */
+    public static final int UMBRAL_CUERPO = 48;
+
+    /**
+        Estado del desenrollado de bucles en una compilación.
+    */
+    static final class Estado
+    {
+        int factor = FACTOR_POR_DEFECTO;
+    }
+
+    private static Estado estado() { return Contexto.actual().desenrollado; }
+
+    // Funciones auxiliares
+
+    private static boolean esEntera(Exp exp) { return refFact(exp.tipo()) instanceof Int; }
+
+    private static boolean esVariable(Exp exp)
+    {
+        return exp instanceof Ident ident && (ident.vinculo() instanceof Var || ident.vinculo() instanceof Pval);
+    }
+
+    private static boolean mismaVariable(Exp exp, INodo var) { return exp instanceof Ident ident && ident.vinculo() == var; }
+
+    /**
+        Devuelve el paso con el que la instrucción dada modifica una variable de inducción, o <code>0</code> si
+        no es de la forma <code>i = i + c</code>, <code>i = c + i</code> o <code>i = i - c</code>.
+    */
+    private static int paso(Ins ins)
+    {
+        if (!(ins instanceof Asig asig && esVariable(asig.ei()) && esEntera(asig.ei())))
+            return 0;
+
+        final INodo var = asig.ei().vinculo();
+        try
+        {
+            if (asig.ed() instanceof Suma suma && mismaVariable(suma.op1(), var) && suma.op2() instanceof Entero c)
+                return Integer.parseInt(c.lit());
+            else if (asig.ed() instanceof Suma suma && mismaVariable(suma.op2(), var) && suma.op1() instanceof Entero c)
+                return Integer.parseInt(c.lit());
+            else if (asig.ed() instanceof Resta resta && mismaVariable(resta.op1(), var) && resta.op2() instanceof Entero c)
+                return -Integer.parseInt(c.lit());
+        } catch (NumberFormatException e) {} // El error se informará al generar el código
+
+        return 0;
+    }
+
+    /**
+        Indica si el cuerpo de un bucle admite el desenrollado: no contiene bucles ni invocaciones, no supera el
+        umbral de tamaño y, salvo su última instrucción, no escribe en la variable de inducción ni en el límite,
+        ni a través de un parámetro por referencia, que podría referirse a cualquiera de ellos.
+    */
+    private static boolean esDesenrollable(List<? extends Ins> lins, INodo var, INodo limite)
+    {
+        int[] tam = { 0 };
+        boolean[] desenrollable = { true };
+
+        recorre(lins.subList(0, lins.size() - 1), nodo -> {
+            final Exp destino = (nodo instanceof Asig asig)? asig.ei(): (nodo instanceof Read read)? read.exp():
+                (nodo instanceof New n)? n.exp(): null;
+
+            if (nodo instanceof While || nodo instanceof Invoc)
+                desenrollable[0] = false;
+            else if (destino != null)
+            {
+                final INodo raiz = raiz(destino);
+                if (raiz != null && (raiz == var || raiz == limite || raiz instanceof Pvar))
+                    desenrollable[0] = false;
+            }
+        });
+        recorre(lins, nodo -> ++tam[0]);
+
+        return desenrollable[0] && tam[0] <= UMBRAL_CUERPO;
+    }
+
+    /**
+        Devuelve la comparación equivalente con los operandos intercambiados.
+    */
+    private static ExpRel simetrica(ExpRel rel, Exp op1, Exp op2, Nodo nodo)
+    {
+        if (rel instanceof Lt)
+            return new Gt(op1, op2, nodo);
+        else if (rel instanceof Le)
+            return new Ge(op1, op2, nodo);
+        else if (rel instanceof Gt)
+            return new Lt(op1, op2, nodo);
+        else // rel instanceof Ge
+            return new Le(op1, op2, nodo);
+    }
+
+    private static ExpRel misma(ExpRel rel, Exp op1, Exp op2, Nodo nodo)
+    {
+        if (rel instanceof Lt)
+            return new Lt(op1, op2, nodo);
+        else if (rel instanceof Le)
+            return new Le(op1, op2, nodo);
+        else if (rel instanceof Gt)
+            return new Gt(op1, op2, nodo);
+        else // rel instanceof Ge
+            return new Ge(op1, op2, nodo);
+    }
+
+    private static Nodo nodo(INodo origen, Tipo tipo)
+    {
+        Nodo nodo = new Nodo(origen.nodo().linea, origen.nodo().col);
+        nodo.tipo = tipo;
+        return nodo;
+    }
+
+    private static Exp copia(Exp exp)
+    {
+        Nodo nodo = nodo(exp, exp.tipo());
+        nodo.vinculo = exp.vinculo();
+
+        return (exp instanceof Ident ident)? new Ident(ident.lit(), nodo): new Entero(((Entero) exp).lit(), nodo);
+    }
+
+    // Programa
+
+    public static Prog desenrolla(Prog prog)
+    {
+        if (!optimiza(DESENROLLADO))
+            return prog;
+
+        estado().factor = parametro(DESENROLLADO, FACTOR_POR_DEFECTO);
+        if (estado().factor < 2)
+            return prog;
+
+        var ldec = desenrolla(prog.ldec());
+        var lins = desenrolla(prog.lins());
+
+        return (ldec == prog.ldec() && lins == prog.lins())? prog: new Prog(ldec, lins, prog.nodo());
+    }
+
+    // Declaraciones
+
+    public static Proc desenrolla(Proc proc)
+    {
+        var ldec = desenrolla(proc.ldec());
+        var lins = desenrolla(proc.lins());
+
+        if (ldec == proc.ldec() && lins == proc.lins())
+            return proc;
+        return new Proc(proc.id(), proc.lparam(), ldec, lins, proc.nodo());
+    }
+
+    // Instrucciones de bloque
+
+    public static Ins desenrolla(Seq seq)
+    {
+        var ldec = desenrolla(seq.ldec());
+        var lins = desenrolla(seq.lins());
+
+        return (ldec == seq.ldec() && lins == seq.lins())? seq: new Seq(ldec, lins, seq.nodo());
+    }
+
+    public static Ins desenrolla(IfThen ifThen)
+    {
+        var lins = desenrolla(ifThen.lins());
+        return (lins == ifThen.lins())? ifThen: new IfThen(ifThen.exp(), lins, ifThen.nodo());
+    }
+
+    public static Ins desenrolla(IfThenElse ifThenElse)
+    {
+        var lins = desenrolla(ifThenElse.lins());
+        var lins2 = desenrolla(ifThenElse.lins2());
+
+        if (lins == ifThenElse.lins() && lins2 == ifThenElse.lins2())
+            return ifThenElse;
+        return new IfThenElse(ifThenElse.exp(), lins, lins2, ifThenElse.nodo());
+    }
+
+    public static Object desenrolla(While wh)
+    {
+        var lins = desenrolla(wh.lins());
+        if (lins != wh.lins())
+            wh = new While(wh.exp(), lins, wh.nodo());
+
+        if (lins.isEmpty() || !(wh.exp() instanceof Lt || wh.exp() instanceof Le || wh.exp() instanceof Gt
+            || wh.exp() instanceof Ge))
+        {
+            return wh;
+        }
+
+        final Ins incremento = lins.get(lins.size() - 1);
+        final int paso = paso(incremento);
+        if (paso == 0)
+            return wh;
+
+        // La variable de inducción se coloca como primer operando de la comparación
+        final INodo var = ((Asig) incremento).ei().vinculo();
+        final ExpRel rel = (ExpRel) wh.exp();
+        final Exp induccion, limite;
+        final boolean creciente;
+
+        if (mismaVariable(rel.op1(), var))
+        {
+            induccion = rel.op1();
+            limite = rel.op2();
+            creciente = (rel instanceof Lt || rel instanceof Le);
+        }
+        else if (mismaVariable(rel.op2(), var))
+        {
+            induccion = rel.op2();
+            limite = rel.op1();
+            creciente = (rel instanceof Gt || rel instanceof Ge);
+        }
+        else
+            return wh;
+
+        if (creciente != (paso > 0) || !esEntera(limite) || !(limite instanceof Entero || esVariable(limite))
+            || mismaVariable(limite, var) || !esDesenrollable(lins, var, limite.vinculo()))
+        {
+            return wh;
+        }
+
+        // Condición de las k iteraciones siguientes: i + (k - 1) * paso frente al límite, que se evalúa como i
+        // frente a límite - (k - 1) * paso para que la variable de inducción no desborde
+        final long avance = (long) (estado().factor - 1) * paso;
+        if (avance != (int) avance)
+            return wh;
+
+        final Exp ajustado;
+        final Exp guarda; // Cuando el límite ajustado no desborda; sin ella, el bucle desenrollado no se ejecuta
+        final Nodo nodoAjuste = nodo(rel, INT);
+        if (limite instanceof Entero ent)
+        {
+            final long valor;
+            try { valor = Long.parseLong(ent.lit()) - avance; }
+            catch (NumberFormatException e) { return wh; } // El error se informará al generar el código
+
+            if (valor != (int) valor)
+                return wh;
+            ajustado = new Entero(Long.toString(valor), nodoAjuste);
+            guarda = null;
+        }
+        else if (avance > 0)
+        {
+            ajustado = new Resta(copia(limite), new Entero(Long.toString(avance), nodo(rel, INT)), nodoAjuste);
+            guarda = new Ge(copia(limite), new Entero(Long.toString(Integer.MIN_VALUE + avance), nodo(rel, INT)),
+                nodo(rel, BOOL));
+        }
+        else
+        {
+            ajustado = new Suma(copia(limite), new Entero(Long.toString(-avance), nodo(rel, INT)), nodoAjuste);
+            guarda = new Le(copia(limite), new Entero(Long.toString(Integer.MAX_VALUE + avance), nodo(rel, INT)),
+                nodo(rel, BOOL));
+        }
+
+        final ExpRel cond = (induccion == rel.op1())? misma(rel, copia(induccion), ajustado, nodo(rel, BOOL)):
+            simetrica(rel, copia(induccion), ajustado, nodo(rel, BOOL));
+
+        List<Ins> cuerpo = new ArrayList<>();
+        for (int k = 0; k < estado().factor; ++k)
+            cuerpo.addAll(Expansion.copia(lins));
+
+        final Ins desenrollado = new While(cond, Collections.unmodifiableList(cuerpo), nodo(wh, OK));
+        return List.of((guarda == null)? desenrollado: new IfThen(guarda, List.of(desenrollado), nodo(wh, OK)), wh);
+    }
+}
@@ -0,0 +1,183 @@
+package procesamientos;
+
+import static asint.Sintaxis.*;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+    Clase utilidad que contiene todos los métodos requeridos para ejecutar la fase de <b>eliminación de código
+    muerto</b> en el procesamiento de nuestro lenguaje Tiny.
+
+    <br>Esta fase reescribe el árbol de sintaxis abstracta ya plegado en dos pasos:
+    <ol>
+        <li>Sustituye cada instrucción condicional cuya condición es un literal por la rama que se ejecuta
+            siempre, y elimina los bucles cuya condición es <code>false</code>.</li>
+        <li>Calcula los procedimientos alcanzables desde las instrucciones del programa principal siguiendo sus
+            invocaciones, y elimina las declaraciones de los demás, de modo que no se etiquetan ni se genera
+            código para ellos.</li>
+    </ol>
+
+    @version Java SE 17
+    @see Procesamiento
+
+    @author Félix Rodolfo Díaz Lorente
+    @author Álvaro Magalló Paz
+    @author Alejandro del Río Caballero
+*/
+public class Eliminacion extends Procesamiento
+{
+    private Eliminacion() {} // No se permite instanciar esta clase
+
+    public static <T extends INodo> T elimina(T nodo) { return reescribe(Eliminacion.class, "elimina", nodo); }
+
+    public static <T extends INodo> List<? extends T> elimina(List<? extends T> lista) { return reescribe(Eliminacion.class, "elimina", lista); }
+
+    public static void invocaciones(INodo nodo) { procesa(Eliminacion.class, "invocaciones", nodo); }
+
+    public static void invocaciones(List<? extends INodo> lista) { procesa(Eliminacion.class, "invocaciones", lista); }
+
+    public static <T extends INodo> List<? extends T> poda(List<? extends T> lista) { return reescribe(Eliminacion.class, "poda", lista); }
+
+    /**
+        Estado de la eliminación de código muerto en una compilación.
+    */
+    static final class Estado
+    {
+        Deque<Nodo> pendientes = new ArrayDeque<>(); // Procedimientos invocados por recorrer
+        Set<Nodo> alcanzables = new HashSet<>(); // Procedimientos alcanzables
+    }
+
+    private static Estado estado() { return Contexto.actual().eliminacion; }
+
+    // Programa
+
+    public static Prog elimina(Prog prog)
+    {
+        var ldec = elimina(prog.ldec());
+        var lins = elimina(prog.lins());
+
+        if (ldec != prog.ldec() || lins != prog.lins())
+            prog = new Prog(ldec, lins, prog.nodo());
+
+        // Los procedimientos se identifican por su nodo, que comparten con los vínculos de sus invocaciones
+        Map<Nodo, Proc> procs = new HashMap<>();
+        recolectaProcs(prog).forEach(proc -> procs.put(proc.nodo(), proc));
+
+        invocaciones(prog.lins());
+        while (!estado().pendientes.isEmpty())
+        {
+            Proc proc = procs.get(estado().pendientes.pop());
+            if (proc != null)
+                invocaciones(proc.lins());
+        }
+
+        ldec = poda(prog.ldec());
+        return (ldec == prog.ldec())? prog: new Prog(ldec, prog.lins(), prog.nodo());
+    }
+
+    // Declaraciones
+
+    public static Proc elimina(Proc proc)
+    {
+        var ldec = elimina(proc.ldec());
+        var lins = elimina(proc.lins());
+
+        if (ldec == proc.ldec() && lins == proc.lins())
+            return proc;
+        return new Proc(proc.id(), proc.lparam(), ldec, lins, proc.nodo());
+    }
+
+    // Instrucciones de bloque
+
+    public static Ins elimina(Seq seq)
+    {
+        var ldec = elimina(seq.ldec());
+        var lins = elimina(seq.lins());
+
+        return (ldec == seq.ldec() && lins == seq.lins())? seq: new Seq(ldec, lins, seq.nodo());
+    }
+
+    public static Object elimina(IfThen ifThen)
+    {
+        final Exp exp = ifThen.exp();
+        var lins = elimina(ifThen.lins());
+
+        if (exp instanceof True)
+            return lins;
+        else if (exp instanceof False)
+            return List.of();
+
+        return (lins == ifThen.lins())? ifThen: new IfThen(exp, lins, ifThen.nodo());
+    }
+
+    public static Object elimina(IfThenElse ifThenElse)
+    {
+        final Exp exp = ifThenElse.exp();
+        var lins = elimina(ifThenElse.lins());
+        var lins2 = elimina(ifThenElse.lins2());
+
+        if (exp instanceof True)
+            return lins;
+        else if (exp instanceof False)
+            return lins2;
+
+        // Sin rama falsa, es una condicional simple. La rama cierta sí puede quedar vacía: el salto de la
+        // condición se dirige al comienzo de la falsa
+        if (lins2.isEmpty())
+            return new IfThen(exp, lins, ifThenElse.nodo());
+
+        if (lins == ifThenElse.lins() && lins2 == ifThenElse.lins2())
+            return ifThenElse;
+        return new IfThenElse(exp, lins, lins2, ifThenElse.nodo());
+    }
+
+    public static Object elimina(While wh)
+    {
+        final Exp exp = wh.exp();
+        var lins = elimina(wh.lins());
+
+        if (exp instanceof False)
+            return List.of();
+
+        return (lins == wh.lins())? wh: new While(exp, lins, wh.nodo());
+    }
+
+    // Recolección de invocaciones
+
+    public static void invocaciones(Invoc invoc)
+    {
+        final Nodo proc = invoc.eid().vinculo().nodo();
+
+        if (estado().alcanzables.add(proc))
+            estado().pendientes.push(proc);
+    }
+
+    public static void invocaciones(Seq seq) { invocaciones(seq.lins()); }
+
+    public static void invocaciones(IfThen ifThen) { invocaciones(ifThen.lins()); }
+
+    public static void invocaciones(IfThenElse ifThenElse)
+    {
+        invocaciones(ifThenElse.lins());
+        invocaciones(ifThenElse.lins2());
+    }
+
+    public static void invocaciones(While wh) { invocaciones(wh.lins()); }
+
+    // Poda de procedimientos inalcanzables
+
+    public static Object poda(Proc proc)
+    {
+        if (!estado().alcanzables.contains(proc.nodo()))
+            return List.of();
+
+        var ldec = poda(proc.ldec());
+        return (ldec == proc.ldec())? proc: new Proc(proc.id(), proc.lparam(), ldec, proc.lins(), proc.nodo());
+    }
+}
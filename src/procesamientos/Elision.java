@@ -0,0 +1,304 @@
+package procesamientos;
+
+import static asint.Sintaxis.*;
+import static procesamientos.Procesamiento.OPTIMIZACION.ELISION;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+    Clase utilidad que contiene todos los métodos requeridos para ejecutar la fase de <b>elisión de copias</b>
+    en el procesamiento de nuestro lenguaje Tiny.
+
+    <br>Un parámetro por valor de tipo array o registro se copia íntegramente en cada invocación. Esta fase
+    lo convierte en un parámetro por referencia, de modo que solo se pasa su dirección, cuando ni el
+    procedimiento ni nadie durante su ejecución puede modificar el parámetro o el argumento:
+    <ul>
+        <li>el parámetro no se escribe: no es destino de una asignación, una lectura o una reserva de memoria
+            dinámica, ni argumento de un parámetro por referencia;</li>
+        <li>ninguna escritura fuera del registro de activación del procedimiento, suya o de los procedimientos
+            que invoca, puede alcanzar al argumento: su tipo no contiene el tipo de ningún designador escrito a
+            través de un puntero o de una variable no local;</li>
+        <li>en cada invocación, el argumento no puede solaparse con ningún argumento de un parámetro por
+            referencia, pues ambos designan variables distintas;</li>
+        <li>ni el procedimiento ni los que invoca liberan memoria dinámica.</li>
+    </ul>
+
+    <br>La fase de asignación de memoria reserva entonces una sola celda para cada parámetro convertido.
+
+    @version Java SE 17
+    @see Procesamiento
+
+    @author Félix Rodolfo Díaz Lorente
+    @author Álvaro Magalló Paz
+    @author Alejandro del Río Caballero
+*/
+public class Elision extends Procesamiento
+{
+    private Elision() {} // No se permite instanciar esta clase
+
+    public static <T extends INodo> T elide(T nodo) { return reescribe(Elision.class, "elide", nodo); }
+
+    public static <T extends INodo> List<? extends T> elide(List<? extends T> lista) { return reescribe(Elision.class, "elide", lista); }
+
+    public static void escrituras(INodo nodo) { procesa(Elision.class, "escrituras", nodo); }
+
+    public static void escrituras(List<? extends INodo> lista) { procesa(Elision.class, "escrituras", lista); }
+
+    /**
+        Efectos de escritura de un procedimiento.
+
+        @param locales nodos de sus variables y parámetros por valor
+        @param referencias nodos de sus parámetros por referencia
+        @param escritos nodos de sus variables y parámetros por valor que se escriben
+        @param externos tipos de los designadores que escribe, él o los procedimientos que invoca, fuera de su
+            registro de activación y sin pasar por sus propios parámetros por referencia
+        @param invocados nodos de los procedimientos que invoca
+    */
+    private static record Efectos(Set<Nodo> locales, Set<Nodo> referencias, Set<Nodo> escritos, Set<Tipo> externos,
+        Set<Nodo> invocados) {}
+
+    /**
+        Estado de la elisión de copias en una compilación.
+    */
+    static final class Estado
+    {
+        Efectos efectos = null; // Efectos del procedimiento que se recorre
+        boolean libera = false; // Si el procedimiento que se recorre libera memoria dinámica
+        final Map<Nodo, Nodo> marcos = new HashMap<>(); // Procedimiento de cada variable local
+        final Map<Nodo, Param> elididos = new HashMap<>(); // Parámetros convertidos
+        final Map<Nodo, Proc> reescritos = new HashMap<>(); // Procedimientos con parámetros convertidos
+    }
+
+    private static Estado estado() { return Contexto.actual().elision; }
+
+    // Funciones auxiliares
+
+    private static boolean esCompuesto(Tipo tipo)
+    {
+        Tipo t = refFact(tipo);
+        return t instanceof Array || t instanceof Reg;
+    }
+
+    /**
+        Indica si el argumento de un parámetro convertido y el de un parámetro por referencia se refieren a
+        partes de variables distintas, por lo que no pueden solaparse.
+    */
+    private static boolean disjuntos(Exp arg, Exp ref)
+    {
+        final Estado estado = estado();
+
+        final INodo r1 = raiz(arg), r2 = raiz(ref);
+
+        if (!(r1 instanceof Var || r1 instanceof Pval) || !(r2 instanceof Var || r2 instanceof Pval) || r1.nodo() == r2.nodo())
+            return false;
+
+        // Un parámetro convertido designa a su vez un argumento externo al registro de activación de su
+        // procedimiento, que solo es disjunto con las variables de este
+        return !estado.elididos.containsKey(r1.nodo()) || estado.marcos.get(r1.nodo()) == estado.marcos.get(r2.nodo());
+    }
+
+    /**
+        Anota la escritura de un designador en el procedimiento que se recorre. Las escrituras a través de sus
+        parámetros por referencia se comprueban en cada invocación.
+    */
+    private static void escribe(Exp desig)
+    {
+        final Estado estado = estado();
+
+        final INodo raiz = raiz(desig);
+        final Nodo vinculo = (raiz == null)? null: raiz.nodo();
+
+        if (estado.efectos.locales().contains(vinculo))
+            estado.efectos.escritos().add(vinculo);
+        else if (!estado.efectos.referencias().contains(vinculo))
+            estado.efectos.externos().add(desig.tipo());
+    }
+
+    // Programa
+
+    public static Prog elide(Prog prog)
+    {
+        final Estado estado = estado();
+
+        if (!optimiza(ELISION))
+            return prog;
+
+        Map<Nodo, Efectos> procs = new HashMap<>();
+        Set<Nodo> liberan = new HashSet<>();
+        estado.marcos.clear();
+
+        for (Proc proc: recolectaProcs(prog))
+        {
+            estado.efectos = new Efectos(new HashSet<>(), new HashSet<>(), new HashSet<>(), new HashSet<>(), new HashSet<>());
+            estado.libera = false;
+
+            for (Param param: proc.lparam())
+                (param instanceof Pval? estado.efectos.locales(): estado.efectos.referencias()).add(param.nodo());
+            proc.ldec().stream().filter(dec -> dec instanceof Var).forEach(dec -> estado.efectos.locales().add(dec.nodo()));
+            escrituras(proc.lins());
+
+            procs.put(proc.nodo(), estado.efectos);
+            estado.efectos.locales().forEach(local -> estado.marcos.put(local, proc.nodo()));
+            if (estado.libera)
+                liberan.add(proc.nodo());
+        }
+
+        // Las escrituras externas y liberaciones de un procedimiento alcanzan a sus invocantes
+        boolean cambio = true;
+        while (cambio)
+        {
+            cambio = false;
+            for (var entrada: procs.entrySet())
+            {
+                final Efectos ef = entrada.getValue();
+
+                for (Nodo invocado: ef.invocados())
+                {
+                    final Efectos otro = procs.get(invocado);
+
+                    if (otro == null || liberan.contains(invocado))
+                        cambio |= liberan.add(entrada.getKey());
+                    else
+                        cambio |= ef.externos().addAll(otro.externos());
+                }
+            }
+        }
+
+        estado.elididos.clear();
+        estado.reescritos.clear();
+        for (Proc proc: recolectaProcs(prog))
+        {
+            if (liberan.contains(proc.nodo()))
+                continue;
+
+            final Efectos ef = procs.get(proc.nodo());
+            for (Param param: proc.lparam())
+            {
+                if (param instanceof Pval && esCompuesto(param.tipo()) && !ef.escritos().contains(param.nodo())
+                    && ef.externos().stream().noneMatch(tipo -> contiene(param.tipo(), tipo)))
+                {
+                    estado.elididos.put(param.nodo(), new Pvar(param.id(), param.tipo(), param.nodo()));
+                }
+            }
+        }
+
+        // Un argumento por referencia no puede solaparse con el argumento de un parámetro convertido
+        recorre(prog, nodo -> {
+            if (nodo instanceof Invoc invoc)
+            {
+                final List<? extends Param> lparam = ((Proc) invoc.eid().vinculo()).lparam();
+                final List<? extends Exp> lexp = invoc.lexp();
+
+                for (int i = 0; i < lparam.size(); ++i)
+                {
+                    for (int j = 0; j < lparam.size(); ++j)
+                    {
+                        if (estado.elididos.containsKey(lparam.get(i).nodo()) && lparam.get(j) instanceof Pvar
+                            && !disjuntos(lexp.get(i), lexp.get(j)))
+                        {
+                            estado.elididos.remove(lparam.get(i).nodo());
+                        }
+                    }
+                }
+            }
+        });
+
+        if (estado.elididos.isEmpty())
+            return prog;
+
+        var ldec = elide(prog.ldec());
+        prog = new Prog(ldec, prog.lins(), prog.nodo());
+
+        // Los identificadores pasan a vincularse con los parámetros y procedimientos reescritos
+        recorre(prog, nodo -> {
+            if (nodo instanceof Ident ident && ident.vinculo() != null)
+            {
+                final Nodo vinculo = ident.vinculo().nodo();
+
+                if (estado.elididos.containsKey(vinculo))
+                    ident.vincular(estado.elididos.get(vinculo));
+                else if (estado.reescritos.containsKey(vinculo))
+                    ident.vincular(estado.reescritos.get(vinculo));
+            }
+        });
+
+        return prog;
+    }
+
+    // Declaraciones
+
+    public static Proc elide(Proc proc)
+    {
+        var lparam = elide(proc.lparam());
+        var ldec = elide(proc.ldec());
+
+        if (lparam == proc.lparam() && ldec == proc.ldec())
+            return proc;
+
+        Proc nuevo = new Proc(proc.id(), lparam, ldec, proc.lins(), proc.nodo());
+        estado().reescritos.put(proc.nodo(), nuevo);
+        return nuevo;
+    }
+
+    // Parámetros formales
+
+    public static Param elide(Pval pval) { return estado().elididos.getOrDefault(pval.nodo(), pval); }
+
+    // Instrucciones básicas
+
+    public static void escrituras(Asig asig) { escribe(asig.ei()); }
+
+    public static void escrituras(Invoc invoc)
+    {
+        final Proc proc = (Proc) invoc.eid().vinculo();
+        estado().efectos.invocados().add(proc.nodo());
+
+        Iterator<? extends Param> itp = proc.lparam().iterator();
+        Iterator<? extends Exp> ite = invoc.lexp().iterator();
+        while (itp.hasNext() && ite.hasNext())
+        {
+            Param pf = itp.next();
+            Exp pr = ite.next();
+
+            if (pf instanceof Pvar)
+                escribe(pr);
+        }
+    }
+
+    // Instrucciones de bloque
+
+    public static void escrituras(Seq seq)
+    {
+        for (Dec dec: seq.ldec())
+        {
+            if (dec instanceof Var)
+                estado().efectos.locales().add(dec.nodo());
+        }
+        escrituras(seq.lins());
+    }
+
+    public static void escrituras(IfThen ifThen) { escrituras(ifThen.lins()); }
+
+    public static void escrituras(IfThenElse ifThenElse)
+    {
+        escrituras(ifThenElse.lins());
+        escrituras(ifThenElse.lins2());
+    }
+
+    public static void escrituras(While wh) { escrituras(wh.lins()); }
+
+    // Gestión de la E/S estándar
+
+    public static void escrituras(Read read) { escribe(read.exp()); }
+
+    // Gestión de la memoria dinámica
+
+    public static void escrituras(New n) { escribe(n.exp()); }
+
+    public static void escrituras(Delete d) { estado().libera = true; }
+}
@@ -0,0 +1,459 @@
+package procesamientos;
+
+import static asint.Sintaxis.*;
+import static procesamientos.Procesamiento.OPTIMIZACION.ESPECIALIZACION;
+import static tiny.Ejecutable.imprimirExcepcion;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.RecordComponent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+    Clase utilidad que contiene todos los métodos requeridos para ejecutar la fase de <b>especialización de
+    procedimientos</b> en el procesamiento de nuestro lenguaje Tiny.
+
+    <br>Esta fase propaga los argumentos literales de las invocaciones a los parámetros por valor de tipo básico
+    de los procedimientos, de modo que el plegado de constantes y la eliminación de código muerto actúen dentro
+    de sus cuerpos:
+    <ul>
+        <li>si todas las invocaciones de un procedimiento pasan el mismo literal a un parámetro (o, en las
+            invocaciones recursivas, el propio parámetro), el parámetro se sustituye por el literal en el
+            procedimiento y desaparece de sus invocaciones;</li>
+        <li>en otro caso, las invocaciones que pasan los mismos literales comparten una copia especializada del
+            procedimiento, sin esos parámetros, siempre que estos se usen en el cuerpo y que el tamaño total de
+            las copias, en nodos del árbol de sintaxis abstracta, no supere un presupuesto configurable. Las
+            copias que más usos de sus parámetros sustituyen se crean primero.</li>
+    </ul>
+
+    <br>Solo se especializan los procedimientos que solo declaran variables, y los parámetros que no se
+    escriben en su cuerpo. El proceso se repite, plegando las constantes de los cuerpos copiados, hasta que no
+    quedan invocaciones que especializar.
+
+    @version Java SE 17
+    @see Procesamiento
+
+    @author Félix Rodolfo Díaz Lorente
+    @author Álvaro Magalló Paz
+    @author Alejandro del Río Caballero
+*/
+public class Especializacion extends Procesamiento
+{
+    private Especializacion() {} // No se permite instanciar esta clase
+
+    /**
+        Tamaño total por defecto, en nodos, de las copias especializadas de los procedimientos.
+    */
+    public static final int PRESUPUESTO_POR_DEFECTO = 200;
+
+    private static final String FORMATO_COPIA = "%s#%d"; // Identificador de una copia especializada
+
+    /**
+        Versión especializada de un procedimiento.
+
+        @param proc copia especializada
+        @param constantes posiciones de los parámetros sustituidos por literales, que se omiten en las
+            invocaciones
+    */
+    private static record Version(Proc proc, Set<Integer> constantes) {}
+
+    /**
+        Estado de la especialización de procedimientos en una compilación.
+    */
+    static final class Estado
+    {
+        final Map<Nodo, List<Version>> copias = new HashMap<>(); // Copias de cada procedimiento
+        final Map<Nodo, Version> reemplazos = new HashMap<>(); // Procedimientos sustituidos por su copia
+        final Map<Nodo, Version> redirecciones = new HashMap<>(); // Invocaciones a las copias
+        final Map<List<Object>, Version> versiones = new HashMap<>(); // Copias por sus literales
+        int numCopias = 0;
+    }
+
+    private static Estado estado() { return Contexto.actual().especializacion; }
+
+    // Funciones auxiliares
+
+    /**
+        Devuelve el valor de un argumento literal, o <code>null</code> si no lo es.
+    */
+    private static Object valor(Exp exp)
+    {
+        try
+        {
+            if (exp instanceof Entero ent)
+                return Integer.valueOf(ent.lit());
+            else if (exp instanceof Decimal dec)
+                return Double.valueOf(dec.lit());
+        } catch (NumberFormatException e) { return null; } // El error se informará al generar el código
+
+        if (exp instanceof True)
+            return true;
+        else if (exp instanceof False)
+            return false;
+        else if (exp instanceof Cadena cad)
+            return cad.lit();
+        else
+            return null;
+    }
+
+    private static boolean esVinculo(Exp exp, INodo dec)
+    {
+        return exp instanceof Ident ident && ident.vinculo() != null && ident.vinculo().nodo() == dec.nodo();
+    }
+
+    private static boolean esRecursiva(Proc llamante, Proc proc) { return llamante != null && llamante.nodo() == proc.nodo(); }
+
+    private static int tam(Object obj)
+    {
+        int[] tam = { 0 };
+        recorre(obj, nodo -> ++tam[0]);
+        return tam[0];
+    }
+
+    /**
+        Devuelve, para cada parámetro que puede sustituirse por un literal, el número de veces que se usa en el
+        cuerpo de un procedimiento. Los parámetros que se escriben, o que no son de tipo básico y por valor, se
+        excluyen.
+    */
+    private static Map<Integer, Integer> sustituibles(Proc proc)
+    {
+        Map<Integer, Integer> usos = new TreeMap<>();
+        final List<? extends Param> lparam = proc.lparam();
+
+        for (int i = 0; i < lparam.size(); ++i)
+        {
+            final Param pf = lparam.get(i);
+            if (pf instanceof Pval && refFact(pf.tipo()) instanceof TipoBasico)
+                usos.put(i, 0);
+        }
+
+        recorre(proc.lins(), nodo -> {
+            Exp escrita = null;
+
+            if (nodo instanceof Asig asig)
+                escrita = asig.ei();
+            else if (nodo instanceof Read read)
+                escrita = read.exp();
+            else if (nodo instanceof Invoc invoc)
+            {
+                final List<? extends Param> lpf = ((Proc) invoc.eid().vinculo()).lparam();
+                for (int j = 0; j < lpf.size(); ++j)
+                {
+                    final Exp pr = invoc.lexp().get(j);
+                    if (lpf.get(j) instanceof Pvar)
+                        usos.keySet().removeIf(i -> esVinculo(pr, lparam.get(i)));
+                }
+            }
+            else if (nodo instanceof Ident ident)
+                usos.replaceAll((i, n) -> esVinculo(ident, lparam.get(i))? n + 1: n);
+
+            final Exp e = escrita;
+            usos.keySet().removeIf(i -> esVinculo(e, lparam.get(i)));
+        });
+
+        return usos;
+    }
+
+    /**
+        Devuelve los argumentos literales que una invocación pasa a los parámetros sustituibles de un
+        procedimiento, por su posición. Si el procedimiento se invoca a sí mismo, el argumento que es el propio
+        parámetro se toma como el literal dado para él, si lo hay.
+    */
+    private static Map<Integer, Exp> literales(Invoc invoc, Proc llamante, Set<Integer> sustituibles,
+        Map<Integer, Exp> propios)
+    {
+        final Proc proc = (Proc) invoc.eid().vinculo();
+        Map<Integer, Exp> literales = new TreeMap<>();
+
+        for (int i: sustituibles)
+        {
+            final Exp pr = invoc.lexp().get(i);
+            final Param pf = proc.lparam().get(i);
+
+            if (valor(pr) != null && refFact(pr.tipo()).getClass() == refFact(pf.tipo()).getClass())
+                literales.put(i, pr);
+            else if (esRecursiva(llamante, proc) && esVinculo(pr, pf) && propios.containsKey(i))
+                literales.put(i, propios.get(i));
+        }
+
+        return literales;
+    }
+
+    /**
+        Conserva en un conjunto de argumentos literales solo los que otra invocación pasa con el mismo valor.
+    */
+    private static void intersecta(Map<Integer, Exp> comunes, Map<Integer, Exp> otros)
+    {
+        comunes.keySet().removeIf(i -> !otros.containsKey(i) || !valor(otros.get(i)).equals(valor(comunes.get(i))));
+    }
+
+    private static Map<Integer, Object> valores(Map<Integer, Exp> literales)
+    {
+        return literales.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> valor(e.getValue()),
+            (x, y) -> x, TreeMap::new));
+    }
+
+    /**
+        Crea una versión de un procedimiento con algunos parámetros sustituidos por literales.
+    */
+    private static Version especializa(Proc proc, Map<Integer, Exp> literales)
+    {
+        Map<Nodo, Exp> parametros = new HashMap<>();
+        literales.forEach((i, lit) -> parametros.put(proc.lparam().get(i).nodo(), lit));
+
+        final Proc copia = Expansion.copia(proc, parametros);
+
+        List<Param> lparam = new ArrayList<>();
+        for (int i = 0; i < copia.lparam().size(); ++i)
+        {
+            if (!literales.containsKey(i))
+                lparam.add(copia.lparam().get(i));
+        }
+
+        final String id = FORMATO_COPIA.formatted(proc.id(), ++estado().numCopias);
+        return new Version(new Proc(id, Collections.unmodifiableList(lparam), copia.ldec(), copia.lins(), copia.nodo()),
+            literales.keySet());
+    }
+
+    /**
+        Reescribe en profundidad un objeto del árbol de sintaxis abstracta, conservando los nodos, para insertar
+        las copias especializadas tras sus originales y redirigir a ellas las invocaciones.
+    */
+    private static Object reconstruye(Object obj)
+    {
+        final Estado estado = estado();
+
+        if (obj instanceof List<?> lista)
+        {
+            List<Object> res = new ArrayList<>(lista.size());
+            boolean cambio = false;
+
+            for (Object elem: lista)
+            {
+                final Object nuevo = reconstruye(elem);
+                cambio |= nuevo != elem;
+
+                if (elem instanceof Proc proc
+                    && (estado.copias.containsKey(proc.nodo()) || estado.reemplazos.containsKey(proc.nodo())))
+                {
+                    final Version reemplazo = estado.reemplazos.get(proc.nodo());
+                    res.add((reemplazo == null)? nuevo: reconstruye(reemplazo.proc()));
+                    for (Version version: estado.copias.getOrDefault(proc.nodo(), List.of()))
+                        res.add(reconstruye(version.proc()));
+                    cambio = true;
+                }
+                else
+                    res.add(nuevo);
+            }
+
+            return cambio? Collections.unmodifiableList(res): lista;
+        }
+        if (!(obj instanceof INodo nodo) || nodo instanceof Tipo)
+            return obj;
+
+        RecordComponent comps[] = nodo.getClass().getRecordComponents();
+        Class<?> clases[] = new Class<?>[comps.length];
+        Object args[] = new Object[comps.length];
+        boolean cambio = false;
+
+        try
+        {
+            for (int i = 0; i < comps.length; ++i)
+            {
+                final Object arg = comps[i].getAccessor().invoke(nodo);
+
+                clases[i] = comps[i].getType();
+                args[i] = (arg instanceof Nodo)? arg: reconstruye(arg);
+                cambio |= args[i] != arg;
+            }
+
+            if (cambio)
+            {
+                Constructor<?> constructor = nodo.getClass().getDeclaredConstructor(clases);
+                nodo = (INodo) constructor.newInstance(args);
+            }
+        }
+        catch (ReflectiveOperationException e) { imprimirExcepcion(e, true); }
+
+        return (nodo instanceof Invoc invoc)? redirige(invoc): nodo;
+    }
+
+    private static Invoc redirige(Invoc invoc)
+    {
+        Version version = estado().redirecciones.get(invoc.nodo());
+        if (version == null)
+            version = estado().reemplazos.get(invoc.eid().vinculo().nodo());
+        if (version == null)
+            return invoc;
+
+        final Proc proc = version.proc();
+
+        Nodo nodo = new Nodo(invoc.eid().nodo().linea, invoc.eid().nodo().col);
+        nodo.vinculo = proc;
+        nodo.tipo = invoc.eid().tipo();
+
+        List<Exp> lexp = new ArrayList<>();
+        for (int i = 0; i < invoc.lexp().size(); ++i)
+        {
+            if (!version.constantes().contains(i))
+                lexp.add(invoc.lexp().get(i));
+        }
+
+        return new Invoc(new Ident(proc.id(), nodo), Collections.unmodifiableList(lexp), invoc.nodo());
+    }
+
+    // Programa
+
+    public static Prog especializa(Prog prog)
+    {
+        final Estado estado = estado();
+
+        if (!optimiza(ESPECIALIZACION))
+            return prog;
+
+        int presupuesto = parametro(ESPECIALIZACION, PRESUPUESTO_POR_DEFECTO);
+        estado.versiones.clear();
+
+        boolean cambio = true;
+        while (cambio)
+        {
+            estado.copias.clear();
+            estado.reemplazos.clear();
+            estado.redirecciones.clear();
+
+            // Procedimientos especializables y sus invocaciones, junto con el procedimiento que las contiene
+            Map<Nodo, Proc> procs = new LinkedHashMap<>();
+            Map<Nodo, Map<Integer, Integer>> usos = new HashMap<>();
+            for (Proc proc: recolectaProcs(prog))
+            {
+                if (proc.ldec().stream().allMatch(dec -> dec instanceof Var))
+                {
+                    procs.put(proc.nodo(), proc);
+                    usos.put(proc.nodo(), sustituibles(proc));
+                }
+            }
+
+            Map<Nodo, Map<Invoc, Proc>> invocaciones = new HashMap<>();
+            List<INodo> cuerpos = new ArrayList<>(recolectaProcs(prog));
+            cuerpos.add(0, prog);
+            for (INodo cuerpo: cuerpos)
+            {
+                final Object lins = (cuerpo instanceof Proc proc)? proc.lins(): ((Prog) cuerpo).lins();
+                recorre(lins, nodo -> {
+                    if (nodo instanceof Invoc invoc)
+                    {
+                        invocaciones.computeIfAbsent(invoc.eid().vinculo().nodo(), k -> new LinkedHashMap<>())
+                            .put(invoc, (cuerpo instanceof Proc proc)? proc: null);
+                    }
+                });
+            }
+
+            // Propagación: todas las invocaciones pasan el mismo literal
+            for (Proc proc: procs.values())
+            {
+                final var llamadas = invocaciones.getOrDefault(proc.nodo(), Map.of());
+                if (llamadas.isEmpty())
+                    continue;
+
+                Map<Integer, Exp> comunes = null;
+                for (var llamada: llamadas.entrySet())
+                {
+                    if (esRecursiva(llamada.getValue(), proc))
+                        continue;
+
+                    Map<Integer, Exp> lits = literales(llamada.getKey(), llamada.getValue(), usos.get(proc.nodo()).keySet(), Map.of());
+                    if (comunes == null)
+                        comunes = lits;
+                    else
+                        intersecta(comunes, lits);
+                }
+
+                if (comunes == null || comunes.isEmpty())
+                    continue;
+
+                // Las invocaciones recursivas han de pasar el mismo literal o el propio parámetro
+                for (var llamada: llamadas.entrySet())
+                {
+                    if (esRecursiva(llamada.getValue(), proc))
+                        intersecta(comunes, literales(llamada.getKey(), proc, comunes.keySet(), comunes));
+                }
+
+                if (!comunes.isEmpty())
+                    estado.reemplazos.put(proc.nodo(), especializa(proc, comunes));
+            }
+
+            // Especialización: las invocaciones que pasan los mismos literales comparten una copia
+            if (estado.reemplazos.isEmpty())
+            {
+                record Candidata(List<Object> clave, Proc proc, Map<Integer, Exp> literales, List<Invoc> invocaciones,
+                    int beneficio) {}
+
+                Map<List<Object>, Candidata> candidatas = new LinkedHashMap<>();
+                for (Proc proc: procs.values())
+                {
+                    final Map<Integer, Integer> usados = usos.get(proc.nodo());
+                    usados.values().removeIf(n -> n == 0);
+
+                    invocaciones.getOrDefault(proc.nodo(), Map.of()).forEach((invoc, llamante) -> {
+                        Map<Integer, Exp> lits = literales(invoc, llamante, usados.keySet(), Map.of());
+                        if (lits.isEmpty())
+                            return;
+
+                        final List<Object> clave = List.of(proc.nodo(), valores(lits));
+                        final int beneficio = lits.keySet().stream().mapToInt(usados::get).sum();
+                        candidatas.computeIfAbsent(clave, k -> new Candidata(clave, proc, lits, new ArrayList<>(), beneficio))
+                            .invocaciones().add(invoc);
+                    });
+                }
+
+                List<Candidata> orden = new ArrayList<>(candidatas.values());
+                orden.sort(Comparator.comparingInt(Candidata::beneficio).reversed());
+                for (Candidata c: orden)
+                {
+                    // Una copia ya creada, como las que se invocan recursivamente, no consume presupuesto
+                    Version version = estado.versiones.get(c.clave());
+                    if (version == null)
+                    {
+                        final int coste = tam(c.proc().ldec()) + tam(c.proc().lins());
+                        if (coste > presupuesto)
+                            continue;
+
+                        presupuesto -= coste;
+                        version = especializa(c.proc(), c.literales());
+                        estado.versiones.put(c.clave(), version);
+                        estado.copias.computeIfAbsent(c.proc().nodo(), k -> new ArrayList<>()).add(version);
+                    }
+
+                    for (Invoc invoc: c.invocaciones())
+                        estado.redirecciones.put(invoc.nodo(), version);
+                }
+            }
+
+            cambio = !estado.reemplazos.isEmpty() || !estado.redirecciones.isEmpty();
+            if (cambio)
+            {
+                prog = (Prog) reconstruye(prog);
+
+                // Los identificadores pasan a vincularse con los procedimientos reescritos
+                Map<Nodo, Proc> actuales = new HashMap<>();
+                recolectaProcs(prog).forEach(proc -> actuales.put(proc.nodo(), proc));
+                recorre(prog, nodo -> {
+                    if (nodo instanceof Ident ident && ident.vinculo() instanceof Proc proc && actuales.containsKey(proc.nodo()))
+                        ident.vincular(actuales.get(proc.nodo()));
+                });
+
+                prog = Plegado.pliega(prog);
+            }
+        }
+
+        return prog;
+    }
+}
@@ -1,6 +1,9 @@
 package procesamientos;
 
 import static asint.Sintaxis.*;
+import static procesamientos.Procesamiento.OPTIMIZACION.*;
+
+import despacho.GeneraDespacho;
 
 import java.util.List;
 import java.util.Iterator;
@@ -16,6 +19,7 @@ import java.util.Iterator;
     @author Álvaro Magalló Paz
     @author Alejandro del Río Caballero
 */
+@GeneraDespacho("etiqueta")
 public class Etiquetado extends Procesamiento
 {
     private Etiquetado() {} // No se permite instanciar esta clase
@@ -26,37 +30,82 @@ public class Etiquetado extends Procesamiento
 
     // Contador de instrucciones
 
-    private static int tag = 0;
+    /**
+        Estado del etiquetado en una compilación.
+    */
+    static final class Estado
+    {
+        int tag = 0;
+    }
+
+    private static int tag() { return Contexto.actual().etiquetado.tag; }
 
-    static int numInstrucciones() { return tag; }
+    private static void avanza(int n) { Contexto.actual().etiquetado.tag += n; }
+
+    static int numInstrucciones() { return tag(); }
 
     // Métodos auxiliares
 
     private static int bool2int(boolean valor) { return valor? 1: 0; }
 
+    private static void condicion(Exp exp)
+    {
+        if (optimiza(CORTOCIRCUITO) && exp instanceof ExpLogica log)
+        {
+            log.etiquetaInicio(tag());
+            condicion(log.op1());
+            condicion(log.op2());
+            log.etiquetaSig(tag());
+        }
+        else if (optimiza(CORTOCIRCUITO) && exp instanceof Not not)
+        {
+            not.etiquetaInicio(tag());
+            condicion(not.op());
+            not.etiquetaSig(tag());
+        }
+        else if (esComparacionFusionable(exp))
+        {
+            final ExpRel rel = (ExpRel) exp;
+            final Exp op1 = rel.op1(), op2 = rel.op2();
+
+            rel.etiquetaInicio(tag());
+            etiqueta(op1);
+            avanza(bool2int(esDesig(op1)));
+            etiqueta(op2);
+            avanza(bool2int(esDesig(op2)) + 1);
+            rel.etiquetaSig(tag());
+        }
+        else
+        {
+            etiqueta(exp);
+            avanza(bool2int(esDesig(exp)) + 1);
+        }
+    }
+
     // Programa
 
     public static void etiqueta(Prog prog)
     {
-        prog.etiquetaInicio(tag);
+        prog.etiquetaInicio(tag());
 
         etiqueta(prog.lins());
-        tag += 1;
+        avanza(1);
 
         List<Proc> procs = recolectaProcs(prog);
         procs.forEach(proc -> etiqueta(proc));
         
-        prog.etiquetaSig(tag);
+        prog.etiquetaSig(tag());
     }
 
     // Declaraciones
 
     public static void etiqueta(Proc proc)
     {
-        proc.etiquetaInicio(tag);
+        proc.etiquetaInicio(tag());
+        avanza(bool2int(Pureza.esPuro(proc)));
         etiqueta(proc.lins());
-        tag += 2;
-        proc.etiquetaSig(tag);
+        avanza(2 + bool2int(Pureza.esPuro(proc)));
+        proc.etiquetaSig(tag());
     }
 
     // Instrucciones básicas
@@ -65,11 +114,12 @@ public class Etiquetado extends Procesamiento
     {
         final Exp ei = asig.ei(), ed = asig.ed();
 
-        asig.etiquetaInicio(tag);
+        asig.etiquetaInicio(tag());
         etiqueta(ei);
         etiqueta(ed);
-        tag += (ei.tipo() instanceof Real && ed.tipo() instanceof Int)? bool2int(esDesig(ed)) + 2: 1;
-        asig.etiquetaSig(tag);
+        avanza((ei.tipo() instanceof Real && ed.tipo() instanceof Int)? bool2int(esDesig(ed)) + 2: 1);
+        avanza(6 * Asignacion.avances(asig).size());
+        asig.etiquetaSig(tag());
     }
 
     public static void etiqueta(Invoc invoc)
@@ -77,8 +127,8 @@ public class Etiquetado extends Procesamiento
         final Proc proc = (Proc) invoc.eid().vinculo();
         List<? extends Param> lparam = proc.lparam();
 
-        invoc.etiquetaInicio(tag);
-        tag += 1;
+        invoc.etiquetaInicio(tag());
+        avanza(esLlamadaFinal(invoc)? 0: 1);
 
         Iterator<? extends Param> itp = lparam.iterator();
         Iterator<? extends Exp> ite = invoc.lexp().iterator();
@@ -87,133 +137,134 @@ public class Etiquetado extends Procesamiento
             Param pf = itp.next();
             Exp pr = ite.next();
 
-            tag += 3;
+            avanza(3);
             etiqueta(pr);
             if (pf instanceof Pval)
-                tag += (pf.tipo() instanceof Real && pr.tipo() instanceof Int)? bool2int(esDesig(pr)) + 2: 1;
+                avanza((pf.tipo() instanceof Real && pr.tipo() instanceof Int)? bool2int(esDesig(pr)) + 2: 1);
             else
-                tag += 1;
+                avanza(1);
         }
 
-        tag += 2;
-        invoc.etiquetaSig(tag);
+        if (esLlamadaFinal(invoc))
+            avanza(lparam.isEmpty()? 1: 8);
+        else
+            avanza(2);
+        invoc.etiquetaSig(tag());
     }
 
     // Instrucciones de bloque 
 
     public static void etiqueta(Seq seq)
     {
-        seq.etiquetaInicio(tag);
+        seq.etiquetaInicio(tag());
         etiqueta(seq.lins());
-        seq.etiquetaSig(tag);
+        seq.etiquetaSig(tag());
     }
 
     public static void etiqueta(IfThen ifThen)
     {
-        final Exp exp = ifThen.exp();
-
-        ifThen.etiquetaInicio(tag);
-        etiqueta(exp);
-        tag += bool2int(esDesig(exp)) + 1;
+        ifThen.etiquetaInicio(tag());
+        condicion(ifThen.exp());
         etiqueta(ifThen.lins());
-        ifThen.etiquetaSig(tag);
+        ifThen.etiquetaSig(tag());
     }
 
     public static void etiqueta(IfThenElse ifThenElse)
     {
-        final Exp exp = ifThenElse.exp();
-
-        ifThenElse.etiquetaInicio(tag);
-        etiqueta(exp);
-        tag += bool2int(esDesig(exp)) + 1;
+        ifThenElse.etiquetaInicio(tag());
+        condicion(ifThenElse.exp());
         etiqueta(ifThenElse.lins());
-        tag += 1;
+        avanza(1);
         etiqueta(ifThenElse.lins2());
-        ifThenElse.etiquetaSig(tag);
+        ifThenElse.etiquetaSig(tag());
     }
 
     public static void etiqueta(While wh)
     {
-        final Exp exp = wh.exp();
-
-        wh.etiquetaInicio(tag);
-        etiqueta(exp);
-        tag += bool2int(esDesig(exp)) + 1;
+        wh.etiquetaInicio(tag());
+        for (Exp exp: Asignacion.invariantes(wh))
+            avanza(Asignacion.costeDireccion(exp) + 2);
+        for (Indx puntero: Asignacion.punteros(wh))
+            avanza(Asignacion.costeIndice(puntero) + 2);
+        avanza(1);
         etiqueta(wh.lins());
-        tag += 1;
-        wh.etiquetaSig(tag);
+        condicion(wh.exp());
+        wh.etiquetaSig(tag());
     }
     
     // Gestión de la E/S estándar
 
     public static void etiqueta(Read read)
     {
-        read.etiquetaInicio(tag);
+        read.etiquetaInicio(tag());
         etiqueta(read.exp());
-        tag += 2;
-        read.etiquetaSig(tag);
+        avanza(2);
+        read.etiquetaSig(tag());
     }
     
     public static void etiqueta(Write write)
     {   
         final Exp exp = write.exp();
 
-        write.etiquetaInicio(tag);
+        write.etiquetaInicio(tag());
         etiqueta(exp);
-        tag += bool2int(esDesig(exp)) + 1;
-        write.etiquetaSig(tag);
+        avanza(bool2int(esDesig(exp)) + 1);
+        write.etiquetaSig(tag());
     }
 
     public static void etiqueta(NewLine newLine)
     {
-        newLine.etiquetaInicio(tag);
-        tag += 1;
-        newLine.etiquetaSig(tag);
+        newLine.etiquetaInicio(tag());
+        avanza(1);
+        newLine.etiquetaSig(tag());
     }
     
     // Gestión de la memoria dinámica 
 
     public static void etiqueta(New n)
     {
-        n.etiquetaInicio(tag);
+        n.etiquetaInicio(tag());
         etiqueta(n.exp());
-        tag += 2;
-        n.etiquetaSig(tag);
+        avanza(2);
+        n.etiquetaSig(tag());
     }
 
     public static void etiqueta(Delete d)
     {
-        d.etiquetaInicio(tag);
+        d.etiquetaInicio(tag());
         etiqueta(d.exp());
-        tag += 7;
-        d.etiquetaSig(tag);
+        avanza(Nulidad.esSeguro(d)? 2: 7);
+        d.etiquetaSig(tag());
     }
 
     // Expresiones básicas
 
     public static void etiqueta(ExpLiteral basica)
     {
-        basica.etiquetaInicio(tag);
-        tag += 1;
-        basica.etiquetaSig(tag);
+        basica.etiquetaInicio(tag());
+        avanza(1);
+        basica.etiquetaSig(tag());
     }
 
     public static void etiqueta(Ident ident)
     {
         final INodo vinculo = ident.vinculo();
 
-        ident.etiquetaInicio(tag);
-        tag += (vinculo.nivel() == 0)? 1: bool2int(vinculo instanceof Pvar) + 3;
-        ident.etiquetaSig(tag);
+        ident.etiquetaInicio(tag());
+        if (esInvariante(ident))
+            avanza(2);
+        else
+            avanza((vinculo.nivel() == 0)? 1: bool2int(vinculo instanceof Pvar) + 3);
+        ident.etiquetaSig(tag());
     }
 
     // Expresiones constantes
 
     public static void etiqueta(ExpCte cte)
     {
-        cte.etiquetaInicio(tag);
-        tag += 1;
-        cte.etiquetaSig(tag);
+        cte.etiquetaInicio(tag());
+        avanza(1);
+        cte.etiquetaSig(tag());
     }
     
     // Expresiones compuestas
@@ -223,22 +274,38 @@ public class Etiquetado extends Procesamiento
         final Exp op1 = exp.op1(), op2 = exp.op2();
         Tipo t = refFact(exp.tipo());
 
-        exp.etiquetaInicio(tag);
+        exp.etiquetaInicio(tag());
         etiqueta(op1);
-        tag += bool2int(esDesig(op1)) + bool2int(t instanceof Real && refFact(op1.tipo()) instanceof Int);
+        avanza(bool2int(esDesig(op1)) + bool2int(t instanceof Real && refFact(op1.tipo()) instanceof Int));
         etiqueta(op2);
-        tag += bool2int(esDesig(op2)) + bool2int(t instanceof Real && refFact(op2.tipo()) instanceof Int) + 1;
-        exp.etiquetaSig(tag);
+        avanza(bool2int(esDesig(op2)) + bool2int(t instanceof Real && refFact(op2.tipo()) instanceof Int) + 1);
+        exp.etiquetaSig(tag());
+    }
+
+    public static void etiqueta(ExpLogica exp)
+    {
+        if (optimiza(CORTOCIRCUITO))
+        {
+            final Exp op2 = exp.op2();
+
+            exp.etiquetaInicio(tag());
+            condicion(exp.op1());
+            etiqueta(op2);
+            avanza(bool2int(esDesig(op2)) + 2);
+            exp.etiquetaSig(tag());
+        }
+        else
+            etiqueta((ExpBinaria) exp);
     }
 
     public static void etiqueta(ExpUnaria exp)
     {
         final Exp op1 = exp.op();
 
-        exp.etiquetaInicio(tag);
+        exp.etiquetaInicio(tag());
         etiqueta(op1);
-        tag += bool2int(esDesig(op1)) + 1;
-        exp.etiquetaSig(tag);
+        avanza(bool2int(esDesig(op1)) + 1);
+        exp.etiquetaSig(tag());
     }
 
     // Operadores de acceso a memoria
@@ -247,26 +314,32 @@ public class Etiquetado extends Procesamiento
     {
         final Exp ei = indx.ei();
 
-        indx.etiquetaInicio(tag);
-        etiqueta(indx.eid());
-        etiqueta(ei);
-        tag += bool2int(esDesig(ei)) + 3;
-        indx.etiquetaSig(tag);
+        indx.etiquetaInicio(tag());
+        if (esInvariante(indx))
+            avanza(2);
+        else
+        {
+            etiqueta(indx.eid());
+            etiqueta(ei);
+            avanza(bool2int(esDesig(ei)) + costeEscala(tamBase(indx.eid())) + 1);
+        }
+        indx.etiquetaSig(tag());
     }
 
     public static void etiqueta(Acc acc)
     {
-        acc.etiquetaInicio(tag);
-        etiqueta(acc.reg());
-        tag += 2;
-        acc.etiquetaSig(tag);
+        acc.etiquetaInicio(tag());
+        if (!esInvariante(acc))
+            etiqueta(acc.reg());
+        avanza(2);
+        acc.etiquetaSig(tag());
     }
     
     public static void etiqueta(Indir indir)
     {
-        indir.etiquetaInicio(tag);
+        indir.etiquetaInicio(tag());
         etiqueta(indir.et());
-        tag += 6;
-        indir.etiquetaSig(tag);
+        avanza(Nulidad.esSeguro(indir)? 1: 6);
+        indir.etiquetaSig(tag());
     }
 }
\ No newline at end of file
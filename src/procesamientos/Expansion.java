@@ -0,0 +1,325 @@
+package procesamientos;
+
+import static asint.Sintaxis.*;
+import static procesamientos.Procesamiento.OPTIMIZACION.EXPANSION;
+import static tiny.Ejecutable.imprimirExcepcion;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.RecordComponent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+    Clase utilidad que contiene todos los métodos requeridos para ejecutar la fase de <b>expansión en línea</b>
+    en el procesamiento de nuestro lenguaje Tiny.
+
+    <br>Esta fase sustituye cada invocación a un procedimiento pequeño por un bloque con una copia de su cuerpo,
+    eliminando el coste de la llamada (activación, paso de parámetros, salto y retorno). Un procedimiento se
+    expande si:
+    <ul>
+        <li>no invoca a ningún procedimiento, por lo que no es recursivo;</li>
+        <li>solo declara variables (ni tipos ni procedimientos anidados);</li>
+        <li>su tamaño, en nodos del árbol de sintaxis abstracta, no supera un umbral configurable.</li>
+    </ul>
+
+    <br>Cada parámetro por valor se convierte en una variable local del bloque, inicializada con el argumento,
+    y cada parámetro por referencia se sustituye por su argumento, siempre que este designe una dirección
+    fija durante la llamada (una variable o un campo suyo). Las variables del bloque se asignan en el marco
+    del invocante, mientras que los accesos a variables no locales del procedimiento siguen direccionándose a
+    través de los displays de sus niveles, que son prefijo de la cadena estática de cualquier invocante.
+
+    @version Java SE 17
+    @see Procesamiento
+
+    @author Félix Rodolfo Díaz Lorente
+    @author Álvaro Magalló Paz
+    @author Alejandro del Río Caballero
+*/
+public class Expansion extends Procesamiento
+{
+    private Expansion() {} // No se permite instanciar esta clase
+
+    public static <T extends INodo> T expande(T nodo) { return reescribe(Expansion.class, "expande", nodo); }
+
+    public static <T extends INodo> List<? extends T> expande(List<? extends T> lista) { return reescribe(Expansion.class, "expande", lista); }
+
+    /**
+        Tamaño máximo por defecto, en nodos, del cuerpo de un procedimiento que se expande en línea.
+    */
+    public static final int UMBRAL_POR_DEFECTO = 32;
+
+    /**
+        Estado de la expansión en línea en una compilación.
+    */
+    static final class Estado
+    {
+        final Map<Nodo, Proc> candidatos = new HashMap<>(); // Procedimientos expandibles
+        final Map<Nodo, INodo> vinculos = new HashMap<>(); // Declaraciones copiadas
+        final Map<Nodo, Exp> sustituciones = new HashMap<>(); // Argumentos de parámetros por referencia
+    }
+
+    private static Estado estado() { return Contexto.actual().expansion; }
+
+    // Funciones auxiliares
+
+    private static boolean esExpandible(Proc proc, int umbral)
+    {
+        int[] tam = { 0 };
+        boolean[] expandible = { proc.ldec().stream().allMatch(dec -> dec instanceof Var) };
+
+        recorre(proc.lins(), nodo -> {
+            ++tam[0];
+            if (nodo instanceof Invoc || (nodo instanceof Seq seq && !seq.ldec().stream().allMatch(dec -> dec instanceof Var)))
+                expandible[0] = false;
+        });
+
+        return expandible[0] && tam[0] <= umbral;
+    }
+
+    /**
+        Indica si un designador se refiere siempre a la misma dirección mientras se ejecuta el cuerpo de un
+        procedimiento, por lo que puede sustituir a un parámetro por referencia.
+    */
+    private static boolean esEstable(Exp exp)
+    {
+        if (exp instanceof Ident)
+            return true;
+        else if (exp instanceof Acc acc)
+            return esEstable(acc.reg());
+        else
+            return false;
+    }
+
+    private static boolean mismoTipo(INodo n1, INodo n2) { return refFact(n1.tipo()).getClass() == refFact(n2.tipo()).getClass(); }
+
+    private static Nodo copia(Nodo nodo)
+    {
+        Nodo copia = new Nodo(nodo.linea, nodo.col);
+
+        INodo vinculo = nodo.vinculo;
+        copia.vinculo = (vinculo == null)? null: estado().vinculos.getOrDefault(vinculo.nodo(), vinculo);
+        copia.tipo = nodo.tipo;
+
+        return copia;
+    }
+
+    /**
+        Copia en profundidad un objeto del árbol de sintaxis abstracta, con nodos nuevos, pues las fases
+        posteriores decoran cada copia por separado. Los tipos se comparten con el original.
+    */
+    private static Object copia(Object obj)
+    {
+        final Estado estado = estado();
+
+        if (obj instanceof List<?> lista)
+            return Collections.unmodifiableList(lista.stream().map(Expansion::copia).toList());
+        if (!(obj instanceof INodo nodo) || nodo instanceof Tipo)
+            return obj;
+
+        if (nodo instanceof Ident ident && ident.vinculo() != null && estado.sustituciones.containsKey(ident.vinculo().nodo()))
+            return copia(estado.sustituciones.get(ident.vinculo().nodo()));
+
+        RecordComponent comps[] = nodo.getClass().getRecordComponents();
+        Class<?> clases[] = new Class<?>[comps.length];
+        Object args[] = new Object[comps.length];
+
+        try
+        {
+            for (int i = 0; i < comps.length; ++i)
+            {
+                Object arg = comps[i].getAccessor().invoke(nodo);
+
+                clases[i] = comps[i].getType();
+                args[i] = (arg instanceof Nodo n)? copia(n): copia(arg);
+            }
+
+            Constructor<?> constructor = nodo.getClass().getDeclaredConstructor(clases);
+            Object copia = constructor.newInstance(args);
+
+            if (copia instanceof Dec dec)
+                estado.vinculos.put(nodo.nodo(), dec);
+            return copia;
+        }
+        catch (ReflectiveOperationException e) { imprimirExcepcion(e, true); }
+
+        return null;
+    }
+
+    /**
+        Copia en profundidad un procedimiento, sustituyendo cada identificador de algunos de sus parámetros por
+        una copia de la expresión dada. Las invocaciones recursivas de la copia siguen vinculadas al original.
+
+        @param proc procedimiento que se copia
+        @param parametros expresión que sustituye a cada parámetro, por el nodo de este
+
+        @return La copia del procedimiento, con los mismos parámetros.
+    */
+    static Proc copia(Proc proc, Map<Nodo, Exp> parametros)
+    {
+        final Estado estado = estado();
+
+        estado.vinculos.clear();
+        estado.sustituciones.clear();
+        estado.sustituciones.putAll(parametros);
+
+        return (Proc) copia(proc);
+    }
+
+    /**
+        Copia en profundidad una lista de instrucciones, con nodos nuevos, incluidos los de las declaraciones
+        de sus bloques, a las que se vinculan los identificadores de la copia.
+
+        @param lins instrucciones que se copian
+
+        @return Una lista no modificable con las copias de las instrucciones.
+    */
+    static List<Ins> copia(List<? extends Ins> lins)
+    {
+        estado().vinculos.clear();
+        estado().sustituciones.clear();
+
+        return Collections.unmodifiableList(lins.stream().map(ins -> (Ins) copia(ins)).toList());
+    }
+
+    private static Nodo nodoIns(INodo origen)
+    {
+        Nodo nodo = new Nodo(origen.nodo().linea, origen.nodo().col);
+        nodo.tipo = OK;
+        return nodo;
+    }
+
+    // Programa
+
+    public static Prog expande(Prog prog)
+    {
+        final Estado estado = estado();
+
+        if (!optimiza(EXPANSION))
+            return prog;
+
+        final int umbral = parametro(EXPANSION, UMBRAL_POR_DEFECTO);
+
+        estado.candidatos.clear();
+        for (Proc proc: recolectaProcs(prog))
+        {
+            if (esExpandible(proc, umbral))
+                estado.candidatos.put(proc.nodo(), proc);
+        }
+
+        if (estado.candidatos.isEmpty())
+            return prog;
+
+        var ldec = expande(prog.ldec());
+        var lins = expande(prog.lins());
+
+        return (ldec == prog.ldec() && lins == prog.lins())? prog: new Prog(ldec, lins, prog.nodo());
+    }
+
+    // Declaraciones
+
+    public static Proc expande(Proc proc)
+    {
+        var ldec = expande(proc.ldec());
+        var lins = expande(proc.lins());
+
+        if (ldec == proc.ldec() && lins == proc.lins())
+            return proc;
+        return new Proc(proc.id(), proc.lparam(), ldec, lins, proc.nodo());
+    }
+
+    // Instrucciones básicas
+
+    public static Ins expande(Invoc invoc)
+    {
+        final Estado estado = estado();
+
+        final Proc proc = estado.candidatos.get(invoc.eid().vinculo().nodo());
+        if (proc == null)
+            return invoc;
+
+        Iterator<? extends Param> itp = proc.lparam().iterator();
+        Iterator<? extends Exp> ite = invoc.lexp().iterator();
+        while (itp.hasNext() && ite.hasNext())
+        {
+            Param pf = itp.next();
+            Exp pr = ite.next();
+
+            if (pf instanceof Pvar && !(esEstable(pr) && mismoTipo(pr, pf)))
+                return invoc;
+        }
+
+        estado.vinculos.clear();
+        estado.sustituciones.clear();
+
+        List<Dec> ldec = new ArrayList<>();
+        List<Ins> lins = new ArrayList<>();
+
+        // Paso de parámetros
+        itp = proc.lparam().iterator();
+        ite = invoc.lexp().iterator();
+        while (itp.hasNext() && ite.hasNext())
+        {
+            Param pf = itp.next();
+            Exp pr = ite.next();
+
+            if (pf instanceof Pvar)
+                estado.sustituciones.put(pf.nodo(), pr);
+            else
+            {
+                Var var = new Var(pf.id(), pf.tipo(), copia(pf.nodo()));
+                estado.vinculos.put(pf.nodo(), var);
+                ldec.add(var);
+
+                Nodo nodo = new Nodo(invoc.nodo().linea, invoc.nodo().col);
+                nodo.vinculo = var;
+                nodo.tipo = pf.tipo();
+
+                lins.add(new Asig(new Ident(pf.id(), nodo), pr, nodoIns(invoc)));
+            }
+        }
+
+        // Variables locales y cuerpo
+        for (Dec dec: proc.ldec())
+            ldec.add((Dec) copia(dec));
+        for (Ins ins: proc.lins())
+            lins.add((Ins) copia(ins));
+
+        return new Seq(Collections.unmodifiableList(ldec), Collections.unmodifiableList(lins), nodoIns(invoc));
+    }
+
+    // Instrucciones de bloque
+
+    public static Ins expande(Seq seq)
+    {
+        var ldec = expande(seq.ldec());
+        var lins = expande(seq.lins());
+
+        return (ldec == seq.ldec() && lins == seq.lins())? seq: new Seq(ldec, lins, seq.nodo());
+    }
+
+    public static Ins expande(IfThen ifThen)
+    {
+        var lins = expande(ifThen.lins());
+        return (lins == ifThen.lins())? ifThen: new IfThen(ifThen.exp(), lins, ifThen.nodo());
+    }
+
+    public static Ins expande(IfThenElse ifThenElse)
+    {
+        var lins = expande(ifThenElse.lins());
+        var lins2 = expande(ifThenElse.lins2());
+
+        if (lins == ifThenElse.lins() && lins2 == ifThenElse.lins2())
+            return ifThenElse;
+        return new IfThenElse(ifThenElse.exp(), lins, lins2, ifThenElse.nodo());
+    }
+
+    public static Ins expande(While wh)
+    {
+        var lins = expande(wh.lins());
+        return (lins == wh.lins())? wh: new While(wh.exp(), lins, wh.nodo());
+    }
+}
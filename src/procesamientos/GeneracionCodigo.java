@@ -3,15 +3,20 @@ package procesamientos;
 import static asint.Sintaxis.*;
 import static asint.Sintaxis.Nodo.VALOR_NULO;
 
+import despacho.GeneraDespacho;
+
 import java.util.List;
 import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 
 import static maquina.MaquinaVirtual.REG_CONTROL;
 import static maquina.MaquinaP.*;
+import static procesamientos.Procesamiento.OPTIMIZACION.*;
 
 import maquina.MaquinaP;
 import maquina.MaquinaVirtual;
+import maquina.MaquinaVirtual.Tramo;
+import optimizacion.Mirilla;
 
 /**
     Clase utilidad que contiene todos los métodos requeridos para ejecutar la fase de <b>generación de código</b>
@@ -24,6 +29,7 @@ import maquina.MaquinaVirtual;
     @author Álvaro Magalló Paz
     @author Alejandro del Río Caballero
 */
+@GeneraDespacho("generaCodigo")
 public class GeneracionCodigo extends Procesamiento
 {
     private GeneracionCodigo() {} // No se permite instanciar esta clase
@@ -32,48 +38,265 @@ public class GeneracionCodigo extends Procesamiento
 
     public static void generaCodigo(List<? extends INodo> lista) { procesa(GeneracionCodigo.class, "generaCodigo", lista); }
 
-    public static final MaquinaVirtual maquina = new MaquinaP(Asignacion.numRegistros(),
-        Asignacion.espacioLocal() + REG_CONTROL * Asignacion.maxNivel(), Asignacion.maxNivel(),
-        Etiquetado.numInstrucciones(), StandardCharsets.UTF_8);
+    /**
+        Estado de la generación de código en una compilación.
+    */
+    static final class Estado
+    {
+        MaquinaVirtual maquina = null; // Se crea al generar el código, tras asignar memoria y etiquetar
+        final Mirilla mirilla = new Mirilla();
+    }
+
+    /**
+        Memoria que requiere la máquina virtual sobre la que se ejecuta un programa: el número de registros de
+        la memoria estática, el tamaño máximo de un registro de activación y el número de displays.
+    */
+    public static record Requisitos(int numRegistros, int tamActivacion, int numDisplays) {}
+
+    /**
+        Devuelve la memoria que requiere el programa procesado en el contexto actual, calculada en la
+        asignación de memoria.
+
+        @return Los requisitos de memoria de la compilación en curso.
+    */
+    public static Requisitos requisitos()
+    {
+        return new Requisitos(Asignacion.numRegistros(),
+            Asignacion.espacioLocal() + REG_CONTROL * Asignacion.maxNivel(), Asignacion.maxNivel());
+    }
+
+    /**
+        Devuelve la máquina virtual donde se carga el código generado en el contexto actual. Se crea la primera
+        vez que se solicita, con el tamaño calculado en la asignación de memoria y el etiquetado.
+
+        @return La máquina virtual de la compilación en curso.
+    */
+    public static MaquinaVirtual maquina()
+    {
+        final Estado estado = Contexto.actual().generacion;
+        if (estado.maquina == null)
+        {
+            final Requisitos requisitos = requisitos();
+            estado.maquina = new MaquinaP(requisitos.numRegistros(), requisitos.tamActivacion(),
+                requisitos.numDisplays(), Etiquetado.numInstrucciones(), StandardCharsets.UTF_8);
+        }
+
+        return estado.maquina;
+    }
+
+    /**
+        Devuelve el optimizador de mirilla del contexto actual.
+
+        @return El optimizador de mirilla de la compilación en curso.
+    */
+    public static Mirilla mirilla() { return Contexto.actual().generacion.mirilla; }
+
+    // Tramos del programa
+
+    /**
+        Número mínimo de instrucciones de los procedimientos de un programa para generar su código en paralelo,
+        en el pool común de fork-join. Con menos, el reparto cuesta más de lo que se ahorra.
+    */
+    private static final int MIN_INS_PARALELO = 1 << 13;
+
+    /**
+        Tramo del programa en el que el hilo en curso introduce las instrucciones que genera. Tras el
+        etiquetado, el código de cada procedimiento ocupa un tramo conocido y disjunto del de los demás.
+    */
+    private static final ThreadLocal<Tramo> tramo = new ThreadLocal<>();
+
+    private static Tramo codigo() { return tramo.get(); }
+
+    /**
+        Genera el código de un tramo del programa en el hilo en curso, que ha de ocuparlo por completo.
+    */
+    private static void enTramo(int inicio, int fin, Runnable generacion)
+    {
+        final Tramo anterior = tramo.get(), actual = maquina().tramo(inicio, fin);
+
+        tramo.set(actual);
+        try { generacion.run(); }
+        finally { tramo.set(anterior); }
+
+        assert actual.completo() || Contexto.actual().errores() > 0;
+    }
     
     // Funciones auxiliares
 
-    private static int tamBase(INodo nodo) { return refFact(nodo.tipo()).tipo().espacio(); }
+    private static void operando(Exp exp)
+    {
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
+        generaCodigo(exp);
+        if (esDesig(exp))
+            codigo.lineaCodigo(new ApilaInd(maquina));
+    }
+
+    /**
+        Crea el salto fusionado de una comparación. Saltar si la comparación es cierta equivale a saltar si su
+        negación es falsa.
+
+        @param rel comparación fusionable
+        @param valor valor de la comparación que provoca el salto
+        @param d índice de la instrucción destino del salto
+
+        @return La instrucción de salto fusionado correspondiente.
+    */
+    private static InsMaquina saltoComparacion(ExpRel rel, boolean valor, int d)
+    {
+        final MaquinaVirtual maquina = maquina();
+
+        if (rel instanceof Eq)
+            return valor? new IrfNe(d, maquina): new IrfEq(d, maquina);
+        else if (rel instanceof Ne)
+            return valor? new IrfEq(d, maquina): new IrfNe(d, maquina);
+        else if (rel instanceof Lt)
+            return valor? new IrfGe(d, maquina): new IrfLt(d, maquina);
+        else if (rel instanceof Le)
+            return valor? new IrfGt(d, maquina): new IrfLe(d, maquina);
+        else if (rel instanceof Gt)
+            return valor? new IrfLe(d, maquina): new IrfGt(d, maquina);
+        else // rel instanceof Ge
+            return valor? new IrfLt(d, maquina): new IrfGe(d, maquina);
+    }
+
+    /**
+        Genera el código de una condición seguido de un salto a una instrucción dada si la condición toma un
+        cierto valor. Las comparaciones numéricas se compilan con un único salto fusionado, que no apila ningún
+        booleano. Con la evaluación en cortocircuito, los operadores lógicos se compilan como saltos, sin
+        evaluar el segundo operando si el primero determina el valor de la condición.
+
+        @param exp expresión booleana que actúa como condición
+        @param valor valor de la condición que provoca el salto
+        @param d índice de la instrucción destino del salto
+    */
+    private static void condicion(Exp exp, boolean valor, int d)
+    {
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
+        if (optimiza(CORTOCIRCUITO) && exp instanceof And and)
+        {
+            // Si el primer operando es falso, la conjunción es falsa: se salta a 'd' o se omite el segundo
+            condicion(and.op1(), false, valor? and.sig(): d);
+            condicion(and.op2(), valor, d);
+        }
+        else if (optimiza(CORTOCIRCUITO) && exp instanceof Or or)
+        {
+            // Si el primer operando es cierto, la disyunción es cierta: se salta a 'd' o se omite el segundo
+            condicion(or.op1(), true, valor? d: or.sig());
+            condicion(or.op2(), valor, d);
+        }
+        else if (optimiza(CORTOCIRCUITO) && exp instanceof Not not)
+            condicion(not.op(), !valor, d);
+        else if (esComparacionFusionable(exp))
+        {
+            ExpRel rel = (ExpRel) exp;
+
+            operando(rel.op1());
+            operando(rel.op2());
+            codigo.lineaCodigo(saltoComparacion(rel, valor, d));
+        }
+        else
+        {
+            operando(exp);
+            codigo.lineaCodigo(valor? new Irv(d, maquina): new Irf(d, maquina));
+        }
+    }
+
+    /**
+        Crea la instrucción con la que comienza un procedimiento puro, que consulta su caché de resultados.
+
+        @param proc procedimiento puro, con la memoria ya asignada
+
+        @return La instrucción de consulta de la caché de <code>proc</code>.
+    */
+    static InsMaquina consulta(Proc proc)
+    {
+        return new Consulta(proc.nivel(), proc.espacio(), Pureza.argumentos(proc).stream().map(pf -> pf.dir()).toList(),
+            Pureza.resultado(proc).dir(), Pureza.capacidad(), maquina());
+    }
+
+    /**
+        Crea la instrucción que guarda el resultado de un procedimiento puro antes de retornar.
+
+        @param proc procedimiento puro, con la memoria ya asignada
+
+        @return La instrucción que guarda el resultado en la caché de <code>proc</code>.
+    */
+    static InsMaquina memoriza(Proc proc) { return new Memoriza(proc.nivel(), Pureza.resultado(proc).dir(), maquina()); }
 
     private static void compruebaNulo(int sig)
     {
-        maquina.lineaCodigo(new Dup(maquina));
-        maquina.lineaCodigo(new Apila(VALOR_NULO, maquina));
-        maquina.lineaCodigo(new OpBinaria<>(EQ, maquina));
-        maquina.lineaCodigo(new Irf(sig, maquina));
-        maquina.lineaCodigo(new Stop("[ERROR] Intento de acceso a través de null", maquina));
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
+        codigo.lineaCodigo(new Dup(maquina));
+        codigo.lineaCodigo(new Apila(VALOR_NULO, maquina));
+        codigo.lineaCodigo(new OpBinaria<>(EQ, maquina));
+        codigo.lineaCodigo(new Irf(sig, maquina));
+        codigo.lineaCodigo(new Stop("[ERROR] Intento de acceso a través de null", maquina));
     }
 
     // Programa
 
     public static void generaCodigo(Prog prog)
     {
-        generaCodigo(prog.lins());
-        maquina.lineaCodigo(new Stop(maquina));
-        
+        final MaquinaVirtual maquina = maquina();
+        final Mirilla mirilla = mirilla();
+
         List<Proc> procs = recolectaProcs(prog);
-        procs.forEach(proc -> generaCodigo(proc));
+        final int finPrincipal = procs.isEmpty()? prog.sig(): procs.get(0).inicio();
+
+        // El código del programa principal termina donde comienza el del primer procedimiento
+        enTramo(prog.inicio(), finPrincipal, () -> {
+            generaCodigo(prog.lins());
+            codigo().lineaCodigo(new Stop(maquina));
+        });
+
+        // Cada procedimiento ocupa su propio tramo, así que sus códigos se generan en paralelo si compensa
+        final Contexto contexto = Contexto.actual();
+        (prog.sig() - finPrincipal >= MIN_INS_PARALELO? procs.parallelStream(): procs.stream())
+            .forEach(proc -> contexto.ejecuta(() -> { generaCodigo(proc); return null; }));
+
+        if (optimiza(MIRILLA))
+        {
+            maquina.cargaPrograma(mirilla.optimiza(maquina.programa(), puntosEntrada(prog)));
+
+            // Los puntos de entrada se desplazan junto con el resto del programa
+            prog.etiquetaInicio(mirilla.reubica(prog.inicio()));
+            procs.forEach(proc -> proc.etiquetaInicio(mirilla.reubica(proc.inicio())));
+        }
     }
 
     // Declaraciones
 
     public static void generaCodigo(Proc proc)
     {
-        generaCodigo(proc.lins());
+        enTramo(proc.inicio(), proc.sig(), () -> {
+            final MaquinaVirtual maquina = maquina();
+            final Tramo codigo = codigo();
+
+            if (Pureza.esPuro(proc))
+                codigo.lineaCodigo(consulta(proc));
 
-        maquina.lineaCodigo(new Desactiva(proc.nivel(), proc.espacio(), maquina));
-        maquina.lineaCodigo(new Irind(maquina));
+            generaCodigo(proc.lins());
+
+            if (Pureza.esPuro(proc))
+                codigo.lineaCodigo(memoriza(proc));
+            codigo.lineaCodigo(new Desactiva(proc.nivel(), proc.espacio(), maquina));
+            codigo.lineaCodigo(new Irind(maquina));
+        });
     }
 
     // Instrucciones básicas
     
     public static void generaCodigo(Asig asig)
     {
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
         final Exp ei = asig.ei(), ed = asig.ed();
 
         generaCodigo(ei);
@@ -82,22 +305,43 @@ public class GeneracionCodigo extends Procesamiento
         if (ei.tipo() instanceof Real && ed.tipo() instanceof Int)
         {
             if (esDesig(ed))
-                maquina.lineaCodigo(new ApilaInd(maquina));
-            maquina.lineaCodigo(new PromReal(maquina));
-            maquina.lineaCodigo(new DesapilaInd(maquina));
+                codigo.lineaCodigo(new ApilaInd(maquina));
+            codigo.lineaCodigo(new PromReal(maquina));
+            codigo.lineaCodigo(new DesapilaInd(maquina));
         }
         else if (esDesig(ed))
-            maquina.lineaCodigo(new Mueve(ei.tipo().espacio(), maquina));
+            codigo.lineaCodigo(new Mueve(ei.tipo().espacio(), maquina));
         else 
-            maquina.lineaCodigo(new DesapilaInd(maquina));
+            codigo.lineaCodigo(new DesapilaInd(maquina));
+
+        // Los punteros de los accesos indexados por una variable de inducción avanzan junto con ella
+        for (Asignacion.Avance avance: Asignacion.avances(asig))
+        {
+            final int dir = avance.puntero().dir();
+
+            codigo.lineaCodigo(new Apila(dir, maquina));
+            codigo.lineaCodigo(new Apila(dir, maquina));
+            codigo.lineaCodigo(new ApilaInd(maquina));
+            codigo.lineaCodigo(new Apila(avance.incremento(), maquina));
+            codigo.lineaCodigo(new OpBinaria<>(SUMA_ENT, maquina));
+            codigo.lineaCodigo(new DesapilaInd(maquina));
+        }
     }
 
     public static void generaCodigo(Invoc invoc)
     {
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
         final Proc proc = (Proc) invoc.eid().vinculo();
         List<? extends Param> lparam = proc.lparam();
 
-        maquina.lineaCodigo(new Activa(proc.nivel(), proc.espacio(), invoc.sig(), maquina));
+        // Una llamada recursiva final evalúa los argumentos en el espacio temporal de su propio registro de
+        // activación, los copia sobre los parámetros y salta al comienzo del cuerpo del procedimiento
+        final boolean esFinal = esLlamadaFinal(invoc);
+
+        if (!esFinal)
+            codigo.lineaCodigo(new Activa(proc.nivel(), proc.espacio(), invoc.sig(), maquina));
 
         Iterator<? extends Param> itp = lparam.iterator();
         Iterator<? extends Exp> ite = invoc.lexp().iterator();
@@ -108,9 +352,12 @@ public class GeneracionCodigo extends Procesamiento
             Param pf = itp.next();
             Exp pr = ite.next();
 
-            maquina.lineaCodigo(new Dup(maquina));
-            maquina.lineaCodigo(new Apila(pf.dir(), maquina));
-            maquina.lineaCodigo(new OpBinaria<>(SUMA_ENT, maquina));
+            if (esFinal)
+                codigo.lineaCodigo(new Apilad(proc.nivel(), maquina));
+            else
+                codigo.lineaCodigo(new Dup(maquina));
+            codigo.lineaCodigo(new Apila(esFinal? invoc.dir() + pf.dir(): pf.dir(), maquina));
+            codigo.lineaCodigo(new OpBinaria<>(SUMA_ENT, maquina));
 
             generaCodigo(pr);
             
@@ -119,21 +366,37 @@ public class GeneracionCodigo extends Procesamiento
                 if (pf.tipo() instanceof Real && pr.tipo() instanceof Int)
                 {
                     if (esDesig(pr))
-                        maquina.lineaCodigo(new ApilaInd(maquina));
-                    maquina.lineaCodigo(new PromReal(maquina));
-                    maquina.lineaCodigo(new DesapilaInd(maquina));
+                        codigo.lineaCodigo(new ApilaInd(maquina));
+                    codigo.lineaCodigo(new PromReal(maquina));
+                    codigo.lineaCodigo(new DesapilaInd(maquina));
                 }
                 else if (esDesig(pr))
-                    maquina.lineaCodigo(new Mueve(pf.tipo().espacio(), maquina));
+                    codigo.lineaCodigo(new Mueve(pf.tipo().espacio(), maquina));
                 else
-                    maquina.lineaCodigo(new DesapilaInd(maquina));
+                    codigo.lineaCodigo(new DesapilaInd(maquina));
             }
             else
-                maquina.lineaCodigo(new DesapilaInd(maquina));
+                codigo.lineaCodigo(new DesapilaInd(maquina));
         }
 
-        maquina.lineaCodigo(new Desapilad(proc.nivel(), maquina));
-        maquina.lineaCodigo(new Ira(proc.inicio(), maquina));
+        if (esFinal)
+        {
+            if (!lparam.isEmpty())
+            {
+                final int base = lparam.get(0).dir(); // Los parámetros ocupan celdas consecutivas
+
+                codigo.lineaCodigo(new Apilad(proc.nivel(), maquina));
+                codigo.lineaCodigo(new Apila(base, maquina));
+                codigo.lineaCodigo(new OpBinaria<>(SUMA_ENT, maquina));
+                codigo.lineaCodigo(new Apilad(proc.nivel(), maquina));
+                codigo.lineaCodigo(new Apila(invoc.dir() + base, maquina));
+                codigo.lineaCodigo(new OpBinaria<>(SUMA_ENT, maquina));
+                codigo.lineaCodigo(new Mueve(proc.espacio() - invoc.dir(), maquina)); // El espacio temporal es el último
+            }
+        }
+        else
+            codigo.lineaCodigo(new Desapilad(proc.nivel(), maquina));
+        codigo.lineaCodigo(new Ira(proc.inicio(), maquina));
     }
 
     // Instrucciones de bloque 
@@ -142,161 +405,232 @@ public class GeneracionCodigo extends Procesamiento
 
     public static void generaCodigo(IfThen ifThen)
     {
-        final Exp exp = ifThen.exp();
-        generaCodigo(exp);
-
-        if (esDesig(exp))
-            maquina.lineaCodigo(new ApilaInd(maquina));
-
-        maquina.lineaCodigo(new Irf(ifThen.sig(), maquina));
+        condicion(ifThen.exp(), false, ifThen.sig());
         generaCodigo(ifThen.lins());
     }
     
     public static void generaCodigo(IfThenElse ifThenElse)
     {
-        final Exp exp = ifThenElse.exp();
-        generaCodigo(exp);
-        
-        if (esDesig(exp))
-            maquina.lineaCodigo(new ApilaInd(maquina));
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
 
         List<? extends Ins> lins2 = ifThenElse.lins2();
-        maquina.lineaCodigo(new Irf(lins2.get(0).inicio(), maquina));
+        condicion(ifThenElse.exp(), false, lins2.get(0).inicio());
         generaCodigo(ifThenElse.lins());
-        maquina.lineaCodigo(new Ira(ifThenElse.sig(), maquina));
+        codigo.lineaCodigo(new Ira(ifThenElse.sig(), maquina));
         generaCodigo(lins2);
     }
     
     public static void generaCodigo(While wh)
     {
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
+        // Bucle rotado: la condición se evalúa al final, y se salta a ella una única vez al entrar en el bucle
         final Exp exp = wh.exp();
-        generaCodigo(exp);
+        int cuerpo = wh.inicio() + 1;
 
-        if (esDesig(exp))
-            maquina.lineaCodigo(new ApilaInd(maquina));
-        
-        maquina.lineaCodigo(new Irf(wh.sig(), maquina));
+        // Las direcciones invariantes se calculan una vez, antes de entrar en el bucle
+        for (Exp inv: Asignacion.invariantes(wh))
+        {
+            codigo.lineaCodigo(new Apila(inv.dir(), maquina));
+            direccion(inv);
+            codigo.lineaCodigo(new DesapilaInd(maquina));
+
+            cuerpo += Asignacion.costeDireccion(inv) + 2;
+        }
+
+        // Los punteros de los accesos indexados por variables de inducción se inicializan con su dirección
+        for (Indx puntero: Asignacion.punteros(wh))
+        {
+            codigo.lineaCodigo(new Apila(puntero.dir(), maquina));
+            indice(puntero);
+            codigo.lineaCodigo(new DesapilaInd(maquina));
+
+            cuerpo += Asignacion.costeIndice(puntero) + 2;
+        }
+
+        codigo.lineaCodigo(new Ira(exp.inicio(), maquina));
         generaCodigo(wh.lins());
-        maquina.lineaCodigo(new Ira(wh.inicio(), maquina));
+        condicion(exp, true, cuerpo);
     }
 
     // Gestión de la E/S estándar
     
     public static void generaCodigo(Read read)
     {
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
         final Exp exp = read.exp();
 
         generaCodigo(exp);
-        maquina.lineaCodigo(new Escanea(exp.tipo(), maquina));
-        maquina.lineaCodigo(new DesapilaInd(maquina));
+        codigo.lineaCodigo(new Escanea(exp.tipo(), maquina));
+        codigo.lineaCodigo(new DesapilaInd(maquina));
     }
 
     public static void generaCodigo(Write write)
     {
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
         final Exp exp = write.exp();
 
         generaCodigo(exp);
         if (esDesig(exp))
-            maquina.lineaCodigo(new ApilaInd(maquina));
-        maquina.lineaCodigo(new Imprime(maquina));
+            codigo.lineaCodigo(new ApilaInd(maquina));
+        codigo.lineaCodigo(new Imprime(maquina));
     }
 
-    public static void generaCodigo(NewLine nl) { maquina.lineaCodigo(new Endl(maquina)); }
+    public static void generaCodigo(NewLine nl) { codigo().lineaCodigo(new Endl(maquina())); }
     
     // Gestión de la memoria dinámica
 
     public static void generaCodigo(New n)
     {
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
         final Exp exp = n.exp();
 
         generaCodigo(exp);
-        maquina.lineaCodigo(new Alloc(tamBase(exp), maquina)); 
-        maquina.lineaCodigo(new DesapilaInd(maquina));
+        codigo.lineaCodigo(new Alloc(tamBase(exp), maquina)); 
+        codigo.lineaCodigo(new DesapilaInd(maquina));
     }
 
     public static void generaCodigo(Delete d)
     {
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
         final Exp exp = d.exp();
 
         generaCodigo(exp);
-        maquina.lineaCodigo(new ApilaInd(maquina));
-        compruebaNulo(d.sig() - 1);
-        maquina.lineaCodigo(new Dealloc(tamBase(exp), maquina));
+        codigo.lineaCodigo(new ApilaInd(maquina));
+        if (!Nulidad.esSeguro(d))
+            compruebaNulo(d.sig() - 1);
+        codigo.lineaCodigo(new Dealloc(tamBase(exp), maquina));
     }
 
     // Expresiones básicas
 
     public static void generaCodigo(Entero ent)
     {
-        maquina.lineaCodigo(new Apila(Integer.valueOf(ent.lit()), maquina));
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
+        codigo.lineaCodigo(new Apila(Integer.valueOf(ent.lit()), maquina));
     } 
 
     public static void generaCodigo(Decimal dec)
     {
-        maquina.lineaCodigo(new Apila(Double.valueOf(dec.lit()), maquina));
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
+        codigo.lineaCodigo(new Apila(Double.valueOf(dec.lit()), maquina));
     }
     
     public static void generaCodigo(Cadena cad)
     {
-        maquina.lineaCodigo(new Apila(cad.lit(), maquina));
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
+        codigo.lineaCodigo(new Apila(cad.lit(), maquina));
     }
 
     public static void generaCodigo(Ident ident)
     {
-        final INodo vinculo = ident.vinculo();
+        if (esInvariante(ident))
+            invariante(ident);
+        else
+            direccion(ident);
+    }
+
+    private static void invariante(Exp exp)
+    {
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
+        codigo.lineaCodigo(new Apila(exp.dir(), maquina));
+        codigo.lineaCodigo(new ApilaInd(maquina));
+    }
+
+    /**
+        Genera el código que calcula la dirección de un designador formado por accesos a campos de una variable
+        o parámetro, sin cargarla de la celda donde se guarda si es invariante.
+    */
+    private static void direccion(Exp exp)
+    {
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
+        if (exp instanceof Acc acc)
+        {
+            generaCodigo(acc.reg());
+            campo(acc);
+            return;
+        }
+
+        final INodo vinculo = exp.vinculo();
 
         if (vinculo.nivel() == 0)
-            maquina.lineaCodigo(new Apila(vinculo.dir(), maquina));
+            codigo.lineaCodigo(new Apila(vinculo.dir(), maquina));
         else
         {
-            maquina.lineaCodigo(new Apilad(vinculo.nivel(), maquina));
-            maquina.lineaCodigo(new Apila(vinculo.dir(), maquina));
-            maquina.lineaCodigo(new OpBinaria<>(SUMA_ENT, maquina));
+            codigo.lineaCodigo(new Apilad(vinculo.nivel(), maquina));
+            codigo.lineaCodigo(new Apila(vinculo.dir(), maquina));
+            codigo.lineaCodigo(new OpBinaria<>(SUMA_ENT, maquina));
 
             if (vinculo instanceof Pvar)
-                maquina.lineaCodigo(new ApilaInd(maquina));
+                codigo.lineaCodigo(new ApilaInd(maquina));
         }
     }
 
     // Expresiones constantes
 
-    public static void generaCodigo(True t)  { maquina.lineaCodigo(new Apila(true, maquina)); }
+    public static void generaCodigo(True t)  { codigo().lineaCodigo(new Apila(true, maquina())); }
 
-    public static void generaCodigo(False f) { maquina.lineaCodigo(new Apila(false, maquina)); }
+    public static void generaCodigo(False f) { codigo().lineaCodigo(new Apila(false, maquina())); }
 
-    public static void generaCodigo(Nulo n)  { maquina.lineaCodigo(new Apila(VALOR_NULO, maquina)); }
+    public static void generaCodigo(Nulo n)  { codigo().lineaCodigo(new Apila(VALOR_NULO, maquina())); }
 
     // Operadores relacionales
 
     private static void opBinaria(ExpBinaria exp, InfijoBinario<?, ?, ?> op)
     {
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
         final Exp op1 = exp.op1(), op2 = exp.op2();
         Tipo t = refFact(exp.tipo());
 
         generaCodigo(op1);
         if (esDesig(op1))
-            maquina.lineaCodigo(new ApilaInd(maquina));
+            codigo.lineaCodigo(new ApilaInd(maquina));
         if (t instanceof Real && refFact(op1.tipo()) instanceof Int)
-            maquina.lineaCodigo(new PromReal(maquina));
+            codigo.lineaCodigo(new PromReal(maquina));
 
         generaCodigo(op2);
         if (esDesig(op2))
-            maquina.lineaCodigo(new ApilaInd(maquina));
+            codigo.lineaCodigo(new ApilaInd(maquina));
         if (t instanceof Real && refFact(op2.tipo()) instanceof Int)
-            maquina.lineaCodigo(new PromReal(maquina));
+            codigo.lineaCodigo(new PromReal(maquina));
         
-        maquina.lineaCodigo(new OpBinaria<>(op, maquina));
+        codigo.lineaCodigo(new OpBinaria<>(op, maquina));
     }
 
     private static void opUnaria(ExpUnaria exp, InfijoUnario<?, ?> op)
     {
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
         final Exp op1 = exp.op();
 
         generaCodigo(op1);
         if (esDesig(op1))
-            maquina.lineaCodigo(new ApilaInd(maquina));
+            codigo.lineaCodigo(new ApilaInd(maquina));
         
-        maquina.lineaCodigo(new OpUnaria<>(op, maquina));
+        codigo.lineaCodigo(new OpUnaria<>(op, maquina));
     }
 
     public static void generaCodigo(Eq eq) { opBinaria(eq, EQ); }
@@ -313,9 +647,41 @@ public class GeneracionCodigo extends Procesamiento
     
     // Operadores lógicos
 
-    public static void generaCodigo(And and) { opBinaria(and, AND); }
+    public static void generaCodigo(And and)
+    {
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
+        if (optimiza(CORTOCIRCUITO))
+        {
+            final int sig = and.sig();
+
+            condicion(and.op1(), false, sig - 1);
+            operando(and.op2());
+            codigo.lineaCodigo(new Ira(sig, maquina));
+            codigo.lineaCodigo(new Apila(false, maquina));
+        }
+        else
+            opBinaria(and, AND);
+    }
+
+    public static void generaCodigo(Or or)
+    {
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
 
-    public static void generaCodigo(Or or)   { opBinaria(or, OR); }
+        if (optimiza(CORTOCIRCUITO))
+        {
+            final int sig = or.sig();
+
+            condicion(or.op1(), true, sig - 1);
+            operando(or.op2());
+            codigo.lineaCodigo(new Ira(sig, maquina));
+            codigo.lineaCodigo(new Apila(true, maquina));
+        }
+        else
+            opBinaria(or, OR);
+    }
     
     public static void generaCodigo(Not not) { opUnaria(not, NOT); }
     
@@ -337,34 +703,78 @@ public class GeneracionCodigo extends Procesamiento
 
     public static void generaCodigo(Indx indx)
     {
+        if (esInvariante(indx))
+            invariante(indx);
+        else
+            indice(indx);
+    }
+
+    private static void indice(Indx indx)
+    {
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
         final Exp eid = indx.eid(), ei = indx.ei();
 
         generaCodigo(eid);
         generaCodigo(ei);
 
         if (esDesig(ei))
-            maquina.lineaCodigo(new ApilaInd(maquina));
+            codigo.lineaCodigo(new ApilaInd(maquina));
 
-        maquina.lineaCodigo(new Apila(tamBase(eid), maquina));
-        maquina.lineaCodigo(new OpBinaria<>(MUL_ENT, maquina));
-        maquina.lineaCodigo(new OpBinaria<>(SUMA_ENT, maquina));
+        escala(tamBase(eid));
+        codigo.lineaCodigo(new OpBinaria<>(SUMA_ENT, maquina));
+    }
+
+    /**
+        Genera el código que multiplica un índice por el tamaño de los elementos de un array. Con la reducción
+        de fuerza, el producto por 1 se omite y el producto por una potencia de 2 se sustituye por un
+        desplazamiento.
+    */
+    private static void escala(int tam)
+    {
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
+        if (costeEscala(tam) == 0)
+            return;
+
+        if (optimiza(REDUCCION) && Integer.bitCount(tam) == 1)
+        {
+            codigo.lineaCodigo(new Apila(Integer.numberOfTrailingZeros(tam), maquina));
+            codigo.lineaCodigo(new OpBinaria<>(DESP_IZQ, maquina));
+        }
+        else
+        {
+            codigo.lineaCodigo(new Apila(tam, maquina));
+            codigo.lineaCodigo(new OpBinaria<>(MUL_ENT, maquina));
+        }
     }
 
     public static void generaCodigo(Acc acc)
     {
+        if (esInvariante(acc))
+            invariante(acc);
+        else
+            direccion(acc);
+    }
+
+    private static void campo(Acc acc)
+    {
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
         final Exp reg = acc.reg();
         String id = acc.id();
 
-        generaCodigo(reg);
-
         // Hallamos el desplazamiento del campo
         List<Campo> lcampo = ((Reg) refFact(reg.tipo())).lcampo();
         for (Campo c: lcampo)
         {
             if (id.equals(c.id()))
             {
-                maquina.lineaCodigo(new Apila(c.desplazamiento(), maquina));
-                maquina.lineaCodigo(new OpBinaria<>(SUMA_ENT, maquina));
+                codigo.lineaCodigo(new Apila(c.desplazamiento(), maquina));
+                codigo.lineaCodigo(new OpBinaria<>(SUMA_ENT, maquina));
                 return;
             }
         }
@@ -372,8 +782,12 @@ public class GeneracionCodigo extends Procesamiento
 
     public static void generaCodigo(Indir indir)
     {
+        final MaquinaVirtual maquina = maquina();
+        final Tramo codigo = codigo();
+
         generaCodigo(indir.et());
-        compruebaNulo(indir.sig() - 1);
-        maquina.lineaCodigo(new ApilaInd(maquina));
+        codigo.lineaCodigo(new ApilaInd(maquina));
+        if (!Nulidad.esSeguro(indir))
+            compruebaNulo(indir.sig());
     }
 }
\ No newline at end of file
@@ -0,0 +1,613 @@
+package procesamientos;
+
+import static asint.Sintaxis.*;
+import static asint.Sintaxis.Nodo.VALOR_NULO;
+import static maquina.MaquinaP.*;
+import static procesamientos.GeneracionCodigo.consulta;
+import static procesamientos.GeneracionCodigo.maquina;
+import static procesamientos.GeneracionCodigo.memoriza;
+import static procesamientos.GeneracionCodigo.mirilla;
+import static procesamientos.Procesamiento.OPTIMIZACION.MIRILLA;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import maquina.MaquinaVirtual;
+import optimizacion.Mirilla;
+import optimizacion.SSA.*;
+
+/**
+    Clase utilidad que contiene todos los métodos requeridos para generar el código de la máquina P a partir de
+    la representación en forma SSA construida por {@link TraduccionSSA}.
+
+    <br>La máquina P es una máquina de pila, de modo que cada valor que se usa una sola vez, en su mismo bloque
+    y sin que las instrucciones intermedias lo impidan, se calcula directamente donde se usa, como una
+    subexpresión. El resto de los valores, incluidas las <code>phi</code>, se guardan en celdas propias: de la
+    memoria estática, tras las variables globales, en el programa principal, y al final del registro de
+    activación en los procedimientos. Las <code>phi</code> se eliminan con copias paralelas al final de sus
+    bloques predecesores, que la construcción garantiza que terminan en un salto incondicional.
+
+    @version Java SE 17
+    @see Procesamiento
+
+    @author Félix Rodolfo Díaz Lorente
+    @author Álvaro Magalló Paz
+    @author Alejandro del Río Caballero
+*/
+public class GeneracionSSA extends Procesamiento
+{
+    private GeneracionSSA() {} // No se permite instanciar esta clase
+
+    /**
+        Efectos de una instrucción junto con las subexpresiones que se calculan con ella.
+    */
+    private static record Efectos(boolean lee, boolean escribe, boolean observable)
+    {
+        static final Efectos NINGUNO = new Efectos(false, false, false);
+
+        Efectos une(Efectos otros)
+        {
+            return new Efectos(lee || otros.lee, escribe || otros.escribe, observable || otros.observable);
+        }
+
+        /**
+            Indica si dos cálculos no pueden intercambiar su orden.
+        */
+        boolean conflicto(Efectos otros)
+        {
+            return (lee && otros.escribe) || (escribe && (otros.lee || otros.escribe))
+                || (observable && otros.observable);
+        }
+    }
+
+    /**
+        Estado de la generación de código desde SSA en una compilación.
+    */
+    static final class Estado
+    {
+        final Set<Instruccion> enLinea = new HashSet<>(); // Valores calculados donde se usan
+        final Map<Valor, Integer> celdas = new HashMap<>(); // Celda de cada valor guardado
+        final Map<Funcion, Integer> indefinidas = new HashMap<>(); // Celda nunca escrita de cada función
+
+        Funcion funcion = null; // Función cuyo código se genera
+        List<InsMaquina> codigo = null; // Código generado
+
+        final Map<Integer, Proc> invocaciones = new HashMap<>(); // Saltos a procedimientos por resolver
+
+        final Map<Integer, Bloque> saltos = new HashMap<>(); // Saltos a bloques por resolver
+        final Map<Bloque, Integer> inicios = new HashMap<>(); // Primera instrucción de cada bloque
+    }
+
+    private static Estado estado() { return Contexto.actual().generacionSSA; }
+
+    // Funciones auxiliares
+
+    private static Efectos efectos(Instruccion ins)
+    {
+        return new Efectos(ins.leeMemoria(), ins.escribeMemoria(), ins.esObservable());
+    }
+
+    private static boolean esNumerico(Tipo t) { return t instanceof Int || t instanceof Real; }
+
+    private static boolean esPuntero(Tipo t) { return t instanceof Puntero || t == NULL; }
+
+    /**
+        Indica si una condición se calcula con un salto fusionado, como las comparaciones fusionables del
+        árbol de sintaxis abstracta.
+    */
+    private static boolean esFusionable(Valor cond)
+    {
+        if (!(cond instanceof Binaria bin && estado().enLinea.contains(bin)))
+            return false;
+
+        final var op = bin.op();
+        final Tipo t1 = bin.operando(0).tipo(), t2 = bin.operando(1).tipo();
+
+        if (op == EQ || op == NE)
+            return (esNumerico(t1) && esNumerico(t2)) || (esPuntero(t1) && esPuntero(t2));
+        return (op == LT || op == LE || op == GT || op == GE) && esNumerico(t1) && esNumerico(t2);
+    }
+
+    /**
+        Devuelve los operandos de las copias de las <code>phi</code> de un sucesor al final de un bloque, o
+        <code>null</code> en las copias que se omiten.
+    */
+    private static List<Valor> copias(Bloque bloque)
+    {
+        List<Valor> ops = new ArrayList<>();
+
+        if (bloque.terminador() instanceof Salto salto)
+        {
+            final int i = salto.destino().predecesores().indexOf(bloque);
+
+            for (Phi phi: salto.destino().phis())
+            {
+                final Valor op = phi.operando(i);
+                ops.add((op == phi || op instanceof Indefinido || !estado().celdas.containsKey(phi))? null: op);
+            }
+        }
+        return ops;
+    }
+
+    // Asignación de celdas
+
+    /**
+        Decide qué valores se calculan donde se usan y reserva una celda para cada uno de los demás. Se ejecuta
+        antes de la generación de código, pues el tamaño de la memoria de la máquina P depende de las celdas
+        reservadas.
+    */
+    static void asignaCeldas(Programa programa)
+    {
+        final Estado estado = estado();
+
+        estado.enLinea.clear();
+        estado.celdas.clear();
+        estado.indefinidas.clear();
+
+        asignaCeldas(programa.principal());
+        programa.procs().forEach(f -> asignaCeldas(f));
+    }
+
+    private static void asignaCeldas(Funcion f)
+    {
+        final Estado estado = estado();
+
+        Map<Valor, Integer> usos = new HashMap<>();
+        for (Bloque bloque: f.bloques())
+        {
+            bloque.instrucciones().forEach(ins -> ins.operandos().forEach(op -> usos.merge(op, 1, Integer::sum)));
+            if (bloque.terminador() instanceof Bifurcacion bif)
+                usos.merge(bif.condicion(), 1, Integer::sum);
+        }
+
+        Map<Instruccion, Efectos> arboles = new HashMap<>();
+        for (Bloque bloque: f.bloques())
+        {
+            final List<Instruccion> lista = bloque.instrucciones();
+
+            for (int pc = 0; pc < lista.size(); ++pc)
+            {
+                final Instruccion ins = lista.get(pc);
+
+                if (ins instanceof Phi)
+                    arboles.put(ins, Efectos.NINGUNO);
+                else
+                    arboles.put(ins, efectos(ins).une(subexpresiones(bloque, pc, ins.operandos(), usos, arboles)));
+            }
+
+            if (bloque.terminador() instanceof Bifurcacion bif)
+                subexpresiones(bloque, lista.size(), List.of(bif.condicion()), usos, arboles);
+        }
+
+        // Las copias de las phi se deciden una vez conocidas las phi que se guardan
+        List<Valor> guardados = new ArrayList<>();
+        for (Bloque bloque: f.bloques())
+        {
+            for (Instruccion ins: bloque.instrucciones())
+            {
+                final boolean usado = usos.containsKey(ins);
+
+                if (ins instanceof Phi? usado: (!estado.enLinea.contains(ins) && !(ins instanceof Display) && ins.tieneResultado()
+                    && (usado || ins.escribeMemoria() || ins.esObservable())))
+                {
+                    estado.celdas.put(ins, guardados.size());
+                    guardados.add(ins);
+                }
+            }
+        }
+
+        for (Bloque bloque: f.bloques())
+            subexpresiones(bloque, bloque.instrucciones().size(), copias(bloque), usos, arboles);
+        estado.enLinea.forEach(ins -> {
+            if (estado.celdas.remove(ins) != null)
+                guardados.remove(ins);
+        });
+
+        final boolean indefinida = f.bloques().stream().anyMatch(b -> b.instrucciones().stream()
+            .anyMatch(ins -> !(ins instanceof Phi) && ins.operandos().stream().anyMatch(op -> op instanceof Indefinido))
+            || (b.terminador() instanceof Bifurcacion bif && bif.condicion() instanceof Indefinido));
+
+        final int n = guardados.size() + (indefinida? 1: 0);
+        final int base = (f.proc() == null)? Asignacion.reservaRegistros(n): Asignacion.reservaTemporales(f.proc(), n);
+
+        for (int i = 0; i < guardados.size(); ++i)
+            estado.celdas.put(guardados.get(i), base + i);
+        if (indefinida)
+            estado.indefinidas.put(f, base + guardados.size());
+    }
+
+    /**
+        Decide qué operandos de una instrucción de un bloque se calculan con ella, recorriéndolos de derecha a
+        izquierda. Un operando se calcula con la instrucción si es su único uso, está en el mismo bloque y
+        ninguna de las instrucciones intermedias, que pasan a ejecutarse antes que él, entra en conflicto con
+        sus efectos.
+
+        @param pc posición de la instrucción en el bloque, o el tamaño del bloque si es su terminador o las copias
+            de sus <code>phi</code>
+        @param ops operandos de la instrucción, donde <code>null</code> indica un operando que se omite
+
+        @return Los efectos de los operandos que se calculan con la instrucción.
+    */
+    private static Efectos subexpresiones(Bloque bloque, int pc, List<Valor> ops, Map<Valor, Integer> usos,
+        Map<Instruccion, Efectos> arboles)
+    {
+        final List<Instruccion> lista = bloque.instrucciones();
+        List<Instruccion> derechos = new ArrayList<>();
+        Efectos efectos = Efectos.NINGUNO;
+        int limite = pc;
+
+        for (int i = ops.size() - 1; i >= 0; --i)
+        {
+            if (!(ops.get(i) instanceof Instruccion op) || op instanceof Phi || op instanceof Display
+                || op.bloque() != bloque || usos.get(op) != 1)
+            {
+                continue;
+            }
+
+            final int p = lista.indexOf(op);
+            if (p >= limite)
+                continue;
+
+            final Efectos arbol = arboles.get(op);
+            boolean libre = true;
+            for (int q = p + 1; q < pc && libre; ++q)
+            {
+                final Instruccion otra = lista.get(q);
+
+                if (!estado().enLinea.contains(otra) || derechos.contains(otra))
+                    libre = !arbol.conflicto(arboles.get(otra));
+            }
+
+            if (libre)
+            {
+                estado().enLinea.add(op);
+                derechos.add(op);
+                efectos = efectos.une(arbol);
+                limite = p;
+            }
+        }
+
+        return efectos;
+    }
+
+    // Emisión de código
+
+    private static int emite(InsMaquina ins)
+    {
+        estado().codigo.add(ins);
+        return estado().codigo.size() - 1;
+    }
+
+    /**
+        Apila la dirección de la celda de un valor, en la memoria estática o en el registro de activación del
+        procedimiento.
+    */
+    private static void celda(int celda)
+    {
+        final MaquinaVirtual maquina = maquina();
+
+        if (estado().funcion.proc() == null)
+            emite(new Apila(celda, maquina));
+        else
+        {
+            emite(new Apilad(estado().funcion.proc().nivel(), maquina));
+            emite(new Apila(celda, maquina));
+            emite(new OpBinaria<>(SUMA_ENT, maquina));
+        }
+    }
+
+    /**
+        Apila un valor: una constante, el resultado de una subexpresión o el contenido de su celda.
+    */
+    private static void valor(Valor valor)
+    {
+        final MaquinaVirtual maquina = maquina();
+        final Estado estado = estado();
+
+        if (valor instanceof Constante cte)
+            emite(new Apila(cte.valor(), maquina));
+        else if (valor instanceof Indefinido)
+        {
+            celda(estado.indefinidas.get(estado.funcion));
+            emite(new ApilaInd(maquina));
+        }
+        else if (valor instanceof Display || estado.enLinea.contains(valor))
+            calcula((Instruccion) valor);
+        else
+        {
+            celda(estado.celdas.get(valor));
+            emite(new ApilaInd(maquina));
+        }
+    }
+
+    private static void compruebaNulo()
+    {
+        final MaquinaVirtual maquina = maquina();
+
+        emite(new Dup(maquina));
+        emite(new Apila(VALOR_NULO, maquina));
+        emite(new OpBinaria<>(EQ, maquina));
+        emite(new Irf(estado().codigo.size() + 2, maquina));
+        emite(new Stop("[ERROR] Intento de acceso a través de null", maquina));
+    }
+
+    /**
+        Genera el código de una instrucción, que apila su resultado si lo tiene.
+    */
+    private static void calcula(Instruccion ins)
+    {
+        final MaquinaVirtual maquina = maquina();
+
+        final List<Valor> ops = ins.operandos();
+
+        if (ins instanceof Binaria bin)
+        {
+            valor(ops.get(0));
+            valor(ops.get(1));
+            emite(new OpBinaria<>(bin.op(), maquina));
+        }
+        else if (ins instanceof Unaria un)
+        {
+            valor(ops.get(0));
+            emite(new OpUnaria<>(un.op(), maquina));
+        }
+        else if (ins instanceof Promocion)
+        {
+            valor(ops.get(0));
+            emite(new PromReal(maquina));
+        }
+        else if (ins instanceof Display display)
+            emite(new Apilad(display.nivel(), maquina));
+        else if (ins instanceof Carga)
+        {
+            valor(ops.get(0));
+            emite(new ApilaInd(maquina));
+        }
+        else if (ins instanceof Guarda)
+        {
+            valor(ops.get(0));
+            valor(ops.get(1));
+            emite(new DesapilaInd(maquina));
+        }
+        else if (ins instanceof Copia copia)
+        {
+            valor(ops.get(0));
+            valor(ops.get(1));
+            emite(new Mueve(copia.tam(), maquina));
+        }
+        else if (ins instanceof Reserva reserva)
+            emite(new Alloc(reserva.tam(), maquina));
+        else if (ins instanceof Libera libera)
+        {
+            valor(ops.get(0));
+            emite(new Dealloc(libera.tam(), maquina));
+        }
+        else if (ins instanceof Comprueba)
+        {
+            valor(ops.get(0));
+            compruebaNulo();
+        }
+        else if (ins instanceof Lee)
+            emite(new Escanea(ins.tipo(), maquina));
+        else if (ins instanceof Escribe)
+        {
+            valor(ops.get(0));
+            emite(new Imprime(maquina));
+        }
+        else if (ins instanceof Linea)
+            emite(new Endl(maquina));
+        else // ins instanceof Llamada
+            llamada((Llamada) ins);
+    }
+
+    private static void llamada(Llamada llamada)
+    {
+        final MaquinaVirtual maquina = maquina();
+        final Estado estado = estado();
+
+        final Proc proc = llamada.proc();
+        final int activa = emite(new Activa(proc.nivel(), proc.espacio(), VALOR_NULO, maquina));
+
+        final List<? extends Param> lparam = proc.lparam();
+        for (int i = 0; i < lparam.size(); ++i)
+        {
+            final Param pf = lparam.get(i);
+
+            emite(new Dup(maquina));
+            emite(new Apila(pf.dir(), maquina));
+            emite(new OpBinaria<>(SUMA_ENT, maquina));
+            valor(llamada.operando(i));
+
+            if (pf instanceof Pval && !(refFact(pf.tipo()) instanceof TipoBasico || refFact(pf.tipo()) instanceof Puntero))
+                emite(new Mueve(pf.tipo().espacio(), maquina));
+            else
+                emite(new DesapilaInd(maquina));
+        }
+
+        emite(new Desapilad(proc.nivel(), maquina));
+        estado.invocaciones.put(emite(new Ira(VALOR_NULO, maquina)), proc);
+        estado.codigo.set(activa, ((Activa) estado.codigo.get(activa)).reubica(estado.codigo.size()));
+    }
+
+    private static void salta(Bloque destino, boolean condicional, boolean valor)
+    {
+        final MaquinaVirtual maquina = maquina();
+
+        final InsMaquina ins = !condicional? new Ira(VALOR_NULO, maquina):
+            valor? new Irv(VALOR_NULO, maquina): new Irf(VALOR_NULO, maquina);
+        estado().saltos.put(emite(ins), destino);
+    }
+
+    /**
+        Devuelve el bloque donde continúa la ejecución al saltar a uno dado, saltándose los bloques vacíos.
+    */
+    private static Bloque destino(Bloque bloque, Set<Bloque> vacios)
+    {
+        Set<Bloque> vistos = new HashSet<>();
+        while (vacios.contains(bloque) && vistos.add(bloque))
+            bloque = ((Salto) bloque.terminador()).destino();
+        return bloque;
+    }
+
+    private static void bifurcacion(Bifurcacion bif, Bloque cierto, Bloque falso, Bloque siguiente)
+    {
+        final MaquinaVirtual maquina = maquina();
+
+        final Valor cond = bif.condicion();
+
+        // El salto se produce si la condición toma el valor 'valor'
+        final boolean valor = (falso == siguiente);
+        final Bloque destino = valor? cierto: falso;
+
+        if (esFusionable(cond))
+        {
+            final Binaria rel = (Binaria) cond;
+            final var op = rel.op();
+
+            valor(rel.operando(0));
+            valor(rel.operando(1));
+
+            // Saltar si la comparación es cierta equivale a saltar si su negación es falsa
+            final InsMaquina ins = (op == EQ)? (valor? new IrfNe(VALOR_NULO, maquina): new IrfEq(VALOR_NULO, maquina)):
+                (op == NE)? (valor? new IrfEq(VALOR_NULO, maquina): new IrfNe(VALOR_NULO, maquina)):
+                (op == LT)? (valor? new IrfGe(VALOR_NULO, maquina): new IrfLt(VALOR_NULO, maquina)):
+                (op == LE)? (valor? new IrfGt(VALOR_NULO, maquina): new IrfLe(VALOR_NULO, maquina)):
+                (op == GT)? (valor? new IrfLe(VALOR_NULO, maquina): new IrfGt(VALOR_NULO, maquina)):
+                /* op == GE */ (valor? new IrfLt(VALOR_NULO, maquina): new IrfGe(VALOR_NULO, maquina));
+            estado().saltos.put(emite(ins), destino);
+        }
+        else
+        {
+            valor(cond);
+            salta(destino, true, valor);
+        }
+
+        if (!valor && cierto != siguiente)
+            salta(cierto, false, false);
+    }
+
+    private static void generaCodigo(Funcion f)
+    {
+        final MaquinaVirtual maquina = maquina();
+        final Estado estado = estado();
+
+        estado.funcion = f;
+
+        final List<Bloque> bloques = f.bloques();
+
+        // Los bloques vacíos que solo saltan a otro, sin copias de phi, no se emiten
+        Set<Bloque> vacios = new HashSet<>();
+        for (Bloque bloque: bloques.subList(1, bloques.size()))
+        {
+            if (bloque.instrucciones().isEmpty() && bloque.terminador() instanceof Salto
+                && copias(bloque).stream().allMatch(op -> op == null))
+            {
+                vacios.add(bloque);
+            }
+        }
+
+        List<Bloque> emitidos = bloques.stream().filter(b -> !vacios.contains(b)).toList();
+        for (int i = 0; i < emitidos.size(); ++i)
+        {
+            final Bloque bloque = emitidos.get(i);
+            final Bloque siguiente = (i + 1 < emitidos.size())? emitidos.get(i + 1): null;
+
+            estado.inicios.put(bloque, estado.codigo.size());
+            for (Instruccion ins: bloque.instrucciones())
+            {
+                if (estado.enLinea.contains(ins) || ins instanceof Phi || ins instanceof Display)
+                    continue;
+
+                final Integer celda = estado.celdas.get(ins);
+                if (celda != null)
+                    celda(celda);
+                if (celda != null || !ins.tieneResultado())
+                    calcula(ins);
+                if (celda != null)
+                    emite(new DesapilaInd(maquina));
+            }
+
+            final Terminador term = bloque.terminador();
+            if (term instanceof Salto salto)
+            {
+                // Copia paralela: se apilan todas las direcciones y valores antes de escribir ninguna celda
+                final List<Phi> phis = salto.destino().phis();
+                final List<Valor> ops = copias(bloque);
+
+                int n = 0;
+                for (int j = 0; j < ops.size(); ++j)
+                {
+                    if (ops.get(j) != null)
+                    {
+                        celda(estado.celdas.get(phis.get(j)));
+                        valor(ops.get(j));
+                        ++n;
+                    }
+                }
+                for (; n > 0; --n)
+                    emite(new DesapilaInd(maquina));
+
+                final Bloque destino = destino(salto.destino(), vacios);
+                if (destino != siguiente)
+                    salta(destino, false, false);
+            }
+            else if (term instanceof Bifurcacion bif)
+                bifurcacion(bif, destino(bif.cierto(), vacios), destino(bif.falso(), vacios), siguiente);
+            else if (term instanceof Retorno)
+            {
+                if (Pureza.esPuro(f.proc()))
+                    emite(memoriza(f.proc()));
+                emite(new Desactiva(f.proc().nivel(), f.proc().espacio(), maquina));
+                emite(new Irind(maquina));
+            }
+            else // term instanceof Parada
+                emite(new Stop(maquina));
+        }
+
+    }
+
+    // Programa
+
+    public static void generaCodigo(Prog prog)
+    {
+        final Mirilla mirilla = mirilla();
+        final MaquinaVirtual maquina = maquina();
+        final Estado estado = estado();
+
+        final Programa programa = TraduccionSSA.programa();
+
+        estado.codigo = new ArrayList<>();
+        estado.saltos.clear();
+        estado.inicios.clear();
+        estado.invocaciones.clear();
+
+        prog.etiquetaInicio(estado.codigo.size());
+        generaCodigo(programa.principal());
+        for (Funcion f: programa.procs())
+        {
+            f.proc().etiquetaInicio(estado.codigo.size());
+            if (Pureza.esPuro(f.proc()))
+                emite(consulta(f.proc()));
+            generaCodigo(f);
+        }
+
+        final List<InsMaquina> codigo = estado.codigo;
+        estado.saltos.forEach((i, bloque) -> codigo.set(i, ((InsSalto) codigo.get(i)).reubica(estado.inicios.get(bloque))));
+        estado.invocaciones.forEach((i, proc) -> codigo.set(i, ((Ira) codigo.get(i)).reubica(proc.inicio())));
+        maquina.cargaPrograma(estado.codigo.toArray(InsMaquina[]::new));
+
+        if (optimiza(MIRILLA))
+        {
+            List<Proc> procs = recolectaProcs(prog);
+            maquina.cargaPrograma(mirilla.optimiza(maquina.programa(), puntosEntrada(prog)));
+
+            // Los puntos de entrada se desplazan junto con el resto del programa
+            prog.etiquetaInicio(mirilla.reubica(prog.inicio()));
+            procs.forEach(proc -> proc.etiquetaInicio(mirilla.reubica(proc.inicio())));
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package procesamientos;
+
+import static asint.Sintaxis.*;
+import static procesamientos.Procesamiento.OPTIMIZACION.CORTOCIRCUITO;
+import static procesamientos.Procesamiento.OPTIMIZACION.NULOS;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+    Clase utilidad que contiene todos los métodos requeridos para ejecutar la fase de <b>análisis de nulidad</b>
+    en el procesamiento de nuestro lenguaje Tiny.
+
+    <br>Cada desreferencia <code>p^</code> y cada liberación <code>delete p</code> comprueban que el puntero no
+    es <code>null</code>. Esta fase recorre el cuerpo de cada procedimiento y del programa principal en el
+    orden de ejecución, calculando los designadores de tipo puntero que no pueden ser <code>null</code> en
+    cada punto:
+    <ul>
+        <li>tras reservar memoria con <code>new p</code>;</li>
+        <li>tras una desreferencia o liberación de <code>p</code>, que ya ha superado la comprobación;</li>
+        <li>en la rama de una condición que lo garantiza, como <code>p != null</code>.</li>
+    </ul>
+
+    <br>Un hecho se pierde cuando una escritura puede alcanzar al puntero (según la variable a la que
+    pertenecen y sus tipos), en cualquier invocación y en las confluencias de ramas y bucles, cuyos hechos de
+    entrada se calculan como un punto fijo. Las comprobaciones de los punteros que no pueden ser
+    <code>null</code> no se generan.
+
+    @version Java SE 17
+    @see Procesamiento
+
+    @author Félix Rodolfo Díaz Lorente
+    @author Álvaro Magalló Paz
+    @author Alejandro del Río Caballero
+*/
+public class Nulidad extends Procesamiento
+{
+    private Nulidad() {} // No se permite instanciar esta clase
+
+    public static void analiza(INodo nodo) { procesa(Nulidad.class, "analiza", nodo); }
+
+    public static void analiza(List<? extends INodo> lista) { procesa(Nulidad.class, "analiza", lista); }
+
+    /**
+        Hechos en cada una de las salidas de una condición.
+
+        @param ciertos punteros no nulos si la condición se cumple
+        @param falsos punteros no nulos si la condición no se cumple
+    */
+    private static record Ramas(Map<List<Object>, Exp> ciertos, Map<List<Object>, Exp> falsos) {}
+
+    /**
+        Estado del análisis de nulidad en una compilación.
+    */
+    static final class Estado
+    {
+        Map<List<Object>, Exp> hechos = new HashMap<>(); // Punteros no nulos, por su clave
+        final Set<Nodo> visitados = new HashSet<>(); // Comprobaciones analizadas
+        final Set<Nodo> necesarios = new HashSet<>(); // Comprobaciones necesarias en algún recorrido
+    }
+
+    private static Estado estado() { return Contexto.actual().nulidad; }
+
+    /**
+        Indica si la comprobación de <code>null</code> de una desreferencia o liberación es redundante.
+
+        @param nodo desreferencia o liberación ya analizada por esta fase
+
+        @return <code>true</code> si solo si el puntero de <code>nodo</code> no puede ser <code>null</code>.
+    */
+    static boolean esSeguro(INodo nodo)
+    {
+        return estado().visitados.contains(nodo.nodo()) && !estado().necesarios.contains(nodo.nodo());
+    }
+
+    // Funciones auxiliares
+
+    /**
+        Devuelve la clave de un designador formado por identificadores, accesos a campos y desreferencias, o
+        <code>null</code> si no lo es.
+    */
+    private static List<Object> clave(Exp exp)
+    {
+        List<Object> clave;
+
+        if (exp instanceof Ident ident && (ident.vinculo() instanceof Var || ident.vinculo() instanceof Param))
+            return new ArrayList<>(List.of(ident.vinculo().nodo()));
+        else if (exp instanceof Acc acc && (clave = clave(acc.reg())) != null)
+            clave.add(acc.id());
+        else if (exp instanceof Indir indir && (clave = clave(indir.et())) != null)
+            clave.add(Indir.class);
+        else
+            return null;
+
+        return clave;
+    }
+
+    /**
+        Indica si un designador forma parte de una variable o de un parámetro por valor, y no de la memoria
+        dinámica.
+    */
+    private static boolean esFijo(Exp desig)
+    {
+        final INodo raiz = raiz(desig);
+        return raiz != null && !(raiz instanceof Pvar);
+    }
+
+    /**
+        Indica si escribir en un designador puede modificar otro. Las variables y parámetros por valor solo se
+        alcanzan a través de sí mismos, y nunca desde la memoria dinámica; en otro caso, se comparan los tipos.
+    */
+    private static boolean alcanza(Exp desig, Exp otro)
+    {
+        final INodo r1 = raiz(desig), r2 = raiz(otro);
+
+        if (esFijo(desig) && esFijo(otro))
+            return r1.nodo() == r2.nodo();
+        else if ((esFijo(desig) && r2 == null) || (r1 == null && esFijo(otro)))
+            return false;
+        else
+            return contiene(desig.tipo(), otro.tipo());
+    }
+
+    private static Map<List<Object>, Exp> interseccion(Map<List<Object>, Exp> h1, Map<List<Object>, Exp> h2)
+    {
+        Map<List<Object>, Exp> res = new HashMap<>(h1);
+        res.keySet().retainAll(h2.keySet());
+        return res;
+    }
+
+    private static Map<List<Object>, Exp> union(Map<List<Object>, Exp> h1, Map<List<Object>, Exp> h2)
+    {
+        Map<List<Object>, Exp> res = new HashMap<>(h1);
+        res.putAll(h2);
+        return res;
+    }
+
+    private static void anota(Exp exp)
+    {
+        final List<Object> clave = clave(exp);
+        if (clave != null)
+            estado().hechos.put(clave, exp);
+    }
+
+    /**
+        Elimina los hechos que una escritura en un designador puede invalidar: los de los designadores a los que
+        alcanza y los de los que se obtienen a través de él, cuya clave comienza por la suya, como
+        <code>p^.sig</code> al escribir en <code>p</code>.
+    */
+    private static void escribe(Exp desig)
+    {
+        final List<Object> clave = clave(desig);
+
+        estado().hechos.entrySet().removeIf(hecho -> alcanza(desig, hecho.getValue()) || (clave != null
+            && hecho.getKey().size() >= clave.size() && hecho.getKey().subList(0, clave.size()).equals(clave)));
+    }
+
+    /**
+        Analiza la comprobación de <code>null</code> del puntero de una desreferencia o liberación, que tras
+        ella deja de poder ser <code>null</code>.
+    */
+    private static void comprueba(INodo nodo, Exp puntero)
+    {
+        final Estado estado = estado();
+
+        final List<Object> clave = clave(puntero);
+
+        estado.visitados.add(nodo.nodo());
+        if (clave == null || !estado.hechos.containsKey(clave))
+            estado.necesarios.add(nodo.nodo());
+        anota(puntero);
+    }
+
+    /**
+        Analiza una expresión en el orden en el que se evalúa.
+    */
+    private static void evalua(Exp exp)
+    {
+        if (exp instanceof Indir indir)
+        {
+            evalua(indir.et());
+            comprueba(indir, indir.et());
+        }
+        else if (optimiza(CORTOCIRCUITO) && (exp instanceof And || exp instanceof Or))
+        {
+            final Ramas ramas = condicion(exp);
+            estado().hechos = interseccion(ramas.ciertos(), ramas.falsos());
+        }
+        else if (exp instanceof ExpBinaria bin)
+        {
+            evalua(bin.op1());
+            evalua(bin.op2());
+        }
+        else if (exp instanceof ExpUnaria un)
+            evalua(un.op());
+        else if (exp instanceof Indx indx)
+        {
+            evalua(indx.eid());
+            evalua(indx.ei());
+        }
+        else if (exp instanceof Acc acc)
+            evalua(acc.reg());
+    }
+
+    /**
+        Devuelve los punteros que garantiza una condición, sin evaluarla, si su valor es <code>valor</code>.
+    */
+    private static Map<List<Object>, Exp> garantiza(Exp exp, boolean valor)
+    {
+        Map<List<Object>, Exp> res = new HashMap<>();
+        List<Object> clave;
+
+        if ((exp instanceof Ne && valor) || (exp instanceof Eq && !valor))
+        {
+            final ExpBinaria rel = (ExpBinaria) exp;
+            final Exp puntero = (rel.op1() instanceof Nulo)? rel.op2(): (rel.op2() instanceof Nulo)? rel.op1(): null;
+
+            if (puntero != null && (clave = clave(puntero)) != null)
+                res.put(clave, puntero);
+        }
+        else if ((exp instanceof And and && valor) || (exp instanceof Or && !valor))
+        {
+            final ExpBinaria log = (ExpBinaria) exp;
+            res.putAll(garantiza(log.op1(), valor));
+            res.putAll(garantiza(log.op2(), valor));
+        }
+        else if (exp instanceof Not not)
+            res.putAll(garantiza(not.op(), !valor));
+
+        return res;
+    }
+
+    /**
+        Analiza la evaluación de una condición. Con la evaluación en cortocircuito, el segundo operando de una
+        conjunción o disyunción solo se evalúa en una de las salidas del primero.
+    */
+    private static Ramas condicion(Exp exp)
+    {
+        final Estado estado = estado();
+
+        if (optimiza(CORTOCIRCUITO) && (exp instanceof And || exp instanceof Or))
+        {
+            final ExpBinaria log = (ExpBinaria) exp;
+            final boolean and = exp instanceof And;
+
+            final Ramas r1 = condicion(log.op1());
+            estado.hechos = new HashMap<>(and? r1.ciertos(): r1.falsos());
+            final Ramas r2 = condicion(log.op2());
+
+            return and? new Ramas(r2.ciertos(), interseccion(r1.falsos(), r2.falsos())):
+                new Ramas(interseccion(r1.ciertos(), r2.ciertos()), r2.falsos());
+        }
+        else if (optimiza(CORTOCIRCUITO) && exp instanceof Not not)
+        {
+            final Ramas r = condicion(not.op());
+            return new Ramas(r.falsos(), r.ciertos());
+        }
+
+        evalua(exp);
+        return new Ramas(union(estado.hechos, garantiza(exp, true)), union(estado.hechos, garantiza(exp, false)));
+    }
+
+    // Programa
+
+    public static void analiza(Prog prog)
+    {
+        final Estado estado = estado();
+
+        if (!optimiza(NULOS))
+            return;
+
+        estado.visitados.clear();
+        estado.necesarios.clear();
+
+        analiza(prog.ldec());
+        estado.hechos = new HashMap<>();
+        analiza(prog.lins());
+    }
+
+    // Declaraciones
+
+    public static void analiza(Proc proc)
+    {
+        analiza(proc.ldec());
+        estado().hechos = new HashMap<>();
+        analiza(proc.lins());
+    }
+
+    // Instrucciones básicas
+
+    public static void analiza(Asig asig)
+    {
+        evalua(asig.ei());
+        evalua(asig.ed());
+        escribe(asig.ei());
+    }
+
+    public static void analiza(Invoc invoc)
+    {
+        invoc.lexp().forEach(Nulidad::evalua);
+        estado().hechos.clear(); // El procedimiento puede escribir en cualquier puntero que alcance
+    }
+
+    // Instrucciones de bloque
+
+    public static void analiza(Seq seq)
+    {
+        final Map<List<Object>, Exp> entrada = estado().hechos;
+
+        analiza(seq.ldec());
+        estado().hechos = entrada;
+        analiza(seq.lins());
+    }
+
+    public static void analiza(IfThen ifThen)
+    {
+        final Estado estado = estado();
+
+        final Ramas ramas = condicion(ifThen.exp());
+
+        estado.hechos = new HashMap<>(ramas.ciertos());
+        analiza(ifThen.lins());
+        estado.hechos = interseccion(estado.hechos, ramas.falsos());
+    }
+
+    public static void analiza(IfThenElse ifThenElse)
+    {
+        final Estado estado = estado();
+
+        final Ramas ramas = condicion(ifThenElse.exp());
+
+        estado.hechos = new HashMap<>(ramas.ciertos());
+        analiza(ifThenElse.lins());
+        final Map<List<Object>, Exp> salida = estado.hechos;
+
+        estado.hechos = new HashMap<>(ramas.falsos());
+        analiza(ifThenElse.lins2());
+        estado.hechos = interseccion(salida, estado.hechos);
+    }
+
+    public static void analiza(While wh)
+    {
+        final Estado estado = estado();
+
+        // Los hechos a la entrada de la condición deben cumplirse también al final del cuerpo; como solo
+        // decrecen, se itera hasta alcanzar el punto fijo, y el último recorrido es el correcto
+        Map<List<Object>, Exp> entrada = estado.hechos;
+        while (true)
+        {
+            estado.hechos = new HashMap<>(entrada);
+            final Ramas ramas = condicion(wh.exp());
+
+            estado.hechos = new HashMap<>(ramas.ciertos());
+            analiza(wh.lins());
+
+            final Map<List<Object>, Exp> nueva = interseccion(entrada, estado.hechos);
+            if (nueva.size() == entrada.size())
+            {
+                estado.hechos = new HashMap<>(ramas.falsos());
+                return;
+            }
+            entrada = nueva;
+        }
+    }
+
+    // Gestión de la E/S estándar
+
+    public static void analiza(Read read)
+    {
+        evalua(read.exp());
+        escribe(read.exp());
+    }
+
+    public static void analiza(Write write) { evalua(write.exp()); }
+
+    // Gestión de la memoria dinámica
+
+    public static void analiza(New n)
+    {
+        evalua(n.exp());
+        escribe(n.exp());
+        anota(n.exp());
+    }
+
+    public static void analiza(Delete d)
+    {
+        evalua(d.exp());
+        comprueba(d, d.exp());
+
+        // La memoria liberada puede reutilizarse, por lo que se pierden los hechos sobre la memoria dinámica
+        estado().hechos.values().removeIf(exp -> !esFijo(exp));
+    }
+}
@@ -0,0 +1,400 @@
+package procesamientos;
+
+import static asint.Sintaxis.*;
+
+import java.util.List;
+
+/**
+    Clase utilidad que contiene todos los métodos requeridos para ejecutar la fase de <b>plegado de
+    constantes</b> en el procesamiento de nuestro lenguaje Tiny.
+
+    <br>Esta fase reescribe el árbol de sintaxis abstracta ya tipado, sustituyendo cada subexpresión cuyos
+    operandos son literales por el literal de su valor, según las reglas de promoción de enteros a reales de
+    Tiny, y eliminando los elementos neutros de las operaciones aritméticas y lógicas. Los nodos reescritos
+    conservan las decoraciones de los originales, de modo que las fases posteriores solo ven la forma
+    simplificada del programa.
+
+    <br>No se pliegan las operaciones que fallarían durante la ejecución (división o módulo entero entre cero),
+    las que producirían un real no finito, ni las comparaciones entre un entero y un real, que la máquina P no
+    evalúa igual con y sin saltos fusionados.
+
+    @version Java SE 17
+    @see Procesamiento
+
+    @author Félix Rodolfo Díaz Lorente
+    @author Álvaro Magalló Paz
+    @author Alejandro del Río Caballero
+*/
+public class Plegado extends Procesamiento
+{
+    private Plegado() {} // No se permite instanciar esta clase
+
+    public static <T extends INodo> T pliega(T nodo) { return reescribe(Plegado.class, "pliega", nodo); }
+
+    public static <T extends INodo> List<? extends T> pliega(List<? extends T> lista) { return reescribe(Plegado.class, "pliega", lista); }
+
+    // Funciones auxiliares
+
+    @FunctionalInterface
+    private interface Binaria { Exp crea(Exp op1, Exp op2, Nodo nodo); }
+
+    @FunctionalInterface
+    private interface Unaria { Exp crea(Exp op, Nodo nodo); }
+
+    /**
+        Devuelve el valor de una expresión literal, tal como lo apilaría la máquina P.
+
+        @param exp expresión
+
+        @return El valor de <code>exp</code>, o <code>null</code> si no es un literal.
+    */
+    private static Object valor(Exp exp)
+    {
+        try
+        {
+            if (exp instanceof Entero ent)
+                return Integer.valueOf(ent.lit());
+            else if (exp instanceof Decimal dec)
+                return Double.valueOf(dec.lit());
+        } catch (NumberFormatException e) { return null; } // El error se informará al generar el código
+
+        if (exp instanceof True)
+            return true;
+        else if (exp instanceof False)
+            return false;
+        else if (exp instanceof Cadena cad)
+            return cad.lit();
+        else
+            return null;
+    }
+
+    private static Exp literal(Object valor, Nodo nodo)
+    {
+        if (valor instanceof Integer ent)
+            return new Entero(ent.toString(), nodo);
+        else if (valor instanceof Double dec)
+            return new Decimal(dec.toString(), nodo);
+        else if (valor instanceof String cad)
+            return new Cadena(cad, nodo);
+        else
+            return ((Boolean) valor)? new True(nodo): new False(nodo);
+    }
+
+    private static boolean esCero(Object valor)
+    {
+        return Integer.valueOf(0).equals(valor) || Double.valueOf(0.0).equals(valor); // Excluye el cero negativo
+    }
+
+    private static boolean esUno(Object valor)
+    {
+        return Integer.valueOf(1).equals(valor) || Double.valueOf(1.0).equals(valor);
+    }
+
+    private static boolean mismoTipo(Exp op, Exp exp) { return refFact(op.tipo()).getClass() == refFact(exp.tipo()).getClass(); }
+
+    /**
+        Evalúa una expresión binaria sobre los valores de sus operandos.
+
+        @return El valor de la expresión, o <code>null</code> si no se puede plegar.
+    */
+    @SuppressWarnings("unchecked")
+    private static Object evalua(ExpBinaria exp, Object x, Object y)
+    {
+        if (x == null || y == null)
+            return null;
+
+        if (exp instanceof ExpRel)
+        {
+            if (x.getClass() != y.getClass())
+                return null;
+
+            if (exp instanceof Eq)
+                return x.equals(y);
+            else if (exp instanceof Ne)
+                return !x.equals(y);
+
+            final int comp = ((Comparable<Object>) x).compareTo(y);
+
+            if (exp instanceof Lt)
+                return comp < 0;
+            else if (exp instanceof Le)
+                return comp <= 0;
+            else if (exp instanceof Gt)
+                return comp > 0;
+            else // exp instanceof Ge
+                return comp >= 0;
+        }
+        else if (exp instanceof And)
+            return (Boolean) x && (Boolean) y;
+        else if (exp instanceof Or)
+            return (Boolean) x || (Boolean) y;
+        else if (refFact(exp.tipo()) instanceof Real)
+        {
+            final double a = ((Number) x).doubleValue(), b = ((Number) y).doubleValue();
+            final double res;
+
+            if (exp instanceof Suma)
+                res = a + b;
+            else if (exp instanceof Resta)
+                res = a - b;
+            else if (exp instanceof Mul)
+                res = a * b;
+            else // exp instanceof Div
+                res = a / b;
+
+            return Double.isFinite(res)? res: null;
+        }
+        else
+        {
+            final int a = (Integer) x, b = (Integer) y;
+
+            if (exp instanceof Suma)
+                return a + b;
+            else if (exp instanceof Resta)
+                return a - b;
+            else if (exp instanceof Mul)
+                return a * b;
+            else if (exp instanceof Div)
+                return (b == 0)? null: a / b;
+            else // exp instanceof Mod
+                return (b == 0)? null: a % b;
+        }
+    }
+
+    /**
+        Elimina el elemento neutro de una expresión binaria, siempre que el operando restante tenga el mismo
+        tipo que la expresión (es decir, que no haya que promoverlo).
+
+        @return El operando que sustituye a la expresión, o <code>null</code> si no se puede simplificar.
+    */
+    private static Exp simplifica(ExpBinaria exp, Exp op1, Exp op2)
+    {
+        final Object x = valor(op1), y = valor(op2);
+
+        boolean neutro1 = false, neutro2 = false; // Indican si el primer o el segundo operando es neutro
+
+        if (exp instanceof Suma)
+        {
+            // Con reales, (-0.0) + 0.0 == 0.0, así que solo simplificamos la suma entera
+            neutro1 = refFact(exp.tipo()) instanceof Int && esCero(x);
+            neutro2 = refFact(exp.tipo()) instanceof Int && esCero(y);
+        }
+        else if (exp instanceof Resta)
+            neutro2 = esCero(y);
+        else if (exp instanceof Mul)
+        {
+            neutro1 = esUno(x);
+            neutro2 = esUno(y);
+        }
+        else if (exp instanceof Div)
+            neutro2 = esUno(y);
+        else if (exp instanceof And)
+        {
+            neutro1 = Boolean.TRUE.equals(x);
+            neutro2 = Boolean.TRUE.equals(y);
+        }
+        else if (exp instanceof Or)
+        {
+            neutro1 = Boolean.FALSE.equals(x);
+            neutro2 = Boolean.FALSE.equals(y);
+        }
+
+        if (neutro2 && mismoTipo(op1, exp))
+            return op1;
+        else if (neutro1 && mismoTipo(op2, exp))
+            return op2;
+        else
+            return null;
+    }
+
+    private static Exp binaria(ExpBinaria exp, Binaria constructora)
+    {
+        final Exp op1 = pliega(exp.op1()), op2 = pliega(exp.op2());
+
+        Object valor = evalua(exp, valor(op1), valor(op2));
+        if (valor != null)
+            return literal(valor, exp.nodo());
+
+        Exp simple = simplifica(exp, op1, op2);
+        if (simple != null)
+            return simple;
+
+        return (op1 == exp.op1() && op2 == exp.op2())? exp: constructora.crea(op1, op2, exp.nodo());
+    }
+
+    private static Exp unaria(ExpUnaria exp, Unaria constructora)
+    {
+        final Exp op = pliega(exp.op());
+        final Object x = valor(op);
+
+        if (x instanceof Boolean b)
+            return literal(!b, exp.nodo());
+        else if (x instanceof Integer ent)
+            return literal(-ent, exp.nodo());
+        else if (x instanceof Double dec)
+            return literal(-dec, exp.nodo());
+
+        // Doble negación
+        if (op.getClass() == exp.getClass() && mismoTipo(((ExpUnaria) op).op(), exp))
+            return ((ExpUnaria) op).op();
+
+        return (op == exp.op())? exp: constructora.crea(op, exp.nodo());
+    }
+
+    // Programa
+
+    public static Prog pliega(Prog prog)
+    {
+        var ldec = pliega(prog.ldec());
+        var lins = pliega(prog.lins());
+
+        return (ldec == prog.ldec() && lins == prog.lins())? prog: new Prog(ldec, lins, prog.nodo());
+    }
+
+    // Declaraciones
+
+    public static Proc pliega(Proc proc)
+    {
+        var ldec = pliega(proc.ldec());
+        var lins = pliega(proc.lins());
+
+        if (ldec == proc.ldec() && lins == proc.lins())
+            return proc;
+        return new Proc(proc.id(), proc.lparam(), ldec, lins, proc.nodo());
+    }
+
+    // Instrucciones básicas
+
+    public static Ins pliega(Asig asig)
+    {
+        final Exp ei = pliega(asig.ei()), ed = pliega(asig.ed());
+        return (ei == asig.ei() && ed == asig.ed())? asig: new Asig(ei, ed, asig.nodo());
+    }
+
+    public static Ins pliega(Invoc invoc)
+    {
+        var lexp = pliega(invoc.lexp());
+        return (lexp == invoc.lexp())? invoc: new Invoc(invoc.eid(), lexp, invoc.nodo());
+    }
+
+    // Instrucciones de bloque
+
+    public static Ins pliega(Seq seq)
+    {
+        var ldec = pliega(seq.ldec());
+        var lins = pliega(seq.lins());
+
+        return (ldec == seq.ldec() && lins == seq.lins())? seq: new Seq(ldec, lins, seq.nodo());
+    }
+
+    public static Ins pliega(IfThen ifThen)
+    {
+        final Exp exp = pliega(ifThen.exp());
+        var lins = pliega(ifThen.lins());
+
+        return (exp == ifThen.exp() && lins == ifThen.lins())? ifThen: new IfThen(exp, lins, ifThen.nodo());
+    }
+
+    public static Ins pliega(IfThenElse ifThenElse)
+    {
+        final Exp exp = pliega(ifThenElse.exp());
+        var lins = pliega(ifThenElse.lins());
+        var lins2 = pliega(ifThenElse.lins2());
+
+        if (exp == ifThenElse.exp() && lins == ifThenElse.lins() && lins2 == ifThenElse.lins2())
+            return ifThenElse;
+        return new IfThenElse(exp, lins, lins2, ifThenElse.nodo());
+    }
+
+    public static Ins pliega(While wh)
+    {
+        final Exp exp = pliega(wh.exp());
+        var lins = pliega(wh.lins());
+
+        return (exp == wh.exp() && lins == wh.lins())? wh: new While(exp, lins, wh.nodo());
+    }
+
+    // Gestión de la E/S estándar
+
+    public static Ins pliega(Read read)
+    {
+        final Exp exp = pliega(read.exp());
+        return (exp == read.exp())? read: new Read(exp, read.nodo());
+    }
+
+    public static Ins pliega(Write write)
+    {
+        final Exp exp = pliega(write.exp());
+        return (exp == write.exp())? write: new Write(exp, write.nodo());
+    }
+
+    // Gestión de la memoria dinámica
+
+    public static Ins pliega(New n)
+    {
+        final Exp exp = pliega(n.exp());
+        return (exp == n.exp())? n: new New(exp, n.nodo());
+    }
+
+    public static Ins pliega(Delete d)
+    {
+        final Exp exp = pliega(d.exp());
+        return (exp == d.exp())? d: new Delete(exp, d.nodo());
+    }
+
+    // Operadores relacionales
+
+    public static Exp pliega(Eq eq) { return binaria(eq, Eq::new); }
+
+    public static Exp pliega(Ne ne) { return binaria(ne, Ne::new); }
+
+    public static Exp pliega(Le le) { return binaria(le, Le::new); }
+
+    public static Exp pliega(Lt lt) { return binaria(lt, Lt::new); }
+
+    public static Exp pliega(Ge ge) { return binaria(ge, Ge::new); }
+
+    public static Exp pliega(Gt gt) { return binaria(gt, Gt::new); }
+
+    // Operadores lógicos
+
+    public static Exp pliega(And and) { return binaria(and, And::new); }
+
+    public static Exp pliega(Or or) { return binaria(or, Or::new); }
+
+    public static Exp pliega(Not not) { return unaria(not, Not::new); }
+
+    // Operadores aritméticos
+
+    public static Exp pliega(Suma suma) { return binaria(suma, Suma::new); }
+
+    public static Exp pliega(Resta resta) { return binaria(resta, Resta::new); }
+
+    public static Exp pliega(Mul mul) { return binaria(mul, Mul::new); }
+
+    public static Exp pliega(Div div) { return binaria(div, Div::new); }
+
+    public static Exp pliega(Neg neg) { return unaria(neg, Neg::new); }
+
+    public static Exp pliega(Mod mod) { return binaria(mod, Mod::new); }
+
+    // Operadores de acceso a memoria
+
+    public static Exp pliega(Indx indx)
+    {
+        final Exp eid = pliega(indx.eid()), ei = pliega(indx.ei());
+        return (eid == indx.eid() && ei == indx.ei())? indx: new Indx(eid, ei, indx.nodo());
+    }
+
+    public static Exp pliega(Acc acc)
+    {
+        final Exp reg = pliega(acc.reg());
+        return (reg == acc.reg())? acc: new Acc(reg, acc.id(), acc.nodo());
+    }
+
+    public static Exp pliega(Indir indir)
+    {
+        final Exp et = pliega(indir.et());
+        return (et == indir.et())? indir: new Indir(et, indir.nodo());
+    }
+}
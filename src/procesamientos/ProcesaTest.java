@@ -1,74 +1,155 @@
 package procesamientos;
 
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
 
 import asint.Sintaxis.INodo;
 import asint.Sintaxis.Nodo;
+import asint.Sintaxis.Prog;
 
+import static procesamientos.Procesamiento.OPTIMIZACION.*;
 import static tiny.Ejecutable.MANEJADOR_EXCEPCION;
 
+/**
+    Banco de pruebas del despacho de los métodos de procesamiento: comprueba que el despacho mediante manejadores
+    resuelve los mismos métodos que el despacho reflexivo, y compara el tiempo que tarda cada fase del
+    procesamiento de un programa con estos y con los despachadores generados al compilar, si existen.
+
+    <br>Argumentos: el programa procesado (por defecto, {@value #PROGRAMA_POR_DEFECTO}) y el número de
+    repeticiones medidas de cada fase (por defecto, {@value #REPETICIONES_POR_DEFECTO}), tras otras tantas de
+    calentamiento. Las repeticiones de los distintos despachos se alternan, para que la compilación en tiempo de
+    ejecución les afecte por igual.
+*/
 final class ProcesaTest extends Procesamiento // Para testar los métodos de procesamiento
 {
     private ProcesaTest() {}
 
-    private static final String DEFAULT_OPT = "d"; // Comando para ejecutar la implementación por defecto
+    private static final String PROGRAMA_POR_DEFECTO = "test/pass/ejemplo4.tiny"; // Relativo al repositorio
+    private static final int REPETICIONES_POR_DEFECTO = 200;
+
+    private static final String FORMATO_CABECERA = "%-28s %17s %17s %17s %12s%n";
+    private static final String FORMATO_FASE = "%-28s %17.3f %17.3f %17.3f %11.2fx%n";
+
+    private static final DESPACHO MODOS[] = DESPACHO.values();
 
     // Interfaces y records de prueba
     protected static interface A extends INodo {}
     protected static interface B extends INodo {}
     protected static interface C extends INodo {}
     protected static interface D extends INodo {}
+    protected static interface X extends INodo {} // Sin método de procesamiento
 
     protected static record E(Nodo nodo) implements A {}
     protected static record F(Nodo nodo) implements B {}
     protected static record G(Nodo nodo) implements C {}
     protected static record H(Nodo nodo) implements D {}
+    protected static record I(Nodo nodo) implements X {}
+
+    private static final StringBuilder visitas = new StringBuilder();
 
     // Métodos sobrecargados de prueba
-    public static void imprime(A a) { System.out.println("A"); }
-    public static void imprime(B b) { System.out.println("B"); }
-    public static void imprime(C c) { System.out.println("C"); }
-    public static void imprime(D d) { System.out.println("D"); }
+    public static void imprime(A a) { visitas.append('A'); }
+    public static void imprime(B b) { visitas.append('B'); }
+    public static void imprime(C c) { visitas.append('C'); }
+    private static void imprime(D d) { visitas.append('D'); }
 
-    public static void main(String[] argv)
+    /**
+        Procesa los records de prueba y devuelve los métodos invocados, en orden.
+    */
+    private static String visita(DESPACHO modo)
+    {
+        List<? extends INodo> lista = List.of(new E(null), new F(null), new G(null), new H(null), new I(null),
+            new E(null), new F(null), new G(null), new H(null), new I(null));
+
+        despacho(modo);
+        visitas.setLength(0);
+        procesa(ProcesaTest.class, "imprime", lista);
+
+        return visitas.toString();
+    }
+
+    /**
+        Fases medidas, en el orden del procesamiento. Cada una se aplica al resultado de la anterior.
+    */
+    private static Map<String, UnaryOperator<Prog>> fases()
+    {
+        Map<String, UnaryOperator<Prog>> fases = new LinkedHashMap<>();
+
+        fases.put(NOMBRE_FASE[FASE.TIPADO.ordinal()], prog -> { Tipado.tipo(prog); return prog; });
+        fases.put(NOMBRE_FASE[FASE.PLEGADO.ordinal()], Plegado::pliega);
+        fases.put(NOMBRE_FASE[FASE.ELIMINACION.ordinal()], Eliminacion::elimina);
+        fases.put(NOMBRE_FASE[FASE.ELISION.ordinal()], Elision::elide);
+        fases.put(NOMBRE_FASE[FASE.NULIDAD.ordinal()], prog -> { Nulidad.analiza(prog); return prog; });
+        fases.put(NOMBRE_FASE[FASE.ASIG_MEMORIA.ordinal()], prog -> { Asignacion.asignaMemoria(prog); return prog; });
+        fases.put(NOMBRE_FASE[FASE.ETIQUETADO.ordinal()], prog -> { Etiquetado.etiqueta(prog); return prog; });
+
+        return fases;
+    }
+
+    public static void main(String[] argv) throws FileNotFoundException, ParseException
     {
         Thread.setDefaultUncaughtExceptionHandler(MANEJADOR_EXCEPCION);
 
-        List<? extends INodo> list = List.of(new E(null), new F(null), new G(null), new H(null),
-            new E(null), new F(null), new G(null), new H(null));
-        
-        long start = 0L;
-        if (argv.length == 0)
-        {
-            start = System.nanoTime();
-            procesa(ProcesaTest.class, "imprime", list);
-        }
-        else if (DEFAULT_OPT.equals(argv[0])) // Código equivalente sin programación reflexiva
+        final String programa = (argv.length > 0)? argv[0]: PROGRAMA_POR_DEFECTO;
+        final int repeticiones = (argv.length > 1)? Integer.parseInt(argv[1]): REPETICIONES_POR_DEFECTO;
+
+        // Ambos despachos deben invocar los mismos métodos, y ninguno si no existe
+        final String reflexivo = visita(DESPACHO.REFLEXIVO), manejadores = visita(DESPACHO.MANEJADORES);
+        System.out.printf("Despacho: %s (reflexivo), %s (manejadores)%n", reflexivo, manejadores);
+        if (!reflexivo.equals(manejadores) || !reflexivo.equals("ABCDABCD"))
+            throw new AssertionError("Los despachos no invocan los mismos métodos");
+
+        activa(ELISION);
+        activa(NULOS);
+
+        // La vinculación solo puede aplicarse una vez por contexto, pues su tabla de símbolos conserva el ámbito global
+        Prog prog = new AnalizadorSintactico(new FileReader(programa)).Prog();
+        Vinculacion.vincula(prog);
+
+        Map<String, UnaryOperator<Prog>> fases = fases();
+        Map<String, long[]> tiempos = new LinkedHashMap<>();
+        fases.keySet().forEach(fase -> tiempos.put(fase, new long[MODOS.length]));
+
+        for (int i = 0; i < 2 * repeticiones; ++i)
         {
-            start = System.nanoTime();
-            for (INodo elem: list)
+            for (int modo = 0; modo < MODOS.length; ++modo)
             {
-                //imprime(elem); // Error de compilación (no existe 'imprime' para instancias de la clase Nodo)
-                
-                if (elem instanceof A)
-                    imprime((A) elem);
-                else if (elem instanceof B)
-                    imprime((B) elem);
-                else if (elem instanceof C)
-                    imprime((C) elem);
-                else if (elem instanceof D)
-                    imprime((D) elem);
-                else if (elem instanceof E)
-                    imprime((E) elem);
-                else if (elem instanceof F)
-                    imprime((F) elem);
-                else if (elem instanceof G)
-                    imprime((G) elem);
-                else if (elem instanceof H)
-                    imprime((H) elem);
+                despacho(MODOS[modo]);
+
+                Prog actual = prog;
+                for (Map.Entry<String, UnaryOperator<Prog>> fase: fases.entrySet())
+                {
+                    final long inicio = System.nanoTime();
+                    actual = fase.getValue().apply(actual);
+                    final long tiempo = System.nanoTime() - inicio;
+
+                    if (i >= repeticiones) // Las primeras repeticiones son de calentamiento
+                        tiempos.get(fase.getKey())[modo] += tiempo;
+                }
             }
         }
+        despacho(DESPACHO.GENERADO);
+
+        if (error() > 0)
+            throw new AssertionError("Errores durante el procesamiento de " + programa);
+
+        System.out.printf("%nPrograma: %s, %d repeticiones (tiempo medio por repetición)%n%n", programa, repeticiones);
+        if (!despachoGenerado(Tipado.class))
+            System.out.printf("Sin despachadores generados: el despacho generado recurre a los manejadores%n%n");
+        System.out.printf(FORMATO_CABECERA, "Fase", "Reflexivo (ms)", "Manejadores (ms)", "Generado (ms)", "Aceleración");
 
-        System.out.println("Tiempo (ms): " + (System.nanoTime() - start) / 1e6);
+        long total[] = new long[MODOS.length];
+        tiempos.forEach((fase, t) -> {
+            System.out.printf(FORMATO_FASE, fase, t[0] / 1e6 / repeticiones, t[1] / 1e6 / repeticiones,
+                t[2] / 1e6 / repeticiones, (double) t[0] / t[2]);
+            for (int modo = 0; modo < MODOS.length; ++modo)
+                total[modo] += t[modo];
+        });
+        System.out.printf(FORMATO_FASE, "total", total[0] / 1e6 / repeticiones, total[1] / 1e6 / repeticiones,
+            total[2] / 1e6 / repeticiones, (double) total[0] / total[2]);
     }
-}
\ No newline at end of file
+}
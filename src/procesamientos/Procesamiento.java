@@ -2,12 +2,19 @@ package procesamientos;
 
 import asint.Sintaxis.*;
 
+import static asint.Sintaxis.NULL;
+
 import java.util.Map;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.lang.reflect.RecordComponent;
 
 import static tiny.Ejecutable.*;
 
@@ -24,24 +31,180 @@ import java.lang.reflect.InvocationTargetException;
 */
 public class Procesamiento
 {
+    /**
+        Forma de invocar a los métodos de procesamiento.
+    */
+    enum DESPACHO
+    {
+        REFLEXIVO, // Mediante Method.invoke, sin cachés de manejadores
+        MANEJADORES, // Mediante el manejador de cada método, resuelto la primera vez que se procesa su clase de nodo
+        GENERADO // Mediante el despachador generado al compilar, o los manejadores si no existe
+    };
+
+    /**
+        Tabla de despacho de un método de procesamiento de una clase de procesamiento.
+
+        @param generado manejador del método del despachador generado por {@link despacho.ProcesadorDespacho},
+            o <code>null</code> si no existe
+        @param manejadores caché de los manejadores de los métodos, direccionable por la clase del nodo procesado
+    */
+    private static record Tabla(MethodHandle generado, ClassValue<MethodHandle> manejadores) {}
+
+    /**
+        Tablas de despacho de los métodos de procesamiento de cada clase de procesamiento, direccionables por el
+        nombre del método.
+
+        @apiNote Si la clase está anotada con {@link despacho.GeneraDespacho} y se ha compilado con su procesador
+            de anotaciones, cada método se despacha mediante una cadena de <code>instanceof</code> generada, que
+            invoca directamente a los métodos de procesamiento. En otro caso, cada manejador se resuelve mediante
+            programación reflexiva la primera vez que se procesa un nodo de una clase dada, y se guarda en una
+            caché {@link ClassValue}, incluso si no existe el método. Las invocaciones siguientes no recurren a la
+            reflexión, sino a {@link MethodHandle#invokeExact}, que la máquina virtual de Java compila como una
+            llamada ordinaria.
+    */
+    private static final ClassValue<Map<String, Tabla>> tablas = new ClassValue<>()
+    {
+        @Override
+        protected Map<String, Tabla> computeValue(Class<?> clase) { return new ConcurrentHashMap<>(); }
+    };
+
+    /**
+        Tipo al que se adaptan todos los manejadores: reciben el nodo procesado y devuelven su resultado, o
+        <code>null</code> si el método no devuelve ningún valor.
+    */
+    private static final MethodType TIPO_MANEJADOR = MethodType.methodType(Object.class, INodo.class);
+
+    private static final MethodHandle VACIO = MethodHandles.empty(TIPO_MANEJADOR); // Manejador de un método inexistente
+
     /**
         Diccionario que almacena los objetos representantes de métodos, direccionable por el nombre del método y
         el objeto que representa la clase de su único parámetro.
-        
-        @apiNote Este diccionario sirve de estructura de memorización, para optimizar en tiempo la invocación
-            de los métodos de procesamiento, pues evita la repetición de llamadas a librerías de programación
-            reflexiva (una técnica en la que se fundamenta la programación dinámica).
+
+        @apiNote Solo se emplea con el despacho reflexivo, que se conserva como referencia para medir el
+            rendimiento de los manejadores en {@link ProcesaTest}.
     */
-    private static Map<String, Map<Class<? extends INodo>, Method>> tm = new HashMap<>();
+    private static Map<String, Map<Class<? extends INodo>, Method>> tm = new ConcurrentHashMap<>();
+
+    private static DESPACHO despacho = DESPACHO.GENERADO;
 
     /**
         Enumerado que incluye todas las fases del procesamiento del lenguaje Tiny.
     */
-    public enum FASE { LEXICO, SINTAXIS, VINCULACION, TIPADO, ASIG_MEMORIA, ETIQUETADO, GEN_CODIGO };
+    public enum FASE
+    {
+        LEXICO, SINTAXIS, VINCULACION, TIPADO, PLEGADO, ESPECIALIZACION, EXPANSION, DESENROLLADO, ELIMINACION,
+        ELISION, NULIDAD, PUREZA, ASIG_MEMORIA, SSA, ETIQUETADO, GEN_CODIGO
+    };
 
     public static final String NOMBRE_FASE[] =
-        { "análisis léxico", "análisis sintáctico", "vinculación", "tipado", "asignación de memoria",
-            "etiquetado", "generación de código" };
+        { "análisis léxico", "análisis sintáctico", "vinculación", "tipado", "plegado de constantes",
+            "especialización de procedimientos", "expansión en línea", "desenrollado de bucles",
+            "eliminación de código muerto", "elisión de copias", "análisis de nulidad", "análisis de pureza",
+            "asignación de memoria", "traducción a SSA", "etiquetado", "generación de código" };
+
+    /**
+        Enumerado que incluye las optimizaciones opcionales del procesamiento del lenguaje Tiny.
+    */
+    public enum OPTIMIZACION { CORTOCIRCUITO, MIRILLA, EXPANSION, RECURSION_FINAL, ELISION, INVARIANTES, REDUCCION,
+        NULOS, SSA, ESPECIALIZACION, ACCESOS, DESENROLLADO, MEMORIZACION };
+
+    /**
+        Ejecuta una fase del procesamiento sobre un programa en el contexto actual. Las fases léxica y sintáctica
+        no hacen nada: el programa lo construye antes el analizador sintáctico que elija quien llama.
+
+        @param fase la fase que se ejecuta
+        @param prog el programa producido por la fase anterior
+
+        @return El programa que recibe la fase siguiente, que es el mismo salvo en las fases que lo transforman.
+    */
+    public static Prog procesa(FASE fase, Prog prog)
+    {
+        switch (fase)
+        {
+        case LEXICO:
+        case SINTAXIS:
+            break;
+        case VINCULACION:
+            Vinculacion.vincula(prog);
+            break;
+        case TIPADO:
+            Tipado.tipo(prog);
+            break;
+        case PLEGADO:
+            return Plegado.pliega(prog);
+        case ESPECIALIZACION:
+            return Especializacion.especializa(prog);
+        case EXPANSION:
+            return Expansion.expande(prog);
+        case DESENROLLADO:
+            return Desenrollado.desenrolla(prog);
+        case ELIMINACION:
+            return Eliminacion.elimina(prog);
+        case ELISION:
+            return Elision.elide(prog);
+        case NULIDAD:
+            Nulidad.analiza(prog);
+            break;
+        case PUREZA:
+            Pureza.analiza(prog);
+            break;
+        case ASIG_MEMORIA:
+            Asignacion.asignaMemoria(prog);
+            break;
+        case SSA:
+            TraduccionSSA.traduce(prog);
+            break;
+        case ETIQUETADO:
+            Etiquetado.etiqueta(prog);
+            break;
+        case GEN_CODIGO:
+            if (TraduccionSSA.programa() != null)
+                GeneracionSSA.generaCodigo(prog);
+            else
+                GeneracionCodigo.generaCodigo(prog);
+        }
+
+        return prog;
+    }
+
+    /**
+        Activa una optimización opcional en las fases de procesamiento que se ejecuten a continuación en el
+        contexto actual.
+
+        @param opt la optimización que se activa
+    */
+    public static void activa(OPTIMIZACION opt) { Contexto.actual().activa(opt); }
+
+    /**
+        Activa una optimización opcional con un parámetro numérico, como un umbral de tamaño.
+
+        @param opt la optimización que se activa
+        @param valor el valor del parámetro de la optimización
+    */
+    public static void activa(OPTIMIZACION opt, int valor) { Contexto.actual().activa(opt, valor); }
+
+    /**
+        Devuelve el parámetro numérico de una optimización opcional.
+
+        @param opt la optimización consultada
+        @param defecto el valor por defecto del parámetro
+
+        @return El valor con el que se ha activado <code>opt</code>, o <code>defecto</code> si no se ha dado
+            ninguno.
+    */
+    protected static int parametro(OPTIMIZACION opt, int defecto)
+    {
+        return Contexto.actual().parametros.getOrDefault(opt, defecto);
+    }
+
+    /**
+        Indica si una optimización opcional está activa.
+
+        @param opt la optimización consultada
+
+        @return <code>true</code> si solo si se ha activado <code>opt</code>.
+    */
+    protected static boolean optimiza(OPTIMIZACION opt) { return Contexto.actual().optimizaciones.contains(opt); }
 
     protected Procesamiento() {} // No se permite instanciar esta clase fuera de su jerarquía de clases
 
@@ -81,93 +244,185 @@ public class Procesamiento
         }
     }
 
-    private static int ERROR = 0;
+    /**
+        Devuelve el número de errores encontrados en el contexto actual.
+
+        @return El número de errores de la compilación en curso.
+    */
+    public static final int error() { return Contexto.actual().errores(); }
 
-    public static final int error() { return ERROR; }
+    /**
+        Selecciona la forma de invocar a los métodos de procesamiento.
+
+        @param modo forma de despacho de los métodos
+    */
+    static void despacho(DESPACHO modo) { despacho = modo; }
 
     /**
-        Devuelve el diccionario de objetos representantes de métodos asociado al nombre de un método.
+        Indica si una clase de procesamiento dispone de un despachador generado al compilar.
 
+        @param clase objeto que representa la clase de procesamiento
+
+        @return <code>true</code> si solo si existe el despachador de <code>clase</code>.
+    */
+    static boolean despachoGenerado(Class<? extends Procesamiento> clase) { return despachador(clase) != null; }
+
+    private static Class<?> despachador(Class<? extends Procesamiento> clase)
+    {
+        try { return Class.forName(clase.getName() + "Despacho", true, clase.getClassLoader()); }
+        catch (ClassNotFoundException e) { return null; }
+    }
+
+    /**
+        Busca, por programación reflexiva, el método estático que procesa los nodos de una clase dada: el método
+        cuyo parámetro es la propia clase o, si no existe, la primera interfaz que extiende la clase, y así
+        sucesivamente.
+
+        @param clase objeto que representa la clase donde se encuentra el método
         @param nombre nombre del método
+        @param claseNodo objeto que representa la clase del nodo procesado
 
-        @return el diccionario de objetos representantes de métodos y direccionable por el objeto que representa
-            la clase del único parámetro del método llamado <code>nombre</code>.
+        @return El método encontrado, o <code>null</code> si no existe.
     */
-    private static Map<Class<? extends INodo>, Method> tablaLocal(String nombre)
+    private static Method metodo(Class<? extends Procesamiento> clase, String nombre, Class<?> claseNodo)
     {
-        Map<Class<? extends INodo>, Method> dic = tm.get(nombre);
-        if (dic == null)
+        while (claseNodo != INodo.class)
         {
-            dic = new HashMap<Class<? extends INodo>, Method>();
-            tm.put(nombre, dic);
+            try { return clase.getDeclaredMethod(nombre, claseNodo); }
+            catch (NoSuchMethodException e)
+            {
+                // Subimos en la jerarquía de interfaces
+                Class<?> interfaces[] = claseNodo.getInterfaces();
+                if (interfaces.length == 0) // Si no hay más interfaces que consultar, no existe el método
+                    return null;
+
+                assert interfaces.length == 1; // Cada récord no puede implementar más de una interfaz
+                claseNodo = interfaces[0];
+            }
         }
 
-        return dic;
+        return null;
     }
 
-    private static void procesa(Class<? extends Procesamiento> clase, Map<Class<? extends INodo>, Method> tml,
-        String nombre, INodo nodo)
+    /**
+        Devuelve el manejador de un método del despachador generado de una clase de procesamiento.
+
+        @param clase objeto que representa la clase donde se encuentra el método
+        @param nombre nombre del método
+
+        @return El manejador del método llamado <code>nombre</code> en el despachador de <code>clase</code>, o
+            <code>null</code> si no existe.
+    */
+    private static MethodHandle generado(Class<? extends Procesamiento> clase, String nombre)
     {
-        final Class<? extends INodo> claseRaiz = nodo.getClass();
+        final Class<?> despachador = despachador(clase);
+        if (despachador == null)
+            return null;
 
-        Class<?> claseNodo = claseRaiz;
-        while (claseNodo != INodo.class)
+        try { return MethodHandles.lookup().findStatic(despachador, nombre, TIPO_MANEJADOR); }
+        catch (NoSuchMethodException e) { return null; }
+        catch (IllegalAccessException e) { imprimirExcepcion(e, true); }
+
+        return null;
+    }
+
+    /**
+        Devuelve la tabla de despacho de un método de una clase de procesamiento.
+
+        @param clase objeto que representa la clase donde se encuentra el método
+        @param nombre nombre del método
+
+        @return La tabla de despacho del método llamado <code>nombre</code> en <code>clase</code>.
+    */
+    private static Tabla tablaLocal(Class<? extends Procesamiento> clase, String nombre)
+    {
+        return tablas.get(clase).computeIfAbsent(nombre, n -> new Tabla(generado(clase, nombre), new ClassValue<>()
         {
-            Method metodo = tml.get(claseNodo); // Tratamos de obtener el método almacenado en el diccionario
-            if (metodo == null) // Si no está el método o bien es vacío
+            @Override
+            protected MethodHandle computeValue(Class<?> claseNodo)
             {
-                // Si el método es vacío, no hacemos nada más que añadirlo al diccionario si no estaba
-                if (tml.containsKey(claseNodo))
+                final Method metodo = metodo(clase, nombre, claseNodo);
+                if (metodo == null)
+                    return VACIO;
+
+                try
                 {
-                    if (claseNodo != claseRaiz)
-                        tml.put(claseRaiz, null);
-                    return;
-                }
-
-                try {
-                    // Obtenemos el método por programación reflexiva
-                    metodo = clase.getDeclaredMethod(nombre, claseNodo);
-                } catch (NoSuchMethodException e) {
-                    // Subimos en la jerarquía de interfaces
-                    Class<?> interfaces[] = claseNodo.getInterfaces();
-                    if (interfaces.length == 0) // Si no hay más interfaces que consultar, se produce un error
-                        break;
-
-                    assert interfaces.length == 1; // Cada récord no puede implementar más de una interfaz
-
-                    // Consideramos siempre la primera interfaz, puesto que por el diseño de la sintaxis
-                    // abstracta, no permitimos que un récord implemente dos o más interfaces
-                    claseNodo = interfaces[0]; 
-                    continue;
-                }
-
-                // Tratamos de suprimir el control de accesos en cada invocación como medida de optimización
-                metodo.setAccessible(true);
-                // Añadimos el método al diccionario, direccionado por la clase original
-                tml.put(claseRaiz, metodo);
-            }
+                    // Suprimimos el control de accesos, pues algunos métodos de procesamiento son privados
+                    metodo.setAccessible(true);
+                    return MethodHandles.lookup().unreflect(metodo).asType(TIPO_MANEJADOR);
+                } catch (IllegalAccessException | SecurityException e) { imprimirExcepcion(e, true); }
 
-            try {
-                metodo.invoke(null, nodo); // Invocamos al método estático
-            }
-            catch (InvocationTargetException e)
-            {
-                imprimirExcepcion(e.getCause(), false);
-                ++ERROR;
+                return VACIO;
             }
-            catch (IllegalAccessException | SecurityException e) { imprimirExcepcion(e, true); }
+        }));
+    }
+
+    /**
+        Devuelve el diccionario de objetos representantes de métodos asociado al nombre de un método, para el
+        despacho reflexivo.
+
+        @param nombre nombre del método
+
+        @return el diccionario de objetos representantes de métodos y direccionable por el objeto que representa
+            la clase del único parámetro del método llamado <code>nombre</code>.
+    */
+    private static Map<Class<? extends INodo>, Method> tablaReflexiva(String nombre)
+    {
+        return tm.computeIfAbsent(nombre, n -> new ConcurrentHashMap<>());
+    }
+
+    private static Object procesaReflexivo(Class<? extends Procesamiento> clase, String nombre, INodo nodo)
+    {
+        Map<Class<? extends INodo>, Method> tml = tablaReflexiva(nombre);
 
-            return;
+        Method metodo = tml.get(nodo.getClass());
+        if (metodo == null)
+        {
+            metodo = metodo(clase, nombre, nodo.getClass());
+            if (metodo == null)
+                return null;
+
+            metodo.setAccessible(true);
+            tml.put(nodo.getClass(), metodo);
+        }
+
+        try {
+            return metodo.invoke(null, nodo); // Invocamos al método estático
         }
+        catch (InvocationTargetException e)
+        {
+            Contexto.actual().informa(e.getCause());
+        }
+        catch (IllegalAccessException | SecurityException e) { imprimirExcepcion(e, true); }
+
+        return null;
+    }
+
+    private static Object procesa(Class<? extends Procesamiento> clase, Tabla tabla, String nombre, INodo nodo)
+    {
+        if (despacho == DESPACHO.REFLEXIVO)
+            return procesaReflexivo(clase, nombre, nodo);
+
+        final MethodHandle manejador = (despacho == DESPACHO.GENERADO && tabla.generado() != null)? tabla.generado():
+            tabla.manejadores().get(nodo.getClass());
+
+        try {
+            return (Object) manejador.invokeExact(nodo); // Invocamos al método estático
+        }
+        catch (Throwable e)
+        {
+            Contexto.actual().informa(e);
+        }
+
+        return null;
     }
 
     /**
         Intenta invocar un método <b>estático</b> que procesa un nodo dado. Si no existe ese método, este
         procedimiento no tiene ningún efecto externo. 
 
-        @apiNote La implementación de este método hace uso de técnicas de la programación reflexiva para
-            maximizar la escabilidad y mantenibilidad del código, aunque quizás a costa de un coste en tiempo
-            de ejecución mayor.
+        @apiNote El método se busca mediante programación reflexiva solo la primera vez que se procesa un nodo
+            de su clase; las demás invocaciones emplean el manejador guardado en caché.
 
         @param clase objeto que representa la clase donde se encuentra el método a invocar
         @param nombre nombre del método a invocar, en cadena de caracteres
@@ -175,16 +430,15 @@ public class Procesamiento
     */
     protected static void procesa(Class<? extends Procesamiento> clase, String nombre, INodo nodo)
     {
-        procesa(clase, tablaLocal(nombre), nombre, nodo);
+        procesa(clase, tablaLocal(clase, nombre), nombre, nodo);
     }
 
     /**
         Intenta invocar un método <b>estático</b> que procesa un nodo dado. Si no existe ese método, este
         procedimiento no tiene ningún efecto externo.
 
-        @apiNote La implementación de este método hace uso de técnicas de la programación reflexiva para
-            maximizar la escabilidad y mantenibilidad del código, aunque quizás a costa de un coste en tiempo
-            de ejecución mayor.
+        @apiNote El método se busca mediante programación reflexiva solo la primera vez que se procesa un nodo
+            de su clase; las demás invocaciones emplean el manejador guardado en caché.
 
         @param clase objeto que representa la clase donde se encuentra el método a invocar
         @param nombre nombre del método a invocar, en cadena de caracteres
@@ -193,8 +447,63 @@ public class Procesamiento
     protected static void procesa(Class<? extends Procesamiento> clase, String nombre,
         List<? extends INodo> lista)
     {
-        Map<Class<? extends INodo>, Method> tml = tablaLocal(nombre);
-        lista.forEach(elem -> procesa(clase, tml, nombre, elem));
+        Tabla tabla = tablaLocal(clase, nombre);
+        lista.forEach(elem -> procesa(clase, tabla, nombre, elem));
+    }
+
+    /**
+        Intenta invocar un método <b>estático</b> que reescribe un nodo dado, y devuelve el nodo que lo sustituye.
+        Si no existe ese método, o si no devuelve ningún nodo, el nodo dado se conserva.
+
+        @param clase objeto que representa la clase donde se encuentra el método a invocar
+        @param nombre nombre del método a invocar, en cadena de caracteres
+        @param nodo nodo a reescribir por el método dado
+
+        @return El nodo resultante de la reescritura.
+    */
+    @SuppressWarnings("unchecked")
+    protected static <T extends INodo> T reescribe(Class<? extends Procesamiento> clase, String nombre, T nodo)
+    {
+        Object res = procesa(clase, tablaLocal(clase, nombre), nombre, nodo);
+        return (res == null)? nodo: (T) res;
+    }
+
+    /**
+        Intenta invocar un método <b>estático</b> que reescribe cada elemento de una lista dada. Si el método
+        devuelve una lista, sus elementos sustituyen al elemento reescrito, de modo que un elemento puede
+        eliminarse (con una lista vacía) o expandirse en varios.
+
+        @param clase objeto que representa la clase donde se encuentra el método a invocar
+        @param nombre nombre del método a invocar, en cadena de caracteres
+        @param lista lista cuyos elementos hay que reescribir mediante el método dado
+
+        @return La propia lista si no ha cambiado ninguno de sus elementos, o una nueva lista no modificable con
+            los elementos reescritos en otro caso.
+    */
+    @SuppressWarnings("unchecked")
+    protected static <T extends INodo> List<? extends T> reescribe(Class<? extends Procesamiento> clase,
+        String nombre, List<? extends T> lista)
+    {
+        Tabla tabla = tablaLocal(clase, nombre);
+
+        List<T> res = new ArrayList<>(lista.size());
+        boolean cambio = false;
+        for (T elem: lista)
+        {
+            Object nuevo = procesa(clase, tabla, nombre, elem);
+            if (nuevo == null || nuevo == elem)
+                res.add(elem);
+            else
+            {
+                if (nuevo instanceof List<?> elems)
+                    res.addAll((List<? extends T>) elems);
+                else
+                    res.add((T) nuevo);
+                cambio = true;
+            }
+        }
+
+        return cambio? Collections.unmodifiableList(res): lista;
     }
 
     /* --------------------------------- Métodos auxiliares sobre nodos AST --------------------------------- */
@@ -212,6 +521,73 @@ public class Procesamiento
     */
     protected static boolean esDesig(INodo nodo) { return DESIG.contains(nodo.getClass()); }
 
+    /**
+        Indica si una expresión es una comparación que puede compilarse como un salto condicional fusionado,
+        es decir, una expresión relacional entre dos operandos numéricos, o una (des)igualdad entre punteros.
+
+        @param exp expresión ya tipada
+
+        @return <code>true</code> si solo si los operandos de <code>exp</code> se representan como números en la
+            pila de operaciones de la máquina P.
+    */
+    protected static boolean esComparacionFusionable(Exp exp)
+    {
+        if (exp instanceof ExpRel rel)
+        {
+            Tipo t1 = refFact(rel.op1().tipo()), t2 = refFact(rel.op2().tipo());
+            if (esNumerico(t1) && esNumerico(t2))
+                return true;
+
+            return (rel instanceof Eq || rel instanceof Ne) && esPuntero(t1) && esPuntero(t2);
+        }
+        return false;
+    }
+
+    private static boolean esNumerico(Tipo t) { return t instanceof Int || t instanceof Real; }
+
+    private static boolean esPuntero(Tipo t) { return t instanceof Puntero || t == NULL; }
+
+    /**
+        Indica si una invocación es una llamada recursiva final que se compila como un salto al comienzo del
+        procedimiento, reutilizando su registro de activación.
+
+        @param invoc invocación ya decorada por la fase de asignación de memoria
+
+        @return <code>true</code> si solo si se ha reservado en el registro de activación del procedimiento
+            el espacio temporal para los argumentos de <code>invoc</code>.
+    */
+    protected static boolean esLlamadaFinal(Invoc invoc) { return invoc.dir() != Nodo.VALOR_NULO; }
+
+    /**
+        Indica si la dirección de un designador es invariante en un bucle que la precede, por lo que se ha
+        calculado antes del bucle y se carga desde una celda de la memoria estática.
+
+        @param exp designador ya decorado por la fase de asignación de memoria
+
+        @return <code>true</code> si solo si se ha asignado a <code>exp</code> la celda donde se guarda su
+            dirección.
+    */
+    protected static boolean esInvariante(Exp exp) { return exp.dir() != Nodo.VALOR_NULO; }
+
+    /**
+        Devuelve el tamaño de los elementos a los que se refiere un array o un puntero.
+
+        @param nodo nodo ya tipado cuyo tipo es un array o un puntero
+
+        @return El tamaño, en celdas, del tipo base de <code>nodo</code>.
+    */
+    protected static int tamBase(INodo nodo) { return refFact(nodo.tipo()).tipo().espacio(); }
+
+    /**
+        Devuelve el número de instrucciones con las que se escala un índice por el tamaño de los elementos de
+        un array. Con la reducción de fuerza, el producto por 1 se omite.
+
+        @param tam tamaño de los elementos del array
+
+        @return El número de instrucciones del escalado.
+    */
+    protected static int costeEscala(int tam) { return (optimiza(OPTIMIZACION.REDUCCION) && tam == 1)? 0: 2; }
+
     protected static Tipo refFact(Tipo t)
     {
         while (t instanceof Ref)
@@ -219,9 +595,65 @@ public class Procesamiento
         return t;
     }
 
-    private static List<Proc> procs = null;
+    /**
+        Indica si un valor de un tipo puede contener una celda de otro tipo, de modo que escribir en esta última
+        pueda modificar el primero. Los tipos se comparan por su clase, sin entrar en los punteros.
+    */
+    protected static boolean contiene(Tipo t, Tipo s)
+    {
+        final Tipo tf = refFact(t), sf = refFact(s);
+
+        if (tf.getClass() == sf.getClass())
+            return true;
+        else if (tf instanceof Array array)
+            return contiene(array.tipo(), sf);
+        else if (tf instanceof Reg reg)
+            return reg.lcampo().stream().anyMatch(campo -> contiene(campo.tipo(), sf));
+        else
+            return false;
+    }
+
+    /**
+        Devuelve la declaración de la que forma parte un designador, o <code>null</code> si atraviesa un puntero,
+        pues entonces designa memoria dinámica, que nunca forma parte de una variable.
+
+        @param desig designador ya vinculado
+
+        @return La variable o el parámetro del que parte la cadena de accesos a campos y a elementos de arrays
+            de <code>desig</code>, o <code>null</code>.
+    */
+    protected static INodo raiz(Exp desig)
+    {
+        while (desig instanceof Indx || desig instanceof Acc)
+            desig = (desig instanceof Indx indx)? indx.eid(): ((Acc) desig).reg();
+
+        return (desig instanceof Ident ident)? ident.vinculo(): null;
+    }
+
+    /**
+        Recorre en preorden los nodos descendientes de un objeto del árbol de sintaxis abstracta, sin entrar en
+        los tipos.
+
+        @param obj nodo o lista de nodos a recorrer
+        @param visita acción que se ejecuta sobre cada nodo visitado
+    */
+    protected static void recorre(Object obj, Consumer<INodo> visita)
+    {
+        if (obj instanceof List<?> lista)
+            lista.forEach(elem -> recorre(elem, visita));
+        else if (obj instanceof INodo nodo && !(nodo instanceof Tipo))
+        {
+            visita.accept(nodo);
+
+            for (RecordComponent comp: nodo.getClass().getRecordComponents())
+            {
+                try { recorre(comp.getAccessor().invoke(nodo), visita); }
+                catch (IllegalAccessException | InvocationTargetException e) { imprimirExcepcion(e, true); }
+            }
+        }
+    }
 
-    private static void introducirProcs(List<? extends Dec> ldec)
+    private static void introducirProcs(List<Proc> procs, List<? extends Dec> ldec)
     {
         for (Dec dec: ldec)
         {
@@ -232,21 +664,45 @@ public class Procesamiento
 
     protected static List<Proc> recolectaProcs(Prog prog)
     {
-        if (procs == null)
+        Contexto contexto = Contexto.actual();
+        if (contexto.procs == null || contexto.procsProg != prog) // Las fases de reescritura sustituyen el programa
         {
-            procs = new ArrayList<>();
+            List<Proc> procs = new ArrayList<>();
             int primero = 0;
 
             List<? extends Dec> ldec = prog.ldec();
-            introducirProcs(ldec);
+            introducirProcs(procs, ldec);
 
             while (primero != procs.size())
             {
                 ldec = procs.get(primero++).ldec();
-                introducirProcs(ldec);
+                introducirProcs(procs, ldec);
             }
+
+            contexto.procs = procs;
+            contexto.procsProg = prog;
         }
 
-        return Collections.unmodifiableList(procs);
+        return Collections.unmodifiableList(contexto.procs);
+    }
+
+    /**
+        Devuelve los puntos de entrada del código generado para un programa ya etiquetado.
+
+        @param prog el programa
+
+        @return Un array con el índice de la primera instrucción del programa principal, seguido de los
+            índices de la primera instrucción de cada uno de sus procedimientos.
+    */
+    public static int[] puntosEntrada(Prog prog)
+    {
+        List<Proc> procs = recolectaProcs(prog);
+
+        int[] entradas = new int[procs.size() + 1];
+        entradas[0] = prog.inicio();
+        for (int i = 0; i < procs.size(); ++i)
+            entradas[i + 1] = procs.get(i).inicio();
+
+        return entradas;
     }
 }
\ No newline at end of file
@@ -0,0 +1,281 @@
+package procesamientos;
+
+import static asint.Sintaxis.*;
+import static procesamientos.Procesamiento.OPTIMIZACION.MEMORIZACION;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+    Clase utilidad que contiene todos los métodos requeridos para ejecutar la fase de <b>análisis de pureza</b>
+    en el procesamiento de nuestro lenguaje Tiny.
+
+    <br>Esta fase reconoce los procedimientos <b>puros</b>: aquellos cuyo único efecto es escribir un resultado,
+    que solo depende de sus argumentos por valor, a través de un parámetro por referencia. Un procedimiento es
+    puro si:
+    <ul>
+        <li>todos sus parámetros son de tipo básico y exactamente uno de ellos es por referencia;</li>
+        <li>no declara procedimientos anidados;</li>
+        <li>no realiza operaciones de E/S ni accede a la memoria dinámica;</li>
+        <li>solo accede a sus propios parámetros y variables, nunca a variables globales o de otros niveles;</li>
+        <li>escribe su resultado en cualquier ejecución, sin leerlo antes de escribirlo;</li>
+        <li>solo invoca a procedimientos puros, pasándoles como resultado una variable propia.</li>
+    </ul>
+    La última condición se resuelve como un punto fijo, partiendo de que todos los candidatos son puros, de
+    modo que se reconocen los procedimientos recursivos.
+
+    <br>El código de cada procedimiento puro consulta, al comenzar, una caché de resultados indexada por los
+    valores de sus argumentos por valor: si la encuentra, escribe el resultado y retorna sin ejecutar el cuerpo,
+    y si no, guarda el resultado al terminar. La capacidad de cada caché es configurable, y al llenarse se
+    descarta el resultado usado hace más tiempo.
+
+    @version Java SE 17
+    @see Procesamiento
+
+    @author Félix Rodolfo Díaz Lorente
+    @author Álvaro Magalló Paz
+    @author Alejandro del Río Caballero
+*/
+public class Pureza extends Procesamiento
+{
+    private Pureza() {} // No se permite instanciar esta clase
+
+    /**
+        Número máximo por defecto de resultados que guarda la caché de cada procedimiento puro.
+    */
+    public static final int CAPACIDAD_POR_DEFECTO = 1024;
+
+    /**
+        Estado del análisis de pureza en una compilación.
+    */
+    static final class Estado
+    {
+        final Map<Nodo, Proc> puros = new HashMap<>(); // Procedimientos memorizados
+        Param resultado; // Parámetro por referencia del procedimiento analizado
+        boolean leido; // Se lee el resultado antes de escribirlo
+    }
+
+    private static Estado estado() { return Contexto.actual().pureza; }
+
+    /**
+        Indica si se memorizan los resultados de un procedimiento.
+
+        @param proc procedimiento ya analizado por esta fase
+
+        @return <code>true</code> si solo si <code>proc</code> es puro.
+    */
+    static boolean esPuro(Proc proc) { return estado().puros.containsKey(proc.nodo()); }
+
+    /**
+        Devuelve la capacidad de la caché de resultados de cada procedimiento puro.
+
+        @return El número máximo de resultados que se guardan por procedimiento.
+    */
+    static int capacidad() { return parametro(MEMORIZACION, CAPACIDAD_POR_DEFECTO); }
+
+    /**
+        Devuelve el parámetro por referencia de un procedimiento puro, donde escribe su resultado.
+
+        @param proc procedimiento puro
+
+        @return El único parámetro por referencia de <code>proc</code>.
+    */
+    static Param resultado(Proc proc)
+    {
+        return proc.lparam().stream().filter(pf -> pf instanceof Pvar).findFirst().orElseThrow();
+    }
+
+    /**
+        Devuelve los parámetros por valor de un procedimiento puro, cuyos valores indexan su caché.
+
+        @param proc procedimiento puro
+
+        @return Los parámetros por valor de <code>proc</code>, en orden.
+    */
+    static List<Param> argumentos(Proc proc)
+    {
+        return proc.lparam().stream().filter(pf -> pf instanceof Pval).map(pf -> (Param) pf).toList();
+    }
+
+    // Funciones auxiliares
+
+    private static boolean esVinculo(Exp exp, INodo dec)
+    {
+        return exp instanceof Ident ident && ident.vinculo() != null && ident.vinculo().nodo() == dec.nodo();
+    }
+
+    private static boolean esBasico(Param pf) { return refFact(pf.tipo()) instanceof TipoBasico; }
+
+    /**
+        Indica si un procedimiento cumple las condiciones de pureza que no dependen de los procedimientos a los
+        que invoca.
+    */
+    private static boolean esCandidato(Proc proc)
+    {
+        final Estado estado = estado();
+
+        final List<? extends Param> lparam = proc.lparam();
+        if (!lparam.stream().allMatch(Pureza::esBasico) || lparam.stream().filter(pf -> pf instanceof Pvar).count() != 1
+            || proc.ldec().stream().anyMatch(dec -> dec instanceof Proc))
+        {
+            return false;
+        }
+
+        // Declaraciones accesibles: parámetros, variables locales y variables de los bloques del cuerpo
+        Set<Nodo> locales = new HashSet<>();
+        lparam.forEach(pf -> locales.add(pf.nodo()));
+        proc.ldec().forEach(dec -> locales.add(dec.nodo()));
+        recorre(proc.lins(), nodo -> {
+            if (nodo instanceof Seq seq)
+                seq.ldec().forEach(dec -> locales.add(dec.nodo()));
+        });
+
+        boolean[] candidato = { true };
+        recorre(proc.lins(), nodo -> {
+            if (nodo instanceof Read || nodo instanceof Write || nodo instanceof NewLine || nodo instanceof InsMemoria
+                || nodo instanceof Indir || nodo instanceof Proc)
+            {
+                candidato[0] = false;
+            }
+            else if (nodo instanceof Ident ident && (ident.vinculo() instanceof Var || ident.vinculo() instanceof Param)
+                && !locales.contains(ident.vinculo().nodo()))
+            {
+                candidato[0] = false;
+            }
+        });
+
+        if (!candidato[0])
+            return false;
+
+        estado.resultado = resultado(proc);
+        estado.leido = false;
+
+        return escrito(proc.lins(), false) && !estado.leido;
+    }
+
+    /**
+        Marca como leído el resultado si una expresión o instrucción lo usa antes de que se haya escrito.
+    */
+    private static void lee(Object obj, boolean escrito)
+    {
+        if (!escrito)
+        {
+            recorre(obj, nodo -> {
+                if (nodo instanceof Exp exp && esVinculo(exp, estado().resultado))
+                    estado().leido = true;
+            });
+        }
+    }
+
+    /**
+        Calcula si el resultado se ha escrito en cualquier ejecución tras una lista de instrucciones.
+
+        @param lins instrucciones analizadas
+        @param escrito si el resultado se ha escrito antes de las instrucciones
+
+        @return <code>true</code> si solo si el resultado se ha escrito tras ejecutar <code>lins</code>.
+    */
+    private static boolean escrito(List<? extends Ins> lins, boolean escrito)
+    {
+        for (Ins ins: lins)
+            escrito = escrito(ins, escrito);
+        return escrito;
+    }
+
+    private static boolean escrito(Ins ins, boolean escrito)
+    {
+        if (ins instanceof Asig asig)
+        {
+            final boolean escribe = esVinculo(asig.ei(), estado().resultado);
+            lee(escribe? asig.ed(): asig, escrito);
+
+            return escrito || escribe;
+        }
+        else if (ins instanceof Invoc invoc)
+        {
+            // Un procedimiento puro escribe su resultado en cualquier ejecución
+            boolean escribe = false;
+
+            Iterator<? extends Param> itp = ((Proc) invoc.eid().vinculo()).lparam().iterator();
+            Iterator<? extends Exp> ite = invoc.lexp().iterator();
+            while (itp.hasNext() && ite.hasNext())
+            {
+                Param pf = itp.next();
+                Exp pr = ite.next();
+
+                if (pf instanceof Pvar && esVinculo(pr, estado().resultado))
+                    escribe = true;
+                else
+                    lee(pr, escrito);
+            }
+
+            return escrito || escribe;
+        }
+        else if (ins instanceof Seq seq)
+            return escrito(seq.lins(), escrito);
+        else if (ins instanceof IfThen ifThen)
+        {
+            lee(ifThen.exp(), escrito);
+            escrito(ifThen.lins(), escrito);
+
+            return escrito;
+        }
+        else if (ins instanceof IfThenElse ifThenElse)
+        {
+            lee(ifThenElse.exp(), escrito);
+            final boolean escrito1 = escrito(ifThenElse.lins(), escrito);
+            final boolean escrito2 = escrito(ifThenElse.lins2(), escrito);
+
+            return escrito1 && escrito2;
+        }
+        else if (ins instanceof While wh)
+        {
+            // El cuerpo puede no ejecutarse, y cada iteración parte, al menos, de lo escrito antes del bucle
+            lee(wh.exp(), escrito);
+            escrito(wh.lins(), escrito);
+
+            return escrito;
+        }
+        else
+            return escrito;
+    }
+
+    /**
+        Indica si un procedimiento candidato solo invoca a otros candidatos, a los que pasa como resultado una
+        variable propia.
+    */
+    private static boolean invocaPuros(Proc proc)
+    {
+        boolean[] puro = { true };
+        recorre(proc.lins(), nodo -> {
+            if (nodo instanceof Invoc invoc && !estado().puros.containsKey(invoc.eid().vinculo().nodo()))
+                puro[0] = false;
+        });
+        return puro[0];
+    }
+
+    // Programa
+
+    public static void analiza(Prog prog)
+    {
+        final Estado estado = estado();
+
+        estado.puros.clear();
+        if (!optimiza(MEMORIZACION))
+            return;
+
+        for (Proc proc: recolectaProcs(prog))
+        {
+            if (esCandidato(proc))
+                estado.puros.put(proc.nodo(), proc);
+        }
+
+        boolean cambio = true;
+        while (cambio)
+            cambio = estado.puros.values().removeIf(proc -> !invocaPuros(proc));
+    }
+}
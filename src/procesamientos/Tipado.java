@@ -2,6 +2,8 @@ package procesamientos;
 
 import static asint.Sintaxis.*;
 
+import despacho.GeneraDespacho;
+
 import java.util.Set;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -21,6 +23,7 @@ import java.util.Iterator;
     @author Álvaro Magalló Paz
     @author Alejandro del Río Caballero
 */
+@GeneraDespacho("tipo")
 public class Tipado extends Procesamiento
 {
     private static class EUnificacion extends Throwable
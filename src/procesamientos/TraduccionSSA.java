@@ -0,0 +1,676 @@
+package procesamientos;
+
+import static asint.Sintaxis.*;
+import static asint.Sintaxis.Nodo.VALOR_NULO;
+import static maquina.MaquinaP.*;
+import static procesamientos.Procesamiento.OPTIMIZACION.ACCESOS;
+import static procesamientos.Procesamiento.OPTIMIZACION.CORTOCIRCUITO;
+import static procesamientos.Procesamiento.OPTIMIZACION.SSA;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import optimizacion.AccesosMemoria;
+import optimizacion.SSA.*;
+
+/**
+    Clase utilidad que contiene todos los métodos requeridos para ejecutar la fase de <b>traducción a SSA</b>
+    en el procesamiento de nuestro lenguaje Tiny.
+
+    <br>Esta fase traduce el árbol de sintaxis abstracta, ya decorado por la asignación de memoria, a la
+    representación intermedia en forma SSA, a partir de la cual genera el código la clase
+    {@link GeneracionSSA}. Las variables escalares (enteras, reales, booleanas, cadenas y punteros) de un
+    procedimiento, o del programa principal, se promueven a valores SSA si solo se acceden por su nombre desde
+    su propio cuerpo y nunca se pasan por referencia. Los valores de estas variables se construyen a la vez que
+    se traduce cada bloque, siguiendo el algoritmo descrito en <i>Simple and Efficient Construction of Static
+    Single Assignment Form</i> (2013), de Matthias Braun, Sebastian Buchwald, Sebastian Hack, Roland Leißa,
+    Christoph Mallon y Andreas Zwinkau.
+
+    <br>Con la optimización de accesos a memoria, se eliminan las cargas redundantes y los almacenamientos
+    muertos de las variables que no se promueven, mediante un {@link AccesosMemoria}.
+
+    @version Java SE 17
+    @see Procesamiento
+
+    @author Félix Rodolfo Díaz Lorente
+    @author Álvaro Magalló Paz
+    @author Alejandro del Río Caballero
+*/
+public class TraduccionSSA extends Procesamiento
+{
+    private TraduccionSSA() {} // No se permite instanciar esta clase
+
+    public static void traduce(INodo nodo) { procesa(TraduccionSSA.class, "traduce", nodo); }
+
+    public static void traduce(List<? extends INodo> lista) { procesa(TraduccionSSA.class, "traduce", lista); }
+
+    /**
+        Estado de la traducción a SSA en una compilación.
+    */
+    static final class Estado
+    {
+        final AccesosMemoria accesos = new AccesosMemoria();
+
+        Programa programa = null; // Programa traducido
+
+        Funcion funcion = null; // Función en construcción
+        Bloque actual = null; // Bloque en construcción
+
+        final Map<Nodo, INodo> promovidas = new HashMap<>(); // Variables promovidas a valores SSA
+        final Map<Nodo, Map<Bloque, Valor>> definiciones = new HashMap<>(); // Valor de cada variable al final de cada bloque
+        final Map<Bloque, Map<Phi, INodo>> incompletas = new HashMap<>(); // Phi de los bloques sin sellar
+        final Set<Bloque> sellados = new HashSet<>(); // Bloques con todos sus predecesores
+        final Set<Phi> enConstruccion = new HashSet<>(); // Phi cuyos operandos se están añadiendo
+        int cargasIniciales = 0; // Cargas de parámetros al comienzo de la función
+    }
+
+    private static Estado estado() { return Contexto.actual().traduccion; }
+
+    /**
+        Devuelve el optimizador de accesos a memoria del contexto actual.
+
+        @return El optimizador de accesos a memoria de la compilación en curso.
+    */
+    public static AccesosMemoria accesos() { return estado().accesos; }
+
+    /**
+        Devuelve el programa traducido a forma SSA.
+
+        @return El programa traducido en la última ejecución de esta fase, o <code>null</code> si no se ha
+            ejecutado.
+    */
+    public static Programa programa() { return estado().programa; }
+
+    // Funciones auxiliares
+
+    private static boolean esEscalar(Tipo tipo)
+    {
+        Tipo t = refFact(tipo);
+        return t instanceof Int || t instanceof Real || t instanceof Bool || t instanceof Str || t instanceof Puntero;
+    }
+
+    private static Constante constante(int valor) { return new Constante(valor, INT); }
+
+    private static <T extends Instruccion> T añade(T ins) { return estado().actual.añade(ins); }
+
+    private static Valor suma(Valor dir, int desp) { return (desp == 0)? dir: añade(new Binaria(SUMA_ENT, dir, constante(desp), INT)); }
+
+    private static void activa(Bloque bloque)
+    {
+        estado().funcion.coloca(bloque);
+        estado().actual = bloque;
+    }
+
+    private static void salta(Bloque destino) { estado().actual.termina(new Salto(destino)); }
+
+    private static boolean esPromovida(Exp exp)
+    {
+        return exp instanceof Ident ident && estado().promovidas.containsKey(ident.vinculo().nodo());
+    }
+
+    /**
+        Decide qué variables se promueven: las escalares que solo se nombran desde el cuerpo del procedimiento,
+        o programa principal, que las declara, y nunca como argumento de un parámetro por referencia.
+    */
+    private static void promueve(Prog prog)
+    {
+        final Estado estado = estado();
+
+        Map<Nodo, Nodo> funciones = new HashMap<>();
+        Set<Nodo> excluidas = new HashSet<>();
+
+        List<INodo> cuerpos = new ArrayList<>(recolectaProcs(prog));
+        cuerpos.add(0, prog);
+
+        estado.promovidas.clear();
+        for (INodo cuerpo: cuerpos)
+        {
+            final int nivel = (cuerpo instanceof Proc proc)? proc.nivel(): 0;
+            final Object lins = (cuerpo instanceof Proc proc)? proc.lins(): ((Prog) cuerpo).lins();
+
+            recorre(lins, nodo -> {
+                if (nodo instanceof Ident ident && (ident.vinculo() instanceof Var || ident.vinculo() instanceof Pval))
+                {
+                    final INodo var = ident.vinculo();
+                    final Nodo previa = funciones.putIfAbsent(var.nodo(), cuerpo.nodo());
+
+                    if ((previa != null && previa != cuerpo.nodo()) || var.nivel() != nivel || !esEscalar(var.tipo()))
+                        excluidas.add(var.nodo());
+                    estado.promovidas.put(var.nodo(), var);
+                }
+                else if (nodo instanceof Invoc invoc)
+                {
+                    Iterator<? extends Param> itp = ((Proc) invoc.eid().vinculo()).lparam().iterator();
+                    Iterator<? extends Exp> ite = invoc.lexp().iterator();
+                    while (itp.hasNext() && ite.hasNext())
+                    {
+                        Param pf = itp.next();
+                        Exp pr = ite.next();
+
+                        if (pf instanceof Pvar && pr instanceof Ident ident)
+                            excluidas.add(ident.vinculo().nodo());
+                    }
+                }
+            });
+        }
+
+        estado.promovidas.keySet().removeAll(excluidas);
+    }
+
+    // Construcción de la forma SSA
+
+    private static void escribeVariable(INodo var, Bloque bloque, Valor valor)
+    {
+        estado().definiciones.computeIfAbsent(var.nodo(), k -> new HashMap<>()).put(bloque, valor);
+    }
+
+    private static Valor leeVariable(INodo var, Bloque bloque)
+    {
+        final Valor valor = estado().definiciones.getOrDefault(var.nodo(), Map.of()).get(bloque);
+        return (valor != null)? valor: leeVariableRecursiva(var, bloque);
+    }
+
+    private static Valor leeVariableRecursiva(INodo var, Bloque bloque)
+    {
+        Valor valor;
+
+        if (!estado().sellados.contains(bloque))
+        {
+            // Aún no se conocen todos los predecesores: los operandos se añaden al sellar el bloque
+            Phi phi = bloque.añade(new Phi(refFact(var.tipo())));
+            estado().incompletas.computeIfAbsent(bloque, k -> new HashMap<>()).put(phi, var);
+            valor = phi;
+        }
+        else if (bloque.predecesores().isEmpty())
+            valor = valorInicial(var);
+        else if (bloque.predecesores().size() == 1)
+            valor = leeVariable(var, bloque.predecesores().get(0));
+        else
+        {
+            // La phi se registra antes de leer los operandos para cortar los ciclos
+            Phi phi = bloque.añade(new Phi(refFact(var.tipo())));
+            escribeVariable(var, bloque, phi);
+            valor = añadeOperandos(var, phi);
+        }
+
+        escribeVariable(var, bloque, valor);
+        return valor;
+    }
+
+    /**
+        Devuelve el valor de una variable al comienzo de la función: el argumento de un parámetro, que se
+        carga de su celda, o un valor indefinido.
+    */
+    private static Valor valorInicial(INodo var)
+    {
+        final Estado estado = estado();
+
+        if (!(var instanceof Pval))
+            return new Indefinido(refFact(var.tipo()));
+
+        final Bloque entrada = estado.funcion.entrada();
+
+        Valor display = entrada.inserta(estado.cargasIniciales++, new Display(var.nivel(), INT));
+        Valor dir = entrada.inserta(estado.cargasIniciales++, new Binaria(SUMA_ENT, display, constante(var.dir()), INT));
+        return entrada.inserta(estado.cargasIniciales++, new Carga(dir, refFact(var.tipo())));
+    }
+
+    private static Valor añadeOperandos(INodo var, Phi phi)
+    {
+        estado().enConstruccion.add(phi);
+        for (Bloque pred: phi.bloque().predecesores())
+            phi.añadeOperando(leeVariable(var, pred));
+        estado().enConstruccion.remove(phi);
+
+        return eliminaTrivial(phi);
+    }
+
+    /**
+        Elimina una phi cuyos operandos son todos el mismo valor (o ella misma), sustituyéndola por ese valor, y
+        repite el proceso con las phi que la usaban.
+    */
+    private static Valor eliminaTrivial(Phi phi)
+    {
+        final Estado estado = estado();
+
+        Valor unico = null;
+        for (Valor op: phi.operandos())
+        {
+            if (op == unico || op == phi)
+                continue;
+            if (unico != null)
+                return phi;
+            unico = op;
+        }
+
+        if (unico == null) // Bloque inalcanzable o de entrada
+            unico = new Indefinido(phi.tipo());
+
+        List<Phi> usuarias = new ArrayList<>();
+        for (Bloque bloque: estado.funcion.bloques())
+        {
+            for (Phi otra: bloque.phis())
+            {
+                if (otra != phi && !estado.enConstruccion.contains(otra) && otra.operandos().contains(phi))
+                    usuarias.add(otra);
+            }
+        }
+
+        phi.bloque().elimina(phi);
+        estado.funcion.sustituye(phi, unico);
+        for (Map<Bloque, Valor> defs: estado.definiciones.values())
+        {
+            final Valor v = unico;
+            defs.replaceAll((bloque, valor) -> (valor == phi)? v: valor);
+        }
+
+        for (Phi usuaria: usuarias)
+        {
+            if (usuaria.bloque() != null)
+                eliminaTrivial(usuaria);
+        }
+
+        return unico;
+    }
+
+    private static void sella(Bloque bloque)
+    {
+        var pendientes = estado().incompletas.remove(bloque);
+        if (pendientes != null)
+            pendientes.forEach((phi, var) -> añadeOperandos(var, phi));
+
+        estado().sellados.add(bloque);
+    }
+
+    private static Funcion traduceFuncion(Proc proc, List<? extends Ins> lins)
+    {
+        final Estado estado = estado();
+
+        estado.funcion = new Funcion(proc);
+        estado.definiciones.clear();
+        estado.incompletas.clear();
+        estado.sellados.clear();
+        estado.cargasIniciales = 0;
+
+        activa(estado.funcion.nuevoBloque());
+        sella(estado.actual);
+
+        traduce(lins);
+        estado.actual.termina((proc == null)? new Parada(): new Retorno());
+
+        return estado.funcion;
+    }
+
+    // Expresiones
+
+    /**
+        Traduce el operando de una operación y devuelve su valor, convertido en real si la operación es real.
+    */
+    private static Valor valor(Exp exp, Tipo tipo)
+    {
+        final Valor valor = valor(exp);
+
+        if (tipo instanceof Real && refFact(exp.tipo()) instanceof Int)
+            return añade(new Promocion(valor, REAL));
+        return valor;
+    }
+
+    /**
+        Traduce el valor que se asigna a un destino, convertido en real si el destino es real, con la misma
+        comprobación que la generación de código sin forma SSA.
+    */
+    private static Valor asignado(Exp exp, Tipo destino)
+    {
+        final Valor valor = valor(exp);
+
+        if (destino instanceof Real && exp.tipo() instanceof Int)
+            return añade(new Promocion(valor, REAL));
+        return valor;
+    }
+
+    private static Valor valor(Exp exp)
+    {
+        final Estado estado = estado();
+
+        final Tipo tipo = refFact(exp.tipo());
+
+        if (esPromovida(exp))
+            return leeVariable(((Ident) exp).vinculo(), estado.actual);
+        else if (esDesig(exp))
+            return añade(new Carga(direccion(exp), tipo));
+        else if (exp instanceof Entero ent)
+            return new Constante(Integer.valueOf(ent.lit()), INT);
+        else if (exp instanceof Decimal dec)
+            return new Constante(Double.valueOf(dec.lit()), REAL);
+        else if (exp instanceof Cadena cad)
+            return new Constante(cad.lit(), STRING);
+        else if (exp instanceof True)
+            return new Constante(true, BOOL);
+        else if (exp instanceof False)
+            return new Constante(false, BOOL);
+        else if (exp instanceof Nulo)
+            return new Constante(VALOR_NULO, NULL);
+        else if (optimiza(CORTOCIRCUITO) && (exp instanceof And || exp instanceof Or))
+        {
+            // El valor de una conjunción o disyunción en cortocircuito es una confluencia de constantes
+            final Funcion funcion = estado.funcion;
+            Bloque cierto = funcion.nuevoBloque(), falso = funcion.nuevoBloque(), fin = funcion.nuevoBloque();
+
+            condicion(exp, cierto, falso);
+            activa(cierto);
+            sella(cierto);
+            salta(fin);
+            activa(falso);
+            sella(falso);
+            salta(fin);
+            activa(fin);
+            sella(fin);
+
+            Phi phi = añade(new Phi(BOOL));
+            phi.añadeOperando(new Constante(true, BOOL));
+            phi.añadeOperando(new Constante(false, BOOL));
+            return phi;
+        }
+        else if (exp instanceof ExpBinaria bin)
+            return añade(new Binaria(operador(bin), valor(bin.op1(), tipo), valor(bin.op2(), tipo), tipo));
+        else if (exp instanceof Not not)
+            return añade(new Unaria(NOT, valor(not.op()), tipo));
+        else // exp instanceof Neg
+            return añade(new Unaria((tipo instanceof Real)? NEG_REAL: NEG_ENT, valor(((Neg) exp).op()), tipo));
+    }
+
+    private static InfijoBinario<?, ?, ?> operador(ExpBinaria exp)
+    {
+        final boolean real = refFact(exp.tipo()) instanceof Real;
+
+        if (exp instanceof Suma)
+            return real? SUMA_REAL: SUMA_ENT;
+        else if (exp instanceof Resta)
+            return real? RESTA_REAL: RESTA_ENT;
+        else if (exp instanceof Mul)
+            return real? MUL_REAL: MUL_ENT;
+        else if (exp instanceof Div)
+            return real? DIV_REAL: DIV_ENT;
+        else if (exp instanceof Mod)
+            return MOD;
+        else if (exp instanceof And)
+            return AND;
+        else if (exp instanceof Or)
+            return OR;
+        else if (exp instanceof Eq)
+            return EQ;
+        else if (exp instanceof Ne)
+            return NE;
+        else if (exp instanceof Lt)
+            return LT;
+        else if (exp instanceof Le)
+            return LE;
+        else if (exp instanceof Gt)
+            return GT;
+        else // exp instanceof Ge
+            return GE;
+    }
+
+    /**
+        Traduce un designador no promovido y devuelve su dirección.
+    */
+    private static Valor direccion(Exp exp)
+    {
+        if (exp instanceof Ident ident)
+        {
+            final INodo vinculo = ident.vinculo();
+
+            if (vinculo.nivel() == 0)
+                return constante(vinculo.dir());
+
+            Valor dir = suma(añade(new Display(vinculo.nivel(), INT)), vinculo.dir());
+            return (vinculo instanceof Pvar)? añade(new Carga(dir, INT)): dir;
+        }
+        else if (exp instanceof Acc acc)
+        {
+            final Valor dir = direccion(acc.reg());
+
+            for (Campo c: ((Reg) refFact(acc.reg().tipo())).lcampo())
+            {
+                if (acc.id().equals(c.id()))
+                    return suma(dir, c.desplazamiento());
+            }
+            return dir;
+        }
+        else if (exp instanceof Indx indx)
+        {
+            final Valor dir = direccion(indx.eid());
+            final int tam = tamBase(indx.eid());
+
+            Valor desp = valor(indx.ei());
+            if (tam != 1)
+                desp = añade(new Binaria(MUL_ENT, desp, constante(tam), INT));
+            return añade(new Binaria(SUMA_ENT, dir, desp, INT));
+        }
+        else // exp instanceof Indir
+        {
+            final Indir indir = (Indir) exp;
+            return puntero(indir.et(), indir);
+        }
+    }
+
+    /**
+        Traduce el puntero de una desreferencia o liberación, comprobando que no es <code>null</code> si el
+        análisis de nulidad no lo garantiza.
+    */
+    private static Valor puntero(Exp exp, INodo nodo)
+    {
+        final Valor puntero = valor(exp);
+        return Nulidad.esSeguro(nodo)? puntero: añade(new Comprueba(puntero));
+    }
+
+    /**
+        Traduce una condición como una bifurcación a uno de dos bloques. Con la evaluación en cortocircuito,
+        los operadores lógicos se traducen como bifurcaciones encadenadas.
+    */
+    private static void condicion(Exp exp, Bloque cierto, Bloque falso)
+    {
+        final Estado estado = estado();
+
+        if (optimiza(CORTOCIRCUITO) && exp instanceof And and)
+        {
+            Bloque medio = estado.funcion.nuevoBloque();
+
+            condicion(and.op1(), medio, falso);
+            activa(medio);
+            sella(medio);
+            condicion(and.op2(), cierto, falso);
+        }
+        else if (optimiza(CORTOCIRCUITO) && exp instanceof Or or)
+        {
+            Bloque medio = estado.funcion.nuevoBloque();
+
+            condicion(or.op1(), cierto, medio);
+            activa(medio);
+            sella(medio);
+            condicion(or.op2(), cierto, falso);
+        }
+        else if (optimiza(CORTOCIRCUITO) && exp instanceof Not not)
+            condicion(not.op(), falso, cierto);
+        else
+            estado.actual.termina(new Bifurcacion(valor(exp), cierto, falso));
+    }
+
+    // Programa
+
+    public static void traduce(Prog prog)
+    {
+        if (!optimiza(SSA))
+            return;
+
+        promueve(prog);
+
+        final Funcion principal = traduceFuncion(null, prog.lins());
+
+        List<Funcion> procs = new ArrayList<>();
+        for (Proc proc: recolectaProcs(prog))
+            procs.add(traduceFuncion(proc, proc.lins()));
+
+        final Estado estado = estado();
+        estado.programa = new Programa(principal, List.copyOf(procs));
+
+        if (optimiza(ACCESOS))
+        {
+            estado.accesos.optimiza(principal);
+            procs.forEach(f -> estado.accesos.optimiza(f));
+        }
+        GeneracionSSA.asignaCeldas(estado.programa);
+    }
+
+    // Instrucciones básicas
+
+    public static void traduce(Asig asig)
+    {
+        final Exp ei = asig.ei(), ed = asig.ed();
+
+        if (esPromovida(ei))
+        {
+            escribeVariable(((Ident) ei).vinculo(), estado().actual, asignado(ed, ei.tipo()));
+            return;
+        }
+
+        final Valor dir = direccion(ei);
+
+        if (esEscalar(ei.tipo()))
+            añade(new Guarda(dir, asignado(ed, ei.tipo())));
+        else
+            añade(new Copia(dir, direccion(ed), ei.tipo().espacio()));
+    }
+
+    public static void traduce(Invoc invoc)
+    {
+        final Proc proc = (Proc) invoc.eid().vinculo();
+        List<Valor> args = new ArrayList<>();
+
+        Iterator<? extends Param> itp = proc.lparam().iterator();
+        Iterator<? extends Exp> ite = invoc.lexp().iterator();
+        while (itp.hasNext() && ite.hasNext())
+        {
+            Param pf = itp.next();
+            Exp pr = ite.next();
+
+            args.add((pf instanceof Pval && esEscalar(pf.tipo()))? asignado(pr, pf.tipo()): direccion(pr));
+        }
+
+        añade(new Llamada(proc, args));
+    }
+
+    // Instrucciones de bloque
+
+    public static void traduce(Seq seq) { traduce(seq.lins()); }
+
+    public static void traduce(IfThen ifThen)
+    {
+        final Estado estado = estado();
+
+        // La rama vacía es un bloque propio, donde se colocan las copias de las phi de la confluencia
+        Bloque cierto = estado.funcion.nuevoBloque(), falso = estado.funcion.nuevoBloque(), fin = estado.funcion.nuevoBloque();
+
+        condicion(ifThen.exp(), cierto, falso);
+        activa(falso);
+        sella(falso);
+        salta(fin);
+
+        activa(cierto);
+        sella(cierto);
+        traduce(ifThen.lins());
+        salta(fin);
+
+        activa(fin);
+        sella(fin);
+    }
+
+    public static void traduce(IfThenElse ifThenElse)
+    {
+        final Estado estado = estado();
+
+        Bloque cierto = estado.funcion.nuevoBloque(), falso = estado.funcion.nuevoBloque(), fin = estado.funcion.nuevoBloque();
+
+        condicion(ifThenElse.exp(), cierto, falso);
+        activa(cierto);
+        sella(cierto);
+        traduce(ifThenElse.lins());
+        salta(fin);
+
+        activa(falso);
+        sella(falso);
+        traduce(ifThenElse.lins2());
+        salta(fin);
+
+        activa(fin);
+        sella(fin);
+    }
+
+    public static void traduce(While wh)
+    {
+        final Estado estado = estado();
+
+        // Bucle rotado: el cuerpo se coloca antes de la condición, a la que se salta al entrar en el bucle
+        final Funcion funcion = estado.funcion;
+        Bloque cabecera = funcion.nuevoBloque(), cuerpo = funcion.nuevoBloque(), salida = funcion.nuevoBloque();
+
+        salta(cabecera);
+
+        activa(cuerpo);
+        traduce(wh.lins());
+        salta(cabecera);
+
+        activa(cabecera);
+        sella(cabecera);
+        condicion(wh.exp(), cuerpo, salida);
+        sella(cuerpo);
+
+        activa(salida);
+        sella(salida);
+    }
+
+    // Gestión de la E/S estándar
+
+    public static void traduce(Read read)
+    {
+        final Exp exp = read.exp();
+
+        if (esPromovida(exp))
+            escribeVariable(((Ident) exp).vinculo(), estado().actual, añade(new Lee(refFact(exp.tipo()))));
+        else
+        {
+            final Valor dir = direccion(exp);
+            añade(new Guarda(dir, añade(new Lee(refFact(exp.tipo())))));
+        }
+    }
+
+    public static void traduce(Write write) { añade(new Escribe(valor(write.exp()))); }
+
+    public static void traduce(NewLine nl) { añade(new Linea()); }
+
+    // Gestión de la memoria dinámica
+
+    public static void traduce(New n)
+    {
+        final Exp exp = n.exp();
+
+        if (esPromovida(exp))
+            escribeVariable(((Ident) exp).vinculo(), estado().actual, añade(new Reserva(tamBase(exp), refFact(exp.tipo()))));
+        else
+        {
+            final Valor dir = direccion(exp);
+            añade(new Guarda(dir, añade(new Reserva(tamBase(exp), refFact(exp.tipo())))));
+        }
+    }
+
+    public static void traduce(Delete d)
+    {
+        final Exp exp = d.exp();
+        añade(new Libera(puntero(exp, d), tamBase(exp)));
+    }
+}
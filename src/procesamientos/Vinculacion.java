@@ -2,6 +2,8 @@ package procesamientos;
 
 import asint.Sintaxis.*;
 
+import despacho.GeneraDespacho;
+
 import java.util.List;
 
 /**
@@ -15,9 +17,18 @@ import java.util.List;
     @author Álvaro Magalló Paz
     @author Alejandro del Río Caballero
 */
+@GeneraDespacho({"vincula", "vincula1", "vincula2"})
 public class Vinculacion extends Procesamiento
 {
-    private static TablaSimbolos ts = new TablaSimbolos();
+    /**
+        Estado de la vinculación en una compilación.
+    */
+    static final class Estado
+    {
+        final TablaSimbolos ts = new TablaSimbolos();
+    }
+
+    private static TablaSimbolos ts() { return Contexto.actual().vinculacion.ts; }
 
     private static class EIdentificador extends Throwable
     {
@@ -70,9 +81,9 @@ public class Vinculacion extends Procesamiento
     {
         String id = strloc.str();
 
-        if (ts.contiene(id))
+        if (ts().contiene(id))
             throw new EVinculacion(strloc, ID_DUPLICADO);
-        ts.inserta(id, nodo);
+        ts().inserta(id, nodo);
     }
 
     public static void vincula1(Var var)
@@ -95,13 +106,13 @@ public class Vinculacion extends Procesamiento
     {
         recolecta(proc.strloc(), proc);
 
-        ts.abreNivel();
+        ts().abreNivel();
         vincula1(proc.lparam());
         vincula1(proc.ldec());
         vincula2(proc.lparam());
         vincula2(proc.ldec());
         vincula(proc.lins());
-        ts.cierraNivel();
+        ts().cierraNivel();
     }
 
     // Parámetros formales
@@ -118,7 +129,7 @@ public class Vinculacion extends Procesamiento
 
     public static void vincula1(Ref ref)
     {
-        INodo nodo = ts.valorDe(ref.id());
+        INodo nodo = ts().valorDe(ref.id());
         if (nodo == null)
             throw new EVinculacion(ref.strloc(), ID_NO_DECLARADO);
         ref.vincular(nodo);
@@ -141,7 +152,7 @@ public class Vinculacion extends Procesamiento
         Tipo tipo = punt.tipo();
         if (tipo instanceof Ref ref)
         {
-            INodo nodo = ts.valorDe(ref.id());
+            INodo nodo = ts().valorDe(ref.id());
             if (nodo == null)
                 throw new EVinculacion(punt.strloc(), ID_NO_DECLARADO);
             else
@@ -179,11 +190,11 @@ public class Vinculacion extends Procesamiento
     
     public static void vincula(Seq seq)
     {
-        ts.abreNivel();
+        ts().abreNivel();
         vincula1(seq.ldec());
         vincula2(seq.ldec());
         vincula(seq.lins());
-        ts.cierraNivel();
+        ts().cierraNivel();
     }
     
     public static void vincula(IfThen ifThen)
@@ -219,7 +230,7 @@ public class Vinculacion extends Procesamiento
 
     public static void vincula(Ident exp)
     {
-        INodo nodo = ts.valorDe(exp.lit());
+        INodo nodo = ts().valorDe(exp.lit());
         if (nodo == null)
             throw new EVinculacion(exp.strloc(), ID_NO_DECLARADO);
         else
@@ -0,0 +1,164 @@
+package tiny;
+
+import asint.Sintaxis.Prog;
+import procesamientos.*;
+import procesamientos.Procesamiento.FASE;
+import procesamientos.Procesamiento.OPTIMIZACION;
+import static procesamientos.Procesamiento.NOMBRE_FASE;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+    Motor del procesador del lenguaje Tiny, que compila programas desde cualquier aplicación Java, sin imprimir
+    nada ni terminar la máquina virtual de Java.
+
+    <br>Cada compilación se realiza en un contexto propio (véase {@link Contexto}), de modo que un mismo motor
+    compila cualquier número de programas, uno tras otro o concurrentemente. Los errores no se imprimen: se
+    devuelven como diagnósticos del programa compilado, que puede ejecutarse tantas veces como se quiera, cada
+    una sobre una máquina virtual nueva.
+
+    <br>Un motor es inmutable: activar una optimización devuelve otro motor.
+
+    @version Java SE 17
+    @see Procesador
+    @see ProgramaCompilado
+
+    @author Félix Rodolfo Díaz Lorente
+    @author Álvaro Magalló Paz
+    @author Alejandro del Río Caballero
+*/
+public final class MotorTiny
+{
+    /**
+        Error encontrado en una fase de la compilación de un programa.
+
+        @param fase fase de procesamiento en la que se ha encontrado el error
+        @param error excepción que describe el error
+    */
+    public static record Diagnostico(FASE fase, Throwable error)
+    {
+        /**
+            Devuelve el mensaje del error, seguido del de su causa, si existe.
+
+            @return Una descripción del error en una línea.
+        */
+        public String mensaje()
+        {
+            final String mensaje = Objects.toString(error.getMessage(), error.getClass().getSimpleName());
+            final Throwable causa = error.getCause();
+
+            return (causa == null || causa.getMessage() == null)? mensaje: mensaje + " " + causa.getMessage();
+        }
+
+        @Override
+        public String toString() { return NOMBRE_FASE[fase.ordinal()] + ": " + mensaje(); }
+    }
+
+    private final Set<OPTIMIZACION> optimizaciones;
+    private final Map<OPTIMIZACION, Integer> parametros;
+
+    private MotorTiny(Set<OPTIMIZACION> optimizaciones, Map<OPTIMIZACION, Integer> parametros)
+    {
+        this.optimizaciones = optimizaciones;
+        this.parametros = parametros;
+    }
+
+    /**
+        Crea un motor sin optimizaciones activas.
+    */
+    public MotorTiny() { this(EnumSet.noneOf(OPTIMIZACION.class), new EnumMap<>(OPTIMIZACION.class)); }
+
+    /**
+        Devuelve un motor idéntico a este, con una optimización opcional activa.
+
+        @param opt la optimización que se activa
+
+        @return Un motor nuevo, con las optimizaciones de este y <code>opt</code>.
+    */
+    public MotorTiny activa(OPTIMIZACION opt)
+    {
+        Set<OPTIMIZACION> opts = EnumSet.copyOf(optimizaciones);
+        opts.add(opt);
+
+        return new MotorTiny(opts, parametros);
+    }
+
+    /**
+        Devuelve un motor idéntico a este, con una optimización opcional activa con un parámetro numérico,
+        como un umbral de tamaño.
+
+        @param opt la optimización que se activa
+        @param valor el valor del parámetro de la optimización
+
+        @return Un motor nuevo, con las optimizaciones de este y <code>opt</code>.
+    */
+    public MotorTiny activa(OPTIMIZACION opt, int valor)
+    {
+        Map<OPTIMIZACION, Integer> params = new EnumMap<>(parametros);
+        params.put(opt, valor);
+
+        return new MotorTiny(optimizaciones, params).activa(opt);
+    }
+
+    /**
+        Devuelve las optimizaciones activas en este motor.
+
+        @return Un conjunto inmodificable con las optimizaciones activas.
+    */
+    public Set<OPTIMIZACION> optimizaciones() { return Collections.unmodifiableSet(optimizaciones); }
+
+    /**
+        Compila un programa con el analizador sintáctico descendente, ejecutando todas las fases del
+        procesamiento hasta la generación de código, salvo que alguna encuentre errores.
+
+        @param fuente texto del programa, que no se cierra al terminar
+
+        @return El programa compilado, o uno sin código con los diagnósticos de la primera fase con errores.
+    */
+    public ProgramaCompilado compila(Reader fuente)
+    {
+        Contexto contexto = new Contexto().informaEn(null);
+        for (OPTIMIZACION opt: optimizaciones)
+        {
+            if (parametros.containsKey(opt))
+                contexto.activa(opt, parametros.get(opt));
+            else
+                contexto.activa(opt);
+        }
+
+        return contexto.ejecuta(() -> {
+            List<Diagnostico> diagnosticos = new ArrayList<>();
+            Prog prog = null;
+
+            for (FASE fase: FASE.values())
+            {
+                try
+                {
+                    // El analizador sintáctico descendente incluye el léxico
+                    prog = (fase == FASE.SINTAXIS)? new AnalizadorSintactico(fuente).Prog():
+                        Procesamiento.procesa(fase, prog);
+                }
+                // Un programa anidado a más profundidad de la que admite la pila es también un error del programa
+                catch (ParseException | TokenMgrError | RuntimeException | StackOverflowError e)
+                {
+                    diagnosticos.add(new Diagnostico(fase, e));
+                }
+
+                // Los errores de los métodos de procesamiento se registran en el contexto
+                contexto.diagnosticos().forEach(e -> diagnosticos.add(new Diagnostico(fase, e)));
+                if (!diagnosticos.isEmpty())
+                    return new ProgramaCompilado(diagnosticos);
+            }
+
+            return new ProgramaCompilado(GeneracionCodigo.maquina().programa(), GeneracionCodigo.requisitos());
+        });
+    }
+}
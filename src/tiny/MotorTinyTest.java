@@ -0,0 +1,130 @@
+package tiny;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import tiny.ProgramaCompilado.Ejecucion;
+import tiny.ProgramaCompilado.Limites;
+
+import static procesamientos.Procesamiento.OPTIMIZACION.*;
+import static tiny.Ejecutable.*;
+
+/**
+    Banco de pruebas del motor del procesador: compila cada programa de prueba una sola vez y lo ejecuta dos
+    veces, comprobando que ambas ejecuciones producen la misma salida que el procesador. Comprueba además que
+    los programas erróneos devuelven diagnósticos, sin terminar la máquina virtual de Java, y que una ejecución
+    se aborta al alcanzar su límite de instrucciones.
+*/
+final class MotorTinyTest
+{
+    private MotorTinyTest() {}
+
+    private static final String DIR_PRUEBAS = "test/pass", DIR_ERRORES = "test/fail"; // Relativos al repositorio
+    private static final String EXT_PROGRAMA = ".tiny", EXT_ENTRADA = ".in";
+
+    private static int comprobaciones = 0, fallos = 0;
+
+    private static void comprueba(boolean correcto, String prueba)
+    {
+        ++comprobaciones;
+        if (!correcto)
+            ++fallos;
+        System.out.printf("%s %s%n", correcto? "OK   ": "FALLO", prueba);
+    }
+
+    private static File[] programas(String dir)
+    {
+        File[] programas = new File(dir).listFiles((d, nombre) -> nombre.endsWith(EXT_PROGRAMA));
+        Arrays.sort(programas);
+        return programas;
+    }
+
+    private static ProgramaCompilado compila(MotorTiny motor, File programa) throws IOException
+    {
+        // Con la codificación por defecto, como el procesador
+        try (FileReader in = new FileReader(programa)) { return motor.compila(in); }
+    }
+
+    /**
+        Ejecuta un programa compilado con la entrada del archivo con el mismo nombre y extensión
+        {@value #EXT_ENTRADA}, si existe, y devuelve su salida.
+    */
+    private static List<String> ejecuta(ProgramaCompilado compilado, File programa, Limites limites) throws IOException
+    {
+        File entrada = new File(programa.getPath().replace(EXT_PROGRAMA, EXT_ENTRADA));
+        byte[] bytes = entrada.exists()? Files.readAllBytes(entrada.toPath()): new byte[0];
+
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        Ejecucion ejecucion = compilado.ejecuta(new ByteArrayInputStream(bytes),
+            new PrintStream(salida, false, StandardCharsets.UTF_8), limites);
+
+        List<String> lineas = new ArrayList<>(salida.toString().lines().toList()); // Como OptimizacionTest
+        if (!ejecucion.correcta()) // El procesador imprime el error con la codificación por defecto
+            lineas.add(new String(ejecucion.error().toString().getBytes()));
+        return lineas;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        Thread.setDefaultUncaughtExceptionHandler(MANEJADOR_EXCEPCION);
+
+        final MotorTiny motor = new MotorTiny(), optimizador = motor.activa(INVARIANTES).activa(MEMORIZACION);
+
+        for (File programa: programas(DIR_PRUEBAS))
+        {
+            // La salida del procesador comienza con la línea en blanco que sigue a las fases
+            List<String> esperada = OptimizacionTest.ejecuta(programa, List.of());
+            esperada = esperada.subList(Math.min(1, esperada.size()), esperada.size());
+
+            for (MotorTiny m: List.of(motor, optimizador))
+            {
+                final ProgramaCompilado compilado = compila(m, programa);
+                final String prueba = programa.getName() + " " + m.optimizaciones();
+                if (!compilado.correcto())
+                {
+                    comprueba(false, prueba + ": " + compilado.diagnosticos());
+                    continue;
+                }
+
+                final List<String> primera = ejecuta(compilado, programa, Limites.POR_DEFECTO);
+                final List<String> segunda = ejecuta(compilado, programa, Limites.POR_DEFECTO);
+                comprueba(!m.optimizaciones().isEmpty() || primera.equals(esperada), prueba + " (procesador)");
+                comprueba(primera.equals(segunda), prueba + " (segunda ejecución)");
+            }
+        }
+
+        for (File programa: programas(DIR_ERRORES))
+        {
+            final ProgramaCompilado compilado = compila(motor, programa);
+            comprueba(!compilado.correcto() && compilado.numInstrucciones() == 0, programa.getName() + ": "
+                + (compilado.diagnosticos().isEmpty()? "sin diagnósticos": compilado.diagnosticos().get(0)));
+        }
+
+        // Una expresión anidada a más profundidad de la que admite la pila es un error, no una excepción
+        final int profundidad = 1 << 20;
+        final ProgramaCompilado anidado = motor.compila(new StringReader("var x: int;\nbegin\n  x = "
+            + "(".repeat(profundidad) + "1" + ")".repeat(profundidad) + ";\nend.\n"));
+        comprueba(!anidado.correcto() && anidado.numInstrucciones() == 0, "expresión anidada: "
+            + (anidado.diagnosticos().isEmpty()? "sin diagnósticos": anidado.diagnosticos().get(0)));
+
+        // Ninguna ejecución de un programa de prueba termina en 10 instrucciones
+        final File programa = programas(DIR_PRUEBAS)[0];
+        final ProgramaCompilado compilado = compila(motor, programa);
+        final List<String> abortada = ejecuta(compilado, programa, new Limites(Limites.POR_DEFECTO.recursion(), 10));
+        comprueba(!abortada.isEmpty() && abortada.get(abortada.size() - 1).contains("10 instrucciones"),
+            programa.getName() + " (límite de instrucciones)");
+
+        System.out.printf("%d comprobaciones, %d fallos%n", comprobaciones, fallos);
+        System.exit(fallos == 0? EXIT_SUCCESS: EXIT_FAILURE);
+    }
+}
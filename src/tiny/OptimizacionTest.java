@@ -0,0 +1,131 @@
+package tiny;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import procesamientos.Procesamiento.OPTIMIZACION;
+
+import static tiny.Ejecutable.*;
+
+/**
+    Banco de pruebas de corrección de las optimizaciones: compila y ejecuta cada programa de prueba sin
+    optimizaciones y con las optimizaciones dadas como argumentos, y comprueba que ambas ejecuciones producen
+    la misma salida. Sin argumentos, lo ejecuta con cada optimización por separado y con todas a la vez.
+
+    <br>Cada programa se ejecuta en un proceso aparte, pues el procesador termina la máquina virtual de Java, y
+    lee su entrada estándar del archivo con el mismo nombre y extensión {@value #EXT_ENTRADA}, si existe. Una
+    ejecución que no termina en {@value #TIEMPO_MAXIMO} segundos se aborta y cuenta como fallo.
+*/
+final class OptimizacionTest
+{
+    private OptimizacionTest() {}
+
+    private static final String DIR_PRUEBAS = "test/pass"; // Relativo al directorio del repositorio
+    private static final String EXT_PROGRAMA = ".tiny", EXT_ENTRADA = ".in";
+    private static final long TIEMPO_MAXIMO = 20; // Segundos
+    private static final int MAX_LINEAS = 1000; // De la salida de una ejecución abortada
+
+    private static final String PREFIJO_FASE = "Procesador en fase";
+    private static final String TIEMPO_AGOTADO = "[TIEMPO AGOTADO]";
+
+    /**
+        Devuelve las combinaciones de optimizaciones que se comprueban sin argumentos: cada una por separado y
+        todas a la vez.
+    */
+    private static List<List<String>> optsPorDefecto()
+    {
+        List<List<String>> combinaciones = new ArrayList<>();
+        List<String> todas = new ArrayList<>();
+        for (OPTIMIZACION opt: OPTIMIZACION.values())
+        {
+            final String nombre = "--" + opt.name().toLowerCase().replace('_', '-');
+            combinaciones.add(List.of(nombre));
+            todas.add(nombre);
+        }
+        combinaciones.add(todas);
+
+        return combinaciones;
+    }
+
+    /**
+        Compila y ejecuta un programa, y devuelve su salida (estándar y de errores) sin las líneas de progreso
+        de las fases del procesador.
+    */
+    static List<String> ejecuta(File programa, List<String> opts) throws IOException, InterruptedException
+    {
+        File codigo = File.createTempFile("tiny", ".code");
+        codigo.deleteOnExit();
+
+        List<String> comando = new ArrayList<>(List.of("java", "-cp", System.getProperty("java.class.path"),
+            Procesador.class.getName(), "desc", programa.getPath(), codigo.getPath()));
+        comando.addAll(opts);
+
+        // La salida va a un archivo para poder abortar las ejecuciones que no terminan
+        File salida = File.createTempFile("tiny", ".out");
+        salida.deleteOnExit();
+        ProcessBuilder pb = new ProcessBuilder(comando).redirectErrorStream(true).redirectOutput(salida);
+
+        File entrada = new File(programa.getPath().replace(EXT_PROGRAMA, EXT_ENTRADA));
+        pb.redirectInput(entrada.exists()? entrada: new File("/dev/null"));
+
+        Process proceso = pb.start();
+        final boolean terminado = proceso.waitFor(TIEMPO_MAXIMO, TimeUnit.SECONDS);
+        if (!terminado)
+            proceso.destroyForcibly().waitFor();
+
+        List<String> lineas;
+        try (Stream<String> texto = new BufferedReader(new FileReader(salida)).lines())
+        {
+            lineas = new ArrayList<>(texto.filter(linea -> !linea.startsWith(PREFIJO_FASE))
+                .limit(terminado? Long.MAX_VALUE: MAX_LINEAS).toList());
+        }
+        if (!terminado)
+            lineas.add(TIEMPO_AGOTADO);
+
+        return lineas;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        Thread.setDefaultUncaughtExceptionHandler(MANEJADOR_EXCEPCION);
+
+        final List<List<String>> combinaciones = (args.length == 0)? optsPorDefecto(): List.of(Arrays.asList(args));
+
+        File[] programas = new File(DIR_PRUEBAS).listFiles((dir, nombre) -> nombre.endsWith(EXT_PROGRAMA));
+        Arrays.sort(programas);
+
+        int fallos = 0;
+        for (File programa: programas)
+        {
+            List<String> esperada = ejecuta(programa, List.of());
+            for (List<String> opts: combinaciones)
+            {
+                List<String> obtenida = ejecuta(programa, opts);
+
+                final boolean correcto = esperada.equals(obtenida);
+                System.out.printf("%s %s %s%n", correcto? "OK   ": "FALLO", programa.getName(), opts);
+
+                if (!correcto)
+                {
+                    ++fallos;
+                    Path diff = Files.createTempFile(programa.getName(), ".out");
+                    Files.write(diff, obtenida);
+                    System.out.printf("      salida obtenida en %s%n", diff);
+                }
+            }
+        }
+
+        System.out.printf("%d programas, %d combinaciones, %d fallos%n", programas.length, combinaciones.size(),
+            fallos);
+        System.exit(fallos == 0? EXIT_SUCCESS: EXIT_FAILURE);
+    }
+}
@@ -4,9 +4,11 @@ import asint.parser;
 import asint.sym;
 import asint.Sintaxis.*;
 import java_cup.runtime.Symbol;
+import maquina.MaquinaVirtual;
+import optimizacion.GrafoFlujo;
 import procesamientos.*;
-import static procesamientos.GeneracionCodigo.maquina;
 import procesamientos.Procesamiento.FASE;
+import procesamientos.Procesamiento.OPTIMIZACION;
 import static procesamientos.Procesamiento.NOMBRE_FASE;
 import static procesamientos.Procesamiento.error;
 
@@ -19,27 +21,52 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
 
 public final class Procesador
 {
-    private static final int NUM_ARGS = 2;
+    static final int NUM_ARGS = 2;
 
-    private static final int NUM_OPT = 1;
+    static final int NUM_OPT = 1;
 
-    private enum OPCION { LEX, SASC, SDESC, ASC, DESC };
+    enum OPCION { LEX, SASC, SDESC, ASC, DESC };
+
+    /**
+        Parámetros del procesador. Los modos servidor y cliente admiten como valor un puerto, que por defecto es
+        {@value Servidor#PUERTO_POR_DEFECTO}.
+    */
+    enum PARAM { CACHE_CIMA, ESTADISTICAS, GRAFO, GRAFO_DOT, GRAFO_SSA, SERVIDOR, CLIENTE };
+
+    static final String PREFIJO_PARAM = "--";
+
+    private static final String SEPARADOR_VALOR = "=";
 
     private static final String DELIM_OPCIONES = "|";
 
     private static final String EXTENSION = ".tiny";
 
-    private static final String FORMATO_AYUDA = "[PARAMS] <opción de procesamiento (%s)> <archivo de extensión '%s'>";
+    private static final String FORMATO_AYUDA =
+        "[PARAMS (%s)] <opción de procesamiento (%s)> <archivo de extensión '%s'>";
 
     private static final String FORMATO_FASE = "Procesador en fase de %s . . .%n";
 
+    static final String FORMATO_ESTADISTICAS = "Instrucciones: %d (programa), %d (ejecutadas)%n";
+
+    private static final String FORMATO_MIRILLA = "Mirilla: %s aplicada %d veces%n";
+
+    private static final String FORMATO_ACCESOS = "Accesos a memoria: %d cargas y %d almacenamientos eliminados%n";
+
+    static final String FORMATO_MEMORIZACION = "Memorización: %d aciertos y %d fallos%n";
+
     private Procesador() {} // No se permite instanciar esta clase
 
-    private static void excepcionParams()
+    static void excepcionParams()
     {
         Object[] optObj =
             Arrays.stream(OPCION.values()).map(opc -> opc.name().toLowerCase()).toArray();
@@ -47,7 +74,70 @@ public final class Procesador
         String[] opt = Arrays.copyOf(optObj, optObj.length, String[].class);
         
         String cadenaOpt = String.join(DELIM_OPCIONES, opt);
-        throw new IllegalArgumentException(String.format(FORMATO_AYUDA, cadenaOpt, EXTENSION));
+        String cadenaParams = String.join(DELIM_OPCIONES,
+            Stream.concat(Arrays.stream(PARAM.values()), Arrays.stream(OPTIMIZACION.values())).map(p -> nombre(p)).toList());
+        throw new IllegalArgumentException(String.format(FORMATO_AYUDA, cadenaParams, cadenaOpt, EXTENSION));
+    }
+
+    static String nombre(Enum<?> param) { return PREFIJO_PARAM + param.name().toLowerCase().replace('_', '-'); }
+
+    /**
+        Interpreta un parámetro de la línea de comandos, que puede ser un parámetro del procesador o bien la
+        activación de una optimización, seguida opcionalmente de {@value #SEPARADOR_VALOR} y de un valor
+        numérico para el parámetro o la optimización.
+
+        @param arg el parámetro, precedido de {@value #PREFIJO_PARAM}
+        @param params parámetros del procesador, con su valor o <code>null</code>, donde se añade
+            <code>arg</code>, si lo es
+        @param opts optimizaciones activas, con su valor o <code>null</code>, donde se añade <code>arg</code>,
+            si lo es
+    */
+    static void param(String arg, Map<PARAM, Integer> params, Map<OPTIMIZACION, Integer> opts)
+    {
+        final int sep = arg.indexOf(SEPARADOR_VALOR);
+        final String nombre = (sep < 0)? arg: arg.substring(0, sep);
+
+        Integer valor = null;
+        if (sep >= 0)
+        {
+            try { valor = Integer.valueOf(arg.substring(sep + 1)); }
+            catch (NumberFormatException e) { excepcionParams(); }
+        }
+
+        for (PARAM param: PARAM.values())
+        {
+            if (nombre(param).equals(nombre))
+            {
+                // Solo los modos servidor y cliente admiten un valor
+                if (valor != null && param != PARAM.SERVIDOR && param != PARAM.CLIENTE)
+                    excepcionParams();
+
+                params.put(param, valor);
+                return;
+            }
+        }
+
+        for (OPTIMIZACION opt: OPTIMIZACION.values())
+        {
+            if (nombre(opt).equals(nombre))
+            {
+                opts.put(opt, valor);
+                return;
+            }
+        }
+
+        excepcionParams();
+    }
+
+    /**
+        Comprueba que un nombre de archivo tiene la extensión de los programas del lenguaje Tiny.
+
+        @param archivo nombre del archivo
+    */
+    static void compruebaExtension(String archivo)
+    {
+        if (!archivo.endsWith(EXTENSION))
+            excepcionParams();
     }
 
     @SuppressWarnings("deprecation")
@@ -55,6 +145,41 @@ public final class Procesador
     {
         Thread.setDefaultUncaughtExceptionHandler(MANEJADOR_EXCEPCION);
 
+        // Separamos los parámetros del resto de argumentos
+        Map<PARAM, Integer> params = new EnumMap<>(PARAM.class);
+        Map<OPTIMIZACION, Integer> opts = new EnumMap<>(OPTIMIZACION.class);
+        List<String> posicionales = new ArrayList<>();
+        for (String arg: args)
+        {
+            if (arg.startsWith(PREFIJO_PARAM))
+                param(arg, params, opts);
+            else
+                posicionales.add(arg);
+        }
+
+        if (params.containsKey(PARAM.SERVIDOR))
+        {
+            Servidor.sirve(Objects.requireNonNullElse(params.get(PARAM.SERVIDOR), Servidor.PUERTO_POR_DEFECTO));
+            return;
+        }
+        if (params.containsKey(PARAM.CLIENTE))
+        {
+            // El cliente reenvía los demás argumentos tal como se han recibido
+            final String cliente = nombre(PARAM.CLIENTE);
+            final int puerto = Objects.requireNonNullElse(params.get(PARAM.CLIENTE), Servidor.PUERTO_POR_DEFECTO);
+
+            System.exit(Servidor.envia(puerto, Arrays.stream(args)
+                .filter(arg -> !arg.equals(cliente) && !arg.startsWith(cliente + SEPARADOR_VALOR)).toList()));
+        }
+
+        opts.forEach((opt, valor) -> {
+            if (valor == null)
+                Procesamiento.activa(opt);
+            else
+                Procesamiento.activa(opt, valor);
+        });
+        args = posicionales.toArray(new String[0]);
+
         final int length = args.length;
         if (length < NUM_ARGS || length > NUM_ARGS + NUM_OPT)
             excepcionParams();
@@ -64,8 +189,7 @@ public final class Procesador
         catch (IllegalArgumentException e) { excepcionParams(); }
 
         String archivo = args[1];
-        if (!archivo.endsWith(EXTENSION))
-            excepcionParams();
+        compruebaExtension(archivo);
         
         Reader in = null;
         try { in = new InputStreamReader(new FileInputStream(archivo)); }
@@ -126,20 +250,8 @@ public final class Procesador
                         break;
                     }
                     break;
-                case VINCULACION:
-                    Vinculacion.vincula(prog);
-                    break;
-                case TIPADO:
-                    Tipado.tipo(prog);
-                    break;
-                case ASIG_MEMORIA:
-                    Asignacion.asignaMemoria(prog);
-                    break;
-                case ETIQUETADO:
-                    Etiquetado.etiqueta(prog);
-                    break;
-                case GEN_CODIGO:
-                    GeneracionCodigo.generaCodigo(prog);
+                default:
+                    prog = Procesamiento.procesa(fases[i], prog);
                 }
             } catch (Exception e) { imprimirExcepcion(e, true); }
 
@@ -149,6 +261,7 @@ public final class Procesador
         
         System.out.println();
 
+        final MaquinaVirtual maquina = GeneracionCodigo.maquina();
         switch (length)
         {
             case NUM_ARGS:
@@ -159,7 +272,35 @@ public final class Procesador
                 maquina.imprimeLista(args[NUM_ARGS]);
         }
         
+        if (params.containsKey(PARAM.GRAFO) || params.containsKey(PARAM.GRAFO_DOT))
+        {
+            GrafoFlujo grafo = new GrafoFlujo(maquina.programa(), Procesamiento.puntosEntrada(prog));
+
+            if (params.containsKey(PARAM.GRAFO))
+                grafo.imprime(System.out);
+            if (params.containsKey(PARAM.GRAFO_DOT))
+                grafo.imprimeDot(System.out);
+            System.out.println();
+        }
+
+        if (params.containsKey(PARAM.GRAFO_SSA) && TraduccionSSA.programa() != null)
+        {
+            TraduccionSSA.programa().imprime(System.out);
+            System.out.println();
+        }
+
+        maquina.cacheaCima(params.containsKey(PARAM.CACHE_CIMA));
         maquina.ejecuta();
+
+        if (params.containsKey(PARAM.ESTADISTICAS))
+        {
+            System.err.printf(FORMATO_ESTADISTICAS, maquina.numInstrucciones(), maquina.numEjecutadas());
+            GeneracionCodigo.mirilla().aciertos().forEach((regla, n) -> System.err.printf(FORMATO_MIRILLA, regla, n));
+            if (TraduccionSSA.programa() != null)
+                System.err.printf(FORMATO_ACCESOS, TraduccionSSA.accesos().cargas(), TraduccionSSA.accesos().almacenamientos());
+            if (maquina.numAciertos() + maquina.numFallos() > 0)
+                System.err.printf(FORMATO_MEMORIZACION, maquina.numAciertos(), maquina.numFallos());
+        }
         System.exit(EXIT_SUCCESS);
     }
 }
\ No newline at end of file
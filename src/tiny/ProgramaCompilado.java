@@ -0,0 +1,163 @@
+package tiny;
+
+import maquina.MaquinaP;
+import maquina.MaquinaVirtual;
+import maquina.MaquinaVirtual.InsMaquina;
+import procesamientos.GeneracionCodigo.Requisitos;
+import tiny.MotorTiny.Diagnostico;
+
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+    Programa compilado por un {@link MotorTiny}: su código para la máquina P y la memoria que requiere, o los
+    diagnósticos de su compilación, si no ha podido compilarse.
+
+    <br>Un programa compilado es inmutable. Cada ejecución carga una copia de su código en una máquina virtual
+    nueva, de modo que puede ejecutarse cualquier número de veces, incluso concurrentemente, sin volver a
+    compilarlo.
+
+    @version Java SE 17
+    @see MotorTiny
+
+    @author Félix Rodolfo Díaz Lorente
+    @author Álvaro Magalló Paz
+    @author Alejandro del Río Caballero
+*/
+public final class ProgramaCompilado
+{
+    /**
+        Límites de los recursos que puede consumir una ejecución.
+
+        @param recursion nivel de anidamiento máximo de las llamadas a procedimientos
+        @param instrucciones número máximo de instrucciones ejecutadas
+    */
+    public static record Limites(int recursion, long instrucciones)
+    {
+        /**
+            Límites de las ejecuciones del procesador: la recursión por defecto de la máquina virtual, sin
+            límite de instrucciones ejecutadas.
+        */
+        public static final Limites POR_DEFECTO = new Limites(MaquinaVirtual.MAX_RECURSION_POR_DEFECTO, Long.MAX_VALUE);
+
+        public Limites
+        {
+            if (recursion <= 0 || instrucciones <= 0)
+                throw new IllegalArgumentException("Los límites de una ejecución deben ser positivos");
+        }
+    }
+
+    /**
+        Resultado de una ejecución de un programa.
+
+        @param instrucciones número de instrucciones ejecutadas
+        @param aciertos consultas a las cachés de resultados de los procedimientos memorizados que han acertado
+        @param fallos consultas a las cachés de resultados que han fallado
+        @param error error que ha abortado la ejecución, o <code>null</code> si ha terminado normalmente
+    */
+    public static record Ejecucion(long instrucciones, long aciertos, long fallos, Throwable error)
+    {
+        /**
+            Indica si la ejecución ha terminado normalmente.
+
+            @return <code>true</code> si solo si ningún error ha abortado la ejecución.
+        */
+        public boolean correcta() { return error == null; }
+    }
+
+    private final InsMaquina[] programa;
+    private final Requisitos requisitos;
+    private final List<Diagnostico> diagnosticos;
+
+    ProgramaCompilado(InsMaquina[] programa, Requisitos requisitos)
+    {
+        this.programa = programa.clone();
+        this.requisitos = requisitos;
+        this.diagnosticos = List.of();
+    }
+
+    ProgramaCompilado(List<Diagnostico> diagnosticos)
+    {
+        this.programa = new InsMaquina[0];
+        this.requisitos = null;
+        this.diagnosticos = List.copyOf(diagnosticos);
+    }
+
+    /**
+        Indica si el programa se ha compilado sin errores.
+
+        @return <code>true</code> si solo si el programa tiene código que puede ejecutarse.
+    */
+    public boolean correcto() { return diagnosticos.isEmpty(); }
+
+    /**
+        Devuelve los errores encontrados al compilar el programa, todos en la misma fase.
+
+        @return Una lista inmodificable de diagnósticos, vacía si el programa se ha compilado correctamente.
+    */
+    public List<Diagnostico> diagnosticos() { return diagnosticos; }
+
+    /**
+        Devuelve el número de instrucciones del código del programa.
+
+        @return El número de instrucciones del programa, o cero si no se ha compilado correctamente.
+    */
+    public int numInstrucciones() { return programa.length; }
+
+    /**
+        Imprime, en orden, las instrucciones del código del programa, como {@link MaquinaVirtual#imprimeLista}.
+
+        @param salida flujo de salida
+    */
+    public void imprimeLista(PrintStream salida)
+    {
+        for (InsMaquina ins: programa)
+        {
+            salida.print(MaquinaVirtual.texto(ins));
+            salida.print(System.lineSeparator());
+        }
+    }
+
+    /**
+        Ejecuta el programa sobre una máquina virtual nueva, que lee su entrada y escribe su salida en los flujos
+        dados. Los errores de ejecución no se imprimen: se devuelven en el resultado.
+
+        @param in flujo de entrada del programa
+        @param out flujo de salida del programa
+        @param limites límites de los recursos que puede consumir la ejecución
+
+        @return El resultado de la ejecución.
+
+        @throws IllegalStateException si el programa no se ha compilado correctamente.
+    */
+    public Ejecucion ejecuta(InputStream in, PrintStream out, Limites limites)
+    {
+        if (!correcto())
+            throw new IllegalStateException("El programa no se ha compilado correctamente");
+
+        MaquinaVirtual maquina = new MaquinaP(requisitos.numRegistros(), requisitos.tamActivacion(),
+            limites.recursion(), requisitos.numDisplays(), programa.length, in, out, out, StandardCharsets.UTF_8);
+        maquina.copiaPrograma(programa);
+
+        Throwable error = null;
+        try { maquina.ejecuta(limites.instrucciones()); }
+        catch (RuntimeException | StackOverflowError e) { error = e; }
+        finally { out.flush(); }
+
+        return new Ejecucion(maquina.numEjecutadas(), maquina.numAciertos(), maquina.numFallos(), error);
+    }
+
+    /**
+        Ejecuta el programa sobre una máquina virtual nueva, con los límites por defecto.
+
+        @param in flujo de entrada del programa
+        @param out flujo de salida del programa
+
+        @return El resultado de la ejecución.
+
+        @see #ejecuta(InputStream, PrintStream, Limites)
+    */
+    public Ejecucion ejecuta(InputStream in, PrintStream out) { return ejecuta(in, out, Limites.POR_DEFECTO); }
+}
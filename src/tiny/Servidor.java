@@ -0,0 +1,488 @@
+package tiny;
+
+import procesamientos.Procesamiento.OPTIMIZACION;
+import tiny.MotorTiny.Diagnostico;
+import tiny.Procesador.OPCION;
+import tiny.Procesador.PARAM;
+import tiny.ProgramaCompilado.Ejecucion;
+import tiny.ProgramaCompilado.Limites;
+
+import static tiny.Ejecutable.EXIT_SUCCESS;
+import static tiny.Ejecutable.EXIT_FAILURE;
+import static tiny.Ejecutable.imprimirExcepcion;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+    Servidor de compilación del procesador del lenguaje Tiny, que permanece en ejecución para compilar y ejecutar
+    programas sin pagar en cada uno el arranque de la máquina virtual de Java, la carga de clases de los
+    analizadores ni la compilación en tiempo de ejecución del propio procesador. Atiende peticiones en un puerto
+    de la interfaz local, cada una con su propio {@link MotorTiny} en uno de {@value #MAX_HILOS} hilos, y el
+    cliente le reenvía los argumentos de la línea de comandos del procesador. Las peticiones que llegan con
+    todos los hilos ocupados esperan su turno, hasta {@value #MAX_PENDIENTES}; las siguientes se rechazan. Cada
+    programa se ejecuta con un límite de {@value #MAX_INSTRUCCIONES} instrucciones, de modo que ninguno ocupa
+    un hilo indefinidamente.
+
+    <br>El protocolo es de líneas en UTF-8. Cada línea contiene el tipo de un mensaje y, tras un espacio, su
+    texto, en el que las barras invertidas, los saltos de línea y los retornos de carro se escapan como en Java.
+    El cliente envía:
+    <ul>
+        <li><code>arg</code> y un argumento, por cada argumento de la línea de comandos;</li>
+        <li><code>fuente</code> y un número <i>n</i>, seguido de las <i>n</i> líneas del programa, sin escapar;</li>
+        <li>la entrada del programa, sin formato, hasta que cierra la conexión en ese sentido.</li>
+    </ul>
+    El servidor responde con los mensajes:
+    <ul>
+        <li><code>lista</code> y una instrucción del código generado, en orden;</li>
+        <li><code>salida</code> y un fragmento de la salida del programa, en cuanto este lo escribe;</li>
+        <li><code>error</code> y una línea de la salida de errores, como un diagnóstico o una estadística;</li>
+        <li><code>tiempo</code>, una etapa de la petición y su duración en milisegundos;</li>
+        <li><code>fin</code> y el código de terminación del procesador, que concluye la respuesta.</li>
+    </ul>
+
+    @version Java SE 17
+    @see Procesador
+    @see MotorTiny
+
+    @author Félix Rodolfo Díaz Lorente
+    @author Álvaro Magalló Paz
+    @author Alejandro del Río Caballero
+*/
+final class Servidor
+{
+    private Servidor() {} // No se permite instanciar esta clase
+
+    static final int PUERTO_POR_DEFECTO = 7272;
+
+    static final int MAX_HILOS = 8, MAX_PENDIENTES = 64;
+
+    static final long MAX_INSTRUCCIONES = 1_000_000_000L;
+
+    private static final Limites LIMITES = new Limites(Limites.POR_DEFECTO.recursion(), MAX_INSTRUCCIONES);
+
+    private enum MENSAJE { ARG, FUENTE, LISTA, SALIDA, ERROR, TIEMPO, FIN };
+
+    private static final String FORMATO_INICIO = "Servidor de compilación en el puerto %d%n";
+
+    private static final String FORMATO_TIEMPO = "Tiempo (%s): %s ms%n";
+
+    private static final String ETAPA_COMPILACION = "compilación", ETAPA_EJECUCION = "ejecución";
+    private static final String ETAPA_TOTAL = "total";
+
+    private static final String SIN_SERVIDOR = "No hay ningún servidor de compilación en el puerto %d";
+
+    private static final String PARAM_NO_ADMITIDO = "El servidor de compilación no admite el parámetro %s";
+
+    private static final String OPCION_NO_ADMITIDA = "El servidor de compilación solo admite la opción %s";
+
+    private static final String PETICION_INCOMPLETA = "Petición incompleta: falta el programa";
+
+    private static final String SERVIDOR_OCUPADO = "Servidor de compilación ocupado: inténtelo más tarde";
+
+    // Funciones auxiliares del protocolo
+
+    private static String escapa(String texto)
+    {
+        return texto.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String desescapa(String texto)
+    {
+        StringBuilder res = new StringBuilder(texto.length());
+        for (int i = 0, n = texto.length(); i < n; ++i)
+        {
+            char c = texto.charAt(i);
+            if (c == '\\' && i + 1 < n)
+            {
+                c = texto.charAt(++i);
+                c = (c == 'n')? '\n': (c == 'r')? '\r': c;
+            }
+            res.append(c);
+        }
+
+        return res.toString();
+    }
+
+    private static String linea(MENSAJE tipo, String texto)
+    {
+        return tipo.name().toLowerCase() + " " + escapa(texto) + "\n";
+    }
+
+    /**
+        Lee una línea de un flujo de bytes sin leer nada más, de modo que el resto del flujo sigue disponible
+        como entrada del programa.
+
+        @return La línea leída, sin el salto de línea, o <code>null</code> si el flujo ha terminado.
+    */
+    private static String lee(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream linea = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n')
+            linea.write(b);
+
+        if (b == -1 && linea.size() == 0)
+            return null;
+        return linea.toString(StandardCharsets.UTF_8).replaceFirst("\r$", "");
+    }
+
+    private static String milisegundos(long inicio)
+    {
+        return String.format(Locale.ROOT, "%.3f", (System.nanoTime() - inicio) / 1e6);
+    }
+
+    /**
+        Respuesta del servidor a una petición, que envía cada mensaje en cuanto se produce.
+    */
+    private static final class Respuesta
+    {
+        private final Writer salida;
+
+        Respuesta(OutputStream salida) { this.salida = new OutputStreamWriter(salida, StandardCharsets.UTF_8); }
+
+        void envia(MENSAJE tipo, String texto) throws IOException
+        {
+            salida.write(linea(tipo, texto));
+            salida.flush();
+        }
+
+        void tiempo(String etapa, long inicio) throws IOException
+        {
+            envia(MENSAJE.TIEMPO, etapa + " " + milisegundos(inicio));
+        }
+
+        /**
+            Flujo de salida del programa, que envía como un mensaje cada fragmento que escribe este. Los bytes se
+            decodifican con un mismo decodificador para toda la respuesta, pues un carácter puede quedar partido
+            entre dos fragmentos: se envía con el segundo.
+        */
+        PrintStream programa()
+        {
+            final CharsetDecoder decodificador = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+            return new PrintStream(new OutputStream()
+            {
+                private ByteBuffer pendiente = ByteBuffer.allocate(0);
+
+                @Override
+                public void write(int b) throws IOException { write(new byte[] { (byte) b }, 0, 1); }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException
+                {
+                    ByteBuffer bytes = ByteBuffer.allocate(pendiente.remaining() + len).put(pendiente).put(b, off, len);
+                    CharBuffer texto = CharBuffer.allocate(bytes.flip().remaining()); // Nunca más caracteres que bytes
+
+                    decodificador.decode(bytes, texto, false);
+                    pendiente = bytes;
+                    if (texto.flip().hasRemaining())
+                        envia(MENSAJE.SALIDA, texto.toString());
+                }
+            }, true, StandardCharsets.UTF_8);
+        }
+    }
+
+    // Servidor
+
+    /**
+        Atiende peticiones de compilación en un puerto de la interfaz local, indefinidamente.
+
+        @param puerto el puerto donde se atienden las peticiones
+    */
+    static void sirve(int puerto)
+    {
+        ExecutorService hilos = new ThreadPoolExecutor(MAX_HILOS, MAX_HILOS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_PENDIENTES));
+        try (ServerSocket servidor = new ServerSocket(puerto, 0, InetAddress.getLoopbackAddress()))
+        {
+            System.out.printf(FORMATO_INICIO, servidor.getLocalPort());
+            while (true)
+            {
+                final Socket conexion = servidor.accept();
+                try { hilos.execute(() -> atiende(conexion)); }
+                catch (RejectedExecutionException e) { rechaza(conexion); }
+            }
+        }
+        catch (IOException e) { imprimirExcepcion(e, true); }
+    }
+
+    private static void rechaza(Socket conexion)
+    {
+        try (conexion)
+        {
+            Respuesta respuesta = new Respuesta(conexion.getOutputStream());
+            respuesta.envia(MENSAJE.ERROR, SERVIDOR_OCUPADO);
+            respuesta.envia(MENSAJE.FIN, Integer.toString(EXIT_FAILURE));
+        }
+        catch (IOException e) { imprimirExcepcion(e, false); } // Solo se pierde esta petición
+    }
+
+    private static void atiende(Socket conexion)
+    {
+        final long inicio = System.nanoTime();
+        try (conexion)
+        {
+            Respuesta respuesta = new Respuesta(conexion.getOutputStream());
+
+            int estado;
+            try { estado = procesa(new BufferedInputStream(conexion.getInputStream()), respuesta); }
+            catch (IllegalArgumentException e)
+            {
+                respuesta.envia(MENSAJE.ERROR, e.getMessage());
+                estado = EXIT_FAILURE;
+            }
+
+            respuesta.tiempo(ETAPA_TOTAL, inicio);
+            respuesta.envia(MENSAJE.FIN, Integer.toString(estado));
+        }
+        catch (IOException e) { imprimirExcepcion(e, false); } // Solo se pierde esta petición
+    }
+
+    /**
+        Lee una petición, compila su programa y lo ejecuta, enviando la respuesta conforme se produce.
+
+        @return El código de terminación del procesador.
+
+        @throws IllegalArgumentException si los argumentos de la petición no son válidos.
+    */
+    private static int procesa(InputStream in, Respuesta respuesta) throws IOException
+    {
+        final String argumento = MENSAJE.ARG.name().toLowerCase() + " ";
+        final String fuente = MENSAJE.FUENTE.name().toLowerCase() + " ";
+
+        Map<PARAM, Integer> params = new EnumMap<>(PARAM.class);
+        Map<OPTIMIZACION, Integer> opts = new EnumMap<>(OPTIMIZACION.class);
+        List<String> posicionales = new ArrayList<>();
+
+        String linea;
+        while ((linea = lee(in)) != null && linea.startsWith(argumento))
+        {
+            final String arg = desescapa(linea.substring(argumento.length()));
+            if (arg.startsWith(Procesador.PREFIJO_PARAM))
+                Procesador.param(arg, params, opts);
+            else
+                posicionales.add(arg);
+        }
+
+        if (linea == null || !linea.startsWith(fuente))
+            throw new IllegalArgumentException(PETICION_INCOMPLETA);
+
+        for (PARAM param: params.keySet())
+        {
+            if (param != PARAM.ESTADISTICAS)
+                throw new IllegalArgumentException(PARAM_NO_ADMITIDO.formatted(Procesador.nombre(param)));
+        }
+
+        if (posicionales.size() < Procesador.NUM_ARGS || posicionales.size() > Procesador.NUM_ARGS + Procesador.NUM_OPT)
+            Procesador.excepcionParams();
+        if (!OPCION.DESC.name().equalsIgnoreCase(posicionales.get(0)))
+            throw new IllegalArgumentException(OPCION_NO_ADMITIDA.formatted(OPCION.DESC.name().toLowerCase()));
+        Procesador.compruebaExtension(posicionales.get(1));
+
+        StringBuilder programa = new StringBuilder();
+        try
+        {
+            for (int i = Integer.parseInt(linea.substring(fuente.length())); i > 0; --i)
+                programa.append(Objects.requireNonNullElse(lee(in), "")).append('\n');
+        }
+        catch (NumberFormatException e) { throw new IllegalArgumentException(PETICION_INCOMPLETA); }
+
+        MotorTiny motor = new MotorTiny();
+        for (Map.Entry<OPTIMIZACION, Integer> opt: opts.entrySet())
+            motor = (opt.getValue() == null)? motor.activa(opt.getKey()): motor.activa(opt.getKey(), opt.getValue());
+
+        // Compilación
+        long inicio = System.nanoTime();
+        final ProgramaCompilado compilado = motor.compila(new StringReader(programa.toString()));
+        respuesta.tiempo(ETAPA_COMPILACION, inicio);
+
+        if (!compilado.correcto())
+        {
+            for (Diagnostico diagnostico: compilado.diagnosticos())
+                respuesta.envia(MENSAJE.ERROR, diagnostico.toString());
+            return EXIT_FAILURE;
+        }
+
+        ByteArrayOutputStream lista = new ByteArrayOutputStream();
+        compilado.imprimeLista(new PrintStream(lista, true, StandardCharsets.UTF_8));
+        for (String ins: lista.toString(StandardCharsets.UTF_8).lines().toList())
+            respuesta.envia(MENSAJE.LISTA, ins);
+
+        // Ejecución, con el resto de la petición como entrada
+        inicio = System.nanoTime();
+        final Ejecucion ejecucion = compilado.ejecuta(in, respuesta.programa(), LIMITES);
+        respuesta.tiempo(ETAPA_EJECUCION, inicio);
+
+        if (!ejecucion.correcta())
+            respuesta.envia(MENSAJE.ERROR, ejecucion.error().toString());
+
+        if (params.containsKey(PARAM.ESTADISTICAS))
+        {
+            respuesta.envia(MENSAJE.ERROR, Procesador.FORMATO_ESTADISTICAS.formatted(compilado.numInstrucciones(),
+                ejecucion.instrucciones()).stripTrailing());
+            if (ejecucion.aciertos() + ejecucion.fallos() > 0)
+            {
+                respuesta.envia(MENSAJE.ERROR, Procesador.FORMATO_MEMORIZACION.formatted(ejecucion.aciertos(),
+                    ejecucion.fallos()).stripTrailing());
+            }
+        }
+
+        return ejecucion.correcta()? EXIT_SUCCESS: EXIT_FAILURE;
+    }
+
+    // Cliente
+
+    /**
+        Reenvía los argumentos de la línea de comandos al servidor de un puerto local, junto con el programa que
+        indican y la entrada estándar, y reproduce su respuesta como lo haría el procesador.
+
+        @param puerto el puerto del servidor
+        @param args los argumentos del procesador, salvo el que activa el modo cliente
+
+        @return El código de terminación del procesador.
+    */
+    static int envia(int puerto, List<String> args)
+    {
+        List<String> posicionales = args.stream().filter(arg -> !arg.startsWith(Procesador.PREFIJO_PARAM)).toList();
+        if (posicionales.size() < Procesador.NUM_ARGS)
+            Procesador.excepcionParams();
+
+        final String archivo = posicionales.get(1);
+        final String codigo = (posicionales.size() > Procesador.NUM_ARGS)? posicionales.get(Procesador.NUM_ARGS): null;
+
+        List<String> fuente = null;
+        try { fuente = new String(Files.readAllBytes(Path.of(archivo))).lines().toList(); } // Como el procesador
+        catch (IOException e) { imprimirExcepcion(e, true); }
+
+        try (Socket conexion = new Socket(InetAddress.getLoopbackAddress(), puerto))
+        {
+            final OutputStream peticion = conexion.getOutputStream();
+
+            StringBuilder cabecera = new StringBuilder();
+            args.forEach(arg -> cabecera.append(linea(MENSAJE.ARG, arg)));
+            cabecera.append(linea(MENSAJE.FUENTE, Integer.toString(fuente.size())));
+            fuente.forEach(l -> cabecera.append(l).append('\n'));
+
+            peticion.write(cabecera.toString().getBytes(StandardCharsets.UTF_8));
+            peticion.flush();
+
+            // La entrada estándar se reenvía mientras el programa se ejecuta
+            Thread entrada = new Thread(() -> {
+                try
+                {
+                    System.in.transferTo(peticion);
+                    conexion.shutdownOutput();
+                } catch (IOException e) {} // El servidor ha cerrado la conexión
+            });
+            entrada.setDaemon(true);
+            entrada.start();
+
+            return recibe(new BufferedReader(new InputStreamReader(conexion.getInputStream(), StandardCharsets.UTF_8)),
+                codigo);
+        }
+        catch (IOException e)
+        {
+            System.err.println(SIN_SERVIDOR.formatted(puerto));
+            return EXIT_FAILURE;
+        }
+    }
+
+    /**
+        Reproduce la respuesta del servidor: el código generado, en el archivo dado o en la salida estándar, la
+        salida del programa, sus errores y los tiempos de cada etapa.
+
+        @return El código de terminación del procesador.
+    */
+    private static int recibe(BufferedReader respuesta, String codigo) throws IOException
+    {
+        PrintStream lista = null;
+        boolean enLista = false;
+
+        try
+        {
+            String linea;
+            while ((linea = respuesta.readLine()) != null)
+            {
+                final int sep = linea.indexOf(' ');
+                final MENSAJE tipo = MENSAJE.valueOf(((sep < 0)? linea: linea.substring(0, sep)).toUpperCase());
+                final String texto = (sep < 0)? "": desescapa(linea.substring(sep + 1));
+
+                // El código generado va precedido de una línea en blanco y, en la salida estándar, también seguido
+                if (tipo == MENSAJE.LISTA && lista == null)
+                {
+                    System.out.println();
+                    lista = (codigo == null)? System.out: new PrintStream(codigo, StandardCharsets.UTF_8);
+                    enLista = true;
+                }
+                else if (tipo != MENSAJE.LISTA && enLista)
+                {
+                    if (codigo == null)
+                        System.out.println();
+                    enLista = false;
+                }
+
+                switch (tipo)
+                {
+                case LISTA:
+                    lista.print(texto);
+                    lista.print(System.lineSeparator());
+                    break;
+                case SALIDA:
+                    System.out.write(texto.getBytes(StandardCharsets.UTF_8));
+                    System.out.flush();
+                    break;
+                case ERROR:
+                    System.err.println(texto);
+                    break;
+                case TIEMPO:
+                    final int etapa = texto.lastIndexOf(' ');
+                    System.err.printf(FORMATO_TIEMPO, texto.substring(0, etapa), texto.substring(etapa + 1));
+                    break;
+                case FIN:
+                    return Integer.parseInt(texto);
+                default:
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            if (lista != null && lista != System.out)
+                lista.close();
+        }
+
+        return EXIT_FAILURE; // El servidor ha cerrado la conexión sin concluir la respuesta
+    }
+}
@@ -0,0 +1,108 @@
+package tiny;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static tiny.Ejecutable.*;
+
+/**
+    Banco de pruebas del servidor de compilación: arranca un servidor en un proceso aparte y ejecuta cada
+    programa de prueba con el procesador y con el cliente, todos los clientes a la vez, comprobando que ambos
+    producen la misma salida estándar y el mismo código.
+
+    <br>Argumentos: el puerto del servidor (por defecto, {@value #PUERTO_POR_DEFECTO}).
+*/
+final class ServidorTest
+{
+    private ServidorTest() {}
+
+    private static final String DIR_PRUEBAS = "test/pass"; // Relativo al directorio del repositorio
+    private static final String EXT_PROGRAMA = ".tiny", EXT_ENTRADA = ".in";
+    private static final String PREFIJO_FASE = "Procesador en fase";
+
+    private static final int PUERTO_POR_DEFECTO = Servidor.PUERTO_POR_DEFECTO + 1;
+
+    private static List<String> comando(String... args)
+    {
+        List<String> comando = new ArrayList<>(List.of("java", "-cp", System.getProperty("java.class.path"),
+            Procesador.class.getName()));
+        comando.addAll(Arrays.asList(args));
+        return comando;
+    }
+
+    /**
+        Ejecuta el procesador con los argumentos dados y la entrada del programa, y devuelve su salida estándar
+        sin las líneas de progreso de las fases, seguida del código generado.
+    */
+    private static List<String> ejecuta(File programa, String... args) throws IOException, InterruptedException
+    {
+        File codigo = File.createTempFile("tiny", ".code");
+        codigo.deleteOnExit();
+
+        List<String> argumentos = new ArrayList<>(Arrays.asList(args));
+        argumentos.addAll(List.of("desc", programa.getPath(), codigo.getPath()));
+
+        ProcessBuilder pb = new ProcessBuilder(comando(argumentos.toArray(new String[0])))
+            .redirectError(ProcessBuilder.Redirect.DISCARD);
+
+        File entrada = new File(programa.getPath().replace(EXT_PROGRAMA, EXT_ENTRADA));
+        pb.redirectInput(entrada.exists()? entrada: new File("/dev/null"));
+
+        Process proceso = pb.start();
+        List<String> salida = new ArrayList<>(new String(proceso.getInputStream().readAllBytes()).lines()
+            .filter(linea -> !linea.startsWith(PREFIJO_FASE)).toList());
+        proceso.waitFor();
+
+        salida.addAll(Files.readAllLines(codigo.toPath()));
+        return salida;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Thread.setDefaultUncaughtExceptionHandler(MANEJADOR_EXCEPCION);
+
+        final int puerto = (args.length > 0)? Integer.parseInt(args[0]): PUERTO_POR_DEFECTO;
+        final String cliente = "--cliente=" + puerto;
+
+        File[] programas = new File(DIR_PRUEBAS).listFiles((dir, nombre) -> nombre.endsWith(EXT_PROGRAMA));
+        Arrays.sort(programas);
+
+        Process servidor = new ProcessBuilder(comando("--servidor=" + puerto)).redirectErrorStream(true).start();
+        ExecutorService hilos = Executors.newFixedThreadPool(programas.length);
+        int fallos = 0;
+        try
+        {
+            // El servidor está listo cuando anuncia su puerto
+            System.out.println(new BufferedReader(new InputStreamReader(servidor.getInputStream())).readLine());
+
+            List<Future<List<String>>> obtenidas = new ArrayList<>();
+            for (File programa: programas)
+                obtenidas.add(hilos.submit(() -> ejecuta(programa, cliente)));
+
+            for (int i = 0; i < programas.length; ++i)
+            {
+                final boolean correcto = ejecuta(programas[i]).equals(obtenidas.get(i).get());
+                System.out.printf("%s %s%n", correcto? "OK   ": "FALLO", programas[i].getName());
+                if (!correcto)
+                    ++fallos;
+            }
+        }
+        finally
+        {
+            hilos.shutdown();
+            servidor.destroy();
+        }
+
+        System.out.printf("%d programas, %d fallos%n", programas.length, fallos);
+        System.exit(fallos == 0? EXIT_SUCCESS: EXIT_FAILURE);
+    }
+}